@@ -0,0 +1,431 @@
+package minesweeper.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmark suite of the board, reveal and protocol hot paths, run the same way on every build so their
+ * results can be compared: each benchmark is warmed up, then measured over several iterations, and
+ * reported with the mean and standard deviation of its iterations.
+ *
+ * Usage: BenchmarkSuite [--sizes S,S...] [--threads N] [--board KIND] [--filter REGEX] [--warmup N]
+ *                       [--iterations N] [--time MS] [--out FILE] [--baseline FILE] [--tolerance PERCENT]
+ *
+ * e.g. "BenchmarkSuite --out new.csv --baseline old.csv", with a heap large enough for the biggest board.
+ *
+ * For every board size S x S (10, 100, 1000 and 5000 by default) of board KIND ("simple" by default):
+ *
+ *   construct        ops/s   a board with random bombs
+ *   getBoardState    ops/s   a one-cell change, then a render of the whole board
+ *   changeCellState  ops/s   a flag or unflag of a random cell with changeCellState()
+ *   revealCell       ms/op   revealCell() on every cell of a fresh board, sparse (1% bombs) or dense (20%)
+ *   handleRequest    ops/s   a "flag X Y" or "deflag X Y" request to a session in delta mode
+ *
+ * getBoardState, changeCellState and handleRequest also run contended: N threads (4 by default) on the
+ * same board. Throughput benchmarks call their operation in a loop for MS milliseconds (500 by default)
+ * per iteration, WARMUP (3) iterations then ITERATIONS (5) measured ones; revealCell boards are set up
+ * outside the measured time.
+ *
+ * --out FILE writes the results as CSV. --baseline FILE compares them to the results of an earlier run
+ * written with --out, and reports REGRESSION for a benchmark slower by more than PERCENT (10 by default)
+ * plus the deviation of both runs; the exit status is 1 if any is.
+ */
+public class BenchmarkSuite {
+    private static final int THROUGHPUT = 0, SINGLE_SHOT = 1;
+    private static final String[] UNITS = { "ops/s", "ms/op" };
+    private static final int SHOT_CELLS = 1000000; // cells of boards revealed per single-shot iteration
+
+    private static volatile int sink; // results of the operations, so the JIT cannot drop them
+
+    /**
+     * One benchmark at one board size and number of threads.
+     */
+    private static abstract class Case {
+        final String name;
+        final int size, threads, mode;
+
+        Case(String name, int size, int threads, int mode) {
+            this.name = name;
+            this.size = size;
+            this.threads = threads;
+            this.mode = mode;
+        }
+
+        /**
+         * Prepare the case before its first iteration; its boards are only made then, so one case's
+         * boards are in memory at a time.
+         */
+        void setUpTrial() {
+        }
+
+        /**
+         * Drop what setUpTrial() made.
+         */
+        void tearDownTrial() {
+        }
+
+        /**
+         * Prepare the next iteration, outside the measured time.
+         */
+        void setUp() {
+        }
+
+        /**
+         * Run operation i of a thread; a single-shot case runs its whole iteration as operation 0.
+         * @return anything depending on the work done
+         */
+        abstract int run(int thread, int i);
+
+        /**
+         * @return number of operations a single-shot iteration runs
+         */
+        int shotOperations() {
+            return 1;
+        }
+
+        String key() {
+            return name + "," + size + "," + threads;
+        }
+    }
+
+    /**
+     * Result of a case: score in UNITS[mode], and standard deviation of its iterations.
+     */
+    private static final class Result {
+        final String key;
+        final int mode;
+        final double score, error;
+
+        Result(String key, int mode, double score, double error) {
+            this.key = key;
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Validation.setLevel(Validation.OFF); // the boards of a server in production mode
+        ServerMetrics.global().setEnabled(false); // measured by MetricsBenchmark
+        int[] sizes = { 10, 100, 1000, 5000 };
+        int threads = 4, warmup = 3, iterations = 5, tolerance = 10;
+        long millis = 500;
+        String kind = "simple";
+        Pattern filter = Pattern.compile(".*");
+        File out = null, baseline = null;
+        for (int i = 0; i < args.length; i += 2) {
+            String flag = args[i], value = args[i + 1];
+            if (flag.equals("--sizes")) {
+                String[] parts = value.split(",");
+                sizes = new int[parts.length];
+                for (int j = 0; j < parts.length; j++) sizes[j] = Integer.parseInt(parts[j]);
+            } else if (flag.equals("--threads")) {
+                threads = Integer.parseInt(value);
+            } else if (flag.equals("--board")) {
+                kind = value;
+            } else if (flag.equals("--filter")) {
+                filter = Pattern.compile(value);
+            } else if (flag.equals("--warmup")) {
+                warmup = Integer.parseInt(value);
+            } else if (flag.equals("--iterations")) {
+                iterations = Integer.parseInt(value);
+            } else if (flag.equals("--time")) {
+                millis = Long.parseLong(value);
+            } else if (flag.equals("--out")) {
+                out = new File(value);
+            } else if (flag.equals("--baseline")) {
+                baseline = new File(value);
+            } else if (flag.equals("--tolerance")) {
+                tolerance = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("unknown flag " + flag);
+            }
+        }
+
+        List<Case> cases = new ArrayList<Case>();
+        for (int size : sizes) {
+            cases.add(construct(kind, size));
+            for (int t : new int[] { 1, threads }) {
+                cases.add(boardState(kind, size, t));
+                cases.add(changeCellState(kind, size, t));
+            }
+            cases.add(reveal(kind, size, "sparse", 0.01));
+            cases.add(reveal(kind, size, "dense", 0.2));
+            cases.add(handleRequest(kind, size, 1));
+            cases.add(handleRequest(kind, size, threads));
+        }
+
+        System.out.printf("%s boards, %d cores, %d warmup + %d iterations of %d ms%n", kind,
+                Runtime.getRuntime().availableProcessors(), warmup, iterations, millis);
+        System.out.printf("%-24s %6s %8s %16s %12s %6s%n", "benchmark", "size", "threads", "score", "error", "units");
+        List<Result> results = new ArrayList<Result>();
+        for (Case c : cases) {
+            if (!filter.matcher(c.name).find()) continue;
+            Result result = measure(c, warmup, iterations, millis);
+            results.add(result);
+            System.out.printf("%-24s %6d %8d %16.3f %12.3f %6s%n", c.name, c.size, c.threads, result.score,
+                    result.error, UNITS[c.mode]);
+        }
+        if (out != null) write(results, out);
+        if (baseline != null && compare(results, read(baseline), tolerance / 100.0)) System.exit(1);
+    }
+
+    private static Board board(String kind, int size, BitSet bombs) {
+        if (bombs == null) return MinesweeperServer.newBoard(kind, size, size, Integer.MAX_VALUE);
+        if (kind.equals("packed")) return new PackedBoard(size, size, bombs);
+        if (kind.equals("striped")) return new StripedBoard(size, size, bombs);
+        if (kind.equals("atomic")) return new AtomicBoard(size, size, bombs);
+        if (kind.equals("snapshot")) return new SnapshotBoard(size, size, bombs);
+        return new SimpleBoard(size, size, bombs);
+    }
+
+    private static BitSet bombs(int size, double density, long seed) {
+        Random random = new Random(seed);
+        BitSet bombs = new BitSet(size * size);
+        for (int cell = 0; cell < size * size; cell++) {
+            if (random.nextDouble() < density) bombs.set(cell);
+        }
+        return bombs;
+    }
+
+    private static Case construct(final String kind, final int size) {
+        return new Case("construct", size, 1, THROUGHPUT) {
+            int run(int thread, int i) {
+                return board(kind, size, null).getBoardSize()[0];
+            }
+        };
+    }
+
+    private static Case boardState(final String kind, final int size, int threads) {
+        return new Case("getBoardState", size, threads, THROUGHPUT) {
+            Board board;
+
+            void setUpTrial() {
+                board = board(kind, size, new BitSet());
+            }
+
+            void tearDownTrial() {
+                board = null;
+            }
+
+            int run(int thread, int i) {
+                int x = (i * 7 + thread) % size, y = (i * 13) % size;
+                if (!board.flagIfUntouched(x, y)) board.deflagIfFlagged(x, y); // the render is not cached
+                return board.getBoardState().length();
+            }
+        };
+    }
+
+    private static Case changeCellState(final String kind, final int size, int threads) {
+        return new Case("changeCellState", size, threads, THROUGHPUT) {
+            Board board;
+
+            void setUpTrial() {
+                board = board(kind, size, new BitSet());
+            }
+
+            void tearDownTrial() {
+                board = null;
+            }
+
+            int run(int thread, int i) {
+                int x = (i * 7 + thread) % size, y = (i * 13) % size;
+                return board.changeCellState(x, y, i % 2 == 0 ? 'F' : '_') ? 1 : 0;
+            }
+        };
+    }
+
+    private static Case reveal(final String kind, final int size, String layout, final double density) {
+        final int boards = Math.max(1, SHOT_CELLS / (size * size));
+        final Board[] fresh = new Board[boards];
+        return new Case("revealCell-" + layout, size, 1, SINGLE_SHOT) {
+            BitSet bombs;
+
+            void setUpTrial() {
+                bombs = bombs(size, density, size); // the same layout in every run
+            }
+
+            void tearDownTrial() {
+                bombs = null;
+                for (int b = 0; b < boards; b++) fresh[b] = null;
+            }
+
+            void setUp() {
+                for (int b = 0; b < boards; b++) {
+                    fresh[b] = null;
+                    fresh[b] = board(kind, size, bombs);
+                }
+            }
+
+            int run(int thread, int i) {
+                int cells = 0;
+                for (Board board : fresh) {
+                    for (int y = 0; y < size; y++) {
+                        for (int x = 0; x < size; x++) cells += board.revealCell(x, y).length;
+                    }
+                }
+                return cells;
+            }
+
+            int shotOperations() {
+                return boards;
+            }
+        };
+    }
+
+    private static Case handleRequest(final String kind, final int size, final int threads) {
+        final MinesweeperSession[] sessions = new MinesweeperSession[threads];
+        final String[][] requests = new String[threads][1024];
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            for (int i = 0; i < requests[t].length; i += 2) {
+                String cell = random.nextInt(size) + " " + random.nextInt(size);
+                requests[t][i] = "flag " + cell;
+                requests[t][i + 1] = "deflag " + cell;
+            }
+        }
+        return new Case("handleRequest", size, threads, THROUGHPUT) {
+            void setUpTrial() {
+                Board board = board(kind, size, new BitSet());
+                for (int t = 0; t < threads; t++) {
+                    sessions[t] = new MinesweeperSession(board);
+                    sessions[t].handleRequest("delta on"); // answers of one cell, whatever the board size
+                }
+            }
+
+            void tearDownTrial() {
+                for (int t = 0; t < threads; t++) sessions[t] = null;
+            }
+
+            int run(int thread, int i) {
+                return sessions[thread].handleRequest(requests[thread][i & 1023]).length();
+            }
+        };
+    }
+
+    /**
+     * Run the warmup and measured iterations of a case.
+     */
+    private static Result measure(Case c, int warmup, int iterations, long millis) throws InterruptedException {
+        double[] scores = new double[iterations];
+        c.setUpTrial();
+        for (int i = -warmup; i < iterations; i++) {
+            c.setUp();
+            double score = c.mode == THROUGHPUT ? throughput(c, millis) : singleShot(c);
+            if (i >= 0) scores[i] = score;
+        }
+        c.tearDownTrial();
+        double mean = 0, variance = 0;
+        for (double score : scores) mean += score / iterations;
+        for (double score : scores) variance += (score - mean) * (score - mean) / Math.max(1, iterations - 1);
+        return new Result(c.key(), c.mode, mean, Math.sqrt(variance));
+    }
+
+    /**
+     * @return operations per second of all threads of c in one iteration of millis milliseconds; an
+     *         operation in progress at the end is counted, over the time it took
+     */
+    private static double throughput(final Case c, long millis) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] operations = new long[c.threads];
+        final long[] ends = new long[c.threads];
+        final long[] deadline = new long[1];
+        Thread[] workers = new Thread[c.threads];
+        for (int t = 0; t < c.threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long end = deadline[0];
+                    int result = 0, i = 0;
+                    long now;
+                    do {
+                        result += c.run(thread, i++);
+                    } while ((now = System.nanoTime()) < end);
+                    operations[thread] = i;
+                    ends[thread] = now;
+                    sink += result;
+                }
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1000000; // written before countDown(), read after await()
+        start.countDown();
+        long total = 0, last = begin;
+        for (int t = 0; t < c.threads; t++) {
+            workers[t].join();
+            total += operations[t];
+            last = Math.max(last, ends[t]);
+        }
+        return total / ((last - begin) / 1e9);
+    }
+
+    /**
+     * @return milliseconds per operation of one single-shot run of c
+     */
+    private static double singleShot(Case c) {
+        long begin = System.nanoTime();
+        sink += c.run(0, 0);
+        return (System.nanoTime() - begin) / 1e6 / c.shotOperations();
+    }
+
+    private static void write(List<Result> results, File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("benchmark,size,threads,mode,score,error");
+            for (Result result : results) {
+                out.println(result.key + "," + UNITS[result.mode] + "," + result.score + "," + result.error);
+            }
+        }
+    }
+
+    private static Map<String, Result> read(File file) throws IOException {
+        Map<String, Result> results = new HashMap<String, Result>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            in.readLine(); // header
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String[] fields = line.split(",");
+                String key = fields[0] + "," + fields[1] + "," + fields[2];
+                int mode = fields[3].equals(UNITS[SINGLE_SHOT]) ? SINGLE_SHOT : THROUGHPUT;
+                results.put(key, new Result(key, mode, Double.parseDouble(fields[4]), Double.parseDouble(fields[5])));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Print the change of every result from its baseline.
+     * @return true if any benchmark regressed beyond tolerance plus the deviations of both runs
+     */
+    private static boolean compare(List<Result> results, Map<String, Result> baseline, double tolerance) {
+        System.out.printf("%n%-40s %16s %16s %9s%n", "benchmark,size,threads", "baseline", "score", "change");
+        boolean regressed = false;
+        for (Result result : results) {
+            Result base = baseline.get(result.key);
+            if (base == null || base.score == 0) continue;
+            double change = result.score / base.score - 1; // > 0 is faster in ops/s, slower in ms/op
+            double slower = result.mode == THROUGHPUT ? -change : change;
+            double noise = (result.error + base.error) / base.score;
+            boolean regression = slower > tolerance + noise;
+            regressed |= regression;
+            System.out.printf("%-40s %16.3f %16.3f %+8.1f%% %s%n", result.key, base.score, result.score, 100 * change,
+                    regression ? "REGRESSION" : "");
+        }
+        return regressed;
+    }
+}
@@ -0,0 +1,106 @@
+package minesweeper.server;
+
+import java.util.Random;
+
+/**
+ * Memory and throughput comparison of Board implementations.
+ *
+ * Usage: BoardBenchmark [SIZE ...]    e.g. "BoardBenchmark 1000 10000", run with a heap large enough
+ * for the biggest SimpleBoard (about 1 GB for 10000x10000).
+ *
+ * For every size and implementation reports the heap retained by a fresh board, the construction time,
+ * getCellState() and changeCellState() throughput on random cells, the time of a full getBoardState()
+ * render and the average time of a 'look' right after a one-cell change.
+ */
+public class BoardBenchmark {
+
+    private interface Factory {
+        Board create(int size);
+    }
+
+    private static final int READS = 10000000;
+
+    public static void main(String[] args) {
+        Validation.setLevel(Validation.OFF); // the boards of a server in production mode
+        int[] sizes = {1000, 10000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+        }
+        Factory simple = new Factory() {
+            public Board create(int size) { return new SimpleBoard(size, size, Integer.MAX_VALUE); }
+        };
+        Factory packed = new Factory() {
+            public Board create(int size) { return new PackedBoard(size, size, Integer.MAX_VALUE); }
+        };
+        Factory snapshot = new Factory() {
+            public Board create(int size) { return new SnapshotBoard(size, size, Integer.MAX_VALUE); }
+        };
+        System.out.printf("%-13s %6s %12s %12s %14s %14s %12s %12s%n",
+                "board", "size", "heap MB", "create ms", "reads/s", "changes/s", "render ms", "look ms");
+        for (int size : sizes) {
+            run("SimpleBoard", simple, size);
+            run("PackedBoard", packed, size);
+            run("SnapshotBoard", snapshot, size);
+        }
+    }
+
+    private static void run(String name, Factory factory, int size) {
+        long before = usedHeap();
+        long start = System.nanoTime();
+        Board board;
+        try {
+            board = factory.create(size);
+        } catch (OutOfMemoryError e) {
+            System.out.printf("%-13s %6d out of memory%n", name, size);
+            return;
+        }
+        long createNanos = System.nanoTime() - start;
+        long heap = usedHeap() - before;
+
+        Random random = new Random(42);
+        int sink = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            sink += board.getCellState(random.nextInt(size), random.nextInt(size));
+        }
+        double readsPerSec = READS / ((System.nanoTime() - start) / 1e9);
+
+        // SimpleBoard rescans the whole board on every change, so bound the changes by time
+        int changes = 0;
+        start = System.nanoTime();
+        long deadline = start + 2000000000L;
+        while (changes < READS && System.nanoTime() < deadline) {
+            int x = random.nextInt(size), y = random.nextInt(size);
+            if (board.getCellState(x, y) == '_') board.changeCellState(x, y, 'F');
+            else if (board.getCellState(x, y) == 'F') board.changeCellState(x, y, '_');
+            changes++;
+        }
+        double changesPerSec = changes / ((System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        sink += board.getBoardState().length();
+        double renderMillis = (System.nanoTime() - start) / 1e6;
+
+        int looks = 0;
+        start = System.nanoTime();
+        deadline = start + 2000000000L;
+        while (looks < 1000 && System.nanoTime() < deadline) {
+            int x = random.nextInt(size), y = random.nextInt(size);
+            board.changeCellState(x, y, board.getCellState(x, y) == 'F' ? '_' : 'F');
+            sink += board.getBoardState().length();
+            looks++;
+        }
+        double lookMillis = (System.nanoTime() - start) / 1e6 / looks;
+
+        System.out.printf("%-13s %6d %12.1f %12.1f %14.0f %14.0f %12.1f %12.3f%n", name, size,
+                heap / 1e6, createNanos / 1e6, readsPerSec, changesPerSec, renderMillis, lookMillis);
+        if (sink == 42) System.out.println(); // keep the reads alive
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,40 @@
+package minesweeper.server;
+
+/**
+ * Bytes and time of the answer to a mutating command, with whole-board answers and in delta mode.
+ *
+ * Usage: DeltaBenchmark [SIZE [COMMANDS]]    e.g. "DeltaBenchmark 1000 2000"
+ *
+ * A session on a SIZE x SIZE PackedBoard sends COMMANDS alternating "flag x y" and "deflag x y" on one
+ * cell, first in the default mode, then after "delta on". Reports the average answer length and the
+ * average time to compute it, which is what a client waits for before the answer is on the wire.
+ */
+public class DeltaBenchmark {
+
+    public static void main(String[] args) {
+        Validation.setLevel(Validation.OFF); // the boards of a server in production mode
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int commands = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        System.out.printf("%dx%d board, %d commands%n", size, size, commands);
+        System.out.printf("%-8s %14s %14s%n", "mode", "bytes/answer", "us/answer");
+        run("full", size, commands);
+        run("delta", size, commands);
+    }
+
+    private static void run(String mode, int size, int commands) {
+        MinesweeperSession session = new MinesweeperSession(new PackedBoard(size, size, 0));
+        if (mode.equals("delta")) session.handleRequest("delta on");
+        for (int i = 0; i < commands; i++) answer(session, i); // warm up
+
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < commands; i++) bytes += answer(session, i).length();
+        double us = (System.nanoTime() - start) / 1e3 / commands;
+        System.out.printf("%-8s %14d %14.1f%n", mode, bytes / commands, us);
+    }
+
+    private static String answer(MinesweeperSession session, int i) {
+        return session.handleRequest((i % 2 == 0 ? "flag" : "deflag") + " 7 7");
+    }
+}
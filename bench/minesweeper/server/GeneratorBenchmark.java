@@ -0,0 +1,47 @@
+package minesweeper.server;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Time to place the bombs of a random SIZE x SIZE board with BoardGenerator, at the default density and
+ * with an exact count, in one thread and on pools of 2, 4... threads up to the number of cores; and, for
+ * comparison, with one Math.random() call per cell as the boards' own constructors do.
+ *
+ * Usage: GeneratorBenchmark [SIZE]    e.g. "GeneratorBenchmark 20000"
+ */
+public class GeneratorBenchmark {
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int count = (int) ((long) size * size / 4);
+
+        System.out.printf("%dx%d board, %d cores%n", size, size, cores);
+        System.out.printf("%-12s %10s %12s %12s%n", "threads", "bombs", "density ms", "count ms");
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            ForkJoinPool pool = threads == 1 ? null : new ForkJoinPool(threads);
+            long density = Long.MAX_VALUE, exact = Long.MAX_VALUE;
+            int bombs = 0;
+            for (int run = 0; run < RUNS; run++) { // the best run, the first ones warm up
+                long start = System.nanoTime();
+                bombs = BoardGenerator.withDensity(size, size, BoardGenerator.DEFAULT_DENSITY, run, pool).cardinality();
+                long middle = System.nanoTime();
+                BoardGenerator.withCount(size, size, count, run, pool);
+                long end = System.nanoTime();
+                density = Math.min(density, middle - start);
+                exact = Math.min(exact, end - middle);
+            }
+            System.out.printf("%-12d %10d %12.1f %12.1f%n", threads, bombs, density / 1e6, exact / 1e6);
+            if (pool != null) pool.shutdown();
+        }
+
+        long start = System.nanoTime();
+        BitSet bombs = new BitSet(size * size);
+        for (int cell = 0; cell < size * size; cell++) {
+            if (Math.random() <= 0.25) bombs.set(cell);
+        }
+        System.out.printf("%-12s %10d %12.1f%n", "Math.random", bombs.cardinality(), (System.nanoTime() - start) / 1e6);
+    }
+}
@@ -0,0 +1,69 @@
+package minesweeper.server;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Time to load a board file of SIZE x SIZE cells, a quarter of them bombs: parsing it with BoardFile,
+ * then building a Board of the given kind from it; and to save that board with SnapshotFile and restore
+ * it.
+ *
+ * Usage: LoadBenchmark [SIZE [KIND]]    e.g. "LoadBenchmark 10000 packed"
+ */
+public class LoadBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        Validation.setLevel(Validation.OFF); // the boards of a server in production mode
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        String kind = args.length > 1 ? args[1] : "packed";
+
+        File file = File.createTempFile("board", ".txt");
+        file.deleteOnExit();
+        Random random = new Random(42);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            out.write((size + " " + size + "\n").getBytes("US-ASCII"));
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    out.write(random.nextInt(4) == 0 ? '1' : '0');
+                    out.write(x < size - 1 ? ' ' : '\n');
+                }
+            }
+        }
+
+        System.out.printf("%dx%d board, %d MB file, %s%n", size, size, file.length() >> 20, kind);
+        long start = System.nanoTime();
+        BoardFile loaded = BoardFile.read(file);
+        long parsed = System.nanoTime();
+        Board board = kind.equals("simple") ? new SimpleBoard(loaded.rows, loaded.cols, loaded.bombs)
+                : kind.equals("striped") ? new StripedBoard(loaded.rows, loaded.cols, loaded.bombs)
+                : kind.equals("atomic") ? new AtomicBoard(loaded.rows, loaded.cols, loaded.bombs)
+                : kind.equals("snapshot") ? new SnapshotBoard(loaded.rows, loaded.cols, loaded.bombs)
+                : new PackedBoard(loaded.rows, loaded.cols, loaded.bombs);
+        long built = System.nanoTime();
+        System.out.printf("text:     parse %.2f s, build %.2f s, %d bombs%n", (parsed - start) / 1e9,
+                (built - parsed) / 1e9, loaded.bombs.cardinality());
+        loaded = null;
+
+        File saved = File.createTempFile("board", ".bin");
+        saved.deleteOnExit();
+        start = System.nanoTime();
+        SnapshotFile.save(board, saved);
+        long written = System.nanoTime();
+        board = null; // room for the restored one
+        SnapshotFile read = SnapshotFile.read(saved);
+        parsed = System.nanoTime();
+        board = kind.equals("simple") ? new SimpleBoard(read.rows, read.cols, read.cells, read.version)
+                : kind.equals("striped") ? new StripedBoard(read.rows, read.cols, read.cells, read.version)
+                : kind.equals("atomic") ? new AtomicBoard(read.rows, read.cols, read.cells, read.version)
+                : kind.equals("snapshot") ? new SnapshotBoard(read.rows, read.cols, read.cells, read.version)
+                : new PackedBoard(read.rows, read.cols, read.cells, read.version);
+        built = System.nanoTime();
+        System.out.printf("snapshot: save %.2f s (%d MB), read %.2f s, build %.2f s%n", (written - start) / 1e9,
+                saved.length() >> 20, (parsed - written) / 1e9, (built - parsed) / 1e9);
+        if (board.getVersion() == 42) System.out.println(); // keep the board alive
+    }
+}
@@ -0,0 +1,333 @@
+package minesweeper.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Closed-loop load generator: BOTS player bots, each on its own socket session, play the text protocol
+ * against a MinesweeperServer for SECONDS seconds. A bot sends a request, waits for its whole answer,
+ * thinks, and sends the next one, so the load follows the server's speed as real players' does. Reports
+ * the throughput and the p50, p99 and p999 latency of each command, then the server's 'stats'.
+ *
+ * Usage: LoadGenerator [--host HOST --port PORT] [--bots BOTS] [--seconds SECONDS] [--warmup SECONDS]
+ *                      [--think MS] [--mix LOOK,DIG,FLAG,DEFLAG] [--session REQUESTS] [--new COLSxROWS]
+ *                      [--seed SEED] [--server MODE] [--board KIND] [--size SIZE]
+ *
+ * e.g. "LoadGenerator --bots 200 --seconds 30 --think 50 --mix 40,30,20,10"
+ *
+ * Without --port, a server is started in this process on a free loopback port, in debug mode so BOOM
+ * does not disconnect, with no validation, the MODE ("thread" by default) and board KIND ("simple") given,
+ * on a random SIZE x SIZE board (100). Otherwise the bots connect to HOST (localhost) at PORT.
+ *
+ * Each bot:
+ *   - connects and reads the greeting, timed as "connect"; with --new, makes its own game with
+ *     "new COLS ROWS" first, which needs a server with games;
+ *   - sends 'look', 'dig', 'flag' or 'deflag' with the weights of the mix (40,30,20,10 by default),
+ *     digging and flagging untouched cells and deflagging flagged ones of the last board it was sent;
+ *   - thinks for a random time, exponentially distributed with a mean of MS milliseconds (0 by default);
+ *   - after REQUESTS requests (100 by default) says 'bye', timed until the server closes the
+ *     connection, and connects again. A server closing the connection after BOOM is reconnected too.
+ *
+ * Bot i draws its commands, cells and think times from a Random seeded with SEED (42) and i, so a run
+ * with the same arguments sends the same load; the answers depend on how the bots interleave.
+ * Latencies of the first WARMUP seconds (5) are not counted.
+ */
+public class LoadGenerator {
+    private static final String[] COMMANDS = { "look", "dig", "flag", "deflag", "bye", "connect" };
+    private static final int LOOK = 0, DIG = 1, FLAG = 2, DEFLAG = 3, BYE = 4, CONNECT = 5;
+    private static final Pattern GREETING = Pattern.compile("Board: (\\d+) columns by (\\d+) rows");
+
+    private static String host = "localhost";
+    private static int port = -1;
+    private static int thinkMillis = 0, sessionLength = 100;
+    private static int[] mix = { 40, 30, 20, 10 };
+    private static String newGame = null; // "COLS ROWS" of the game each session makes, or null
+    private static volatile long measureFrom, deadline; // System.nanoTime() of the end of the warmup and of the run
+
+    private static final Histogram[] latencies = new Histogram[COMMANDS.length]; // nanoseconds, by command
+    private static final AtomicInteger reconnects = new AtomicInteger(); // connections closed after BOOM
+
+    public static void main(String[] args) throws Exception {
+        int bots = 100, seconds = 30, warmup = 5, size = 100;
+        long seed = 42;
+        ServerConfig config = new ServerConfig();
+        config.validation = "off"; // the boards of a server in production mode
+        for (int i = 0; i < args.length; i += 2) {
+            String flag = args[i], value = args[i + 1];
+            if (flag.equals("--host")) {
+                host = value;
+            } else if (flag.equals("--port")) {
+                port = Integer.parseInt(value);
+            } else if (flag.equals("--bots")) {
+                bots = Integer.parseInt(value);
+            } else if (flag.equals("--seconds")) {
+                seconds = Integer.parseInt(value);
+            } else if (flag.equals("--warmup")) {
+                warmup = Integer.parseInt(value);
+            } else if (flag.equals("--think")) {
+                thinkMillis = Integer.parseInt(value);
+            } else if (flag.equals("--mix")) {
+                String[] weights = value.split(",");
+                if (weights.length != mix.length) throw new IllegalArgumentException("--mix needs 4 weights");
+                for (int w = 0; w < mix.length; w++) mix[w] = Integer.parseInt(weights[w]);
+            } else if (flag.equals("--session")) {
+                sessionLength = Integer.parseInt(value);
+            } else if (flag.equals("--new")) {
+                newGame = value.replace('x', ' ');
+            } else if (flag.equals("--seed")) {
+                seed = Long.parseLong(value);
+            } else if (flag.equals("--server")) {
+                config.serverMode = value;
+            } else if (flag.equals("--board")) {
+                config.boardKind = value;
+            } else if (flag.equals("--size")) {
+                size = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("unknown flag " + flag);
+            }
+        }
+        for (int c = 0; c < latencies.length; c++) latencies[c] = new Histogram();
+        if (port < 0) startServer(config, size);
+
+        System.out.printf("%d bots against %s:%d, %d s + %d s warmup, think %d ms, mix %d,%d,%d,%d, %d requests per session, seed %d%n",
+                bots, host, port, seconds, warmup, thinkMillis, mix[0], mix[1], mix[2], mix[3], sessionLength, seed);
+        long start = System.nanoTime();
+        measureFrom = start + warmup * 1000000000L;
+        deadline = measureFrom + seconds * 1000000000L;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int b = 0; b < bots; b++) {
+            final Bot bot = new Bot(new Random(seed * 1000003 + b));
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    bot.play();
+                }
+            }, "bot-" + b);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        System.out.printf("%-8s %10s %10s %10s %10s %10s %10s%n", "command", "count", "per s", "p50 us", "p99 us",
+                "p999 us", "max us");
+        long total = 0;
+        for (int c = 0; c < COMMANDS.length; c++) {
+            Histogram.Snapshot values = latencies[c].snapshot();
+            if (c <= DEFLAG) total += values.count();
+            System.out.printf("%-8s %10d %10.0f %10.1f %10.1f %10.1f %10.1f%n", COMMANDS[c], values.count(),
+                    values.count() / (double) seconds, values.percentile(50) / 1e3, values.percentile(99) / 1e3,
+                    values.percentile(99.9) / 1e3, values.max() / 1e3);
+        }
+        System.out.printf("requests %d, %.0f per s, %d reconnects after BOOM%n", total, total / (double) seconds,
+                reconnects.get());
+        try (Socket socket = new Socket(host, port)) {
+            System.out.println(new Connection(socket).stats());
+        }
+        System.exit(0); // the in-process server does not stop
+    }
+
+    /**
+     * Start a server in this process on a free port, and wait until it accepts connections.
+     */
+    private static void startServer(final ServerConfig config, final int size) throws Exception {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Thread server = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    MinesweeperServer.runMinesweeperServer(true, null, size, size, port, config);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "server");
+        server.setDaemon(true);
+        server.start();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                new Socket(host, port).close();
+                return;
+            } catch (IOException e) {
+                if (attempt == 100) throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static void record(int command, long start) {
+        long end = System.nanoTime();
+        if (start >= measureFrom && end <= deadline) latencies[command].record(end - start);
+    }
+
+    /**
+     * A socket session with the server, reading answers as the server frames them: a line per message,
+     * and a board as its rows followed by an empty line.
+     */
+    private static final class Connection {
+        final Socket socket;
+        final BufferedReader in;
+        final OutputStream out;
+        int cols, rows;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            out = socket.getOutputStream();
+            String greeting = readLine();
+            Matcher size = GREETING.matcher(greeting);
+            if (!size.find()) throw new IOException("unexpected greeting: " + greeting);
+            cols = Integer.parseInt(size.group(1));
+            rows = Integer.parseInt(size.group(2));
+            readLine(); // the empty line after the greeting's "\r\n"
+        }
+
+        void send(String request) throws IOException {
+            out.write((request + "\n").getBytes("US-ASCII"));
+            out.flush();
+        }
+
+        String readLine() throws IOException {
+            String line = in.readLine();
+            if (line == null) throw new IOException("closed by the server");
+            return line;
+        }
+
+        /**
+         * @return the rows of the board answered, or null if BOOM was
+         */
+        String[] readBoard() throws IOException {
+            String first = readLine();
+            if (first.startsWith("BOOM")) return null;
+            String[] board = new String[rows];
+            board[0] = first;
+            for (int y = 1; y < rows; y++) board[y] = readLine();
+            readLine(); // the empty line after the board's "\r\n"
+            return board;
+        }
+
+        void newGame(String colsRows) throws IOException {
+            send("new " + colsRows);
+            String[] answer = readLine().split(" "); // "GAME " ID " " X " " Y
+            if (!answer[0].equals("GAME")) throw new IOException("'new' answered " + answer[0]);
+            cols = Integer.parseInt(answer[2]);
+            rows = Integer.parseInt(answer[3]);
+        }
+
+        String stats() throws IOException {
+            send("stats");
+            StringBuilder report = new StringBuilder(readLine());
+            socket.setSoTimeout(500); // the report has no length, its lines come in one write
+            try {
+                for (String line = in.readLine(); line != null; line = in.readLine()) report.append('\n').append(line);
+            } catch (IOException e) { // timed out after the last line
+            }
+            return report.toString();
+        }
+    }
+
+    /**
+     * One player bot, confined to its thread.
+     */
+    private static final class Bot {
+        private final Random random;
+        private String[] board; // last board answered, or null
+
+        Bot(Random random) {
+            this.random = random;
+        }
+
+        void play() {
+            while (System.nanoTime() < deadline) {
+                try {
+                    long start = System.nanoTime();
+                    Connection connection = new Connection(new Socket(host, port));
+                    if (newGame != null) connection.newGame(newGame);
+                    record(CONNECT, start);
+                    board = null;
+                    try {
+                        playSession(connection);
+                    } finally {
+                        connection.socket.close();
+                    }
+                } catch (IOException e) {
+                    if (System.nanoTime() < deadline) System.err.println(Thread.currentThread().getName() + ": " + e.getMessage());
+                }
+            }
+        }
+
+        private void playSession(Connection connection) throws IOException {
+            boolean boom = false; // the last answer was BOOM, after which a server in production mode closes
+            for (int i = 0; i < sessionLength; i++) {
+                if (System.nanoTime() >= deadline) return;
+                int command = pick();
+                String request = COMMANDS[command];
+                if (command != LOOK) request += " " + cell(connection, command == DEFLAG ? 'F' : '_');
+                long start = System.nanoTime();
+                String[] answer;
+                try {
+                    connection.send(request);
+                    answer = connection.readBoard();
+                } catch (IOException e) {
+                    if (!boom) throw e;
+                    reconnects.incrementAndGet();
+                    return;
+                }
+                record(command, start);
+                boom = answer == null;
+                if (!boom) board = answer;
+                think();
+            }
+            long start = System.nanoTime();
+            connection.send("bye");
+            if (connection.in.read() < 0) record(BYE, start); // closed without an answer
+        }
+
+        /**
+         * @return LOOK, DIG, FLAG or DEFLAG, with the weights of the mix
+         */
+        private int pick() {
+            int total = mix[0] + mix[1] + mix[2] + mix[3];
+            int n = random.nextInt(total);
+            for (int command = LOOK; command < DEFLAG; command++) {
+                if (n < mix[command]) return command;
+                n -= mix[command];
+            }
+            return DEFLAG;
+        }
+
+        /**
+         * @return "X Y" of a random cell in state of the last board, or of any cell if it has none
+         */
+        private String cell(Connection connection, char state) {
+            if (board != null) {
+                for (int attempt = 0; attempt < 16; attempt++) {
+                    int x = random.nextInt(connection.cols), y = random.nextInt(connection.rows);
+                    if (board[y].charAt(2 * x) == state) return x + " " + y;
+                }
+            }
+            return random.nextInt(connection.cols) + " " + random.nextInt(connection.rows);
+        }
+
+        private void think() {
+            if (thinkMillis == 0) return;
+            long pause = (long) (-Math.log(1 - random.nextDouble()) * thinkMillis);
+            try {
+                Thread.sleep(pause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package minesweeper.server;
+
+import java.util.Random;
+
+/**
+ * Throughput of 'look' while another player changes the board, for boards whose render holds the board
+ * lock and for SnapshotBoard, whose render takes none.
+ *
+ * Usage: LookBenchmark [SIZE [SECONDS]]    e.g. "LookBenchmark 1000 3"
+ *
+ * One thread renders the board with getBoardState() as fast as it can while another flags and deflags
+ * random cells. Reports renders and changes per second of each thread.
+ */
+public class LookBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        Validation.setLevel(Validation.OFF); // the boards of a server in production mode
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        System.out.printf("%dx%d board, %d s%n", size, size, seconds);
+        System.out.printf("%-13s %14s %14s%n", "board", "looks/s", "changes/s");
+        run("PackedBoard", new PackedBoard(size, size, 0), seconds);
+        run("SnapshotBoard", new SnapshotBoard(size, size, 0), seconds);
+    }
+
+    private static void run(String name, final Board board, int seconds) throws InterruptedException {
+        final int size = board.getBoardSize()[0];
+        final long deadline = System.nanoTime() + seconds * 1000000000L;
+        final long[] changes = new long[1];
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                Random random = new Random(42);
+                while (System.nanoTime() < deadline) {
+                    int x = random.nextInt(size), y = random.nextInt(size);
+                    if (!board.flagIfUntouched(x, y)) board.deflagIfFlagged(x, y);
+                    changes[0]++;
+                }
+            }
+        });
+        writer.start();
+        long looks = 0, sink = 0;
+        while (System.nanoTime() < deadline) {
+            sink += board.getBoardState().length();
+            looks++;
+        }
+        writer.join();
+        System.out.printf("%-13s %14.0f %14.0f%n", name, (double) looks / seconds, (double) changes[0] / seconds);
+        if (sink == 42) System.out.println(); // keep the renders alive
+    }
+}
@@ -0,0 +1,55 @@
+package minesweeper.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cost of recording ServerMetrics: THREADS sessions each send ROUNDS batches of "flag", "look" and
+ * "deflag" to one 100x100 packed board, with metrics disabled and then enabled, several times each.
+ * Reports the requests per second of both, and the report of 'stats' at the end.
+ *
+ * Usage: MetricsBenchmark [THREADS [ROUNDS]]    e.g. "MetricsBenchmark 8 20000"
+ */
+public class MetricsBenchmark {
+    private static final int SIZE = 100;
+
+    public static void main(String[] args) throws Exception {
+        Validation.setLevel(Validation.OFF); // the boards of a server in production mode
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        Board board = new PackedBoard(SIZE, SIZE, 0);
+        for (int run = 0; run < 3; run++) { // the first runs warm the JIT up
+            for (boolean enabled : new boolean[] { false, true }) {
+                ServerMetrics.global().setEnabled(enabled);
+                long nanos = run(board, threads, rounds);
+                long requests = 3L * threads * rounds;
+                System.out.printf("metrics %-3s %d threads, %d requests in %.2f s, %.0f requests/s, %.0f ns/request%n",
+                        enabled ? "on" : "off", threads, requests, nanos / 1e9, requests / (nanos / 1e9),
+                        (double) nanos * threads / requests);
+            }
+        }
+        System.out.println(new MinesweeperSession(board).handleRequest("stats"));
+    }
+
+    private static long run(final Board board, int threads, final int rounds) throws InterruptedException {
+        List<Thread> players = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int row = t % SIZE;
+            players.add(new Thread(new Runnable() {
+                public void run() {
+                    MinesweeperSession session = new MinesweeperSession(board);
+                    session.handleRequest("delta on"); // small answers, so the board is not all the cost
+                    for (int i = 0; i < rounds; i++) {
+                        int x = i % SIZE;
+                        session.handleBatch(Arrays.asList("flag " + x + " " + row, "look 0", "deflag " + x + " " + row));
+                    }
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread player : players) player.start();
+        for (Thread player : players) player.join();
+        return System.nanoTime() - start;
+    }
+}
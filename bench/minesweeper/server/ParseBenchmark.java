@@ -0,0 +1,53 @@
+package minesweeper.server;
+
+/**
+ * Per-command cost of recognizing a request line: the regular expression, split() and parseInt() the
+ * session used before, and CommandParser.
+ *
+ * Usage: ParseBenchmark [COMMANDS]    e.g. "ParseBenchmark 10000000"
+ */
+public class ParseBenchmark {
+    private static final String REGEX = "(look)|(look \\d{1,18})|(dig -?\\d+ -?\\d+)|(flag -?\\d+ -?\\d+)|"
+            + "(deflag -?\\d+ -?\\d+)|(help)|(bye)|(delta on)|(delta off)|(watch)|(unwatch)";
+    private static final String[] LINES = { "flag 12 34", "dig 5 6", "deflag 120 7", "look", "look 42", "bad line" };
+
+    public static void main(String[] args) {
+        int commands = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+
+        System.out.printf("%d commands%n", commands);
+        System.out.printf("%-8s %10s%n", "method", "ns/cmd");
+        for (int round = 0; round < 2; round++) { // the first round warms up
+            long sink = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < commands / 10; i++) sink += regex(LINES[i % LINES.length]); // about 10x slower
+            double regexNanos = (System.nanoTime() - start) / (commands / 10.0);
+
+            CommandParser parser = new CommandParser();
+            start = System.nanoTime();
+            for (int i = 0; i < commands; i++) sink += parse(parser, LINES[i % LINES.length]);
+            double parserNanos = (System.nanoTime() - start) / (double) commands;
+
+            if (round > 0) {
+                System.out.printf("%-8s %10.1f%n", "regex", regexNanos);
+                System.out.printf("%-8s %10.1f%n", "parser", parserNanos);
+            }
+            if (sink == 42) System.out.println(); // keep the results alive
+        }
+    }
+
+    private static long regex(String line) {
+        if (!line.matches(REGEX)) return -1;
+        String[] tokens = line.split(" ");
+        if (tokens.length == 3) return Integer.parseInt(tokens[1]) + Integer.parseInt(tokens[2]);
+        return tokens.length == 2 ? Long.parseLong(tokens[1]) : tokens[0].length();
+    }
+
+    private static long parse(CommandParser parser, String line) {
+        int command = parser.parse(line);
+        if (command == CommandParser.INVALID) return -1;
+        if (command == CommandParser.DIG || command == CommandParser.FLAG || command == CommandParser.DEFLAG) {
+            return parser.x() + parser.y();
+        }
+        return command == CommandParser.LOOK_SINCE ? parser.version() : command;
+    }
+}
@@ -0,0 +1,99 @@
+package minesweeper.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Time of a burst of commands sent one at a time, waiting for each answer, and pipelined, sent at once
+ * before reading the answers.
+ *
+ * Usage: PipelineBenchmark [COMMANDS [ROUNDS]]    e.g. "PipelineBenchmark 1000 20"
+ *
+ * For each "--server" mode "thread" and "nio", one client in delta mode sends COMMANDS alternating
+ * "flag 0 0" and "deflag 0 0" on a 10x10 PackedBoard, ROUNDS times each way. Reports the average time of
+ * a command.
+ */
+public class PipelineBenchmark {
+    private static final int LINES_PER_ANSWER = 3; // "VERSION v CHANGED 1", "0 0 F" or "0 0 _", ""
+
+    public static void main(String[] args) throws IOException {
+        Validation.setLevel(Validation.OFF); // the boards of a server in production mode
+        int commands = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.out.printf("%d commands, %d rounds%n", commands, rounds);
+        System.out.printf("%-8s %16s %16s%n", "server", "lockstep us/cmd", "pipelined us/cmd");
+        for (String mode : new String[] { "thread", "nio" }) {
+            try (Socket socket = new Socket("localhost", startServer(mode));
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                OutputStream out = socket.getOutputStream();
+                in.readLine();
+                in.readLine();
+                out.write("delta on\n".getBytes());
+                in.readLine();
+                byte[][] requests = new byte[commands][];
+                StringBuilder burst = new StringBuilder();
+                for (int i = 0; i < commands; i++) {
+                    String request = (i % 2 == 0 ? "flag" : "deflag") + " 0 0\n";
+                    requests[i] = request.getBytes();
+                    burst.append(request);
+                }
+                byte[] pipelined = burst.toString().getBytes();
+
+                double lockstep = 0, batched = 0;
+                for (int r = 0; r <= rounds; r++) { // round 0 warms up
+                    long start = System.nanoTime();
+                    for (byte[] request : requests) {
+                        out.write(request);
+                        readLines(in, LINES_PER_ANSWER);
+                    }
+                    if (r > 0) lockstep += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    out.write(pipelined);
+                    readLines(in, LINES_PER_ANSWER * commands);
+                    if (r > 0) batched += System.nanoTime() - start;
+                }
+                System.out.printf("%-8s %16.1f %16.1f%n", mode,
+                        lockstep / 1e3 / rounds / commands, batched / 1e3 / rounds / commands);
+            }
+        }
+    }
+
+    private static void readLines(BufferedReader in, int lines) throws IOException {
+        for (int i = 0; i < lines; i++) {
+            if (in.readLine() == null) throw new IOException("server closed the connection");
+        }
+    }
+
+    private static int startServer(String mode) throws IOException {
+        Board board = new PackedBoard(10, 10, 0);
+        final int port;
+        final Object server;
+        if (mode.equals("nio")) {
+            MinesweeperNioServer nio = new MinesweeperNioServer(0, board);
+            port = nio.getLocalPort();
+            server = nio;
+        } else {
+            MinesweeperServer threads = new MinesweeperServer(0, false, board, null, 0);
+            port = threads.getLocalPort();
+            server = threads;
+        }
+        Thread serving = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    if (server instanceof MinesweeperNioServer) ((MinesweeperNioServer) server).serve();
+                    else ((MinesweeperServer) server).serve();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        serving.setDaemon(true);
+        serving.start();
+        return port;
+    }
+}
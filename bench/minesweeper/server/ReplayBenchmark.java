@@ -0,0 +1,67 @@
+package minesweeper.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cost of journaling moves, and speed of replaying them: THREADS sessions each make MOVES flags and
+ * deflags on a 100x100 board with a MoveJournal, one request per batch as a client waiting for each
+ * answer does; then the journal is replayed into a new board of each kind. Reports the moves per fsync
+ * group commit reached, and the moves per second of both.
+ *
+ * Usage: ReplayBenchmark [THREADS [MOVES]]    e.g. "ReplayBenchmark 16 2000"
+ */
+public class ReplayBenchmark {
+    private static final int SIZE = 100;
+
+    public static void main(String[] args) throws Exception {
+        Validation.setLevel(Validation.OFF); // the boards of a server in production mode
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        final int moves = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        File file = File.createTempFile("moves", ".log");
+        file.deleteOnExit();
+        final Board played = new PackedBoard(SIZE, SIZE, 0);
+        final MoveJournal journal = MoveJournal.open(file, played);
+        List<Thread> players = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int row = t % SIZE;
+            players.add(new Thread(new Runnable() {
+                public void run() {
+                    MinesweeperSession session = new MinesweeperSession(played, new ChangeFeed(), journal);
+                    for (int i = 0; i < moves; i++) { // each flag and deflag changes the board
+                        String request = (i % 2 == 0 ? "flag " : "deflag ") + (i / 2 % SIZE) + " " + row;
+                        session.handleBatch(Collections.singletonList(request));
+                    }
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread player : players) player.start();
+        for (Thread player : players) player.join();
+        long end = System.nanoTime();
+        journal.close();
+        long total = (long) threads * moves;
+        System.out.printf("record: %d threads, %d moves in %.2f s, %.0f moves/s, %d fsyncs, %.1f moves/fsync%n",
+                threads, total, (end - start) / 1e9, total / ((end - start) / 1e9), journal.getCommits(),
+                (double) total / journal.getCommits());
+
+        for (String kind : new String[] { "simple", "packed", "striped", "atomic", "snapshot" }) {
+            Board board = kind.equals("simple") ? new SimpleBoard(SIZE, SIZE, 0)
+                    : kind.equals("striped") ? new StripedBoard(SIZE, SIZE, 0)
+                    : kind.equals("atomic") ? new AtomicBoard(SIZE, SIZE, 0)
+                    : kind.equals("snapshot") ? new SnapshotBoard(SIZE, SIZE, 0)
+                    : new PackedBoard(SIZE, SIZE, 0);
+            start = System.nanoTime();
+            MoveJournal replayed = MoveJournal.open(file, board);
+            end = System.nanoTime();
+            replayed.close();
+            if (!board.getBoardState().equals(played.getBoardState())) throw new IOException(kind + ": replay differs");
+            System.out.printf("replay: %-8s %d moves in %.3f s, %.0f moves/s%n", kind, replayed.getReplayed(),
+                    (end - start) / 1e9, replayed.getReplayed() / ((end - start) / 1e9));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package minesweeper.server;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Speedup of a parallel reveal against the number of pool threads.
+ *
+ * Usage: RevealBenchmark [SIZE [DENSITY]]    e.g. "RevealBenchmark 5000 0.01"
+ *
+ * Builds a PackedBoard of SIZE x SIZE with a fraction DENSITY of bombs and times the dig of its centre cell,
+ * first in the calling thread, then with pools of 1, 2, 4... threads up to the number of cores.
+ * Each run digs a fresh copy of the same board; the best of RUNS runs is reported.
+ */
+public class RevealBenchmark {
+
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        Validation.setLevel(Validation.OFF); // the boards of a server in production mode
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        double density = args.length > 1 ? Double.parseDouble(args[1]) : 0.0;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%dx%d board, bomb density %.3f, %d cores%n", size, size, density, cores);
+        System.out.printf("%-12s %12s %12s %10s%n", "threads", "cells", "best ms", "speedup");
+        double sequential = run(size, density, 0);
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            run(size, density, threads, sequential);
+        }
+        if (Integer.bitCount(cores) != 1) run(size, density, cores, sequential);
+    }
+
+    private static double run(int size, double density, int threads) {
+        return run(size, density, threads, -1);
+    }
+
+    /**
+     * @param threads pool size, or 0 to reveal in the calling thread
+     * @param baseline best time in ms of the sequential reveal, or -1 if this is the sequential run
+     * @return best time in ms
+     */
+    private static double run(int size, double density, int threads, double baseline) {
+        ForkJoinPool pool = threads == 0 ? null : new ForkJoinPool(threads);
+        double best = Double.MAX_VALUE;
+        int cells = 0;
+        try {
+            for (int i = 0; i < RUNS; i++) {
+                PackedBoard board = board(size, density);
+                board.setRevealPool(pool);
+                long start = System.nanoTime();
+                cells = board.revealCell(size / 2, size / 2).length;
+                best = Math.min(best, (System.nanoTime() - start) / 1e6);
+            }
+        } finally {
+            if (pool != null) pool.shutdown();
+        }
+        System.out.printf("%-12s %12d %12.1f %10s%n", threads == 0 ? "sequential" : threads, cells, best,
+                baseline < 0 ? "1.00" : String.format("%.2f", baseline / best));
+        return best;
+    }
+
+    private static PackedBoard board(int size, double density) {
+        int bombs = (int) (density * size * size);
+        PackedBoard board = new PackedBoard(size, size, bombs);
+        Random random = new Random(42);
+        for (int i = 0; i < bombs; i++) {
+            int x = random.nextInt(size), y = random.nextInt(size);
+            if (x != size / 2 || y != size / 2) board.changeCellState(x, y, 'B');
+        }
+        return board;
+    }
+}
@@ -0,0 +1,169 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Holds many concurrent client sessions open against an in-process MinesweeperServer.
+ *
+ * Usage: SessionLoadTest [SESSIONS [MODE [ROUNDS]]]    e.g. "SessionLoadTest 50000 virtual"
+ *
+ * MODE is a "--server" mode of MinesweeperServer: "thread", "virtual" or "nio". The server plays on a
+ * 10x10 SimpleBoard. One client thread with a Selector opens SESSIONS connections, CONNECT_BATCH at a time
+ * waiting for their greetings, then for ROUNDS rounds sends one "flag x y" or "deflag x y" per session and waits for every
+ * board. All sessions stay connected until the end. Reports connect time, request throughput, heap in
+ * use and live threads while the sessions are open.
+ *
+ * Both ends of each connection are in this process, so it needs about 2 * SESSIONS file descriptors
+ * (e.g. "ulimit -n 110000" for 50000 sessions). Clients bind to several loopback addresses, each with its
+ * own range of ephemeral ports.
+ */
+public class SessionLoadTest {
+
+    private static final int SESSIONS_PER_ADDRESS = 20000; // below the default ephemeral port range
+    private static final int CONNECT_BATCH = 40; // connections waiting for their greeting, below the default accept backlog of 50
+    private static final int BOARD_SIZE = 10;
+
+    public static void main(String[] args) throws IOException {
+        Validation.setLevel(Validation.OFF); // the boards of a server in production mode
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        String mode = args.length > 1 ? args[1] : "virtual";
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        final Board board = new SimpleBoard(BOARD_SIZE, BOARD_SIZE, 0);
+        int port = startServer(mode, board);
+        System.out.printf("%d sessions, server mode %s, %d rounds%n", sessions, mode, rounds);
+
+        Selector selector = Selector.open();
+        Session[] clients = new Session[sessions];
+        long start = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            SocketChannel channel = SocketChannel.open();
+            if (i >= SESSIONS_PER_ADDRESS) { // bind() picks a port more slowly than connect(), only when needed
+                channel.bind(new InetSocketAddress("127.0.0." + (1 + i / SESSIONS_PER_ADDRESS), 0));
+            }
+            channel.connect(new InetSocketAddress("127.0.0.1", port));
+            channel.configureBlocking(false);
+            clients[i] = new Session(i, channel.register(selector, SelectionKey.OP_READ));
+            if ((i + 1) % CONNECT_BATCH == 0 || i + 1 == sessions) awaitResponses(selector, i % CONNECT_BATCH + 1);
+        }
+        double connectMs = (System.nanoTime() - start) / 1e6;
+        System.out.printf("connect + greeting  %10.0f ms  %10.0f sessions/s%n", connectMs, sessions / connectMs * 1000);
+
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (Session client : clients) client.request(r);
+            awaitResponses(selector, sessions);
+        }
+        double requestMs = (System.nanoTime() - start) / 1e6;
+        System.out.printf("flag/deflag         %10.0f ms  %10.0f requests/s%n",
+                requestMs, (double) sessions * rounds / requestMs * 1000);
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        System.out.printf("heap in use %d MB, live threads %d%n", (runtime.totalMemory() - runtime.freeMemory()) >> 20,
+                ManagementFactory.getThreadMXBean().getThreadCount());
+
+        for (Session client : clients) client.key.channel().close();
+        System.exit(0);
+    }
+
+    private static int startServer(String mode, Board board) throws IOException {
+        final int port;
+        final Object server;
+        if (mode.equals("nio")) {
+            MinesweeperNioServer nio = new MinesweeperNioServer(0, board);
+            port = nio.getLocalPort();
+            server = nio;
+        } else {
+            ExecutorService executor = mode.equals("virtual") ? MinesweeperServer.newVirtualThreadExecutor() : null;
+            MinesweeperServer threads = new MinesweeperServer(0, false, board, executor, 0);
+            port = threads.getLocalPort();
+            server = threads;
+        }
+        Thread serving = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    if (server instanceof MinesweeperNioServer) ((MinesweeperNioServer) server).serve();
+                    else ((MinesweeperServer) server).serve();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        serving.setDaemon(true);
+        serving.start();
+        return port;
+    }
+
+    /**
+     * Read until each of the sessions has received one complete response.
+     */
+    private static void awaitResponses(Selector selector, int sessions) throws IOException {
+        int complete = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        while (complete < sessions) {
+            selector.select();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                buffer.clear();
+                if (((SocketChannel) key.channel()).read(buffer) < 0) throw new IOException("server closed a session");
+                buffer.flip();
+                if (((Session) key.attachment()).received(buffer)) complete++;
+            }
+        }
+    }
+
+    /**
+     * One client connection; a response is complete when it ends with "\r\n" and a line separator, as
+     * the greeting and the board do.
+     */
+    private static final class Session {
+        private static final byte[] END = ("\r\n" + System.lineSeparator()).getBytes();
+
+        final int id;
+        final SelectionKey key;
+        private final byte[] tail = new byte[END.length];
+        private int tailLength;
+
+        Session(int id, SelectionKey key) {
+            this.id = id;
+            this.key = key;
+            key.attach(this);
+        }
+
+        void request(int round) throws IOException {
+            int cell = id % (BOARD_SIZE * BOARD_SIZE);
+            String request = (round % 2 == 0 ? "flag " : "deflag ") + cell % BOARD_SIZE + " " + cell / BOARD_SIZE + "\n";
+            ByteBuffer buffer = ByteBuffer.wrap(request.getBytes());
+            while (buffer.hasRemaining()) ((SocketChannel) key.channel()).write(buffer); // a few bytes always fit
+        }
+
+        /**
+         * @return true if buffer completes a response
+         */
+        boolean received(ByteBuffer buffer) {
+            boolean ends = false;
+            while (buffer.hasRemaining()) {
+                if (tailLength == tail.length) {
+                    System.arraycopy(tail, 1, tail, 0, tail.length - 1);
+                    tailLength--;
+                }
+                tail[tailLength++] = buffer.get();
+                ends = tailLength == tail.length && Arrays.equals(tail, END);
+                if (ends) tailLength = 0;
+            }
+            return ends;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package minesweeper.server;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Bytes on the wire and cost per request of the text protocol and BinaryProtocol, for a 'look' of the
+ * whole board and a 'flag'/'deflag' answered with the changed cell (delta mode in text). The cost
+ * includes encoding the answer into the bytes written.
+ *
+ * Usage: WireBenchmark [SIZE [REQUESTS]]    e.g. "WireBenchmark 100 100000"
+ */
+public class WireBenchmark {
+    private static final Charset CHARSET = Charset.defaultCharset(); // as the servers
+
+    public static void main(String[] args) {
+        Validation.setLevel(Validation.OFF); // the boards of a server in production mode
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        Board board = new PackedBoard(size, size, 0);
+
+        MinesweeperSession text = new MinesweeperSession(board);
+        text.handleRequest("delta on");
+        MinesweeperSession binary = new MinesweeperSession(board);
+        binary.handleRequest("binary");
+        byte[] look = body(BinaryProtocol.request(BinaryProtocol.LOOK));
+        byte[] flag = body(BinaryProtocol.request(BinaryProtocol.FLAG, size / 2, size / 2));
+        byte[] deflag = body(BinaryProtocol.request(BinaryProtocol.DEFLAG, size / 2, size / 2));
+        String flagLine = "flag " + size / 2 + " " + size / 2, deflagLine = "deflag " + size / 2 + " " + size / 2;
+
+        System.out.printf("%dx%d board, %d requests%n", size, size, requests);
+        System.out.printf("%-8s %-6s %10s %10s %10s%n", "protocol", "cmd", "req bytes", "resp bytes", "ns/req");
+        for (int round = 0; round < 2; round++) { // the first round warms up
+            long sink = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < requests / 10; i++) sink += text.handleRequest("look").getBytes(CHARSET).length;
+            double textLook = (System.nanoTime() - start) / (requests / 10.0);
+            start = System.nanoTime();
+            for (int i = 0; i < requests / 10; i++) sink += binary.handleBinaryRequest(look).length;
+            double binaryLook = (System.nanoTime() - start) / (requests / 10.0);
+            start = System.nanoTime();
+            for (int i = 0; i < requests; i++) sink += text.handleRequest(i % 2 == 0 ? flagLine : deflagLine).getBytes(CHARSET).length;
+            double textFlag = (System.nanoTime() - start) / requests;
+            start = System.nanoTime();
+            for (int i = 0; i < requests; i++) sink += binary.handleBinaryRequest(i % 2 == 0 ? flag : deflag).length;
+            double binaryFlag = (System.nanoTime() - start) / requests;
+
+            if (round > 0) {
+                // sizes on the wire: a line ends with "\n" from the client and a line separator from the server
+                int separator = System.lineSeparator().length();
+                System.out.printf("%-8s %-6s %10d %10d %10.1f%n", "text", "look", 5,
+                        text.handleRequest("look").length() + separator, textLook);
+                System.out.printf("%-8s %-6s %10d %10d %10.1f%n", "binary", "look", look.length + 1,
+                        binary.handleBinaryRequest(look).length, binaryLook);
+                System.out.printf("%-8s %-6s %10d %10d %10.1f%n", "text", "flag", flagLine.length() + 1,
+                        text.handleRequest(flagLine).length() + separator, textFlag);
+                System.out.printf("%-8s %-6s %10d %10d %10.1f%n", "binary", "flag", flag.length + 1,
+                        binary.handleBinaryRequest(deflag).length, binaryFlag);
+                text.handleRequest(deflagLine);
+            }
+            if (sink == 42) System.out.println(); // keep the results alive
+        }
+    }
+
+    /**
+     * @return body of a request frame, whose LENGTH is one byte
+     */
+    private static byte[] body(byte[] frame) {
+        return Arrays.copyOfRange(frame, 1, frame.length);
+    }
+}
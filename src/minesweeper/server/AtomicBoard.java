@@ -0,0 +1,358 @@
+package minesweeper.server;
+
+import static minesweeper.server.PackedBoard.*;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AtomicBoard represents a thread safe mutable grid of cells in multiplayer game Minesweeper, without locks.
+ * Each cell is an int of an AtomicIntegerArray, with the bit layout of a PackedBoard cell, and changes state
+ * by compare-and-set.
+ * Cell states seen through Board are the same character set as SimpleBoard {_, ,F,B,1-8}.
+ *
+ * Every single cell transition is atomic: '_' to 'F' by flagIfUntouched(), 'F' to '_' by deflagIfFlagged(),
+ * '_' to dug by digAt() and revealCell(), and any change by changeCellState(). A reveal is a sequence of such
+ * transitions, so another player may see part of it; a cell is never dug twice and never dug after it was
+ * flagged, even when the flag and the reveal race. Each operation which changed cells counts one version,
+ * after its last transition.
+ */
+public class AtomicBoard implements Board {
+    private final int numRows, numCols, numBombs;
+    private final AtomicIntegerArray cells;
+    private final AtomicInteger bombCount = new AtomicInteger();
+    private final AtomicLong modCount = new AtomicLong(); // incremented after every operation which changed 'cells'
+    private volatile Snapshot snapshot = new Snapshot(-1, null);
+
+    // Rep invariant
+    // the rep invariant of PackedBoard for numRows, numCols, numBombs, cells, bombCount, holding between
+    // changes; a cell's count bits may lag behind a bomb being inserted or removed next to it
+    // snapshot.text is a rendering of cells read while modCount was snapshot.modCount, so it has every
+    // change of the operations counted in snapshot.modCount
+
+    // Abstraction function
+    // as PackedBoard
+
+    // Thread safety argument:
+    //    - numRows, numCols, numBombs, cells, bombCount, modCount are final
+    //    - 'cells', 'bombCount' and 'modCount' are thread safe atomic types, every read-modify-write of a cell
+    //      is a compare-and-set loop or an atomic add to its count bits
+    //    - 'snapshot' is volatile and points to an immutable Snapshot
+
+    /**
+     * Immutable rendering of the board with the modCount it was started at.
+     */
+    private static final class Snapshot {
+        final long modCount;
+        final String text;
+
+        Snapshot(long modCount, String text) {
+            this.modCount = modCount;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Construct initial Board state.
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param bombs number of Bombs; Integer.MAX_VALUE inserts a bomb in each cell with probability .25
+     */
+    public AtomicBoard(int rows, int cols, int bombs) {
+        Validation.check(rows > 0, "ASSERTION ERROR ON INPUT PARAMS! invalid rows");
+        Validation.check(cols > 0, "ASSERTION ERROR ON INPUT PARAMS! invalid cols");
+        Validation.check(bombs >= 0, "ASSERTION ERROR ON INPUT PARAMS! invalid bombs");
+
+        numRows = rows;
+        numCols = cols;
+        numBombs = bombs;
+        cells = new AtomicIntegerArray(rows * cols);
+
+        if (numBombs == Integer.MAX_VALUE) { // same sentinel as SimpleBoard
+            for (int y = 0; y < numRows; y++) {
+                for (int x = 0; x < numCols; x++) {
+                    if (Math.random() <= 0.25) changeCellState(x, y, 'B');
+                }
+            }
+        }
+        checkRep();
+    }
+
+    /**
+     * Construct initial Board state with bombs in the given cells, e.g. of a board file.
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param bombs cells with a bomb, cell x,y at index y * cols + x
+     */
+    public AtomicBoard(int rows, int cols, BitSet bombs) {
+        this(rows, cols, bombs.cardinality());
+        Validation.check(bombs.length() <= rows * cols, "ASSERTION ERROR ON INPUT PARAMS! invalid bombs");
+        for (int i = bombs.nextSetBit(0); i >= 0; i = bombs.nextSetBit(i + 1)) { // not yet shared, no compare-and-set
+            cells.set(i, cells.get(i) | BOMB);
+            bombCount.incrementAndGet();
+            updateNeighbourBombs(i % cols, i / cols, 1);
+        }
+        checkRep();
+    }
+
+    /**
+     * Construct a Board with the cells and version of a saved Board, see Board.copyCells().
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param saved bomb and state bits of each cell, cell x,y at index y * cols + x
+     * @param version version of the saved Board
+     */
+    public AtomicBoard(int rows, int cols, byte[] saved, long version) {
+        this(rows, cols, countBombs(saved));
+        Validation.check(saved.length == rows * cols, "ASSERTION ERROR ON INPUT PARAMS! invalid cells");
+        for (int i = 0; i < saved.length; i++) { // not yet shared, no compare-and-set
+            cells.set(i, (cells.get(i) & COUNT_MASK) | (saved[i] & (BOMB | STATE_MASK)));
+            if ((saved[i] & BOMB) == 0) continue;
+            bombCount.incrementAndGet();
+            updateNeighbourBombs(i % cols, i / cols, 1);
+        }
+        modCount.set(version);
+        checkRep();
+    }
+
+    /**
+     * Check that the rep invariant is true. Scans the whole board, so only run by creators, if
+     * Validation.checksBoard().
+     */
+    private void checkRep() {
+        if (!Validation.checksBoard()) return;
+        int countBombs = 0;
+        Validation.check(cells.length() == numRows * numCols, "ASSERTION ERROR ON BOARD SIZE!");
+        for (int i = 0; i < cells.length(); i++) {
+            checkCell(cells.get(i));
+            if ((cells.get(i) & BOMB) != 0) countBombs++;
+        }
+        Validation.check(countBombs == bombCount.get(), "ASSERTION ERROR ON COUNTBOMBS!");
+    }
+
+    /**
+     * Check the rep invariant of one cell value; cheap enough to run after every mutation
+     * touching it, if Validation.checksCell().
+     */
+    private void checkCell(int cell) {
+        int state = cell & STATE_MASK;
+        Validation.check(state == UNTOUCHED || state == DUG || state == FLAGGED, "ASSERTION ERROR ON CELL STATE!");
+        Validation.check((cell & BOMB) == 0 || state == UNTOUCHED, "ASSERTION ERROR ON CELL BOMB!");
+        Validation.check((cell & COUNT_MASK) <= 8, "ASSERTION ERROR ON CELL COUNT!");
+    }
+
+    private void checkPosition(int posX, int posY) {
+        Validation.check(posX >= 0 && posX < numCols, "ASSERTION ERROR ON INPUT PARAMS!");
+        Validation.check(posY >= 0 && posY < numRows, "ASSERTION ERROR ON INPUT PARAMS!");
+    }
+
+    /**
+     * Add delta to the count bits of the cells adjacent to x,y, after a bomb is inserted or removed at x,y.
+     * The count bits are the low bits of a cell and stay within 0-8, so the add never touches other bits.
+     */
+    private void updateNeighbourBombs(int x, int y, int delta) {
+        for (int ny = Math.max(0, y - 1); ny <= Math.min(numRows - 1, y + 1); ny++) {
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(numCols - 1, x + 1); nx++) {
+                if (nx != x || ny != y) cells.addAndGet(ny * numCols + nx, delta);
+            }
+        }
+    }
+
+    /**
+     * Change cell i from state 'from' without bomb to state 'to', keeping its count bits. The operation
+     * making the transition counts its version.
+     * @return true if this call changed the cell
+     */
+    private boolean transition(int i, int from, int to) {
+        for (;;) {
+            int old = cells.get(i);
+            if ((old & (BOMB | STATE_MASK)) != from) return false;
+            if (cells.compareAndSet(i, old, (old & ~STATE_MASK) | to)) return true;
+        }
+    }
+
+    @Override
+    public String getBoardState() {
+        Snapshot last = snapshot;
+        long started = modCount.get();
+        if (last.modCount == started) return last.text;
+
+        // a change racing with the render bumps modCount past 'started', so the next call renders again
+        StringBuilder boardContent = new StringBuilder(numRows * (2 * numCols + 1));
+        for (int y = 0; y < numRows; y++) {
+            for (int x = 0; x < numCols; x++) {
+                char ch = toChar(cells.get(y * numCols + x));
+                boardContent.append(ch == 'B' ? '_' : ch); // mask Bombs location for output
+                boardContent.append(x < numCols - 1 ? " " : "\r\n");
+            }
+        }
+        String text = boardContent.toString();
+        snapshot = new Snapshot(started, text);
+        return text;
+    }
+
+    @Override
+    public String getBoardState(long version) {
+        return version == getVersion() ? null : getBoardState(); // the version is read without locking
+    }
+
+    /**
+     * {@inheritDoc}
+     * AtomicBoard has no lock, each operation is atomic on its own and others may interleave between them.
+     */
+    @Override
+    public void runBatch(Runnable operations) {
+        operations.run();
+    }
+
+    /**
+     * {@inheritDoc}
+     * A dug state ' ' or '1'-'8' must agree with the number of bombs adjacent to the cell,
+     * otherwise the change fails.
+     */
+    @Override
+    public boolean changeCellState(int posX, int posY, char state) {
+        checkPosition(posX, posY);
+        int newState;
+        switch (state) {
+        case '_': case 'B': newState = UNTOUCHED; break;
+        case 'F':           newState = FLAGGED; break;
+        case ' ':           newState = DUG; break;
+        default:
+            if (state < '1' || state > '8') return false; // Any invalid state will fail change
+            newState = DUG;
+        }
+        int bomb = state == 'B' ? BOMB : 0;
+
+        int i = posY * numCols + posX;
+        for (;;) {
+            int old = cells.get(i);
+            if (toChar(old) == state) return false;
+            if (newState == DUG && (old & COUNT_MASK) != (state == ' ' ? 0 : state - '0')) return false;
+            int cell = (old & COUNT_MASK) | bomb | newState;
+            if (cells.compareAndSet(i, old, cell)) {
+                if ((old & BOMB) != bomb) {
+                    int delta = bomb != 0 ? 1 : -1;
+                    int bombs = bombCount.addAndGet(delta);
+                    updateNeighbourBombs(posX, posY, delta);
+                    if (Validation.checksCell()) Validation.check(bombs >= 0 && bombs <= numBombs, "ASSERTION ERROR ON COUNTBOMBS!");
+                }
+                modCount.incrementAndGet();
+                if (Validation.checksCell()) checkCell(cell);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public char getCellState(int posX, int posY) {
+        checkPosition(posX, posY);
+        return toChar(cells.get(posY * numCols + posX));
+    }
+
+    @Override
+    public int getNeighbourBombs(int posX, int posY) {
+        checkPosition(posX, posY);
+        return cells.get(posY * numCols + posX) & COUNT_MASK;
+    }
+
+    @Override
+    public int[] revealCell(int posX, int posY) {
+        checkPosition(posX, posY);
+        int[] changed = new RevealEngine(numRows, numCols, revealGrid).reveal(posX, posY);
+        if (changed.length > 0) modCount.incrementAndGet();
+        return changed;
+    }
+
+    @Override
+    public DigResult digAt(int posX, int posY) {
+        checkPosition(posX, posY);
+        int i = posY * numCols + posX;
+        int old;
+        do {
+            old = cells.get(i);
+            if ((old & (BOMB | STATE_MASK)) != (BOMB | UNTOUCHED)) return new DigResult(false, revealCell(posX, posY));
+        } while (!cells.compareAndSet(i, old, old & ~BOMB));
+
+        // BOOM: this call removed the bomb, dug neighbours show their new count, then reveal the cell as untouched
+        bombCount.decrementAndGet();
+        updateNeighbourBombs(posX, posY, -1);
+        int[] changed = new int[8];
+        int numChanged = 0;
+        for (int ny = Math.max(0, posY - 1); ny <= Math.min(numRows - 1, posY + 1); ny++) {
+            for (int nx = Math.max(0, posX - 1); nx <= Math.min(numCols - 1, posX + 1); nx++) {
+                if ((cells.get(ny * numCols + nx) & STATE_MASK) == DUG) changed[numChanged++] = ny * numCols + nx;
+            }
+        }
+        int[] revealed = new RevealEngine(numRows, numCols, revealGrid).reveal(posX, posY);
+        changed = Arrays.copyOf(changed, numChanged + revealed.length);
+        System.arraycopy(revealed, 0, changed, numChanged, revealed.length);
+        modCount.incrementAndGet(); // the bomb and the reveal are one version
+        return new DigResult(true, changed);
+    }
+
+    @Override
+    public boolean flagIfUntouched(int posX, int posY) {
+        checkPosition(posX, posY);
+        if (!transition(posY * numCols + posX, UNTOUCHED, FLAGGED)) return false;
+        modCount.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public boolean deflagIfFlagged(int posX, int posY) {
+        checkPosition(posX, posY);
+        if (!transition(posY * numCols + posX, FLAGGED, UNTOUCHED)) return false;
+        modCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Cells for reveals; dig() loses to a concurrent change of the cell, as a flag.
+     */
+    private final RevealEngine.Grid revealGrid = new RevealEngine.Grid() {
+        @Override
+        public char cellAt(int x, int y) {
+            return toChar(cells.get(y * numCols + x));
+        }
+
+        @Override
+        public int neighbourBombs(int x, int y) {
+            return cells.get(y * numCols + x) & COUNT_MASK;
+        }
+
+        @Override
+        public boolean dig(int x, int y, int neighbourBombs) {
+            return transition(y * numCols + x, UNTOUCHED, DUG);
+        }
+    };
+
+    /**
+     * {@inheritDoc}
+     * Each operation counts once, after its last transition, so a reveal in progress may already be
+     * seen in part at the version before it.
+     */
+    @Override
+    public long getVersion() {
+        return modCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * As getBoardState(), the copy is not atomic: a reveal racing with it may be copied in part.
+     */
+    @Override
+    public long copyCells(byte[] copy) {
+        long copied = modCount.get(); // changes are counted after they are made, so the copy is at least as new
+        for (int i = 0; i < copy.length; i++) copy[i] = (byte) (cells.get(i) & (BOMB | STATE_MASK));
+        return copied;
+    }
+
+    @Override
+    public int[] getBoardSize() {
+        return new int[] { numCols, numRows };
+    }
+}
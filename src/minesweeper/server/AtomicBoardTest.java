@@ -0,0 +1,159 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+/**
+ * AtomicBoard must behave as PackedBoard does through the Board interface, and lose no cell change
+ * when players work on the same cells at once, see PackedBoardTest.
+ */
+public class AtomicBoardTest {
+
+    // getBoardState()
+    @Test
+    public void testGetBoardState_ValidStateCharSet() {
+        Board b = new AtomicBoard(3, 3, 0);
+        b.changeCellState(0, 0, ' '); // add DUG cell state
+        b.changeCellState(0, 1, 'F'); // add FLAGGED cell state
+        b.changeCellState(2, 1, 'F'); // add FLAGGED cell state
+
+        String checkString =   "  _ _\r\n"
+                             + "F _ F\r\n"
+                             + "_ _ _\r\n";
+        assertEquals("String Not equals!", checkString, b.getBoardState());
+    }
+
+    @Test
+    public void testGetBoardState_AfterChange() {
+        Board b = new AtomicBoard(2, 3, 1);
+        String before = b.getBoardState();
+        assertSame(before, b.getBoardState()); // unchanged board is not rendered again
+        b.changeCellState(1, 1, 'B');
+        b.flagIfUntouched(0, 0);
+        assertEquals("F _ _\r\n_ _ _\r\n", b.getBoardState());
+    }
+
+    // changeCellState()
+    @Test
+    public void testChangeCellState_InvalidStateCharSet() {
+        char [] invalidCellState = {'\0', 'a', 'K', '0', '9'};
+        Board b = new AtomicBoard(10, 10, 4);
+        for (int i = 0; i < invalidCellState.length; i++) {
+            assertFalse(b.changeCellState(0, 0, invalidCellState[i]));
+        }
+    }
+
+    @Test
+    public void testChangeCellState_DugMatchesNeighbourCount() {
+        Board b = new AtomicBoard(3, 3, 2);
+        assertTrue(b.changeCellState(0, 0, 'B'));
+        assertTrue(b.changeCellState(2, 0, 'B'));
+        assertFalse(b.changeCellState(1, 1, '1'));
+        assertTrue(b.changeCellState(1, 1, '2'));
+        assertEquals(2, b.getNeighbourBombs(1, 1));
+        assertEquals('B', b.getCellState(0, 0));
+    }
+
+    // digAt(), flagIfUntouched(), deflagIfFlagged()
+    @Test
+    public void testDigAt_Reveal() {
+        Board b = new AtomicBoard(10, 4, 1);
+        b.changeCellState(3, 0, 'B');
+        b.flagIfUntouched(0, 0);
+        DigResult result = b.digAt(0, 9);
+        assertFalse(result.isBoom());
+        assertEquals(38, result.getNumChangedCells()); // all but the bomb and the flag
+        assertEquals('1', b.getCellState(2, 0));
+        assertEquals('F', b.getCellState(0, 0));
+    }
+
+    @Test
+    public void testDigAt_Boom() {
+        Board b = new AtomicBoard(3, 3, 1);
+        b.changeCellState(1, 1, 'B');
+        b.digAt(0, 0);
+        DigResult result = b.digAt(1, 1);
+        assertTrue(result.isBoom());
+        assertFalse(b.digAt(1, 1).isBoom());
+        assertEquals("     \r\n     \r\n     \r\n", b.getBoardState());
+        assertEquals(9, result.getNumChangedCells()); // (0,0) shows its new count, the others are dug
+    }
+
+    @Test
+    public void testFlagIfUntouched_DeflagIfFlagged() {
+        Board b = new AtomicBoard(2, 2, 1);
+        b.changeCellState(1, 1, 'B');
+        assertFalse(b.flagIfUntouched(1, 1)); // as SimpleBoard, only '_' cells are flagged
+        assertTrue(b.flagIfUntouched(0, 0));
+        assertFalse(b.flagIfUntouched(0, 0));
+        assertTrue(b.deflagIfFlagged(0, 0));
+        assertFalse(b.deflagIfFlagged(0, 0));
+    }
+
+    // getVersion()
+    @Test
+    public void testGetVersion_OnePerOperation() {
+        Board b = new AtomicBoard(5, 5, 1);
+        b.changeCellState(4, 4, 'B');
+        assertEquals(1, b.getVersion());
+        assertTrue(b.flagIfUntouched(4, 0));
+        assertEquals(2, b.getVersion());
+        assertEquals(23, b.digAt(0, 0).getNumChangedCells()); // a reveal of many cells
+        assertEquals(3, b.getVersion());
+        assertEquals(0, b.digAt(0, 0).getNumChangedCells()); // no change, no new version
+        assertTrue(b.digAt(4, 4).isBoom());
+        assertEquals(4, b.getVersion());
+        assertTrue(b.deflagIfFlagged(4, 0));
+        assertEquals(5, b.getVersion());
+    }
+
+    // concurrency
+    @Test
+    public void testFlagDeflag_ConcurrentUpdatesNotLost() throws InterruptedException {
+        final int size = 8, rounds = 2000;
+        final Board b = new AtomicBoard(size, size, 0);
+        final AtomicIntegerArray flags = new AtomicIntegerArray(size * size); // successful flags - deflags
+        Thread[] players = new Thread[8];
+        for (int p = 0; p < players.length; p++) {
+            final boolean flagger = p % 2 == 0;
+            players[p] = new Thread(new Runnable() {
+                public void run() {
+                    for (int r = 0; r < rounds; r++) {
+                        for (int i = 0; i < size * size; i++) {
+                            if (flagger && b.flagIfUntouched(i % size, i / size)) flags.incrementAndGet(i);
+                            if (!flagger && b.deflagIfFlagged(i % size, i / size)) flags.decrementAndGet(i);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread player : players) player.start();
+        for (Thread player : players) player.join();
+        for (int i = 0; i < size * size; i++) {
+            assertEquals(b.getCellState(i % size, i / size) == 'F' ? 1 : 0, flags.get(i));
+        }
+    }
+
+    @Test
+    public void testDigAt_ConcurrentDigsRevealEachCellOnce() throws InterruptedException {
+        final int size = 300;
+        final Board b = new AtomicBoard(size, size, 0);
+        final AtomicIntegerArray dug = new AtomicIntegerArray(size * size);
+        Thread[] players = new Thread[8];
+        for (int p = 0; p < players.length; p++) {
+            final int row = p * size / players.length;
+            players[p] = new Thread(new Runnable() {
+                public void run() {
+                    DigResult result = b.digAt(row, row);
+                    for (int i = 0; i < result.getNumChangedCells(); i++) dug.incrementAndGet(result.getChangedCell(i));
+                }
+            });
+        }
+        for (Thread player : players) player.start();
+        for (Thread player : players) player.join();
+        for (int i = 0; i < size * size; i++) assertEquals(1, dug.get(i));
+    }
+}
@@ -0,0 +1,273 @@
+package minesweeper.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * BinaryProtocol is the compact framing of requests and responses a client may switch to, for the rest of
+ * its connection, by sending the text request "binary" and reading the text answer "BINARY". The greeting
+ * and everything before the switch are text as usual. Requests are served by the same session and board
+ * operations as text requests.
+ *
+ *   FRAME :== LENGTH BODY            LENGTH is the number of bytes of BODY, 1 to MAX_FRAME, as a VARINT
+ *   VARINT :== unsigned LEB128, 7 bits per byte from the least significant, all bytes but the last have
+ *              their high bit set
+ *
+ * Request bodies, an opcode byte and its arguments:
+ *
+ *   LOOK 1 | LOOK_SINCE 2 VERSION | DIG 3 X Y | FLAG 4 X Y | DEFLAG 5 X Y | BYE 6
+ *
+ * with VERSION, X and Y as VARINTs; coordinates beyond the int range are off the board. The connection
+ * closes after BYE, and after BOOM unless the server is debugging.
+ *
+ * Response bodies, a type byte and its content:
+ *
+ *   BOARD 1 COLS ROWS VERSION CELLS   the whole board, at least as new as VERSION; CELLS are COLS*ROWS
+ *                                     4-bit states, row by row, two per byte, the first in the low bits
+ *   DELTA 2 VERSION N (INDEX STATE){N}  the cells a DIG, FLAG or DEFLAG changed, as in text delta mode;
+ *                                     INDEX is y * COLS + x as a VARINT, STATE one byte
+ *   BOOM 3                            the dug cell held a bomb
+ *   UNCHANGED 4 VERSION               answer to LOOK_SINCE when the board is still at VERSION
+ *   ERROR 5 TEXT                      the request was not understood, TEXT in ISO-8859-1
+ *
+ * A cell STATE is 0-8 for a dug cell with that many neighbour bombs, UNTOUCHED or FLAGGED, so a board of
+ * C cells is answered in about C/2 bytes instead of the 2*C of the text protocol.
+ */
+public final class BinaryProtocol {
+    /**
+     * Maximum length of a request body; a longer frame closes the connection.
+     */
+    public static final int MAX_FRAME = 32;
+
+    public static final int LOOK = 1;
+    public static final int LOOK_SINCE = 2;
+    public static final int DIG = 3;
+    public static final int FLAG = 4;
+    public static final int DEFLAG = 5;
+    public static final int BYE = 6;
+
+    public static final int BOARD = 1;
+    public static final int DELTA = 2;
+    public static final int BOOM = 3;
+    public static final int UNCHANGED = 4;
+    public static final int ERROR = 5;
+
+    public static final int UNTOUCHED = 9;
+    public static final int FLAGGED = 10;
+
+    private static final byte[] CODES = new byte[128]; // cellCode() of each state char
+    static {
+        for (char c : "_BF 12345678".toCharArray()) CODES[c] = (byte) cellCode(c);
+    }
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * @param state cell state as shown by 'look', from set {_, ,F,1-8}; a bomb 'B' is shown untouched
+     * @return STATE code of the cell
+     */
+    public static int cellCode(char state) {
+        switch (state) {
+        case '_': case 'B': return UNTOUCHED;
+        case 'F':           return FLAGGED;
+        case ' ':           return 0;
+        default:            return state - '0';
+        }
+    }
+
+    /**
+     * @param opcode request opcode
+     * @param args arguments of the request, each >= 0
+     * @return request FRAME, as a client sends it
+     */
+    public static byte[] request(int opcode, long... args) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(MAX_FRAME);
+        body.write(opcode);
+        for (long arg : args) writeVarint(body, arg);
+        return frame(body);
+    }
+
+    /**
+     * @param text board content as returned by Board.getBoardState()
+     * @return BOARD response FRAME
+     */
+    static byte[] board(int cols, int rows, long version, String text) {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(16);
+        header.write(BOARD);
+        writeVarint(header, cols);
+        writeVarint(header, rows);
+        writeVarint(header, version);
+        int position = header.size();
+        byte[] body = Arrays.copyOf(header.toByteArray(), position + (cols * rows + 1) / 2);
+        byte[] chars = text.getBytes(StandardCharsets.ISO_8859_1); // one char and one separator per cell, the last separator is "\r\n"
+        byte[] codes = new byte[cols * rows + 1]; // +1: an odd last cell is paired with 0
+        for (int y = 0, i = 0, cell = 0; y < rows; y++, i++) {
+            for (int end = i + 2 * cols; i < end; i += 2) codes[cell++] = CODES[chars[i] & 0x7F];
+        }
+        for (int cell = 0; position < body.length; cell += 2) body[position++] = (byte) (codes[cell] | codes[cell + 1] << 4);
+        return frame(body);
+    }
+
+    /**
+     * @param cells changed cells as y * COLS + x
+     * @param states STATE codes of cells
+     * @return DELTA response FRAME
+     */
+    static byte[] delta(long version, int[] cells, int[] states) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(16 + 4 * cells.length);
+        body.write(DELTA);
+        writeVarint(body, version);
+        writeVarint(body, cells.length);
+        for (int i = 0; i < cells.length; i++) {
+            writeVarint(body, cells[i]);
+            body.write(states[i]);
+        }
+        return frame(body);
+    }
+
+    /**
+     * @return response FRAME of type with a VARINT, or without content if value < 0
+     */
+    static byte[] response(int type, long value) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(12);
+        body.write(type);
+        if (value >= 0) writeVarint(body, value);
+        return frame(body);
+    }
+
+    /**
+     * @return ERROR response FRAME with message
+     */
+    static byte[] error(String message) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(1 + message.length());
+        body.write(ERROR);
+        byte[] text = message.getBytes(StandardCharsets.ISO_8859_1);
+        body.write(text, 0, text.length);
+        return frame(body);
+    }
+
+    /**
+     * @return type of a response FRAME
+     */
+    static int typeOf(byte[] response) {
+        int i = 0;
+        while ((response[i] & 0x80) != 0) i++; // skip LENGTH
+        return response[i + 1];
+    }
+
+    private static byte[] frame(ByteArrayOutputStream body) {
+        return frame(body.toByteArray());
+    }
+
+    private static byte[] frame(byte[] body) {
+        ByteArrayOutputStream length = new ByteArrayOutputStream(5);
+        writeVarint(length, body.length);
+        byte[] frame = Arrays.copyOf(length.toByteArray(), length.size() + body.length);
+        System.arraycopy(body, 0, frame, length.size(), body.length);
+        return frame;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads the opcode and the VARINT arguments of a request body.
+     */
+    static final class Reader {
+        private final byte[] body;
+        private int position;
+        private boolean malformed;
+
+        Reader(byte[] body) {
+            this.body = body;
+        }
+
+        /**
+         * @return next byte, or -1 past the end of the body
+         */
+        int readByte() {
+            if (position == body.length) {
+                malformed = true;
+                return -1;
+            }
+            return body[position++] & 0xFF;
+        }
+
+        /**
+         * @return next VARINT, saturated to Long.MAX_VALUE, or -1 if the body ends within it
+         */
+        long readVarint() {
+            long value = 0;
+            boolean overflow = false;
+            for (int shift = 0; ; shift += 7) {
+                int b = readByte();
+                if (b < 0) return -1;
+                long bits = b & 0x7F;
+                if (shift >= 63 ? bits != 0 : bits >>> (63 - shift) != 0) overflow = true; // beyond 63 bits
+                else value |= bits << shift;
+                if ((b & 0x80) == 0) return overflow ? Long.MAX_VALUE : value;
+            }
+        }
+
+        /**
+         * @return next VARINT as a coordinate, saturated to Integer.MAX_VALUE, which is off any board
+         */
+        int readCoordinate() {
+            return (int) Math.min(readVarint(), Integer.MAX_VALUE);
+        }
+
+        /**
+         * @return true if every byte of the body was read, and no read went past its end
+         */
+        boolean isComplete() {
+            return !malformed && position == body.length;
+        }
+    }
+
+    /**
+     * Splits the bytes a binary client sends into request bodies. The bytes of an incomplete frame are
+     * kept until the rest of it arrives.
+     *
+     * Not thread safe: used by the one thread serving a connection.
+     */
+    static final class Framer {
+        private final byte[] body = new byte[MAX_FRAME];
+        private int length = -1; // length of the current frame's body, -1 while its LENGTH is being read
+        private int received; // body[0..received) of the current frame are received
+
+        /**
+         * Add the request bodies of the complete frames of bytes to frames.
+         * @param bytes bytes received from the client, all consumed
+         * @param frames list the request bodies are appended to, in order
+         * @return false if a frame is not 1 to MAX_FRAME bytes long, so the stream cannot be followed
+         */
+        boolean frame(ByteBuffer bytes, List<byte[]> frames) {
+            while (bytes.hasRemaining()) {
+                if (length < 0) {
+                    int b = bytes.get() & 0xFF; // MAX_FRAME fits a one byte LENGTH
+                    if (b < 1 || b > MAX_FRAME) return false;
+                    length = b;
+                    received = 0;
+                } else {
+                    int n = Math.min(length - received, bytes.remaining());
+                    bytes.get(body, received, n);
+                    received += n;
+                    if (received == length) {
+                        frames.add(Arrays.copyOf(body, length));
+                        length = -1;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
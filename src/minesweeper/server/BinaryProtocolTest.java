@@ -0,0 +1,77 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * BinaryProtocol must frame requests and responses as documented, however the frames are split into
+ * reads.
+ */
+public class BinaryProtocolTest {
+
+    @Test
+    public void testVarintRoundTrip() {
+        long[] values = { 0, 1, 127, 128, 300, Integer.MAX_VALUE, 1L << 40, Long.MAX_VALUE };
+        byte[] frame = BinaryProtocol.request(BinaryProtocol.LOOK_SINCE, values);
+        BinaryProtocol.Reader reader = new BinaryProtocol.Reader(Arrays.copyOfRange(frame, 1, frame.length));
+        assertEquals(BinaryProtocol.LOOK_SINCE, reader.readByte());
+        for (long value : values) assertEquals(value, reader.readVarint());
+        assertTrue(reader.isComplete());
+        assertEquals(-1, reader.readVarint());
+        assertFalse(reader.isComplete());
+    }
+
+    @Test
+    public void testVarintSaturates() {
+        byte[] body = new byte[11]; // 77 bits
+        Arrays.fill(body, (byte) 0xFF);
+        body[10] = 1;
+        BinaryProtocol.Reader reader = new BinaryProtocol.Reader(body);
+        assertEquals(Long.MAX_VALUE, reader.readVarint());
+        assertTrue(reader.isComplete());
+    }
+
+    @Test
+    public void testBoardPacksTwoCellsPerByte() {
+        byte[] frame = BinaryProtocol.board(3, 1, 5, "F 3 _\r\n");
+        assertArrayEquals(new byte[] { 6, BinaryProtocol.BOARD, 3, 1, 5, 0x3A, 0x09 }, frame); // F=10, 3 | _=9
+        assertEquals(BinaryProtocol.BOARD, BinaryProtocol.typeOf(frame));
+    }
+
+    @Test
+    public void testFramerSplitReads() {
+        List<byte[]> requests = new ArrayList<byte[]>();
+        requests.add(BinaryProtocol.request(BinaryProtocol.DIG, 200, 3));
+        requests.add(BinaryProtocol.request(BinaryProtocol.LOOK));
+        requests.add(BinaryProtocol.request(BinaryProtocol.LOOK_SINCE, Long.MAX_VALUE));
+        ByteBuffer stream = ByteBuffer.allocate(64);
+        for (byte[] request : requests) stream.put(request);
+        stream.flip();
+
+        BinaryProtocol.Framer framer = new BinaryProtocol.Framer();
+        List<byte[]> bodies = new ArrayList<byte[]>();
+        while (stream.hasRemaining()) { // one byte per read
+            assertTrue(framer.frame(ByteBuffer.wrap(new byte[] { stream.get() }), bodies));
+        }
+        assertEquals(requests.size(), bodies.size());
+        for (int i = 0; i < bodies.size(); i++) {
+            byte[] request = requests.get(i);
+            assertArrayEquals(Arrays.copyOfRange(request, 1, request.length), bodies.get(i));
+        }
+    }
+
+    @Test
+    public void testFramerRejectsWrongLengths() {
+        List<byte[]> bodies = new ArrayList<byte[]>();
+        assertFalse(new BinaryProtocol.Framer().frame(ByteBuffer.wrap(new byte[] { 0 }), bodies));
+        assertFalse(new BinaryProtocol.Framer().frame(ByteBuffer.wrap(new byte[] { BinaryProtocol.MAX_FRAME + 1 }), bodies));
+        assertFalse(new BinaryProtocol.Framer().frame(ByteBuffer.wrap(new byte[] { (byte) 0x81, 0 }), bodies));
+        assertTrue(bodies.isEmpty());
+    }
+}
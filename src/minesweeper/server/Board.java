@@ -13,6 +13,16 @@ public interface Board {
     public String getBoardState();
     
     
+    /**
+     * Getting the content of this Board only if it changed, so a client holding the state of a version
+     * is not sent it again.
+     * @param version version of a state the caller has, as returned by getVersion()
+     * @return null if this Board is still at version, otherwise content of this Board as single string,
+     *         at least as new as getVersion() called before
+     */
+    public String getBoardState(long version);
+    
+    
     /**
      * Modifies cell state by replacing current state with 'new state'.
      * @param state new cell state.
@@ -32,6 +42,84 @@ public interface Board {
     public char getCellState(int posX, int posY);
     
     
+    /**
+     * Getting number of bombs in the cells adjacent to a Board cell
+     * @param posX cell position in columns >=0 and <= Board X size
+     * @param posY cell position in rows >=0 and <= Board Y size
+     * @return number of adjacent cells with bombs, 0-8
+     */
+    public int getNeighbourBombs(int posX, int posY);
+    
+    
+    /**
+     * Dig an untouched cell and reveal its untouched neighbours, repeating for every dug cell
+     * with no neighbour bombs, as one atomic operation.
+     * @param posX cell position in columns >=0 and <= Board X size
+     * @param posY cell position in rows >=0 and <= Board Y size
+     * @return changed cells as posY * Board X size + posX in no particular order, empty if cell
+     *         posX,posY is not untouched
+     */
+    public int[] revealCell(int posX, int posY);
+    
+    
+    /**
+     * Dig a cell as one atomic operation. An untouched cell is revealed as by revealCell(). A bomb is
+     * removed, the neighbour bomb counts shown by dug cells are updated, and the cell is then revealed
+     * as an untouched cell. Any other cell is left unchanged.
+     * @param posX cell position in columns >=0 and <= Board X size
+     * @param posY cell position in rows >=0 and <= Board Y size
+     * @return whether the cell held a bomb, and the changed cells
+     */
+    public DigResult digAt(int posX, int posY);
+    
+    
+    /**
+     * Flag a cell if it is untouched '_', as one atomic operation.
+     * @param posX cell position in columns >=0 and <= Board X size
+     * @param posY cell position in rows >=0 and <= Board Y size
+     * @return true if the cell changed to 'F', otherwise false
+     */
+    public boolean flagIfUntouched(int posX, int posY);
+    
+    
+    /**
+     * Remove the flag of a cell if it is flagged 'F', as one atomic operation.
+     * @param posX cell position in columns >=0 and <= Board X size
+     * @param posY cell position in rows >=0 and <= Board Y size
+     * @return true if the cell changed to '_', otherwise false
+     */
+    public boolean deflagIfFlagged(int posX, int posY);
+    
+    
+    /**
+     * Getting the version of this Board, for clients to tell which of two states is newer without
+     * comparing them. It does not wait for operations in progress.
+     * @return number >= 0 which grows by one with every operation that changes one or more cells, so
+     *         the same moves bring every kind of Board to the same version
+     */
+    public long getVersion();
+    
+    
+    /**
+     * Run a sequence of operations on this Board, such as the pipelined commands of one client. A Board
+     * guarded by a single lock holds it once for all of them: other threads do not change the Board
+     * between them. Boards with finer locks, or none, run them as they would run them one by one, so a
+     * batch never holds the whole Board against other players' reads and changes.
+     * @param operations calls to methods of this Board; must not wait for other threads using this Board
+     */
+    public void runBatch(Runnable operations);
+    
+    
+    /**
+     * Copy the cells of this Board, as one atomic operation, e.g. to save the game.
+     * @param cells array of Board X size * Board Y size bytes; the cell posX,posY is copied to
+     *              cells[posY * Board X size + posX] as its bomb and state bits in the layout of PackedBoard:
+     *              BOMB, and UNTOUCHED, DUG or FLAGGED; its count bits are 0
+     * @return version of the copied state: the state is at least as new as getVersion() returned this
+     */
+    public long copyCells(byte[] cells);
+    
+    
     /**
      * @return Board dimensions represented by columns-X size and rows-Y size
      */
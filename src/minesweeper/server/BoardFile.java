@@ -0,0 +1,141 @@
+package minesweeper.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * BoardFile is a board loaded from a file in the format of the "--file" option, see the JavaDoc of
+ * MinesweeperServer.main(). The file is memory-mapped and parsed in one pass, byte by byte, straight
+ * into a bit per cell; the whole file is validated against the grammar before a Board is built from it.
+ */
+final class BoardFile {
+    private static final long MAP_SIZE = 1 << 30; // bytes mapped at once, a mapping is limited to 2GB
+
+    /**
+     * Size of the board: X columns by Y rows.
+     */
+    final int cols, rows;
+    /**
+     * Cells with a bomb, cell x,y at index y * cols + x.
+     */
+    final BitSet bombs;
+
+    private BoardFile(int cols, int rows, BitSet bombs) {
+        this.cols = cols;
+        this.rows = rows;
+        this.bombs = bombs;
+    }
+
+    /**
+     * @param file board file
+     * @return the board stored in file
+     * @throws IOException if file cannot be read, or does not follow the grammar; the message tells the
+     *                     line of the first error
+     */
+    static BoardFile read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Parser parser = new Parser(file.toString());
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_SIZE) {
+                parser.parse(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_SIZE, size - position)));
+            }
+            return parser.end();
+        }
+    }
+
+    /**
+     * Parses the grammar of board files, as a state machine fed with the bytes of the file in order.
+     */
+    private static final class Parser {
+        private static final int SIZE_X = 0, SIZE_Y = 1, VAL = 2, AFTER_VAL = 3, LF = 4, END = 5;
+
+        private final String name;
+        private int state = SIZE_X;
+        private int digits; // digits of the INT being parsed
+        private long number; // value of the INT being parsed, saturated beyond the int range
+        private int cols, rows;
+        private BitSet bombs;
+        private int row = -1; // LINE being parsed, -1 for SIZE
+        private int col; // VALs of the LINE parsed so far
+
+        Parser(String name) {
+            this.name = name;
+        }
+
+        void parse(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                byte b = bytes.get();
+                switch (state) {
+                case SIZE_X:
+                case SIZE_Y:
+                    if (b >= '0' && b <= '9') {
+                        number = Math.min(10 * number + (b - '0'), 1L + Integer.MAX_VALUE);
+                        digits++;
+                    } else if (b == ' ' && state == SIZE_X) {
+                        cols = size("X");
+                        state = SIZE_Y;
+                    } else if ((b == '\r' || b == '\n') && state == SIZE_Y) {
+                        rows = size("Y");
+                        if ((long) cols * rows > Integer.MAX_VALUE) throw error("board of " + cols + "x" + rows + " cells is too large");
+                        bombs = new BitSet(cols * rows);
+                        if (b == '\r') state = LF;
+                        else endLine();
+                    } else {
+                        throw error(state == SIZE_X ? "expected X SPACE" : "expected Y NEWLINE");
+                    }
+                    break;
+                case VAL:
+                    if (b == '1' || b == 'B') bombs.set(row * cols + col);
+                    else if (b != '0') throw error("expected 0, 1 or B");
+                    col++;
+                    state = AFTER_VAL;
+                    break;
+                case AFTER_VAL:
+                    if (b == ' ' && col < cols) state = VAL;
+                    else if (b == '\r') state = LF;
+                    else if (b == '\n') endLine();
+                    else throw error(b == ' ' ? "more than " + cols + " values" : "expected SPACE or NEWLINE");
+                    break;
+                case LF:
+                    if (b != '\n') throw error("expected \\n after \\r");
+                    endLine();
+                    break;
+                default: // END
+                    throw error("more than " + rows + " lines");
+                }
+            }
+        }
+
+        /**
+         * @return the board parsed, once all the bytes of the file are
+         */
+        BoardFile end() throws IOException {
+            if (state == AFTER_VAL && row == rows - 1 && col == cols) state = END; // the last NEWLINE may be missing
+            if (state != END) throw error(row < 0 ? "expected X SPACE Y NEWLINE" : "expected " + rows + " lines of " + cols + " values");
+            return new BoardFile(cols, rows, bombs);
+        }
+
+        private int size(String what) throws IOException {
+            if (digits == 0 || number == 0 || number > Integer.MAX_VALUE) throw error(what + " must be a positive int");
+            int size = (int) number;
+            digits = 0;
+            number = 0;
+            return size;
+        }
+
+        private void endLine() throws IOException {
+            if (row >= 0 && col != cols) throw error("expected " + cols + " values");
+            row++;
+            col = 0;
+            state = row == rows ? END : VAL;
+        }
+
+        private IOException error(String message) {
+            return new IOException(name + ":" + (row + 2) + ": " + message); // lines are counted from 1, SIZE is the first
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+/**
+ * BoardFile must load the boards of the grammar of MinesweeperServer.main() and reject any other file
+ * with the line of its first error.
+ */
+public class BoardFileTest {
+
+    @Test
+    public void testLoadsTestBoard() throws IOException {
+        BoardFile loaded = BoardFile.read(file("4 4\r\n0 0 0 0\r\n0 0 0 0\r\n0 B B 0\r\n0 0 0 0\r\n"));
+        assertEquals(4, loaded.cols);
+        assertEquals(4, loaded.rows);
+        assertEquals(2, loaded.bombs.cardinality());
+        assertTrue(loaded.bombs.get(2 * 4 + 1) && loaded.bombs.get(2 * 4 + 2));
+    }
+
+    @Test
+    public void testMultiDigitNonSquareSize_LastNewlineMissing() throws IOException {
+        StringBuilder text = new StringBuilder("12 2\n");
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 12; x++) text.append(x == 11 && y == 1 ? "1" : "0").append(x < 11 ? " " : "");
+            if (y == 0) text.append("\n");
+        }
+        BoardFile loaded = BoardFile.read(file(text.toString()));
+        assertEquals(12, loaded.cols);
+        assertEquals(2, loaded.rows);
+        assertEquals(1, loaded.bombs.cardinality());
+        assertTrue(loaded.bombs.get(1 * 12 + 11));
+
+        Board board = new PackedBoard(loaded.rows, loaded.cols, loaded.bombs);
+        assertEquals('B', board.getCellState(11, 1));
+        assertEquals(0, board.getVersion());
+        assertTrue(board.digAt(9, 0).getNumChangedCells() > 1); // counts are in place: revealed up to column 10
+        assertEquals('1', board.getCellState(10, 0));
+    }
+
+    @Test
+    public void testRejectsFilesOutsideTheGrammar() throws IOException {
+        String[][] wrong = {
+                { "2 2\n0 0\n0\n", ":3:" },     // short line
+                { "2 2\n0 0\n0 0 0\n", ":3:" }, // long line
+                { "2 2\n0 0\n", ":3:" },        // missing line
+                { "2 2\n0 0\n0 0\n0 0\n", ":4:" }, // extra line
+                { "2 2\n0 x\n0 0\n", ":2:" },   // wrong VAL
+                { "2 2\n0  0\n0 0\n", ":2:" },  // two SPACEs
+                { "2 2\n0 0\r0 0\n", ":2:" },   // CR without LF
+                { "2\n0 0\n", ":1:" },          // missing Y
+                { "0 2\n\n\n", ":1:" },         // empty board
+                { "99999 99999\n", ":1:" },     // too many cells
+                { "", ":1:" },
+        };
+        for (String[] test : wrong) {
+            try {
+                BoardFile.read(file(test[0]));
+                fail("loaded " + test[0]);
+            } catch (IOException e) {
+                assertTrue(test[0] + " -> " + e.getMessage(), e.getMessage().contains(test[1]));
+            }
+        }
+    }
+
+    private static File file(String content) throws IOException {
+        File file = File.createTempFile("board", ".txt");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes("US-ASCII"));
+        }
+        return file;
+    }
+}
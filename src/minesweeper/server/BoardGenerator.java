@@ -0,0 +1,231 @@
+package minesweeper.server;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * BoardGenerator places the bombs of random boards from a seed: each cell a bomb with a given density,
+ * or exactly a given number of bombs, every set of cells of that size being equally likely. The same
+ * seed always places the same bombs.
+ *
+ * The cells, row after row, are split in bands of BAND_WORDS * 64 cells, whole rows of narrow boards.
+ * Each band draws from its own SplitMix64 stream, split from the seed as SplittableRandom.split() does,
+ * and writes 64 cells at a time into the words of a long[], so bands fill in parallel on a ForkJoinPool
+ * and the bombs do not depend on how many threads filled them. A cell's bit is a bomb with probability
+ * density when the density is ANDed and ORed out of random words, bit by bit of its binary fraction: 2
+ * random words per 64 cells for the default density of .25.
+ *
+ * An exact count is drawn as a density of count / cells, then corrected by adding bombs on random free
+ * cells, or removing random bombs, one at a time: the bombs of a density draw which has k bombs are
+ * uniform among the sets of k cells, and so are they after uniform additions or removals. More than half
+ * of the cells are drawn as the complement, so corrections always find a cell quickly.
+ *
+ * Thread safety argument:
+ *    - the methods are static and confine their state to their tasks; the tasks of a draw write
+ *      distinct words of its array, and join() publishes them to the caller
+ */
+final class BoardGenerator {
+    /**
+     * Density of bombs of the random boards of the original server.
+     */
+    static final double DEFAULT_DENSITY = 0.25;
+    static final int BAND_WORDS = 1 << 12;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final int FRACTION_BITS = 32; // precision of the density
+
+    private BoardGenerator() {
+    }
+
+    /**
+     * Pool filling the bands of all draws, made on first use.
+     */
+    private static final class Pool {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool();
+    }
+
+    /**
+     * @return a seed different in each call and each run, for boards nobody asked to reproduce
+     */
+    static long randomSeed() {
+        return mix64(System.nanoTime() ^ Thread.currentThread().getId() * GOLDEN_GAMMA);
+    }
+
+    /**
+     * @param rows number of rows, requires rows > 0
+     * @param cols number of columns, requires cols > 0
+     * @param density probability of a bomb in each cell, requires 0 <= density <= 1
+     * @param seed seed of the draw
+     * @return cells with a bomb, cell x,y at index y * cols + x
+     */
+    static BitSet withDensity(int rows, int cols, double density, long seed) {
+        return withDensity(rows, cols, density, seed, Pool.INSTANCE);
+    }
+
+    /**
+     * @param pool pool filling the bands, or null to fill them in the calling thread
+     */
+    static BitSet withDensity(int rows, int cols, double density, long seed, ForkJoinPool pool) {
+        Validation.check(density >= 0 && density <= 1, "ASSERTION ERROR ON INPUT PARAMS! invalid density");
+        int cells = cellsOf(rows, cols);
+        long[] words = new long[(cells + 63) / 64];
+        fill(words, cells, density, seed, pool);
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * @param rows number of rows, requires rows > 0
+     * @param cols number of columns, requires cols > 0
+     * @param count number of bombs, requires 0 <= count <= rows * cols
+     * @param seed seed of the draw
+     * @return count cells with a bomb, cell x,y at index y * cols + x
+     */
+    static BitSet withCount(int rows, int cols, int count, long seed) {
+        return withCount(rows, cols, count, seed, Pool.INSTANCE);
+    }
+
+    /**
+     * @param pool pool filling the bands, or null to fill them in the calling thread
+     */
+    static BitSet withCount(int rows, int cols, int count, long seed, ForkJoinPool pool) {
+        int cells = cellsOf(rows, cols);
+        Validation.check(count >= 0 && count <= cells, "ASSERTION ERROR ON INPUT PARAMS! invalid count");
+        boolean complement = count > cells / 2;
+        int drawn = complement ? cells - count : count;
+        long[] words = new long[(cells + 63) / 64];
+        long placed = fill(words, cells, (double) drawn / cells, seed, pool);
+
+        SplitMix random = new SplitMix(stream(seed, -1)); // a stream no band draws from
+        for (; placed < drawn; placed++) {
+            int cell;
+            do {
+                cell = random.nextInt(cells);
+            } while ((words[cell >>> 6] & 1L << cell) != 0);
+            words[cell >>> 6] |= 1L << cell;
+        }
+        for (; placed > drawn; placed--) {
+            int cell;
+            do {
+                cell = random.nextInt(cells);
+            } while ((words[cell >>> 6] & 1L << cell) == 0);
+            words[cell >>> 6] &= ~(1L << cell);
+        }
+        if (complement) {
+            for (int i = 0; i < words.length; i++) words[i] = ~words[i];
+            words[words.length - 1] &= lastWordMask(cells);
+        }
+        return BitSet.valueOf(words);
+    }
+
+    private static int cellsOf(int rows, int cols) {
+        Validation.check(rows > 0 && cols > 0 && (long) rows * cols <= Integer.MAX_VALUE,
+                "ASSERTION ERROR ON INPUT PARAMS! invalid size");
+        return rows * cols;
+    }
+
+    private static long lastWordMask(int cells) {
+        return cells % 64 == 0 ? -1L : (1L << cells) - 1;
+    }
+
+    /**
+     * Set each of the first cells bits of words with probability density, in bands on pool.
+     * @return number of bits set
+     */
+    private static long fill(long[] words, int cells, double density, long seed, ForkJoinPool pool) {
+        int bands = (words.length + BAND_WORDS - 1) / BAND_WORDS;
+        long fraction = (long) Math.floor(density * (1L << FRACTION_BITS)); // density as FRACTION_BITS binary digits
+        Bands task = new Bands(words, cells, fraction, seed, 0, bands);
+        if (pool == null || bands == 1) task.compute();
+        else pool.invoke(task);
+        return task.placed;
+    }
+
+    /**
+     * Fills bands [from, to) of words, splitting them in halves while there are several.
+     */
+    private static final class Bands extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final long[] words;
+        private final int cells, from, to;
+        private final long fraction, seed;
+        long placed; // bits set, once computed
+
+        Bands(long[] words, int cells, long fraction, long seed, int from, int to) {
+            this.words = words;
+            this.cells = cells;
+            this.fraction = fraction;
+            this.seed = seed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                Bands low = new Bands(words, cells, fraction, seed, from, middle);
+                Bands high = new Bands(words, cells, fraction, seed, middle, to);
+                invokeAll(low, high);
+                placed = low.placed + high.placed;
+                return;
+            }
+            SplitMix random = new SplitMix(stream(seed, from));
+            int first = from * BAND_WORDS, last = Math.min(words.length, first + BAND_WORDS);
+            int lowest = fraction == 0 ? FRACTION_BITS : Long.numberOfTrailingZeros(fraction);
+            long count = 0;
+            for (int i = first; i < last; i++) {
+                long word = fraction >>> FRACTION_BITS != 0 ? -1L : 0; // density 1
+                for (int bit = lowest; bit < FRACTION_BITS; bit++) {
+                    word = (fraction >>> bit & 1) != 0 ? word | random.nextLong() : word & random.nextLong();
+                }
+                if (i == words.length - 1) word &= lastWordMask(cells);
+                words[i] = word;
+                count += Long.bitCount(word);
+            }
+            placed = count;
+        }
+    }
+
+    /**
+     * @return initial state of the stream of band of a draw, -1 for the corrections
+     */
+    private static long stream(long seed, int band) {
+        return mix64(seed + (band + 2L) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Stafford's variant 13 of the MurmurHash3 finalizer, as in SplittableRandom.
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * SplitMix64 stream, the generator of SplittableRandom. Not thread safe: each band has its own.
+     */
+    private static final class SplitMix {
+        private long state;
+
+        SplitMix(long state) {
+            this.state = state;
+        }
+
+        long nextLong() {
+            return mix64(state += GOLDEN_GAMMA);
+        }
+
+        /**
+         * @return uniform int in [0, bound), requires bound > 0
+         */
+        int nextInt(int bound) {
+            int limit = Integer.MAX_VALUE - (int) ((Integer.MAX_VALUE + 1L) % bound); // rejects the biased tail
+            int r;
+            do {
+                r = (int) (nextLong() >>> 33);
+            } while (r > limit);
+            return r % bound;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * BoardGenerator must place the same bombs for the same seed however many threads place them, place
+ * exactly the count asked for, uniformly, and bombs with the density asked for.
+ */
+public class BoardGeneratorTest {
+
+    @Test
+    public void testSeedReproducesBombs() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        BitSet sequential = BoardGenerator.withDensity(700, 900, 0.25, 42, null);
+        assertEquals(sequential, BoardGenerator.withDensity(700, 900, 0.25, 42, pool));
+        assertEquals(sequential, BoardGenerator.withDensity(700, 900, 0.25, 42));
+        assertFalse(sequential.equals(BoardGenerator.withDensity(700, 900, 0.25, 43, null)));
+        assertEquals(BoardGenerator.withCount(700, 900, 1000, 7, null), BoardGenerator.withCount(700, 900, 1000, 7, pool));
+        pool.shutdown();
+    }
+
+    @Test
+    public void testDensity() {
+        int cells = 1000 * 1000;
+        for (double density : new double[] { 0.01, 0.25, 0.5, 0.9 }) {
+            double drawn = BoardGenerator.withDensity(1000, 1000, density, 1).cardinality() / (double) cells;
+            assertEquals(density, drawn, 0.005);
+        }
+        assertEquals(0, BoardGenerator.withDensity(33, 65, 0, 1).cardinality());
+        assertEquals(33 * 65, BoardGenerator.withDensity(33, 65, 1, 1).cardinality());
+        assertTrue(BoardGenerator.withDensity(33, 65, 1, 1).length() <= 33 * 65);
+    }
+
+    @Test
+    public void testExactCount() {
+        for (int count : new int[] { 0, 1, 17, 5000, 10000 - 17, 10000 - 1, 10000 }) {
+            BitSet bombs = BoardGenerator.withCount(100, 100, count, count);
+            assertEquals(count, bombs.cardinality());
+            assertTrue(bombs.length() <= 100 * 100);
+        }
+        assertEquals(123456, BoardGenerator.withCount(1000, 3000, 123456, 5).cardinality());
+    }
+
+    @Test
+    public void testCountIsUniform() {
+        int[] hits = new int[9];
+        int draws = 36000;
+        for (int seed = 0; seed < draws; seed++) {
+            BitSet bombs = BoardGenerator.withCount(3, 3, 2, seed, null);
+            for (int i = bombs.nextSetBit(0); i >= 0; i = bombs.nextSetBit(i + 1)) hits[i]++;
+        }
+        for (int cell = 0; cell < hits.length; cell++) {
+            assertEquals("cell " + cell, draws * 2 / 9.0, hits[cell], draws * 2 / 9.0 * 0.04);
+        }
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testTooManyBombs() {
+        BoardGenerator.withCount(3, 3, 10, 1);
+    }
+}
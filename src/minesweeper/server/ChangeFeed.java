@@ -0,0 +1,125 @@
+package minesweeper.server;
+
+import java.util.LinkedHashSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ChangeFeed passes the cells changed by every player of a Board to the clients watching it.
+ *
+ * A player's session publishes the cells its command changed. Each watching session has a Subscription
+ * which collects them until its connection takes them. Publishing never waits for a watcher: a
+ * Subscription keeps each pending cell once however often it changes, and when more than MAX_PENDING
+ * distinct cells are pending it drops them all and only remembers that the watcher must resynchronize.
+ */
+public class ChangeFeed {
+    /**
+     * Maximum number of distinct changed cells a Subscription keeps for a watcher.
+     */
+    public static final int MAX_PENDING = 4096;
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+    // Thread safety argument:
+    //    - 'subscriptions' is a thread safe list, iterated over a snapshot by publish()
+    //    - each Subscription guards its own state with its 'lock'
+
+    /**
+     * Pass changed cells to every Subscription, without waiting for any watcher.
+     * @param cells changed cells as posY * Board X size + posX
+     */
+    public void publish(int[] cells) {
+        if (cells.length == 0) return;
+        for (Subscription subscription : subscriptions) subscription.add(cells);
+    }
+
+    /**
+     * Start collecting the cells published from now on.
+     * @param listener called, in the publishing thread, when the new Subscription gets pending cells after
+     *                 having none; it must not block
+     * @return new Subscription, which must be cancelled when no longer taken from
+     */
+    public Subscription subscribe(Runnable listener) {
+        Subscription subscription = new Subscription(listener);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Cells changed since a watcher last took them.
+     */
+    public final class Subscription {
+        private final Runnable listener;
+        private final ReentrantLock lock = new ReentrantLock(); // held only to update the fields below
+        private LinkedHashSet<Integer> pending = new LinkedHashSet<Integer>();
+        private boolean overflow; // cells were dropped since the last take()
+
+        // Rep invariant
+        // pending.size() <= MAX_PENDING; overflow implies pending is empty
+
+        private Subscription(Runnable listener) {
+            this.listener = listener;
+        }
+
+        private void add(int[] cells) {
+            boolean wasEmpty;
+            lock.lock();
+            try {
+                wasEmpty = pending.isEmpty() && !overflow;
+                if (overflow) return;
+                for (int cell : cells) {
+                    pending.add(cell);
+                    if (pending.size() > MAX_PENDING) { // the watcher is too slow, it will resynchronize instead
+                        pending = new LinkedHashSet<Integer>();
+                        overflow = true;
+                        break;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (wasEmpty) listener.run();
+        }
+
+        /**
+         * Take the pending cells, leaving none.
+         * @return pending cells, each once, in the order they first changed; null if cells were dropped
+         *         since the last take(), so the watcher must read the whole board instead
+         */
+        public int[] take() {
+            lock.lock();
+            try {
+                if (overflow) {
+                    overflow = false;
+                    return null;
+                }
+                int[] cells = new int[pending.size()];
+                int i = 0;
+                for (int cell : pending) cells[i++] = cell;
+                pending.clear();
+                return cells;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return true if cells are pending or were dropped
+         */
+        public boolean isPending() {
+            lock.lock();
+            try {
+                return overflow || !pending.isEmpty();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Stop collecting cells.
+         */
+        public void cancel() {
+            subscriptions.remove(this);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * ChangeFeed must pass each changed cell once to every Subscription, and drop the cells of a
+ * Subscription which falls too far behind instead of keeping them.
+ */
+public class ChangeFeedTest {
+
+    @Test
+    public void testCoalescesPendingCells_ListenerOncePerTake() {
+        ChangeFeed feed = new ChangeFeed();
+        final AtomicInteger signals = new AtomicInteger();
+        ChangeFeed.Subscription subscription = feed.subscribe(new Runnable() {
+            public void run() {
+                signals.incrementAndGet();
+            }
+        });
+        feed.publish(new int[0]);
+        assertFalse(subscription.isPending());
+        feed.publish(new int[] { 5, 2 });
+        feed.publish(new int[] { 2, 7 });
+        assertEquals(1, signals.get());
+        assertArrayEquals(new int[] { 5, 2, 7 }, subscription.take());
+        assertFalse(subscription.isPending());
+        feed.publish(new int[] { 3 });
+        assertEquals(2, signals.get());
+        subscription.cancel();
+        feed.publish(new int[] { 4 });
+        assertArrayEquals(new int[] { 3 }, subscription.take());
+    }
+
+    @Test
+    public void testOverflowDropsCells() {
+        ChangeFeed feed = new ChangeFeed();
+        ChangeFeed.Subscription slow = feed.subscribe(new Runnable() {
+            public void run() {
+            }
+        });
+        for (int cell = 0; cell <= ChangeFeed.MAX_PENDING; cell++) feed.publish(new int[] { cell });
+        assertTrue(slow.isPending());
+        assertNull(slow.take()); // must resynchronize
+        assertFalse(slow.isPending());
+        feed.publish(new int[] { 1 });
+        assertArrayEquals(new int[] { 1 }, slow.take());
+    }
+}
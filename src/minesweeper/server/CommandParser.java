@@ -0,0 +1,171 @@
+package minesweeper.server;
+
+/**
+ * CommandParser recognizes the request lines of the Minesweeper protocol, without regular expressions
+ * and without allocating: it reads the characters of the line once and keeps the numbers it finds in its
+ * own fields.
+ *
+ * It accepts exactly the lines matched by the regular expression
+ *
+ *   (look)|(look \d{1,18})|(dig -?\d+ -?\d+)|(flag -?\d+ -?\d+)|(deflag -?\d+ -?\d+)|
+ *   (help)|(bye)|(delta on)|(delta off)|(watch)|(unwatch)|(binary)|(join -?\d+)|(new -?\d+ -?\d+)|(stats)
+ *
+ * where \d is an ASCII digit. Coordinates beyond the int range are saturated to Integer.MIN_VALUE or
+ * Integer.MAX_VALUE, which are off any board.
+ *
+ * Not thread safe: each session has its own parser.
+ */
+final class CommandParser {
+    static final int INVALID = 0;
+    static final int LOOK = 1;
+    static final int LOOK_SINCE = 2;
+    static final int DIG = 3;
+    static final int FLAG = 4;
+    static final int DEFLAG = 5;
+    static final int HELP = 6;
+    static final int BYE = 7;
+    static final int DELTA_ON = 8;
+    static final int DELTA_OFF = 9;
+    static final int WATCH = 10;
+    static final int UNWATCH = 11;
+    static final int BINARY = 12;
+    static final int JOIN = 13;
+    static final int NEW = 14;
+    static final int STATS = 15;
+    /**
+     * Number of command constants, INVALID included.
+     */
+    static final int COMMANDS = 16;
+
+    private static final int MAX_VERSION_DIGITS = 18; // any 18 digit number fits a long
+
+    private int x, y; // coordinates of the last DIG, FLAG or DEFLAG, size of the last NEW
+    private int game; // game id of the last JOIN
+    private long version; // version of the last LOOK_SINCE
+    private long number; // last number parsed by parseInt()
+    private int end; // position after the last number parsed by parseInt()
+
+    /**
+     * @param line request line, without its line end
+     * @return one of the command constants, INVALID if line is not a request
+     */
+    int parse(CharSequence line) {
+        if (is(line, "look")) return LOOK;
+        if (is(line, "help")) return HELP;
+        if (is(line, "bye")) return BYE;
+        if (is(line, "delta on")) return DELTA_ON;
+        if (is(line, "delta off")) return DELTA_OFF;
+        if (is(line, "watch")) return WATCH;
+        if (is(line, "unwatch")) return UNWATCH;
+        if (is(line, "binary")) return BINARY;
+        if (is(line, "stats")) return STATS;
+        if (startsWith(line, "look ")) return parseVersion(line, 5) ? LOOK_SINCE : INVALID;
+        if (startsWith(line, "dig ")) return parseCell(line, 4) ? DIG : INVALID;
+        if (startsWith(line, "flag ")) return parseCell(line, 5) ? FLAG : INVALID;
+        if (startsWith(line, "deflag ")) return parseCell(line, 7) ? DEFLAG : INVALID;
+        if (startsWith(line, "join ")) return parseGame(line, 5) ? JOIN : INVALID;
+        if (startsWith(line, "new ")) return parseCell(line, 4) ? NEW : INVALID;
+        return INVALID;
+    }
+
+    /**
+     * @return X cell position of the last DIG, FLAG or DEFLAG; number of columns of the last NEW
+     */
+    int x() {
+        return x;
+    }
+
+    /**
+     * @return Y cell position of the last DIG, FLAG or DEFLAG; number of rows of the last NEW
+     */
+    int y() {
+        return y;
+    }
+
+    /**
+     * @return version of the last LOOK_SINCE
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * @return game id of the last JOIN
+     */
+    int game() {
+        return game;
+    }
+
+    private static boolean is(CharSequence line, String word) {
+        return line.length() == word.length() && startsWith(line, word);
+    }
+
+    private static boolean startsWith(CharSequence line, String prefix) {
+        if (line.length() < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.charAt(i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Parse "\d{1,18}" from position from to the end of line into 'version'.
+     */
+    private boolean parseVersion(CharSequence line, int from) {
+        int digits = line.length() - from;
+        if (digits < 1 || digits > MAX_VERSION_DIGITS) return false;
+        long value = 0;
+        for (int i = from; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (!isDigit(c)) return false;
+            value = 10 * value + (c - '0');
+        }
+        version = value;
+        return true;
+    }
+
+    /**
+     * Parse "-?\d+ -?\d+" from position from to the end of line into 'x' and 'y'.
+     */
+    private boolean parseCell(CharSequence line, int from) {
+        if (!parseInt(line, from)) return false;
+        int parsedX = (int) number;
+        if (end >= line.length() || line.charAt(end) != ' ') return false;
+        if (!parseInt(line, end + 1) || end != line.length()) return false;
+        x = parsedX;
+        y = (int) number;
+        return true;
+    }
+
+    /**
+     * Parse "-?\d+" from position from to the end of line into 'game'.
+     */
+    private boolean parseGame(CharSequence line, int from) {
+        if (!parseInt(line, from) || end != line.length()) return false;
+        game = (int) number;
+        return true;
+    }
+
+    /**
+     * Parse "-?\d+" starting at position from, up to the first other character, into 'number' saturated
+     * to the int range, and its end position into 'end'.
+     */
+    private boolean parseInt(CharSequence line, int from) {
+        int i = from;
+        boolean negative = i < line.length() && line.charAt(i) == '-';
+        if (negative) i++;
+        int start = i;
+        long value = 0;
+        for (; i < line.length() && isDigit(line.charAt(i)); i++) {
+            value = Math.min(10 * value + (line.charAt(i) - '0'), 1L + Integer.MAX_VALUE); // saturate, never overflow
+        }
+        if (i == start) return false;
+        number = negative ? -value : Math.min(value, Integer.MAX_VALUE);
+        end = i;
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * CommandParser must accept exactly the request lines the protocol's regular expression matches, and
+ * find their numbers.
+ */
+public class CommandParserTest {
+    private static final Pattern REQUEST = Pattern.compile("(look)|(look \\d{1,18})|(dig -?\\d+ -?\\d+)|"
+            + "(flag -?\\d+ -?\\d+)|(deflag -?\\d+ -?\\d+)|(help)|(bye)|(delta on)|(delta off)|(watch)|(unwatch)|(binary)|"
+            + "(join -?\\d+)|(new -?\\d+ -?\\d+)|(stats)");
+    private static final String[] PIECES = { "look", "dig", "flag", "deflag", "help", "bye", "delta", "on", "off",
+        "watch", "unwatch", "binary", "join", "new", "stats", " ", " ", " ", "-", "0", "7", "12", "99999999999", "x", "\t", "\u0663", "" };
+
+    @Test
+    public void testSameDecisionsAsRegex() {
+        CommandParser parser = new CommandParser();
+        Random random = new Random(5);
+        for (int i = 0; i < 200000; i++) {
+            StringBuilder line = new StringBuilder();
+            for (int n = random.nextInt(6); n > 0; n--) line.append(PIECES[random.nextInt(PIECES.length)]);
+            String input = line.toString();
+            assertEquals(input, REQUEST.matcher(input).matches(), parser.parse(input) != CommandParser.INVALID);
+        }
+    }
+
+    @Test
+    public void testCommandsAndNumbers() {
+        CommandParser parser = new CommandParser();
+        assertEquals(CommandParser.LOOK, parser.parse("look"));
+        assertEquals(CommandParser.LOOK_SINCE, parser.parse("look 123456789012345678"));
+        assertEquals(123456789012345678L, parser.version());
+        assertEquals(CommandParser.INVALID, parser.parse("look 1234567890123456789")); // 19 digits
+        assertEquals(CommandParser.DIG, parser.parse("dig -3 10"));
+        assertEquals(-3, parser.x());
+        assertEquals(10, parser.y());
+        assertEquals(CommandParser.DEFLAG, parser.parse("deflag 99999999999 -99999999999"));
+        assertEquals(Integer.MAX_VALUE, parser.x());
+        assertEquals(Integer.MIN_VALUE, parser.y());
+        assertEquals(CommandParser.DELTA_OFF, parser.parse("delta off"));
+        assertEquals(CommandParser.INVALID, parser.parse("flag 1 2 "));
+        assertEquals(CommandParser.INVALID, parser.parse("flag 1  2"));
+        assertEquals(CommandParser.INVALID, parser.parse("dig - 2"));
+        assertEquals(CommandParser.JOIN, parser.parse("join 42"));
+        assertEquals(42, parser.game());
+        assertEquals(CommandParser.NEW, parser.parse("new 30 20"));
+        assertEquals(30, parser.x());
+        assertEquals(20, parser.y());
+        assertEquals(CommandParser.INVALID, parser.parse("join 4 2"));
+        assertEquals(CommandParser.INVALID, parser.parse("new 30"));
+        assertEquals(CommandParser.STATS, parser.parse("stats"));
+    }
+}
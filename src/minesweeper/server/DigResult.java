@@ -0,0 +1,48 @@
+package minesweeper.server;
+
+/**
+ * DigResult is the immutable outcome of Board.digAt(): whether the dug cell held a bomb, and which cells
+ * of the Board changed.
+ */
+public class DigResult {
+    private final boolean boom;
+    private final int[] changedCells;
+
+    // Rep invariant
+    // changedCells != null, each element is a cell position posY * Board X size + posX, without repeats
+
+    // Thread safety argument:
+    //    immutable: fields are final and 'changedCells' is never changed or exposed after construction
+
+    /**
+     * @param boom true if the dug cell held a bomb
+     * @param changedCells changed cells as posY * Board X size + posX; the array is owned by the new
+     *                     DigResult and must not be changed afterwards
+     */
+    DigResult(boolean boom, int[] changedCells) {
+        this.boom = boom;
+        this.changedCells = changedCells;
+    }
+
+    /**
+     * @return true if the dug cell held a bomb
+     */
+    public boolean isBoom() {
+        return boom;
+    }
+
+    /**
+     * @return number of cells changed by the dig
+     */
+    public int getNumChangedCells() {
+        return changedCells.length;
+    }
+
+    /**
+     * @param i index >= 0 and < getNumChangedCells()
+     * @return i-th changed cell as posY * Board X size + posX
+     */
+    public int getChangedCell(int i) {
+        return changedCells[i];
+    }
+}
@@ -0,0 +1,103 @@
+package minesweeper.server;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Game is one Minesweeper game of a server: its board, the feed of the board's changes to the players
+ * watching it, the journal of its moves, and the shard running its players' requests.
+ *
+ * The players' batches of requests run on the game's shard, one at a time, so a busy game keeps one
+ * thread busy, not every thread of the server, and its board's lock is never contended.
+ */
+final class Game {
+    /**
+     * Id of the game, which players 'join'.
+     */
+    final int id;
+    final Board board;
+    final ChangeFeed feed;
+    /**
+     * Journal of the moves on board, or null if they are not journaled.
+     */
+    final MoveJournal journal;
+    /**
+     * Single thread running the batches of requests of the game, or null to run them in the players'
+     * threads.
+     */
+    private final Executor shard;
+
+    /**
+     * Number of sessions playing the game, when the last one left, and whether it is being saved to be
+     * evicted; guarded by the GameRegistry.
+     */
+    int players;
+    long idleSince;
+    boolean evicting;
+
+    // Thread safety argument:
+    //    - id, board, feed, journal and shard are final; board, feed and journal are thread safe
+    //    - 'players', 'idleSince' and 'evicting' are guarded by the lock of the GameRegistry of the game
+
+    /**
+     * @param id game id
+     * @param board board of the game
+     * @param journal journal of the moves on board, or null not to journal them
+     * @param shard single thread executor running the requests of the game, or null to run them in
+     *              the players' threads
+     */
+    Game(int id, Board board, MoveJournal journal, Executor shard) {
+        this.id = id;
+        this.board = board;
+        this.feed = new ChangeFeed();
+        this.journal = journal;
+        this.shard = shard;
+    }
+
+    /**
+     * @param feed feed of the changes of board, shared with the sessions made without a GameRegistry
+     */
+    Game(int id, Board board, ChangeFeed feed, MoveJournal journal) {
+        this.id = id;
+        this.board = board;
+        this.feed = feed;
+        this.journal = journal;
+        this.shard = null;
+    }
+
+    /**
+     * Run task on the game's shard and wait until it is done, or run it in the calling thread if the
+     * game has no shard. Waits even if interrupted, as task may use the caller's state; the interrupt
+     * is kept.
+     *
+     * @param task task which must not wait for another task of a shard
+     * @throws RuntimeException or Error thrown by task
+     */
+    void run(Runnable task) {
+        if (shard == null) {
+            task.run();
+            return;
+        }
+        FutureTask<Void> future = new FutureTask<Void>(task, null);
+        shard.execute(future);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    future.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    if (cause instanceof Error) throw (Error) cause;
+                    throw new RuntimeException(cause); // a Runnable throws nothing else
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
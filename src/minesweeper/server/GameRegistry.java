@@ -0,0 +1,257 @@
+package minesweeper.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GameRegistry is the set of games hosted by one server, by game id. Clients start in the default
+ * game, the board the server was started with, and switch games with 'new W H' and 'join ID'.
+ *
+ * Each game made with 'new' runs its players' requests on one of a fixed number of single-thread
+ * shards, the shard of its id, see Game.run(); hundreds of small games share the shards' threads instead
+ * of each game's players contending for its board. The default game, which every player starts in, runs
+ * them in the players' threads unless the config shards it too, so a board made for concurrent players
+ * serves them in parallel.
+ *
+ * A game made with 'new' which has had no player for a TTL is evicted: saved as a SnapshotFile named
+ * "game-" ID ".bin" in the storage directory, and dropped from memory. Joining it restores it. The
+ * default game is never evicted.
+ *
+ * The registry's lock is only held to look up and count games: boards of new games are made, and idle
+ * games saved, outside it, so players joining, leaving and disconnecting never wait for them.
+ */
+public final class GameRegistry implements Closeable {
+    /**
+     * Id of the game clients play when they connect.
+     */
+    public static final int DEFAULT_GAME = 0;
+    /**
+     * Largest number of cells of a game made with 'new'.
+     */
+    public static final int MAX_CELLS = 1 << 20;
+    private static final String PREFIX = "game-", SUFFIX = ".bin";
+
+    private final String boardKind;
+    private final Long seed; // seed of game 0, a game's seed is seed + its id; null for random seeds
+    private final double density;
+    private final ExecutorService[] shards;
+    private final File storage;
+    private final boolean temporary; // storage is deleted when the JVM exits
+    private final long ttlMillis;
+    private final ScheduledExecutorService evictor; // null if games are never evicted
+    private final Map<Integer, Game> games = new HashMap<Integer, Game>();
+    private int lastId;
+
+    // Rep invariant:
+    //    games contains DEFAULT_GAME; each key is the id of its game; 0 <= every key <= lastId
+    //    the games evicted are saved in storage, with ids <= lastId, and are not in games
+    //
+    // Thread safety argument:
+    //    - boardKind, seed, density, shards, storage, temporary, ttlMillis and evictor are final, the executors
+    //      are thread safe
+    //    - 'games', 'lastId', and 'players', 'idleSince' and 'evicting' of each game are guarded by this
+    //      object's lock
+
+    /**
+     * Make a GameRegistry whose default game is board.
+     *
+     * @param board board of the default game
+     * @param journal journal of the moves on board, or null not to journal them; games made with 'new'
+     *                are not journaled
+     * @param config settings of the games: boardKind, seed and density of the games made with 'new', shards,
+     *               shardDefaultGame, gamesDir and gameTtl, see ServerConfig
+     * @throws IOException if the storage directory cannot be made or listed
+     */
+    public GameRegistry(Board board, MoveJournal journal, ServerConfig config) throws IOException {
+        boardKind = config.boardKind;
+        seed = config.seed;
+        density = config.density;
+        shards = new ExecutorService[config.shards];
+        for (int i = 0; i < shards.length; i++) shards[i] = Executors.newSingleThreadExecutor(daemonThreads("game-shard-" + i));
+        temporary = config.gamesDir == null;
+        storage = temporary ? Files.createTempDirectory("minesweeper-games").toFile()
+                            : Files.createDirectories(config.gamesDir.toPath()).toFile();
+        if (temporary) storage.deleteOnExit(); // after the files in it, which are registered later
+        String[] saved = storage.list();
+        if (saved == null) throw new IOException("cannot list " + storage);
+        for (String name : saved) { // new ids follow the saved games of an earlier run
+            if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) continue;
+            try {
+                lastId = Math.max(lastId, Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+        }
+        games.put(DEFAULT_GAME, new Game(DEFAULT_GAME, board, journal, config.shardDefaultGame ? shardOf(DEFAULT_GAME) : null));
+
+        ttlMillis = config.gameTtl * 1000L;
+        if (ttlMillis > 0) {
+            evictor = Executors.newSingleThreadScheduledExecutor(daemonThreads("game-evictor"));
+            long period = Math.max(1000, ttlMillis / 4);
+            evictor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        evictIdle(System.currentTimeMillis());
+                    } catch (IOException e) {
+                        e.printStackTrace(); // the games not saved stay in memory, tried again next time
+                    }
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            evictor = null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private ExecutorService shardOf(int id) {
+        return shards.length == 0 ? null : shards[id % shards.length];
+    }
+
+    private File fileOf(int id) {
+        return new File(storage, PREFIX + id + SUFFIX);
+    }
+
+    /**
+     * @return the default game, without counting a player in it
+     */
+    synchronized Game defaultGame() {
+        return games.get(DEFAULT_GAME);
+    }
+
+    /**
+     * @return the default game, counting a player in it
+     */
+    synchronized Game enterDefault() {
+        Game game = games.get(DEFAULT_GAME);
+        game.players++;
+        return game;
+    }
+
+    /**
+     * Count a player in a game, restoring it from storage if it was evicted.
+     *
+     * @param id game id
+     * @return the game, or null if there is no game id
+     * @throws IOException if the evicted game cannot be restored
+     */
+    synchronized Game enter(int id) throws IOException {
+        Game game = games.get(id);
+        if (game != null) game.evicting = false; // played again, its save no longer evicts it
+        if (game == null && id > DEFAULT_GAME && id <= lastId && fileOf(id).isFile()) {
+            SnapshotFile saved = SnapshotFile.read(fileOf(id));
+            game = new Game(id, MinesweeperServer.newBoard(boardKind, saved.rows, saved.cols, saved.cells, saved.version), null, shardOf(id));
+            games.put(id, game);
+        }
+        if (game != null) game.players++;
+        return game;
+    }
+
+    /**
+     * Make a new game with a random board, its bombs placed by BoardGenerator with the density and the
+     * seed plus its id of the config, and count a player in it.
+     *
+     * @param cols number of columns, requires cols > 0
+     * @param rows number of rows, requires rows > 0 and cols * rows <= MAX_CELLS
+     * @return the new game
+     */
+    Game create(int cols, int rows) {
+        Validation.check(cols > 0 && rows > 0 && (long) cols * rows <= MAX_CELLS, "ASSERTION ERROR ON INPUT PARAMS! invalid size");
+        int id;
+        synchronized (this) {
+            id = ++lastId; // nobody can join it before it is put in 'games'
+        }
+        long gameSeed = seed != null ? seed + id : BoardGenerator.randomSeed();
+        Board board = MinesweeperServer.newBoard(boardKind, rows, cols, BoardGenerator.withDensity(rows, cols, density, gameSeed));
+        Game game = new Game(id, board, null, shardOf(id));
+        synchronized (this) {
+            game.players = 1;
+            games.put(id, game);
+        }
+        return game;
+    }
+
+    /**
+     * Count a player out of a game it entered.
+     */
+    synchronized void leave(Game game) {
+        if (--game.players == 0) game.idleSince = System.currentTimeMillis();
+    }
+
+    /**
+     * Evict the games other than the default one which have had no player since before now - TTL. The
+     * games are picked and marked as evicting under the lock, saved without it, and dropped under it
+     * again unless a player entered them meanwhile, which clears the mark.
+     *
+     * @param now current time, as System.currentTimeMillis()
+     * @return number of games evicted
+     * @throws IOException if a game cannot be saved; it stays in memory, the games saved before it are
+     *                     evicted
+     */
+    int evictIdle(long now) throws IOException {
+        List<Game> idle = new ArrayList<Game>();
+        synchronized (this) {
+            for (Game game : games.values()) {
+                if (game.id != DEFAULT_GAME && game.players == 0 && !game.evicting && now - game.idleSince >= ttlMillis) {
+                    game.evicting = true;
+                    idle.add(game);
+                }
+            }
+        }
+        int evicted = 0;
+        try {
+            for (Game game : idle) {
+                File file = fileOf(game.id);
+                SnapshotFile.save(game.board, file);
+                if (temporary) file.deleteOnExit();
+                synchronized (this) {
+                    if (game.evicting) { // not entered while it was saved, so its board is the one saved
+                        games.remove(game.id);
+                        evicted++;
+                    }
+                    game.evicting = false;
+                }
+            }
+        } finally {
+            synchronized (this) {
+                for (Game game : idle) game.evicting = false; // the games not saved stay in memory
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * @return number of games in memory, including the default game
+     */
+    synchronized int size() {
+        return games.size();
+    }
+
+    /**
+     * Stop the shards and the eviction of idle games; the games in memory are not saved.
+     */
+    @Override
+    public void close() {
+        for (ExecutorService shard : shards) shard.shutdown();
+        if (evictor != null) evictor.shutdown();
+    }
+}
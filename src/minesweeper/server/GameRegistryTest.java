@@ -0,0 +1,117 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * GameRegistry must let sessions make and join games, run each game's requests on its shard, and evict
+ * idle games to storage and restore them when they are joined again.
+ */
+public class GameRegistryTest {
+    private GameRegistry games;
+
+    private GameRegistry registry(int shards, int ttl, File dir) throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.boardKind = "packed";
+        config.shards = shards;
+        config.gameTtl = ttl;
+        config.gamesDir = dir;
+        config.density = 0; // boards without bombs, so every flag shows
+        games = new GameRegistry(new PackedBoard(3, 3, 0), null, config);
+        return games;
+    }
+
+    @After
+    public void closeRegistry() {
+        if (games != null) games.close();
+    }
+
+    @Test
+    public void testNewAndJoin() throws IOException {
+        registry(2, 0, null);
+        MinesweeperSession first = new MinesweeperSession(games), second = new MinesweeperSession(games);
+        assertEquals(Arrays.asList("GAME 1 4 2", "_ _ _ _\r\n_ _ _ _\r\n"),
+                first.handleBatch(Arrays.asList("new 4 2", "look")));
+        assertEquals(Arrays.asList("GAME 1 4 2", "_ _ _ _\r\n_ F _ _\r\n"),
+                second.handleBatch(Arrays.asList("join 1", "flag 1 1")));
+        assertEquals("played by both", "_ _ _ _\r\n_ F _ _\r\n", first.handleRequest("look"));
+        assertEquals(Arrays.asList("GAME 0 3 3", "_ _ _\r\n_ _ _\r\n_ _ _\r\n"),
+                first.handleBatch(Arrays.asList("join 0", "look")));
+        assertEquals(2, games.size());
+    }
+
+    @Test
+    public void testInvalidGames() throws IOException {
+        registry(1, 0, null);
+        MinesweeperSession session = new MinesweeperSession(games);
+        assertEquals(Arrays.asList("NO GAME 7", "NO GAME -1", "INVALID GAME SIZE", "INVALID GAME SIZE"),
+                session.handleBatch(Arrays.asList("join 7", "join -1", "new 0 3", "new 2048 1024")));
+        assertEquals("GAMES NOT SUPPORTED", new MinesweeperSession(new PackedBoard(3, 3, 0)).handleRequest("join 0"));
+    }
+
+    @Test
+    public void testEvictAndRestore() throws IOException {
+        File dir = Files.createTempDirectory("games").toFile();
+        dir.deleteOnExit();
+        registry(1, 60, dir);
+        MinesweeperSession session = new MinesweeperSession(games);
+        session.handleBatch(Arrays.asList("new 5 5", "flag 2 3", "flag 4 0", "join 0"));
+        Game game = games.enter(1);
+        String state = game.board.getBoardState();
+        long version = game.board.getVersion();
+        games.leave(game);
+
+        long now = System.currentTimeMillis();
+        assertEquals("not idle for the TTL yet", 0, games.evictIdle(now));
+        assertEquals(1, games.evictIdle(now + 60 * 1000));
+        assertEquals(1, games.size());
+        File saved = new File(dir, "game-1.bin");
+        saved.deleteOnExit();
+        assertTrue(saved.isFile());
+
+        assertEquals("GAME 1 5 5", session.handleRequest("join 1"));
+        game = games.enter(1);
+        assertEquals(state, game.board.getBoardState());
+        assertEquals(version, game.board.getVersion());
+        games.leave(game);
+        assertEquals("played, not idle", 0, games.evictIdle(now + 120 * 1000));
+        games.close();
+
+        registry(1, 0, dir); // a restarted server numbers new games after the saved ones
+        assertEquals("GAME 2 2 2", new MinesweeperSession(games).handleRequest("new 2 2"));
+    }
+
+    @Test
+    public void testShardsRunGames() throws IOException {
+        registry(2, 0, null);
+        final List<String> shard = new ArrayList<String>();
+        for (int id = 0; id < 4; id++) {
+            final Game game = id == 0 ? games.enterDefault() : games.create(3, 3);
+            game.run(new Runnable() {
+                public void run() {
+                    shard.add(Thread.currentThread().getName());
+                }
+            });
+        }
+        String caller = Thread.currentThread().getName(); // the default game is not sharded unless asked
+        assertEquals(Arrays.asList(caller, "game-shard-1", "game-shard-0", "game-shard-1"), shard);
+        try {
+            games.create(3, 3).run(new Runnable() {
+                public void run() {
+                    throw new IllegalStateException("thrown on the shard");
+                }
+            });
+            fail("did not rethrow");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
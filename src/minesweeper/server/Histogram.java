@@ -0,0 +1,147 @@
+package minesweeper.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram counts non-negative values, such as latencies in nanoseconds, in log-linear buckets as an
+ * HdrHistogram does: values below 2 * SUB_BUCKETS exactly, larger ones in SUB_BUCKETS buckets per power
+ * of two, so any percentile is reported within 1 / SUB_BUCKETS of its value. Values above MAX_VALUE
+ * count as MAX_VALUE.
+ *
+ * Recording is one atomic increment and one atomic add, with no lock and no allocation. The threads
+ * record in different stripes of the counts, chosen by thread id, so threads on different cores rarely
+ * write the same cache line; a snapshot() sums the stripes.
+ */
+final class Histogram {
+    static final int SUB_BUCKETS = 16;
+    static final long MAX_VALUE = (1L << 40) - 1; // about 18 minutes in nanoseconds
+    private static final int SUB_BITS = 4; // SUB_BUCKETS == 1 << SUB_BITS
+    private static final int MAX_SHIFT = 63 - Long.numberOfLeadingZeros(MAX_VALUE) - SUB_BITS;
+    private static final int BUCKETS = 2 * SUB_BUCKETS + MAX_SHIFT * SUB_BUCKETS;
+    private static final int STRIDE = BUCKETS + 1; // the buckets of a stripe, then the sum of its values
+    private static final int STRIPES = Math.min(8, Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors() - 1));
+
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * STRIDE);
+
+    // Rep invariant:
+    //    every count >= 0; the sum slot of each stripe is the sum of the values counted in the stripe
+    //
+    // Abstraction function:
+    //    the multiset of values recorded, each rounded down to the lowest value of its bucket
+    //
+    // Thread safety argument:
+    //    - 'counts' is final and only changed by atomic operations; a snapshot taken while values are
+    //      recorded may miss some of them, or have the count of a value without its sum, which only
+    //      skews the mean of a snapshot slightly
+
+    /**
+     * @param value value to count, values < 0 count as 0
+     */
+    void record(long value) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        long clamped = value < 0 ? 0 : Math.min(value, MAX_VALUE);
+        counts.incrementAndGet(stripe * STRIDE + bucketOf(clamped));
+        counts.addAndGet(stripe * STRIDE + BUCKETS, clamped);
+    }
+
+    /**
+     * @return the index of the bucket of value, requires 0 <= value <= MAX_VALUE
+     */
+    static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS; // value >>> shift is in [16, 32)
+        return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return the lowest value of bucket
+     */
+    static long lowestOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) return bucket;
+        int shift = (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+        return (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * @return the values counted so far
+     */
+    Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            for (int i = 0; i < BUCKETS; i++) buckets[i] += counts.get(stripe * STRIDE + i);
+            sum += counts.get(stripe * STRIDE + BUCKETS);
+        }
+        return new Snapshot(buckets, sum);
+    }
+
+    /**
+     * Snapshot is the immutable counts of a Histogram at one time, or the sum of several.
+     */
+    static final class Snapshot {
+        private final long[] buckets;
+        private final long count, sum;
+
+        private Snapshot(long[] buckets, long sum) {
+            this.buckets = buckets;
+            this.sum = sum;
+            long total = 0;
+            for (long n : buckets) total += n;
+            this.count = total;
+        }
+
+        /**
+         * @return snapshot of the values of both snapshots
+         */
+        Snapshot plus(Snapshot other) {
+            long[] both = buckets.clone();
+            for (int i = 0; i < both.length; i++) both[i] += other.buckets[i];
+            return new Snapshot(both, sum + other.sum);
+        }
+
+        /**
+         * @return number of values counted
+         */
+        long count() {
+            return count;
+        }
+
+        /**
+         * @return sum of the values counted
+         */
+        long sum() {
+            return sum;
+        }
+
+        /**
+         * @return mean of the values counted, 0 if none
+         */
+        long mean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * @param percentile requires 0 <= percentile <= 100
+         * @return the lowest value of the bucket holding the value at percentile, 0 if none counted
+         */
+        long percentile(double percentile) {
+            long rank = (long) Math.ceil(percentile / 100 * count); // values up to rank are at or below it
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) return lowestOf(i);
+            }
+            return 0;
+        }
+
+        /**
+         * @return the lowest value of the bucket of the largest value counted, 0 if none
+         */
+        long max() {
+            for (int i = buckets.length - 1; i >= 0; i--) {
+                if (buckets[i] > 0) return lowestOf(i);
+            }
+            return 0;
+        }
+    }
+}
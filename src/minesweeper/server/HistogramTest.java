@@ -0,0 +1,62 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Histogram must put each value in a bucket no wider than 1/16 of its values, and report percentiles
+ * of the values counted by all threads.
+ */
+public class HistogramTest {
+
+    @Test
+    public void testBucketsCoverValues() {
+        long[] values = { 0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Histogram.MAX_VALUE };
+        for (long value : values) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue(value + " below its bucket", Histogram.lowestOf(bucket) <= value);
+            assertTrue(value + " beyond its bucket", value - Histogram.lowestOf(bucket) <= value / Histogram.SUB_BUCKETS);
+            if (value < Histogram.MAX_VALUE) assertTrue(value + " beyond its bucket", Histogram.lowestOf(bucket + 1) > value);
+        }
+        for (long value = 1; value < 1 << 20; value++) {
+            assertTrue(value + "", Histogram.bucketOf(value) >= Histogram.bucketOf(value - 1));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.snapshot().percentile(99));
+        for (int i = 1; i <= 1000; i++) histogram.record(i);
+        histogram.record(-5); // counts as 0
+        histogram.record(Long.MAX_VALUE); // counts as MAX_VALUE
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1002, snapshot.count());
+        assertEquals(0, snapshot.percentile(0));
+        assertEquals(496, snapshot.percentile(50)); // 500 is in the bucket [496, 512)
+        assertEquals(960, snapshot.percentile(99)); // 990 is in [960, 992)
+        assertEquals(Histogram.lowestOf(Histogram.bucketOf(Histogram.MAX_VALUE)), snapshot.max());
+        assertEquals(500500 + Histogram.MAX_VALUE, snapshot.sum());
+    }
+
+    @Test
+    public void testRecordFromManyThreads() throws InterruptedException {
+        final Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++) histogram.record(i % 100);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(80000, snapshot.count());
+        assertEquals(80000 / 100 * 4950, snapshot.sum());
+        assertEquals(96, snapshot.max()); // 99 is in the bucket [96, 100)
+        assertEquals(snapshot.count() * 2, snapshot.plus(snapshot).count());
+    }
+}
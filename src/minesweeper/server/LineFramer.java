@@ -0,0 +1,99 @@
+package minesweeper.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * LineFramer splits the bytes a client sends into request lines as BufferedReader.readLine() does: a line
+ * ends at "\n", "\r" or "\r\n", even when "\r\n" is split between two reads. The bytes of an unterminated
+ * line are kept until the rest of it arrives, up to MAX_LINE bytes: a client sending a longer line is
+ * not framed further, so it cannot grow the buffer without bound.
+ *
+ * A client may switch to another protocol after a given last line; framing stops there, so the bytes
+ * after it are left to that protocol.
+ *
+ * Not thread safe: used by the one thread serving a connection.
+ */
+class LineFramer {
+    /**
+     * Maximum number of bytes of a line, without its line end.
+     */
+    static final int MAX_LINE = 4096;
+    private static final int INITIAL_LINE_SIZE = 64;
+
+    private final Charset charset;
+    private final String lastLine;
+    private byte[] line = new byte[INITIAL_LINE_SIZE];
+    private int lineLength;
+    private boolean skipLF; // last line ended with '\r', a following '\n' belongs to it
+
+    // Rep invariant
+    // line[0..lineLength) are the bytes received since the last line end; lineLength <= MAX_LINE
+
+    /**
+     * @param charset charset the client's lines are encoded in
+     */
+    LineFramer(Charset charset) {
+        this(charset, null);
+    }
+
+    /**
+     * @param charset charset the client's lines are encoded in
+     * @param lastLine line after which the client switches to another protocol, null if there is none
+     */
+    LineFramer(Charset charset, String lastLine) {
+        this.charset = charset;
+        this.lastLine = lastLine;
+    }
+
+    /**
+     * Add the complete lines of bytes, without their line ends, to lines.
+     * @param bytes bytes received from the client, all consumed up to the last line if it is among them
+     * @param lines list the complete lines are appended to, in order
+     * @return false if a line is longer than MAX_LINE bytes; the lines before it are appended, and the
+     *         stream should not be framed further
+     */
+    boolean frame(ByteBuffer bytes, List<String> lines) {
+        while (bytes.hasRemaining()) {
+            byte b = bytes.get();
+            if (skipLF) {
+                skipLF = false;
+                if (b == '\n') continue;
+            }
+            if (b == '\n' || b == '\r') {
+                skipLF = b == '\r';
+                String complete = new String(line, 0, lineLength, charset);
+                lines.add(complete);
+                lineLength = 0;
+                if (complete.equals(lastLine)) return true;
+            } else {
+                if (lineLength == MAX_LINE) return false;
+                if (lineLength == line.length) line = Arrays.copyOf(line, Math.min(2 * lineLength, MAX_LINE));
+                line[lineLength++] = b;
+            }
+        }
+        if (lineLength == 0 && line.length > INITIAL_LINE_SIZE) line = new byte[INITIAL_LINE_SIZE]; // do not keep a long line's buffer
+        return true;
+    }
+
+    /**
+     * Skip the '\n' of the "\r\n" ending the last line, if it was not among the bytes of that line.
+     * @param bytes bytes received from the client after the last line
+     */
+    void skipLineEnd(ByteBuffer bytes) {
+        if (skipLF && bytes.hasRemaining()) {
+            skipLF = false;
+            if (bytes.get(bytes.position()) == '\n') bytes.get();
+        }
+    }
+
+    /**
+     * @return the unterminated last line, which readLine() returns at the end of the stream, or null if
+     *         there is none
+     */
+    String rest() {
+        return lineLength == 0 ? null : new String(line, 0, lineLength, charset);
+    }
+}
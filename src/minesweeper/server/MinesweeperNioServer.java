@@ -0,0 +1,347 @@
+package minesweeper.server;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * MinesweeperNioServer serves all clients from one thread with a Selector and non-blocking channels,
+ * instead of one thread per client as MinesweeperServer does. It speaks the same protocol: each client
+ * has a MinesweeperSession, request lines end at "\n", "\r" or "\r\n" as with BufferedReader.readLine(),
+ * and each message is followed by the line separator as with PrintWriter.println().
+ *
+ * Clients beyond a maximum number of sessions are sent MinesweeperServer.BUSY_MESSAGE and disconnected.
+ * An idle client costs a SelectionKey and a Connection with a small line buffer, no thread or stack; a
+ * client sending a line longer than LineFramer.MAX_LINE is sent MinesweeperServer.LINE_TOO_LONG_MESSAGE
+ * and disconnected. An exception while serving a client only closes that client's connection.
+ * A client whose responses are not read fast enough is not read from until they are sent.
+ *
+ * A watching client is pushed the changes of the board by the selector thread: a ChangeFeed listener
+ * queues its Connection and wakes the selector up. Changes are not pushed while the client has too much
+ * unsent output; they coalesce in its Subscription meanwhile, see ChangeFeed.
+ *
+ * A client that sent "binary" is answered in BinaryProtocol frames from the bytes after that line on.
+ *
+ * With a MoveJournal, the moves of each read are made durable before they are answered. As one thread
+ * serves every client, a commit of the journal only groups the moves of one read of one client.
+ */
+public class MinesweeperNioServer {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_PENDING_OUTPUT = 1 << 20; // stop reading a client with more unsent bytes
+    private static final Charset CHARSET = Charset.defaultCharset(); // as InputStreamReader and PrintWriter
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(CHARSET);
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final Board board;
+    private final MoveJournal journal; // null if moves are not journaled
+    private final GameRegistry games; // null if all clients play 'board'
+    private final int maxSessions;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE); // shared, one thread reads
+    private final ChangeFeed feed = new ChangeFeed();
+    private final ConcurrentLinkedQueue<Connection> pushReady = new ConcurrentLinkedQueue<Connection>();
+
+    // Thread safety argument:
+    //    - serverChannel, selector, readBuffer and every Connection are confined to the thread running serve()
+    //    - 'board' is a thread safe Board, 'feed' a thread safe ChangeFeed, 'journal' a thread safe MoveJournal,
+    //      'games' a thread safe GameRegistry
+    //    - 'pushReady' is a thread safe queue; other threads only add to it, from ChangeFeed listeners
+    //    - connected players are counted with MinesweeperServer's atomic methods
+
+    /**
+     * Make a MinesweeperNioServer that listens for connections on port.
+     *
+     * @param port port number, requires 0 <= port <= 65535; 0 picks a free port, see getLocalPort()
+     * @param board board all clients play on
+     */
+    public MinesweeperNioServer(int port, Board board) throws IOException {
+        this(port, board, 0);
+    }
+
+    /**
+     * Make a MinesweeperNioServer that listens for connections on port and serves at most maxSessions
+     * clients at once.
+     *
+     * @param port port number, requires 0 <= port <= 65535; 0 picks a free port, see getLocalPort()
+     * @param board board all clients play on
+     * @param maxSessions maximum number of clients connected at once, 0 for no limit
+     */
+    public MinesweeperNioServer(int port, Board board, int maxSessions) throws IOException {
+        this(port, board, null, maxSessions);
+    }
+
+    /**
+     * Make a MinesweeperNioServer that listens for connections on port, serves at most maxSessions
+     * clients at once and journals their moves.
+     *
+     * @param port port number, requires 0 <= port <= 65535; 0 picks a free port, see getLocalPort()
+     * @param board board all clients play on
+     * @param journal journal of the moves on board, null not to journal them
+     * @param maxSessions maximum number of clients connected at once, 0 for no limit
+     */
+    public MinesweeperNioServer(int port, Board board, MoveJournal journal, int maxSessions) throws IOException {
+        this(port, board, journal, null, maxSessions);
+    }
+
+    /**
+     * Make a MinesweeperNioServer that listens for connections on port and serves at most maxSessions
+     * clients at once, playing the games of a GameRegistry. The requests of a game with a shard run on it
+     * while the selector thread waits.
+     *
+     * @param port port number, requires 0 <= port <= 65535; 0 picks a free port, see getLocalPort()
+     * @param games games of the server, clients start in its default game
+     * @param maxSessions maximum number of clients connected at once, 0 for no limit
+     */
+    public MinesweeperNioServer(int port, GameRegistry games, int maxSessions) throws IOException {
+        this(port, games.defaultGame().board, null, games, maxSessions);
+    }
+
+    private MinesweeperNioServer(int port, Board board, MoveJournal journal, GameRegistry games, int maxSessions) throws IOException {
+        this.board = board;
+        this.journal = journal;
+        this.games = games;
+        this.maxSessions = maxSessions;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * @return port the server listens on
+     */
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Run the server, listening for client connections and handling them.
+     * Never returns unless an exception is thrown.
+     *
+     * @throws IOException if the main server socket is broken
+     *                     (IOExceptions from individual clients do *not* terminate serve())
+     */
+    public void serve() throws IOException {
+        while (true) {
+            selector.select();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isReadable()) connection.read();
+                    if (key.isValid() && key.isWritable()) connection.write();
+                } catch (IOException | IOError | RuntimeException e) { // IOError: the moves read could not be journaled
+                    e.printStackTrace();
+                    connection.close();
+                }
+            }
+            for (Connection connection = pushReady.poll(); connection != null; connection = pushReady.poll()) {
+                try {
+                    connection.push();
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true); // answers are written per batch already, Nagle would only hold the last one back
+        if (!MinesweeperServer.admitPlayer(maxSessions)) {
+            try { // best effort: the message fits an empty socket buffer
+                channel.write(ByteBuffer.wrap((MinesweeperServer.BUSY_MESSAGE + System.lineSeparator()).getBytes(CHARSET)));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel.close();
+            return;
+        }
+        Connection connection = new Connection(channel.register(selector, SelectionKey.OP_READ));
+        try {
+            connection.send(connection.session.greeting());
+        } catch (IOException e) {
+            e.printStackTrace();
+            connection.close();
+        }
+    }
+
+    /**
+     * One connected client: its session, the bytes of its current request line and its unsent output.
+     */
+    private final class Connection {
+        final SelectionKey key;
+        final SocketChannel channel;
+        final MinesweeperSession session = games != null ? new MinesweeperSession(games)
+                                                         : new MinesweeperSession(board, feed, journal);
+        private final LineFramer framer = new LineFramer(CHARSET, "binary");
+        private final List<String> lines = new ArrayList<String>();
+        private BinaryProtocol.Framer binaryFramer; // once the client switched to BinaryProtocol
+        private final List<byte[]> frames = new ArrayList<byte[]>();
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+        private int pendingBytes;
+        private boolean closing; // no more requests are handled, close once output is sent
+
+        Connection(SelectionKey key) {
+            this.key = key;
+            this.channel = (SocketChannel) key.channel();
+            key.attach(this);
+            session.setPushListener(new Runnable() {
+                public void run() {
+                    pushReady.add(Connection.this);
+                    selector.wakeup();
+                }
+            });
+        }
+
+        /**
+         * Read what the client sent and answer its complete lines, or frames once it switched to
+         * BinaryProtocol, as one batch, sending the answers with one write.
+         */
+        void read() throws IOException {
+            readBuffer.clear();
+            int n = channel.read(readBuffer);
+            if (n < 0) { // client disconnected, or shut down its output only
+                String last = binaryFramer == null ? framer.rest() : null; // readLine() returns an unterminated last line too
+                if (last == null) {
+                    close();
+                    return;
+                }
+                for (String reply : session.handleBatch(Collections.singletonList(last))) {
+                    if (reply == null) break; // action to close connection.
+                    queue(reply);
+                }
+                closing = true; // once the answer is sent
+                write();
+                return;
+            }
+            readBuffer.flip();
+            if (binaryFramer == null) {
+                lines.clear();
+                boolean valid = framer.frame(readBuffer, lines); // answer the lines before a too long one
+                if (lines.isEmpty() && valid) return;
+                for (String reply : session.handleBatch(lines)) { // respond to the Client.
+                    if (reply == null) { // action to close connection.
+                        closing = true;
+                        break;
+                    }
+                    queue(reply);
+                    if (session.closesAfter(reply)) closing = true; // close connection, server in production mode
+                }
+                lines.clear(); // do not keep the requests
+                if (!valid && !closing) {
+                    queue(MinesweeperServer.LINE_TOO_LONG_MESSAGE);
+                    closing = true;
+                }
+                if (closing || !session.isBinary()) {
+                    write();
+                    return;
+                }
+                binaryFramer = new BinaryProtocol.Framer();
+            }
+            framer.skipLineEnd(readBuffer); // the "\r\n" of the "binary" line may end in this read
+            frames.clear();
+            boolean valid = binaryFramer.frame(readBuffer, frames); // answer the frames before an invalid one
+            if (!frames.isEmpty()) {
+                for (byte[] response : session.handleBinaryBatch(frames)) {
+                    if (response == null) { // action to close connection.
+                        closing = true;
+                        break;
+                    }
+                    output.add(ByteBuffer.wrap(response));
+                    pendingBytes += response.length;
+                    if (session.closesAfter(response)) closing = true; // close connection, server in production mode
+                }
+                frames.clear();
+            }
+            if (!valid) closing = true;
+            write();
+        }
+
+        /**
+         * Queue message followed by a line separator, and send as much of the output as the channel takes.
+         */
+        void send(String message) throws IOException {
+            queue(message);
+            write();
+        }
+
+        private void queue(String message) {
+            byte[] bytes = message.getBytes(CHARSET);
+            ByteBuffer buffer = ByteBuffer.allocate(bytes.length + NEWLINE.length);
+            buffer.put(bytes).put(NEWLINE).flip();
+            output.add(buffer);
+            pendingBytes += buffer.remaining();
+        }
+
+        /**
+         * Send the session's push message, unless the client has too much unsent output; write() pushes
+         * once it is sent.
+         */
+        void push() throws IOException {
+            if (!key.isValid() || closing || pendingBytes >= MAX_PENDING_OUTPUT) return;
+            String message = session.takePush();
+            if (message != null) send(message);
+        }
+
+        /**
+         * Send queued output; wait for OP_WRITE if the channel is full, and stop reading while too much
+         * output is pending.
+         */
+        void write() throws IOException {
+            while (!output.isEmpty()) {
+                long written = output.size() == 1 ? channel.write(output.peek())
+                        : channel.write(output.toArray(new ByteBuffer[output.size()])); // the answers of a batch at once
+                pendingBytes -= written;
+                while (!output.isEmpty() && !output.peek().hasRemaining()) output.remove();
+                if (written == 0) break; // channel full
+            }
+            if (output.isEmpty() && closing) {
+                close();
+                return;
+            }
+            if (output.isEmpty() && !closing && session.hasPush()) { // changes held back while output was pending
+                push();
+                return;
+            }
+            int ops = 0;
+            if (!output.isEmpty()) ops |= SelectionKey.OP_WRITE;
+            if (!closing && pendingBytes < MAX_PENDING_OUTPUT) ops |= SelectionKey.OP_READ;
+            key.interestOps(ops);
+        }
+
+        void close() {
+            if (!key.isValid()) return; // already closed
+            session.close();
+            MinesweeperServer.decreaseNumPlayers(); // the player was counted when admitted
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * MinesweeperNioServer must answer clients as MinesweeperServerThread does, however their request
+ * lines are split into packets.
+ */
+public class MinesweeperNioServerTest {
+    private int port;
+
+    @Before
+    public void startServer() throws IOException, InterruptedException {
+        // players of earlier tests count against the limit until the server sees them disconnect
+        for (int i = 0; i < 100 && MinesweeperServer.getConnectedPlayers() > 0; i++) Thread.sleep(50);
+        assertEquals(0, MinesweeperServer.getConnectedPlayers());
+
+        Board board = new PackedBoard(3, 4, 1);
+        board.changeCellState(3, 2, 'B');
+        final MinesweeperNioServer server = new MinesweeperNioServer(0, board, 2);
+        port = server.getLocalPort();
+        Thread serving = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        serving.setDaemon(true);
+        serving.start();
+    }
+
+    @Test(timeout = 10000)
+    public void testGreetingAndLook() throws IOException {
+        try (Socket socket = new Socket("localhost", port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            assertTrue(in.readLine().startsWith("Welcome to Minesweeper. Board: 4 columns by 3 rows."));
+            assertEquals("", in.readLine());
+            socket.getOutputStream().write("look\n".getBytes());
+            assertEquals("_ _ _ _", in.readLine());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testWatcherIsPushedChanges() throws IOException {
+        try (Socket watcher = new Socket("localhost", port);
+             BufferedReader watcherIn = new BufferedReader(new InputStreamReader(watcher.getInputStream()));
+             Socket player = new Socket("localhost", port);
+             BufferedReader playerIn = new BufferedReader(new InputStreamReader(player.getInputStream()))) {
+            watcherIn.readLine();
+            watcherIn.readLine();
+            watcher.getOutputStream().write("watch\n".getBytes());
+            assertEquals("WATCHING", watcherIn.readLine());
+            assertTrue(playerIn.readLine().startsWith("Welcome to Minesweeper."));
+            player.getOutputStream().write("flag 1 1\n".getBytes());
+            assertEquals("WATCH VERSION 2 CHANGED 1", watcherIn.readLine()); // the bomb was version 1
+            assertEquals("1 1 F", watcherIn.readLine());
+            assertEquals("", watcherIn.readLine());
+            watcher.getOutputStream().write("look\n".getBytes());
+            assertEquals("_ _ _ _", watcherIn.readLine());
+            assertEquals("_ F _ _", watcherIn.readLine());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testSplitAndPipelinedLines() throws IOException, InterruptedException {
+        try (Socket socket = new Socket("localhost", port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            in.readLine();
+            in.readLine();
+            OutputStream out = socket.getOutputStream();
+            out.write("fl".getBytes());
+            out.flush();
+            Thread.sleep(50); // let the server read half a line
+            out.write("ag 0 0\r".getBytes());
+            out.flush();
+            Thread.sleep(50);
+            out.write("\nhelp\rxyz\n".getBytes()); // "\r\n" split across packets is one line end
+            assertEquals("F _ _ _", in.readLine());
+            assertEquals("_ _ _ _", in.readLine());
+            assertEquals("_ _ _ _", in.readLine());
+            assertEquals("", in.readLine());
+            assertTrue(in.readLine().startsWith("The commands the user can send to the server"));
+            assertTrue(in.readLine().startsWith("WRONG COMMAND!"));
+            assertEquals("", in.readLine());
+            out.write("deflag 0 0\nbye\nlook\n".getBytes());
+            assertEquals("_ _ _ _", in.readLine());
+            in.readLine();
+            in.readLine();
+            in.readLine();
+            assertNull(in.readLine()); // closed after bye, "look" is not answered
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testUnterminatedLastLineAnswered() throws IOException {
+        try (Socket socket = new Socket("localhost", port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            in.readLine();
+            in.readLine();
+            socket.getOutputStream().write("flag 0 0\nlook".getBytes()); // no line end after "look"
+            socket.shutdownOutput();
+            assertEquals("F _ _ _", in.readLine());
+            in.readLine();
+            in.readLine();
+            in.readLine();
+            assertEquals("answered at the end of the stream, as by readLine()", "F _ _ _", in.readLine());
+            in.readLine();
+            in.readLine();
+            in.readLine();
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testLineTooLongClosesOnlyItsConnection() throws IOException {
+        try (Socket flooder = new Socket("localhost", port);
+             BufferedReader flooderIn = new BufferedReader(new InputStreamReader(flooder.getInputStream()));
+             Socket player = new Socket("localhost", port);
+             BufferedReader playerIn = new BufferedReader(new InputStreamReader(player.getInputStream()))) {
+            flooderIn.readLine();
+            flooderIn.readLine();
+            byte[] line = new byte[LineFramer.MAX_LINE + 1];
+            Arrays.fill(line, (byte) 'x');
+            flooder.getOutputStream().write("flag 0 0\n".getBytes());
+            flooder.getOutputStream().write(line); // no line end
+            assertEquals("F _ _ _", flooderIn.readLine()); // the lines before it are answered
+            flooderIn.readLine();
+            flooderIn.readLine();
+            flooderIn.readLine();
+            assertEquals(MinesweeperServer.LINE_TOO_LONG_MESSAGE.trim(), flooderIn.readLine());
+            flooderIn.readLine();
+            assertNull(flooderIn.readLine());
+
+            playerIn.readLine();
+            playerIn.readLine();
+            player.getOutputStream().write("deflag 0 0\n".getBytes());
+            assertEquals("_ _ _ _", playerIn.readLine());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBinaryProtocol() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            InputStream in = socket.getInputStream(); // not buffered, the binary responses follow the lines
+            readLine(in);
+            assertEquals("", readLine(in));
+            OutputStream out = socket.getOutputStream();
+            out.write("binary\r".getBytes());
+            out.flush();
+            assertEquals("BINARY", readLine(in));
+            out.write('\n'); // still the end of the "binary" line
+            out.write(BinaryProtocol.request(BinaryProtocol.LOOK));
+            out.write(BinaryProtocol.request(BinaryProtocol.DIG, 3, 2));
+            out.write(BinaryProtocol.request(BinaryProtocol.LOOK));
+            // BOARD 4 columns 3 rows version 1, twelve UNTOUCHED cells
+            byte[] board = { 10, 1, 4, 3, 1, (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x99 };
+            for (byte b : board) assertEquals(b & 0xFF, in.read());
+            assertEquals(1, in.read());
+            assertEquals(BinaryProtocol.BOOM, in.read());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\n' && c >= 0; c = in.read()) {
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    @Test(timeout = 10000)
+    public void testBoomClosesConnection() throws IOException {
+        try (Socket socket = new Socket("localhost", port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            in.readLine();
+            in.readLine();
+            socket.getOutputStream().write("dig 3 2\nlook\n".getBytes());
+            assertEquals("BOOM!!!", in.readLine());
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBusyBeyondMaxSessions() throws IOException, InterruptedException {
+        try (Socket first = new Socket("localhost", port);
+             Socket second = new Socket("localhost", port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(second.getInputStream()))) {
+            assertTrue(in.readLine().contains("Players: 2 including you."));
+            try (Socket third = new Socket("localhost", port);
+                 BufferedReader busy = new BufferedReader(new InputStreamReader(third.getInputStream()))) {
+                assertEquals(MinesweeperServer.BUSY_MESSAGE.trim(), busy.readLine());
+                busy.readLine();
+                assertNull(busy.readLine());
+            }
+            first.getOutputStream().write("bye\n".getBytes());
+            while (MinesweeperServer.getConnectedPlayers() > 1) Thread.sleep(10);
+            try (Socket third = new Socket("localhost", port);
+                 BufferedReader greeting = new BufferedReader(new InputStreamReader(third.getInputStream()))) {
+                assertTrue(greeting.readLine().contains("Players: 2 including you."));
+            }
+        }
+    }
+}
@@ -3,8 +3,17 @@ package minesweeper.server;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
 
-import org.junit.Assert;
 /** GAME LOGIC AND SYSTEM SAFETY ARGUMENT
 * The game is played by revealing squares of the grid by clicking or otherwise indicating each square.
 * If a square containing a mine is revealed, the player loses the game. If no mine is revealed,
@@ -20,7 +29,11 @@ import org.junit.Assert;
     // ----------------------
     // The threads in the system are:
     // - main thread accepting new connections
-    // - one thread per connected client, handling just that client
+    // - one thread per connected client, handling just that client; with "--server virtual" it is a
+    //   virtual thread of the server's executor, with "--workers N" a thread of a fixed pool
+    // - one pusher per watching client, sending it the changes of the board, see MinesweeperServerThread;
+    //   a task of the same executor as the client's thread, or a thread of its own without one
+    // or, with "--server nio", one thread accepting and handling all clients, see MinesweeperNioServer
     //
     // The serverSocket object is confined to the main thread.
     //
@@ -30,12 +43,15 @@ import org.junit.Assert;
     //
     // The MinesweeperServerThread object for client is confined to that client's thread, so it is thread safe.
     //
-    // The Board object is sheared by all client threads, all accesses to 'board' happen within SimpleBoard methods,
-    // which are all guarded by SimpleBoard'S lock
+    // The Board object is sheared by all client threads, it is a thread safe Board implementation
+    // (SimpleBoard, PackedBoard, StripedBoard or AtomicBoard), and each client command checks and changes cells
+    // with a single atomic Board operation (digAt, flagIfUntouched, deflagIfFlagged)
+    //
+    // The number of connected players is the active session gauge of ServerMetrics.global(), sheared by all client
+    // threads and thread safe; all accesses to it happen within getConnectedPlayers(), admitPlayer(),
+    // decreaseNumPlayers() methods; admitPlayer() checks the limit and counts the new player in one compare-and-set.
     //
-    // The 'connectedPlayers var is sheared by all client threads, all accesses to it happen within getConnectedPlayers(),
-    // decreaseNumPlayers() methods, which are all guarded by explicit same lock: 'lock' Object, which is locking only this part
-    // of Server for synchronized thread access.
+    // The 'feed' of board changes is shared by all client threads, it is a thread safe ChangeFeed.
     //
     // System.err is used by all threads for displaying error messages.
     //
@@ -47,10 +63,40 @@ public class MinesweeperServer {
      */
     private final boolean listening = true;
     
-    private static int connectedPlayers = 0;
-    private final static Object lock = new Object();
+    /**
+     * Message sent instead of the greeting to a client connecting while the server is full; the
+     * connection is closed right after it.
+     */
+    public static final String BUSY_MESSAGE = "SERVER BUSY! Too many players connected, try again later.\r\n";
+
+    /**
+     * Message sent to a client whose request line is longer than LineFramer.MAX_LINE bytes; the
+     * connection is closed right after it.
+     */
+    public static final String LINE_TOO_LONG_MESSAGE = "LINE TOO LONG! Requests are at most " + LineFramer.MAX_LINE
+            + " bytes.\r\n";
     
     private final ServerSocket serverSocket;
+    /**
+     * Runs the client connections, or null to start a new thread for each.
+     */
+    private final Executor executor;
+    /**
+     * Changes of the board made by the clients, pushed to those watching it.
+     */
+    private final ChangeFeed feed = new ChangeFeed();
+    /**
+     * Journal of the moves on the board, or null if they are not journaled.
+     */
+    private final MoveJournal journal;
+    /**
+     * Games the clients play, or null if they all play the board.
+     */
+    private final GameRegistry games;
+    /**
+     * Maximum number of clients connected at once, 0 for no limit.
+     */
+    private final int maxSessions;
     /**
      * True if the server should _not_ disconnect a client after a BOOM message.
      */    
@@ -58,7 +104,7 @@ public class MinesweeperServer {
     /**
      * MineSweeper game board
      */
-    private static SimpleBoard board = null;
+    private static Board board = null;
 
     /**
      * Make a MinesweeperServer that listens for connections on port.
@@ -66,8 +112,61 @@ public class MinesweeperServer {
      * @param port port number, requires 0 <= port <= 65535
      */
     public MinesweeperServer(int port, boolean debug) throws IOException {
+        this(port, debug, board, null, 0);
+    }
+
+    /**
+     * Make a MinesweeperServer that listens for connections on port and handles each client
+     * on a task of executor.
+     * 
+     * @param port port number, requires 0 <= port <= 65535; 0 picks a free port, see getLocalPort()
+     * @param board board all clients play on
+     * @param executor runs the client connections, one task per client for as long as it is connected;
+     *                 null to start a new thread for each client
+     * @param maxSessions maximum number of clients connected at once, 0 for no limit; if executor has a
+     *                    bounded queue, it must take all the clients admitted
+     */
+    public MinesweeperServer(int port, boolean debug, Board board, Executor executor, int maxSessions) throws IOException {
+        this(port, debug, board, null, executor, maxSessions);
+    }
+
+    /**
+     * Make a MinesweeperServer as MinesweeperServer(port, debug, board, executor, maxSessions) does, which
+     * journals the moves of the clients.
+     * 
+     * @param journal journal of the moves on board, null not to journal them
+     */
+    public MinesweeperServer(int port, boolean debug, Board board, MoveJournal journal, Executor executor, int maxSessions) throws IOException {
+        serverSocket = new ServerSocket(port);
+        MinesweeperServer.debug = debug;
+        MinesweeperServer.board = board;
+        this.journal = journal;
+        this.games = null;
+        this.executor = executor;
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Make a MinesweeperServer as MinesweeperServer(port, debug, board, executor, maxSessions) does, whose
+     * clients play the games of a GameRegistry, starting in its default game.
+     * 
+     * @param games games of the server
+     */
+    public MinesweeperServer(int port, boolean debug, GameRegistry games, Executor executor, int maxSessions) throws IOException {
         serverSocket = new ServerSocket(port);
         MinesweeperServer.debug = debug;
+        MinesweeperServer.board = games.defaultGame().board;
+        this.journal = null;
+        this.games = games;
+        this.executor = executor;
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * @return port the server listens on
+     */
+    public int getLocalPort() {
+        return serverSocket.getLocalPort();
     }
 
     /**
@@ -80,10 +179,36 @@ public class MinesweeperServer {
     public void serve() throws IOException {
         while (listening) {
             // block until a client connects            
-            new MinesweeperServerThread(serverSocket.accept(), board);
-                // mark down another new connected user;
-                connectedPlayers++;
-           
+            Socket socket = serverSocket.accept();
+            // mark down another new connected user before greeting it;
+            if ( ! admitPlayer(maxSessions)) {
+                reject(socket);
+                continue;
+            }
+            try {
+                if (games != null) new MinesweeperServerThread(socket, games, executor);
+                else new MinesweeperServerThread(socket, board, feed, journal, executor);
+            } catch (RejectedExecutionException ree) { // executor shut down, or its queue is smaller than maxSessions
+                decreaseNumPlayers();
+                reject(socket);
+            }
+        }
+    }
+
+    /**
+     * Send BUSY_MESSAGE to a client which is not admitted, and disconnect it.
+     */
+    private static void reject(Socket socket) {
+        try (PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+            out.println(BUSY_MESSAGE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
@@ -92,12 +217,40 @@ public class MinesweeperServer {
     /**
      * Start a MinesweeperServer using the given arguments.
      * 
-     * Usage: MinesweeperServer [--debug] [--port PORT] [--size (SIZE_X,SIZE_Y) | --file FILE]
+     * Usage: MinesweeperServer [--debug] [--validate LEVEL] [--board KIND] [--parallel-reveal] [--server MODE] [--max-sessions MAX] [--workers N] [--port PORT] [--save SAVE] [--journal JOURNAL] [--shards SHARDS] [--shard-default-game] [--games DIR] [--game-ttl TTL] [--no-metrics] [--seed SEED] [--bombs COUNT | --density DENSITY] [--size (SIZE_X,SIZE_Y) | --file FILE | --restore SAVED]
      * 
      * The --debug argument means the server should run in debug mode. The server should disconnect
      * a client after a BOOM message if and only if the debug flag argument was NOT given. E.g.
      * "MinesweeperServer --debug" starts the server in debug mode.
      * 
+     * LEVEL is an optional argument choosing how much of their rep invariant the boards check, see
+     * Validation: "off", "sampled" or "full". It defaults to "full" in debug mode and "off" otherwise,
+     * so a server in production mode does not pay for the checks. E.g. "MinesweeperServer --validate
+     * sampled" checks one cell change in 64.
+     * 
+     * KIND is an optional argument choosing the Board implementation: "simple" (the default) for SimpleBoard,
+     * "packed" for PackedBoard, "striped" for StripedBoard, which lets players on distant cells work in parallel,
+     * "atomic" for AtomicBoard, which changes each cell by compare-and-set without locks, or "snapshot" for
+     * SnapshotBoard, which serves 'look' from immutable snapshots without waiting for digs.
+     * 
+     * The --parallel-reveal argument means a dig should reveal the region around the dug cell on a
+     * ForkJoinPool with one thread per core, instead of in the client's thread. It is only supported by
+     * "--board simple" and "--board packed".
+     * 
+     * MODE is an optional argument choosing how connections are served: "thread" (the default) starts a
+     * thread per client, "virtual" runs each client on a virtual thread (on a JVM without virtual threads,
+     * a thread of a cached pool), "nio" serves all clients from one thread with a Selector, see
+     * MinesweeperNioServer.
+     * 
+     * MAX is an optional positive integer limiting how many clients may be connected at once. A client
+     * connecting while MAX clients are connected is sent BUSY_MESSAGE and disconnected. Without it there is
+     * no limit, unless --workers is given.
+     * 
+     * N is an optional positive integer for "--server thread": clients are served by a fixed pool of N
+     * threads instead of a new thread each. Admitted clients beyond N wait, without a greeting, until a
+     * thread is free. MAX defaults to N, so by default no client waits. A client which sent "watch" takes
+     * a second thread of the pool to be pushed the changes, which waits for a free thread too.
+     * 
      * PORT is an optional integer in the range 0 to 65535 inclusive, specifying the port the
      * server should be listening on for incoming connections. E.g. "MinesweeperServer --port 1234"
      * starts the server listening on port 1234.
@@ -106,28 +259,77 @@ public class MinesweeperServer {
      * be generated. E.g. "MinesweeperServer --size 42,69" starts the server initialized with a random
      * board of size 42*69.
      * 
+     * The bombs of a random board are placed by BoardGenerator from SEED, an optional integer; the same
+     * SEED places the same bombs, without it each run draws a new seed, printed so the board can be made
+     * again. COUNT is an optional number of bombs, placed exactly; otherwise each cell has a bomb with
+     * probability DENSITY, .25 by default. E.g. "MinesweeperServer --size 20000,20000 --seed 7 --bombs
+     * 80000000". Games made with "new" use DENSITY, and SEED plus their id.
+     * 
      * FILE is an optional argument specifying a file pathname where a board has been stored. If
      * this argument is given, the stored board should be loaded as the starting board. E.g.
      * "MinesweeperServer --file boardfile.txt" starts the server initialized with the board stored
-     * in boardfile.txt, however large it happens to be (but the board may be assumed to be
-     * square).
+     * in boardfile.txt, however large it happens to be.
      * 
      * The board file format, for use with the "--file" option, is specified by the following
      * grammar:
      * 
-     *   FILE :== LINE+ 
+     *   FILE :== SIZE LINE+
+     *   SIZE :== X SPACE Y NEWLINE
      *   LINE :== (VAL SPACE)* VAL NEWLINE
-     *   VAL :== 0 | 1 
+     *   VAL :== 0 | 1 | B
      *   SPACE :== " " 
      *   NEWLINE :== "\r?\n"
      * 
-     * If neither FILE nor SIZE_* is given, generate a random board of size 10x10.
+     * where X and Y are positive decimal integers: the board has X columns and Y rows, so the file has
+     * exactly Y LINEs of X VALs each. VAL 1 or B is a bomb. The NEWLINE of the last LINE may be missing.
+     * A file that does not follow the grammar is rejected with the line of the first error.
+     * 
+     * SAVED is an optional argument specifying a file where a board has been saved with --save: the
+     * server starts with that board, its dug and flagged cells and its version, whatever board KIND saved
+     * it. E.g. "MinesweeperServer --restore game.bin".
+     * 
+     * SAVE is an optional argument specifying a file the board is saved to when the server shuts down,
+     * e.g. on Ctrl-C, in the binary format of SnapshotFile. The file is replaced atomically, so a server
+     * stopped while saving leaves the previous save. E.g. "MinesweeperServer --restore game.bin --save
+     * game.bin" keeps the game across restarts.
      * 
-     * Note that FILE and SIZE_* may not be specified simultaneously.
+     * JOURNAL is an optional argument specifying a file every dig, flag and deflag changing the board is
+     * appended to, see MoveJournal, before it is answered; moves of concurrent clients share a write and
+     * fsync of the file. On start, the moves it holds beyond the version of the board are replayed, so it
+     * must be used with the board it was written for: the same FILE, or a SAVED board saved while it was
+     * written. E.g. "MinesweeperServer --file board.txt --journal moves.log" restarts with the moves made
+     * before a crash, and "--restore game.bin --save game.bin --journal moves.log" with the moves made
+     * since the last save. The journal is never truncated.
+     * 
+     * Clients start in the game of the board above, and may make more games of the same KIND with "new X
+     * Y" and switch between them with "join ID", see MinesweeperSession and GameRegistry. SAVE and
+     * JOURNAL only cover the first game.
+     * 
+     * SHARDS is an optional non-negative integer: the requests of each game made with "new" run on one of
+     * SHARDS threads, the same one for all its players. It defaults to the number of cores; 0 runs them in
+     * the connection threads instead. The requests of the first game run in the connection threads unless
+     * the --shard-default-game argument runs them on a shard too. There, the players of a "striped",
+     * "atomic" or "snapshot" board play in parallel, as those boards do not lock the whole board for a
+     * batch of requests (see Board.runBatch()). With JOURNAL, their moves are still made one at a time
+     * and only their other requests run in parallel.
+     * 
+     * DIR is an optional argument specifying the directory games made with "new" are saved to when they
+     * have had no player for TTL seconds, 600 by default, 0 never to evict them. Joining a saved game
+     * loads it again. Without DIR, they are saved to a temporary directory deleted when the server exits.
+     * E.g. "MinesweeperServer --games games --game-ttl 60".
+     * 
+     * The server records the count and latency of the requests of each command, and of its hot paths, see
+     * ServerMetrics; clients read them with "stats", JMX clients from the MBean ServerMetrics.OBJECT_NAME.
+     * The --no-metrics argument turns recording off, except the number of clients connected.
+     * 
+     * If neither FILE, SAVED nor SIZE_* is given, generate a random board of size 10x10.
+     * 
+     * Note that FILE, SAVED and SIZE_* may not be specified simultaneously.
      */
     public static void main(String[] args) {
         // Command-line argument parsing is provided. Do not change this method.
         boolean debug = false;
+        ServerConfig config = new ServerConfig();
         int port = 4444; // default port
         Integer sizeX = 10; // default size
         Integer sizeY = 10; // default size
@@ -142,22 +344,88 @@ public class MinesweeperServer {
                         debug = true;
                     } else if (flag.equals("--no-debug")) {
                         debug = false;
+                    } else if (flag.equals("--validate")) {
+                        config.validation = arguments.remove();
+                        Validation.parse(config.validation); // rejects an unknown LEVEL
+                    } else if (flag.equals("--board")) {
+                        config.boardKind = arguments.remove();
+                        if ( ! Arrays.asList("simple", "packed", "striped", "atomic", "snapshot").contains(config.boardKind)) {
+                            throw new IllegalArgumentException("unknown board: \"" + config.boardKind + "\"");
+                        }
+                    } else if (flag.equals("--parallel-reveal")) {
+                        config.parallelReveal = true;
+                    } else if (flag.equals("--no-metrics")) {
+                        config.metrics = false;
+                    } else if (flag.equals("--server")) {
+                        config.serverMode = arguments.remove();
+                        if ( ! Arrays.asList("thread", "virtual", "nio").contains(config.serverMode)) {
+                            throw new IllegalArgumentException("unknown server mode: \"" + config.serverMode + "\"");
+                        }
+                    } else if (flag.equals("--max-sessions")) {
+                        config.maxSessions = Integer.parseInt(arguments.remove());
+                        if (config.maxSessions < 1) {
+                            throw new IllegalArgumentException("max sessions " + config.maxSessions + " out of range");
+                        }
+                    } else if (flag.equals("--workers")) {
+                        config.workers = Integer.parseInt(arguments.remove());
+                        if (config.workers < 1) {
+                            throw new IllegalArgumentException("workers " + config.workers + " out of range");
+                        }
                     } else if (flag.equals("--port")) {
                         port = Integer.parseInt(arguments.remove());
                         if (port < 0 || port > 65535) {
                             throw new IllegalArgumentException("port " + port + " out of range");
                         }
+                    } else if (flag.equals("--seed")) {
+                        config.seed = Long.parseLong(arguments.remove());
+                    } else if (flag.equals("--bombs")) {
+                        config.bombs = Integer.parseInt(arguments.remove());
+                        if (config.bombs < 0) {
+                            throw new IllegalArgumentException("bombs " + config.bombs + " out of range");
+                        }
+                    } else if (flag.equals("--density")) {
+                        config.density = Double.parseDouble(arguments.remove());
+                        if ( ! (config.density >= 0 && config.density <= 1)) {
+                            throw new IllegalArgumentException("density " + config.density + " out of range");
+                        }
                     } else if (flag.equals("--size")) {
                         String[] sizes = arguments.remove().split(",");
                         sizeX = Integer.parseInt(sizes[0]);
                         sizeY = Integer.parseInt(sizes[1]);
                         file = null;
+                        config.restoreFile = null;
                     } else if (flag.equals("--file")) {
                         sizeX = sizeY = null;
                         file = new File(arguments.remove());
                         if ( ! file.isFile()) {
                             throw new IllegalArgumentException("file not found: \"" + file + "\"");
                         }
+                        config.restoreFile = null;
+                    } else if (flag.equals("--restore")) {
+                        sizeX = sizeY = null;
+                        file = null;
+                        config.restoreFile = new File(arguments.remove());
+                        if ( ! config.restoreFile.isFile()) {
+                            throw new IllegalArgumentException("file not found: \"" + config.restoreFile + "\"");
+                        }
+                    } else if (flag.equals("--save")) {
+                        config.saveFile = new File(arguments.remove());
+                    } else if (flag.equals("--journal")) {
+                        config.journalFile = new File(arguments.remove());
+                    } else if (flag.equals("--shards")) {
+                        config.shards = Integer.parseInt(arguments.remove());
+                        if (config.shards < 0) {
+                            throw new IllegalArgumentException("shards " + config.shards + " out of range");
+                        }
+                    } else if (flag.equals("--shard-default-game")) {
+                        config.shardDefaultGame = true;
+                    } else if (flag.equals("--games")) {
+                        config.gamesDir = new File(arguments.remove());
+                    } else if (flag.equals("--game-ttl")) {
+                        config.gameTtl = Integer.parseInt(arguments.remove());
+                        if (config.gameTtl < 0) {
+                            throw new IllegalArgumentException("game TTL " + config.gameTtl + " out of range");
+                        }
                     } else {
                         throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
                     }
@@ -167,14 +435,26 @@ public class MinesweeperServer {
                     throw new IllegalArgumentException("unable to parse number for " + flag);
                 }
             }
+            if (config.parallelReveal && ! Arrays.asList("simple", "packed").contains(config.boardKind)) {
+                throw new IllegalArgumentException("--parallel-reveal is not supported by --board " + config.boardKind);
+            }
+            if (config.workers > 0 && ! config.serverMode.equals("thread")) {
+                throw new IllegalArgumentException("--workers is not supported by --server " + config.serverMode);
+            }
+            if (sizeX != null && config.bombs > (long) sizeX * sizeY) {
+                throw new IllegalArgumentException("bombs " + config.bombs + " beyond the " + (long) sizeX * sizeY + " cells");
+            }
+            if (config.workers > 0 && config.maxSessions == 0) {
+                config.maxSessions = config.workers;
+            }
         } catch (IllegalArgumentException iae) {
             System.err.println(iae.getMessage());
-            System.err.println("usage: MinesweeperServer [--debug] [--port PORT] [--size SIZE | --file FILE]");
+            System.err.println("usage: MinesweeperServer [--debug] [--validate LEVEL] [--board KIND] [--parallel-reveal] [--server MODE] [--max-sessions MAX] [--workers N] [--port PORT] [--save SAVE] [--journal JOURNAL] [--shards SHARDS] [--shard-default-game] [--games DIR] [--game-ttl TTL] [--no-metrics] [--seed SEED] [--bombs COUNT | --density DENSITY] [--size SIZE | --file FILE | --restore SAVED]");
             return;
         }
 
         try {
-            runMinesweeperServer(debug, file, sizeX, sizeY, port);
+            runMinesweeperServer(debug, file, sizeX, sizeY, port, config);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -193,55 +473,160 @@ public class MinesweeperServer {
      * @param port The network port on which the server should listen.
      */
     public static void runMinesweeperServer(boolean debug, File file, Integer sizeX, Integer sizeY, int port) throws IOException {
+        runMinesweeperServer(debug, file, sizeX, sizeY, port, new ServerConfig());
+    }
+
+    /**
+     * Start a MinesweeperServer as runMinesweeperServer(debug, file, sizeX, sizeY, port) does.
+     * 
+     * @param config further settings, see ServerConfig; if config.restoreFile is not null, the file and
+     *               size arguments must both be null
+     */
+    public static void runMinesweeperServer(boolean debug, File file, Integer sizeX, Integer sizeY, int port,
+                                            ServerConfig config) throws IOException {
+        Validation.setLevel(config.validation != null ? Validation.parse(config.validation)
+                            : debug ? Validation.FULL : Validation.OFF); // before the board checks itself
+        ServerMetrics.global().setEnabled(config.metrics);
+        try {
+            ServerMetrics.global().register();
+        } catch (JMException e) { // served without JMX, 'stats' still works
+            System.err.println("metrics not registered with JMX: " + e);
+        }
         // Initialize MineSweeper board
-        BufferedReader in = null;
         // Eclipse cmd-line argument:    --file .\src\minesweeper\server\testBoard.txt
-        if(file != null){                        
-            try {
-                in = new BufferedReader(new FileReader(file));                
-                String boardRow, numRows = null, numCols = null;
-                int line = 0; 
-                List<Integer> bombLocations = new ArrayList<Integer>(); // bombs location storage
-                
-                while ((boardRow = in.readLine()) != null) {
-                    //  get board size
-                    if(line == 0){
-                        numRows = boardRow.substring(0, 1);
-                        numCols = boardRow.substring(2);
-                    }
-                    // get bombs locations                    
-                    String[] boardRowNoSpaces = boardRow.split(" "); // Eliminate white spaces from the row
-                    for (int i = 0; i < boardRowNoSpaces.length; i++) {
-                        if(boardRowNoSpaces[i].charAt(0) == 'B'){
-                            bombLocations.add(i);   // add X location
-                            bombLocations.add(line -1); // add Y location
-                        }
-                    }                    
-                    line++;
-                }
-                // init board
-                board = new SimpleBoard(Integer.parseInt(numRows), Integer.parseInt(numCols), bombLocations.size()/2);                
-                // insert bombs
-                for (int i = 0; i < bombLocations.size(); i = i + 2) { // get bomb locations incrementing by 2, as i = X, i+1 = Y
-                    board.changeCellState(bombLocations.get(i), bombLocations.get(i + 1), 'B');                   
-                }        
-            } catch(IOException e){
-                e.printStackTrace();
-            } finally {
-                if (in != null) {
-                    in.close();
-                }                
-            }
+        if (config.restoreFile != null) {
+            SnapshotFile saved = SnapshotFile.read(config.restoreFile); // checked, a corrupt file stops the server here
+            board = newBoard(config.boardKind, saved.rows, saved.cols, saved.cells, saved.version);
+        } else if(file != null){
+            BoardFile loaded = BoardFile.read(file); // validated, an invalid file stops the server here
+            board = newBoard(config.boardKind, loaded.rows, loaded.cols, loaded.bombs);
         } else {
             //init board from sizes*
-            board = new SimpleBoard(sizeY, sizeX, Integer.MAX_VALUE);
+            long seed = config.seed != null ? config.seed : BoardGenerator.randomSeed();
+            board = newBoard(config.boardKind, sizeY, sizeX, config.bombs >= 0
+                             ? BoardGenerator.withCount(sizeY, sizeX, config.bombs, seed)
+                             : BoardGenerator.withDensity(sizeY, sizeX, config.density, seed));
+            System.err.println("random board seed " + seed);
         }
+        if (config.parallelReveal && board instanceof SimpleBoard) {
+            ((SimpleBoard) board).setRevealPool(new ForkJoinPool());
+        } else if (config.parallelReveal && board instanceof PackedBoard) {
+            ((PackedBoard) board).setRevealPool(new ForkJoinPool());
+        }
+        MoveJournal journal = null;
+        if (config.journalFile != null) {
+            journal = MoveJournal.open(config.journalFile, board); // replayed, a journal of another board stops the server here
+            System.err.println("replayed " + journal.getReplayed() + " moves from " + config.journalFile);
+        }
+        if (config.saveFile != null) {
+            saveOnShutdown(board, journal, config.saveFile);
+        }
+        GameRegistry games = new GameRegistry(board, journal, config);
         //System.out.println("Get board state!");
         //System.out.println(board.getBoardState());
         
         
-        MinesweeperServer server = new MinesweeperServer(port, debug);
-        server.serve();
+        if (config.serverMode.equals("nio")) {
+            MinesweeperServer.debug = debug;
+            new MinesweeperNioServer(port, games, config.maxSessions).serve();
+        } else {
+            Executor executor = null;
+            if (config.serverMode.equals("virtual")) {
+                executor = newVirtualThreadExecutor();
+            } else if (config.workers > 0) {
+                executor = newWorkerPool(config.workers, config.maxSessions);
+            }
+            MinesweeperServer server = new MinesweeperServer(port, debug, games, executor, config.maxSessions);
+            server.serve();
+        }
+    }
+    
+    /**
+     * Save board to file when the JVM shuts down, e.g. on Ctrl-C; clients still connected may change it
+     * meanwhile. With a journal, the save holds its lock, so no move is made during the copy: the copy of
+     * a board without locks, such as AtomicBoard, is not atomic, and could otherwise have a move without
+     * its version.
+     */
+    private static void saveOnShutdown(final Board board, final MoveJournal journal, final File file) {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                if (journal != null) journal.lock();
+                try {
+                    long version = SnapshotFile.save(board, file);
+                    System.err.println("saved board version " + version + " to " + file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    if (journal != null) journal.unlock();
+                }
+            }
+        }));
+    }
+    
+    /**
+     * The project compiles for Java 7, so Executors.newVirtualThreadPerTaskExecutor() (Java 21) is looked up
+     * at run time.
+     * 
+     * @return executor starting a virtual thread per task, or if the JVM has no virtual threads
+     *         a cached thread pool
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) { // also the UnsupportedOperationException of a preview JVM
+            System.err.println("virtual threads are not available, using a cached thread pool: " + e);
+            return Executors.newCachedThreadPool();
+        }
+    }
+    
+    /**
+     * @param workers number of threads
+     * @param maxSessions maximum number of clients connected at once, requires maxSessions > 0
+     * @return fixed pool of workers threads, whose bounded queue holds every admitted client and its
+     *         pusher, so it never rejects one
+     */
+    static ExecutorService newWorkerPool(int workers, int maxSessions) {
+        return new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(2 * maxSessions));
+    }
+    
+    /**
+     * @param kind Board implementation: "simple", "packed", "striped", "atomic" or "snapshot"
+     * @return new Board of the given kind, see SimpleBoard(rows, cols, bombs)
+     */
+    static Board newBoard(String kind, int rows, int cols, int bombs) {
+        if (kind.equals("packed")) return new PackedBoard(rows, cols, bombs);
+        if (kind.equals("striped")) return new StripedBoard(rows, cols, bombs);
+        if (kind.equals("atomic")) return new AtomicBoard(rows, cols, bombs);
+        if (kind.equals("snapshot")) return new SnapshotBoard(rows, cols, bombs);
+        return new SimpleBoard(rows, cols, bombs);
+    }
+    
+    /**
+     * @param kind Board implementation, as newBoard(kind, rows, cols, bombs)
+     * @param bombs cells with a bomb, cell x,y at index y * cols + x
+     * @return new Board of the given kind, see SimpleBoard(rows, cols, bombs)
+     */
+    static Board newBoard(String kind, int rows, int cols, BitSet bombs) {
+        if (kind.equals("packed")) return new PackedBoard(rows, cols, bombs);
+        if (kind.equals("striped")) return new StripedBoard(rows, cols, bombs);
+        if (kind.equals("atomic")) return new AtomicBoard(rows, cols, bombs);
+        if (kind.equals("snapshot")) return new SnapshotBoard(rows, cols, bombs);
+        return new SimpleBoard(rows, cols, bombs);
+    }
+    
+    /**
+     * @param kind Board implementation, as newBoard(kind, rows, cols, bombs)
+     * @param saved cells of a saved board, see Board.copyCells()
+     * @param version version of the saved board
+     * @return new Board of the given kind with the cells and version of the saved board
+     */
+    static Board newBoard(String kind, int rows, int cols, byte[] saved, long version) {
+        if (kind.equals("packed")) return new PackedBoard(rows, cols, saved, version);
+        if (kind.equals("striped")) return new StripedBoard(rows, cols, saved, version);
+        if (kind.equals("atomic")) return new AtomicBoard(rows, cols, saved, version);
+        if (kind.equals("snapshot")) return new SnapshotBoard(rows, cols, saved, version);
+        return new SimpleBoard(rows, cols, saved, version);
     }
     
     /**
@@ -249,21 +634,25 @@ public class MinesweeperServer {
      * @return all active users, connected to server.
      */
     public  static int getConnectedPlayers(){
-        // synchronize only this part of server
-        synchronized(lock){
-            return connectedPlayers;
-        }        
+        return ServerMetrics.global().getActiveSessions();
+    }
+    
+    /**
+     * Increase by 1 current number of active players, unless maxPlayers are already connected.
+     * 
+     * @param maxPlayers maximum number of active players, 0 for no limit
+     * @return true if the new player was counted and may be served
+     */
+    public static boolean admitPlayer(int maxPlayers){
+        return ServerMetrics.global().admitSession(maxPlayers);
     }
     
     /**
-     * Decrease by 1 current number of active players.
+     * Decrease by 1 current number of active players; called once for each admitted player when its
+     * connection ends, however it ends.
      */
     public static void decreaseNumPlayers(){
-        // synchronize only this part of server
-        synchronized(lock){
-            connectedPlayers--;
-            Assert.assertTrue("ASSERTION ERROR ON connectedPlayers!",  connectedPlayers >= 0);
-        }
+        ServerMetrics.global().releaseSession();
     }
     
     /**
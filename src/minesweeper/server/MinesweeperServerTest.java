@@ -0,0 +1,134 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * MinesweeperServer with a bounded worker pool must queue admitted clients until a worker is free, and
+ * turn away clients beyond its maximum number of sessions, and push watching clients the changes from
+ * tasks of its executor.
+ */
+public class MinesweeperServerTest {
+    private int port;
+
+    @Before
+    public void startServer() throws IOException, InterruptedException {
+        // players of earlier tests count against the limit until the server sees them disconnect
+        for (int i = 0; i < 100 && MinesweeperServer.getConnectedPlayers() > 0; i++) Thread.sleep(50);
+        assertEquals(0, MinesweeperServer.getConnectedPlayers());
+
+        final MinesweeperServer server = new MinesweeperServer(0, false, new SimpleBoard(2, 2, 0),
+                MinesweeperServer.newWorkerPool(1, 2), 2);
+        port = server.getLocalPort();
+        Thread serving = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        serving.setDaemon(true);
+        serving.start();
+    }
+
+    @Test(timeout = 10000)
+    public void testQueuedUntilWorkerFree_BusyBeyondMaxSessions() throws IOException {
+        try (Socket first = new Socket("localhost", port);
+             BufferedReader firstIn = new BufferedReader(new InputStreamReader(first.getInputStream()));
+             Socket second = new Socket("localhost", port);
+             BufferedReader secondIn = new BufferedReader(new InputStreamReader(second.getInputStream()))) {
+            assertTrue(firstIn.readLine().startsWith("Welcome to Minesweeper."));
+            assertEquals("", firstIn.readLine());
+
+            try (Socket third = new Socket("localhost", port); // the second one is admitted, but waits
+                 BufferedReader busy = new BufferedReader(new InputStreamReader(third.getInputStream()))) {
+                assertEquals(MinesweeperServer.BUSY_MESSAGE.trim(), busy.readLine());
+            }
+            assertFalse(secondIn.ready()); // not greeted while the only worker serves the first client
+
+            first.getOutputStream().write("bye\n".getBytes());
+            assertNull(firstIn.readLine());
+            assertTrue(secondIn.readLine().contains("Players: 1 including you."));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBinaryProtocolPipelined() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            InputStream in = socket.getInputStream(); // not buffered, the binary responses follow the lines
+            OutputStream out = socket.getOutputStream();
+            out.write("watch\nbinary\r\n".getBytes()); // switching ends watching: nothing is pushed
+            out.write(BinaryProtocol.request(BinaryProtocol.FLAG, 1, 0));
+            out.write(BinaryProtocol.request(BinaryProtocol.BYE));
+            out.write("look\n".getBytes()); // never read
+            assertTrue(readLine(in).startsWith("Welcome to Minesweeper."));
+            assertEquals("", readLine(in));
+            assertEquals("WATCHING", readLine(in));
+            assertEquals("BINARY", readLine(in));
+            // DELTA version 1, one cell: 1 FLAGGED
+            byte[] delta = { 5, BinaryProtocol.DELTA, 1, 1, 1, BinaryProtocol.FLAGGED };
+            for (byte b : delta) assertEquals(b, in.read());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testPusherRunsOnExecutor() throws IOException {
+        final ExecutorService pool = MinesweeperServer.newWorkerPool(3, 2);
+        final AtomicInteger tasks = new AtomicInteger();
+        final MinesweeperServer server = new MinesweeperServer(0, false, new SimpleBoard(2, 2, 0), new Executor() {
+            public void execute(Runnable task) {
+                tasks.incrementAndGet();
+                pool.execute(task);
+            }
+        }, 2);
+        Thread serving = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        serving.setDaemon(true);
+        serving.start();
+        try (Socket watcher = new Socket("localhost", server.getLocalPort());
+             BufferedReader watcherIn = new BufferedReader(new InputStreamReader(watcher.getInputStream()));
+             Socket player = new Socket("localhost", server.getLocalPort());
+             BufferedReader playerIn = new BufferedReader(new InputStreamReader(player.getInputStream()))) {
+            watcherIn.readLine();
+            watcherIn.readLine();
+            watcher.getOutputStream().write("watch\n".getBytes());
+            assertEquals("WATCHING", watcherIn.readLine());
+            assertTrue(playerIn.readLine().startsWith("Welcome to Minesweeper."));
+            player.getOutputStream().write("flag 1 0\n".getBytes());
+            assertEquals("WATCH VERSION 1 CHANGED 1", watcherIn.readLine());
+            assertEquals("two connections and the watcher's pusher, no thread of their own", 3, tasks.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\n' && c >= 0; c = in.read()) {
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+}
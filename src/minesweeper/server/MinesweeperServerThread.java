@@ -1,26 +1,94 @@
 package minesweeper.server;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.rmi.server.ServerCloneException;
 
 public class MinesweeperServerThread implements Runnable{
+    private static final int READ_BUFFER_SIZE = 8192;
+    
     /**
      * MSSThread stays for MinesweeperServerThread.
      */
-    private final Thread MSSThread; // reference to current Thread in case i need to manage it.
+    private final Thread MSSThread; // reference to current Thread in case i need to manage it; null if run by an executor
     private final Socket socket;
-    private final SimpleBoard board;
+    private final MinesweeperSession session;
+    private final Executor executor; // runs the connection and its pusher; null to start threads
+    private final Semaphore pushSignal = new Semaphore(0); // released when the session has a push message
+    private final Object pushLock = new Object(); // held by the pusher while it sends a message
+    private PrintWriter out;
+    private boolean pusherStarted; // by the first 'watch', confined to the connection's thread
+    private boolean pushStopped; // guarded by pushLock
+    
+    public MinesweeperServerThread(Socket socket, Board board){
+        this(socket, board, null);
+    }
+    
+    public MinesweeperServerThread(Socket socket, Board board, Executor executor){
+        this(socket, board, new ChangeFeed(), executor);
+    }
+    
+    /**
+     * Serve the client connected to socket on a task of executor.
+     * 
+     * @param feed feed of the changes of board, shared by all its clients
+     * @param executor runs the connection until the client disconnects, e.g. on a virtual thread;
+     *                 null to start a new thread
+     */
+    public MinesweeperServerThread(Socket socket, Board board, ChangeFeed feed, Executor executor){
+        this(socket, board, feed, null, executor);
+    }
+    
+    /**
+     * Serve the client connected to socket on a task of executor, journaling its moves.
+     * 
+     * @param feed feed of the changes of board, shared by all its clients
+     * @param journal journal of the moves on board, shared by all its clients; null not to journal them
+     * @param executor runs the connection until the client disconnects, e.g. on a virtual thread;
+     *                 null to start a new thread
+     */
+    public MinesweeperServerThread(Socket socket, Board board, ChangeFeed feed, MoveJournal journal, Executor executor){
+        this(socket, new MinesweeperSession(board, feed, journal), executor);
+    }
     
-    public MinesweeperServerThread(Socket socket, SimpleBoard board){
+    /**
+     * Serve the client connected to socket on a task of executor, playing the games of a GameRegistry.
+     * 
+     * @param games games of the server, the client starts in its default game
+     * @param executor runs the connection until the client disconnects, e.g. on a virtual thread;
+     *                 null to start a new thread
+     */
+    public MinesweeperServerThread(Socket socket, GameRegistry games, Executor executor){
+        this(socket, new MinesweeperSession(games), executor);
+    }
+    
+    private MinesweeperServerThread(Socket socket, MinesweeperSession session, Executor executor){
         this.socket = socket;
-        this.board = board;
-        MSSThread = new Thread(this);
-        MSSThread.start();
-        
+        this.session = session;
+        this.executor = executor;
+        session.setPushListener(new Runnable() {
+            public void run() {
+                pushSignal.release();
+            }
+        });
+        if (executor == null) {
+            MSSThread = new Thread(this);
+            MSSThread.start();
+        } else {
+            MSSThread = null;
+            executor.execute(this);
+        }
     }
     
     /**
@@ -32,9 +100,50 @@ public class MinesweeperServerThread implements Runnable{
             socket.close();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            stopPusher();
+            session.close();
+            MinesweeperServer.decreaseNumPlayers(); // the player was counted when admitted
         }
     }
     
+    /**
+     * Send the push messages of the session while the connection is open; a task of its own, as the
+     * connection's thread blocks reading requests. It runs on the connection's executor, e.g. a virtual
+     * thread, or a worker of the pool, which it holds as a client does until the connection ends; a new
+     * thread only if the connection has one. The writer is shared, println() sends each message whole,
+     * before or after an answer.
+     */
+    private void startPusher() {
+        pusherStarted = true;
+        Runnable pusher = new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        pushSignal.acquire();
+                        synchronized (pushLock) {
+                            if (pushStopped) return;
+                            String message = session.takePush();
+                            if (message != null) {
+                                out.println(message);
+                                out.flush();
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        };
+        if (executor != null) {
+            executor.execute(pusher);
+            return;
+        }
+        Thread thread = new Thread(pusher);
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
     
     /**
      * Handle a single client connection. Returns when client disconnects.
@@ -44,165 +153,97 @@ public class MinesweeperServerThread implements Runnable{
      */
     private void handleConnection(Socket socket) throws IOException {
         // try-with-resources Statement
-        try(BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        try(InputStream in = socket.getInputStream();
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), false); // flushed once per batch of answers
             ) 
         {
+            this.out = out;
+            socket.setTcpNoDelay(true); // answers are flushed per batch already, Nagle would only hold the last one back
             // Hello message from server to user sent only once, immediately after the server connects to the user.          
-            out.println("Welcome to Minesweeper. Board: " + board.getBoardSize()[0] + " columns by " + board.getBoardSize()[1] + " rows."
-                    + " Players: " + MinesweeperServer.getConnectedPlayers() + " including you. Type 'help' for help.\r\n");
+            out.println(session.greeting());
+            out.flush();
             
-            // Handle clients queries durent the Game
-            for (String line = in.readLine(); line != null; line = in.readLine()) {
-                String output = handleRequest(line);    // respond to the Client.
-                if (output != null) {
-                    out.println(output);
-                    if(output.equals("BOOM!!!") && !MinesweeperServer.isDebugging()) return; // close connection, server in production mode
-                } else return; // action to close connection.                  
+            // Handle clients queries durent the Game: the complete lines of each read are pipelined, one batch
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            LineFramer framer = new LineFramer(Charset.defaultCharset(), "binary"); // as InputStreamReader
+            List<String> lines = new ArrayList<String>();
+            BinaryProtocol.Framer binaryFramer = null; // once the client switched to BinaryProtocol
+            List<byte[]> frames = new ArrayList<byte[]>();
+            OutputStream binaryOut = null;
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+                if (binaryFramer == null) {
+                    lines.clear();
+                    boolean valid = framer.frame(bytes, lines); // answer the lines before a too long one
+                    if ( ! answer(lines, out)) return;
+                    if ( ! valid) {
+                        out.println(MinesweeperServer.LINE_TOO_LONG_MESSAGE);
+                        out.flush();
+                        return;
+                    }
+                    if ( ! session.isBinary()) continue;
+                    stopPusher(); // no more text is written
+                    binaryFramer = new BinaryProtocol.Framer();
+                    binaryOut = new BufferedOutputStream(socket.getOutputStream(), READ_BUFFER_SIZE);
+                }
+                framer.skipLineEnd(bytes); // the "\r\n" of the "binary" line may end in this read
+                frames.clear();
+                boolean valid = binaryFramer.frame(bytes, frames); // answer the frames before an invalid one
+                if ( ! answerBinary(frames, binaryOut) || ! valid) return;
             }
+            String last = framer.rest(); // readLine() returns an unterminated last line too
+            if (last != null && binaryFramer == null) answer(Collections.singletonList(last), out);
         }
     }
-
+    
     /**
-     * Handler for client input, performing requested operations and returning an output message.
-     * 
-     * @param input message from client
-     * @return message to client
+     * Stop the pusher, once it sent the message it may be sending; its task then ends, freeing its thread.
      */
-    private String handleRequest(String input) {
-        String regex = "(look)|(dig -?\\d+ -?\\d+)|(flag -?\\d+ -?\\d+)|"
-                + "(deflag -?\\d+ -?\\d+)|(help)|(bye)";
-        
-        if ( ! input.matches(regex)) {
-            // invalid input
-            /**
-             * For any message from the server which does not match the server-to-user message format as given, do nothing,
-             * discard the data until the NEWLINE is reached, and start processing the next message.
-             * My Note: it is impossible get wrong message from server by program design, only 'wrong' message can send user.
-             */
-            //return null; // ORIGINAL ACTION
-            return "WRONG COMMAND! Try 'help' to see witch commands is legal to use.\r\n";
-            
-        }
-        String[] tokens = input.split(" ");
-        if (tokens[0].equals("look")) {
-            // 'look' request
-            // Should return Board state without revealing Bombs positions!?
-            return board.getBoardState();
-        } else if (tokens[0].equals("help")) {
-            // 'help' request
-            // all the commands the user can send to the server.
-            return "The commands the user can send to the server: look, dig x y, flag x y, deflag x y, help, bye";
-        } else if (tokens[0].equals("bye")) {
-            // 'bye' request
-            // Terminates the connection with this client.
-            MinesweeperServer.decreaseNumPlayers();
-            return null;
-        } else {
-            int xPos = Integer.parseInt(tokens[1]); // X cell position
-            int yPos = Integer.parseInt(tokens[2]); // y cell position
-            if (tokens[0].equals("dig")) {
-                // 'dig x y' request              
-                if ((xPos >= 0 && yPos >= 0) && (xPos < board.getBoardSize()[0] && yPos < board.getBoardSize()[1])){
-                    if(board.getCellState(xPos, yPos) == '_'){                        
-                        // Recursively reveal adjacent cells until neighbors with bombs
-                        revealCell(xPos, yPos);                        
-                        return board.getBoardState();
-                    } 
-                    else if(board.getCellState(xPos, yPos) == 'B'){
-                        //board.changeCellState(xPos, yPos, ' ');
-                        updateBombCount(xPos, yPos);
-                        return "BOOM!!!";
-                    } 
-                }
-               
-                return board.getBoardState(); // return unattached board state
-              
-            } else if (tokens[0].equals("flag")) {
-                // 'flag x y' request                
-                if ((xPos >= 0 && yPos >= 0) && (xPos < board.getBoardSize()[0] && yPos < board.getBoardSize()[1])
-                        && board.getCellState(xPos, yPos) == '_')board.changeCellState(xPos, yPos, 'F');
-                return board.getBoardState();
-                
-            } else if (tokens[0].equals("deflag")) {
-                // 'deflag x y' request, repeated code from flag section above, usually better to extract into separate call with diff args.                
-                if ((xPos >= 0 && yPos >= 0) && (xPos < board.getBoardSize()[0] && yPos < board.getBoardSize()[1])
-                        && board.getCellState(xPos, yPos) == 'F')board.changeCellState(xPos, yPos, '_');
-                return board.getBoardState();
-            }
+    private void stopPusher() {
+        synchronized (pushLock) {
+            pushStopped = true;
         }
-        // Should never get here--make sure to return in each of the valid cases above.
-        throw new UnsupportedOperationException();
+        pushSignal.release(); // let the pusher see it
     }
     
     /**
-     * Mutate board state by revealing cells with no bombs. (Here implemented Board processing logic)
-     * If the square x,y has no neighbor squares with bombs,
-       then for each of x,ys untouched neighbor squares, change said square to dug and
-       repeat this step (not the entire DIG procedure) recursively for said neighbor square 
-       unless said neighbor square was already dug before said change.
-       else if the square x,y has neighbor squares with bombs, change said square to dug and
-       update it with number of bombs adjacent to it.
-     * @param xPos cell position in columns >=0 and <= Board X size
-     * @param yPos cell position in rows >=0 and <= Board Y size
+     * Answer a batch of BinaryProtocol requests, sending the responses with one flush.
+     * 
+     * @return false if the connection must be closed
      */
-    private void revealCell(int x, int y){
-        /**
-         * GAME LOGIC
-         * The game is played by revealing squares of the grid by clicking or otherwise indicating each square.
-         * If a square containing a mine is revealed, the player loses the game. If no mine is revealed,
-         * a digit is instead displayed in the square, indicating how many adjacent squares contain mines;
-         * if no mines are adjacent, the square becomes blank, and all adjacent squares will be recursively
-         * revealed. The player uses this information to deduce the contents of other squares, and may either
-         * safely reveal each square or mark the square as containing a mine.
-         * 
-         * telnet localhost 4444
-         * 
-         */ 
-        
-        int count = 0;
-        //int[][] revealPos = new int[8][2];               
-        int revealPos[][] = { {x, y-1} , { x+1, y-1} , {x+1, y} , {x+1, y+1}, {x, y+1} , {x-1, y+1} , {x-1, y} , {x-1, y-1} }; // 8 all possible destination from cell x,y with new (x*,y*) locations.
-        for (int[] pos : revealPos) {
-            if((pos[0] >= 0 && pos[0] < board.getBoardSize()[0]) && ((pos[1] >= 0 && pos[1] < board.getBoardSize()[1]))){ // process only valid pos
-                if(board.getCellState(pos[0], pos[1]) == 'B') count++;
+    private boolean answerBinary(List<byte[]> frames, OutputStream out) throws IOException {
+        if (frames.isEmpty()) return true;
+        boolean open = true;
+        for (byte[] response : session.handleBinaryBatch(frames)) {
+            if (response == null) { // action to close connection.
+                open = false;
+                break;
             }
-        }        
-        if(count > 0){
-            board.changeCellState(x, y,  Character.forDigit(count, 10));
-            return; // exit recursion
-        } else {
-            board.changeCellState(x, y, ' ');
-            for (int[] pos : revealPos) {
-                if((pos[0] >= 0 && pos[0] < board.getBoardSize()[0]) && ((pos[1] >= 0 && pos[1] < board.getBoardSize()[1]))){ // recurr only on valid pos
-                    if(board.getCellState(pos[0], pos[1]) != ' ') revealCell(pos[0], pos[1]); // recurr on relative pos from x,y
-                }                
-            }  
+            out.write(response);
+            if (session.closesAfter(response)) open = false; // close connection, server in production mode
         }
-        
+        out.flush();
+        return open;
     }
     
     /**
-     * Updates bomb counts in the adjacent squares after revealing the bomb.
-     * @param xPos cell position in columns >=0 and <= Board X size
-     * @param yPos cell position in rows >=0 and <= Board Y size
+     * Answer a batch of request lines, sending the answers with one flush.
+     * 
+     * @return false if the connection must be closed
      */
-    private void updateBombCount(int x, int y){
-        board.changeCellState(x, y, ' '); // change this cell pos to 'dug'
-        int revealPos[][] = { {x, y-1} , { x+1, y-1} , {x+1, y} , {x+1, y+1}, {x, y+1} , {x-1, y+1} , {x-1, y} , {x-1, y-1} };
-        char ch;
-        for (int[] pos : revealPos) {
-            if((pos[0] >= 0 && pos[0] < board.getBoardSize()[0]) && ((pos[1] >= 0 && pos[1] < board.getBoardSize()[1]))){ // process only valid pos
-                ch = board.getCellState(pos[0], pos[1]);
-                if(ch == '1') board.changeCellState(pos[0], pos[1], ' ');
-                else if(Character.isDigit(ch)){ 
-                    // Decrement bomb count in adjacent cells
-                    int i = Character.digit(ch, 10);
-                    i--;
-                    ch = Integer.toString(i).charAt(0);
-                    board.changeCellState(pos[0], pos[1], ch);
-                }
+    private boolean answer(List<String> lines, PrintWriter out) {
+        if (lines.isEmpty()) return true;
+        boolean open = true;
+        for (String output : session.handleBatch(lines)) {    // respond to the Client.
+            if (output == null) { // action to close connection.
+                open = false;
+                break;
             }
+            out.println(output);
+            if (session.closesAfter(output)) open = false; // close connection, server in production mode
         }
+        out.flush();
+        if (open && !pusherStarted && session.isWatching() && !session.isBinary()) startPusher();
+        return open;
     }
 }
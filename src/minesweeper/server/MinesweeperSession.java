@@ -0,0 +1,599 @@
+package minesweeper.server;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MinesweeperSession is the protocol state of one connected client, independent of how its connection
+ * is served: it answers the client's request lines with the server's messages.
+ * Used by MinesweeperServerThread and MinesweeperNioServer, so both speak the same protocol.
+ *
+ * DELTA MODE
+ * After "delta on" until "delta off", the client is answered dig, flag and deflag with the cells the
+ * command changed instead of the whole board:
+ *
+ *   DELTA :== "VERSION " V " CHANGED " N "\r\n" CELL{N}
+ *   CELL :== X " " Y " " STATE "\r\n"
+ *
+ * V is Board.getVersion() read after the command, so the cells listed are at least as new as version V,
+ * and a client seeing V grow by more than one knows other players changed the board meanwhile. STATE is
+ * the cell as 'look' shows it, from set {_, ,F,1-8}. 'look' and BOOM messages are the same in both modes.
+ *
+ * "look V" answers the board only if it changed since version V, in either mode:
+ *
+ *   LOOK_SINCE :== "UNCHANGED SINCE " V | "VERSION " V2 "\r\n" BOARD
+ *
+ * where BOARD is the answer to 'look' and at least as new as version V2.
+ *
+ * WATCHING
+ * After "watch" until "unwatch", the server also pushes to the client the cells changed by every player's
+ * dig, flag and deflag, without being asked, in the form "WATCH " DELTA. Cells changed more than once
+ * before the client takes them are sent once, with their latest state. If the client falls more than
+ * ChangeFeed.MAX_PENDING cells behind, they are dropped and "WATCH VERSION " V " RESYNC\r\n" is sent
+ * instead: the client should 'look'.
+ *
+ * BINARY
+ * After "binary" is answered "BINARY", the client sends and receives the frames of BinaryProtocol instead
+ * of lines, until the connection closes. It ends delta mode and watching.
+ *
+ * JOURNAL
+ * On a board with a MoveJournal, the digs, flags and deflags which change the board are journaled with
+ * the session's player id, and on the disk before handleBatch() and handleBinaryBatch() return their
+ * answers.
+ *
+ * GAMES
+ * A session of a GameRegistry starts in its default game. "new " X " " Y makes a new game with a random
+ * board of X columns by Y rows and switches to it; "join " ID switches to game ID. Both are answered
+ *
+ *   GAME :== "GAME " ID " " X " " Y
+ *
+ * with the id and size of the game switched to, or "NO GAME " ID, "INVALID GAME SIZE", or without a
+ * GameRegistry "GAMES NOT SUPPORTED". Switching ends watching; the next requests play the new game.
+ * The batches of requests of a game run on its shard, see Game.run().
+ *
+ * STATS
+ * "stats" is answered the report of the ServerMetrics of the server, see ServerMetrics.getReport(); the
+ * requests of every session are recorded there.
+ */
+public class MinesweeperSession {
+    /**
+     * Maximum number of pipelined requests handled with one acquisition of the board, so a client sending
+     * many at once does not keep the other players waiting for all of them.
+     */
+    public static final int MAX_BATCH = 64;
+
+    private static final AtomicInteger lastPlayer = new AtomicInteger();
+
+    private final GameRegistry games; // null if the session plays one game
+    private Game game; // game played, and its board, feed and journal
+    private Board board;
+    private ChangeFeed feed;
+    private MoveJournal journal; // null if moves are not journaled
+    private int boardCols, boardRows; // board dimensions never change, read them once per game
+    private boolean closed;
+    private final int player = lastPlayer.incrementAndGet(); // id of the session in the journal
+    private MoveJournal journaledTo; // journal of the last move journaled, and its sequence number
+    private long journaled; // 0 if none
+    private final CommandParser parser = new CommandParser();
+    private final ServerMetrics metrics = ServerMetrics.global();
+    private boolean delta; // true if changes are answered in DELTA format
+    private boolean binary; // true once the client switched to BinaryProtocol
+    private String lookedState; // board state last answered to a binary LOOK, and its BOARD frame
+    private byte[] lookedFrame;
+    private Runnable pushListener;
+    private volatile ChangeFeed.Subscription subscription; // non-null while watching
+
+    // Thread safety argument:
+    //    - a session is confined to the thread serving its connection, except takePush() and hasPush(),
+    //      which may be called by one other thread which sends the pushed messages; the batches run on
+    //      a game's shard are handed over and waited for with a FutureTask, see Game.run()
+    //    - hasPush() only reads the volatile 'subscription'; takePush() reads 'board' and 'boardCols'
+    //      holding the session's lock, which enter() holds to change them
+    //    - 'board' is a thread safe Board, 'feed' a thread safe ChangeFeed and 'journal' a thread safe
+    //      MoveJournal, shared by all sessions of a game; 'games' is a thread safe GameRegistry;
+    //      'lastPlayer' is atomic
+
+    /**
+     * @param board board the client plays on, alone: changes are published only to this session
+     */
+    public MinesweeperSession(Board board) {
+        this(board, new ChangeFeed());
+    }
+
+    /**
+     * @param board board the client plays on
+     * @param feed feed of the changes of board, shared by all sessions on board
+     */
+    public MinesweeperSession(Board board, ChangeFeed feed) {
+        this(board, feed, null);
+    }
+
+    /**
+     * @param board board the client plays on
+     * @param feed feed of the changes of board, shared by all sessions on board
+     * @param journal journal of the moves on board, shared by all sessions on board; null not to journal them
+     */
+    public MinesweeperSession(Board board, ChangeFeed feed, MoveJournal journal) {
+        this.games = null;
+        enter(new Game(GameRegistry.DEFAULT_GAME, board, feed, journal));
+    }
+
+    /**
+     * @param games games of the server; the client starts in the default game, and switches games with
+     *              'new' and 'join'
+     */
+    public MinesweeperSession(GameRegistry games) {
+        this.games = games;
+        enter(games.enterDefault());
+    }
+
+    /**
+     * Play game from now on; it counts this session as a player already.
+     */
+    private synchronized void enter(Game next) {
+        game = next;
+        board = next.board;
+        feed = next.feed;
+        journal = next.journal;
+        boardCols = board.getBoardSize()[0];
+        boardRows = board.getBoardSize()[1];
+        lookedState = null;
+        lookedFrame = null;
+    }
+
+    /**
+     * Set how the server learns that a push message is ready for this client, before the first
+     * handleRequest(); without a listener "watch" is refused.
+     *
+     * @param listener called, in any thread, when hasPush() becomes true; it must not block
+     */
+    public void setPushListener(Runnable listener) {
+        pushListener = listener;
+    }
+
+    /**
+     * @return true if takePush() has a message
+     */
+    public boolean hasPush() {
+        ChangeFeed.Subscription watching = subscription;
+        return watching != null && watching.isPending();
+    }
+
+    /**
+     * @return true if the client asked to be pushed the changes of the board
+     */
+    public boolean isWatching() {
+        return subscription != null;
+    }
+
+    /**
+     * @return next WATCH message to push to the client, or null if there is none
+     */
+    public synchronized String takePush() {
+        ChangeFeed.Subscription watching = subscription;
+        if (watching == null || !watching.isPending()) return null;
+        int[] cells = watching.take();
+        if (cells == null) return "WATCH VERSION " + board.getVersion() + " RESYNC\r\n";
+        return "WATCH " + changes(cells);
+    }
+
+    /**
+     * Release the resources of this session once its connection is closed.
+     */
+    public void close() {
+        unwatch();
+        if (games != null && !closed) games.leave(game);
+        closed = true;
+    }
+
+    private void unwatch() {
+        if (subscription != null) subscription.cancel();
+        subscription = null;
+    }
+
+    /**
+     * Hello message from server to user sent only once, immediately after the server connects to the user.
+     *
+     * @return hello message, counting this client as connected
+     */
+    public String greeting() {
+        return "Welcome to Minesweeper. Board: " + boardCols + " columns by " + boardRows + " rows."
+                + " Players: " + MinesweeperServer.getConnectedPlayers() + " including you. Type 'help' for help.\r\n";
+    }
+
+    /**
+     * @param output message returned by handleRequest()
+     * @return true if the connection must be closed once output is sent: after a BOOM in production mode
+     */
+    public boolean closesAfter(String output) {
+        return output.equals("BOOM!!!") && !MinesweeperServer.isDebugging();
+    }
+
+    /**
+     * Handle requests the client sent without waiting for their answers, as handleRequest() would one by
+     * one, running up to MAX_BATCH of them as one Board.runBatch(): with a single acquisition of the
+     * board's lock on a board with one lock, one by one on the others.
+     *
+     * @param inputs messages from client, in the order received
+     * @return messages to client, one per input up to the first null message, message closing the
+     *         connection (see closesAfter()) or "BINARY", which is the last one; the other inputs are not
+     *         handled
+     * @throws IOError if the moves cannot be journaled; they are made but must not be answered
+     */
+    public List<String> handleBatch(final List<String> inputs) {
+        final List<String> outputs = new ArrayList<String>(inputs.size());
+        while (outputs.size() < inputs.size()) {
+            final int from = outputs.size(), to = Math.min(inputs.size(), from + MAX_BATCH);
+            final Game current = game;
+            runBatch(new Runnable() {
+                public void run() {
+                    for (int i = from; i < to; i++) {
+                        String output = handleRequest(inputs.get(i));
+                        outputs.add(output);
+                        if (output == null || closesAfter(output) || binary) return;
+                        if (game != current) return; // the next requests run on the shard of the new game
+                    }
+                }
+            });
+            String last = outputs.get(outputs.size() - 1);
+            if (last == null || closesAfter(last) || binary) break; // closed
+        }
+        awaitJournal();
+        return outputs;
+    }
+
+    /**
+     * Handler for client input, performing requested operations and returning an output message.
+     *
+     * @param input message from client
+     * @return message to client, or null if the connection must be closed without a message
+     */
+    public String handleRequest(String input) {
+        long start = metrics.start();
+        int command = parser.parse(input); // the grammar of the protocol, see CommandParser
+        String output = answer(command);
+        metrics.recordRequest(command, start, output == null ? 0 : output.length());
+        return output;
+    }
+
+    /**
+     * @param command request just parsed by 'parser'
+     * @return message to client, or null if the connection must be closed without a message
+     */
+    private String answer(int command) {
+        if (command == CommandParser.INVALID) {
+            // invalid input
+            /**
+             * For any message from the server which does not match the server-to-user message format as given, do nothing,
+             * discard the data until the NEWLINE is reached, and start processing the next message.
+             * My Note: it is impossible get wrong message from server by program design, only 'wrong' message can send user.
+             */
+            //return null; // ORIGINAL ACTION
+            return "WRONG COMMAND! Try 'help' to see witch commands is legal to use.\r\n";
+
+        }
+        if (command == CommandParser.LOOK || command == CommandParser.LOOK_SINCE) {
+            // 'look' request
+            // Should return Board state without revealing Bombs positions!?
+            if (command == CommandParser.LOOK) return boardState(-1);
+            long since = parser.version();
+            long version = board.getVersion(); // read first, the state may only be newer
+            String state = boardState(since);
+            return state == null ? "UNCHANGED SINCE " + since : "VERSION " + version + "\r\n" + state;
+        } else if (command == CommandParser.HELP) {
+            // 'help' request
+            // all the commands the user can send to the server.
+            return "The commands the user can send to the server: look, look version, dig x y, flag x y, deflag x y, help, bye, delta on, delta off, watch, unwatch, binary, new x y, join id, stats";
+        } else if (command == CommandParser.BYE) {
+            // 'bye' request
+            // Terminates the connection with this client; the server counts the player out when it closes.
+            return null;
+        } else if (command == CommandParser.DELTA_ON || command == CommandParser.DELTA_OFF) {
+            // 'delta on|off' request
+            delta = command == CommandParser.DELTA_ON;
+            return delta ? "DELTA ON" : "DELTA OFF";
+        } else if (command == CommandParser.WATCH) {
+            // 'watch' request: push the changes of every player from now on
+            if (pushListener == null) return "WATCH NOT SUPPORTED";
+            if (subscription == null) subscription = feed.subscribe(pushListener);
+            return "WATCHING";
+        } else if (command == CommandParser.UNWATCH) {
+            // 'unwatch' request
+            unwatch();
+            return "NOT WATCHING";
+        } else if (command == CommandParser.BINARY) {
+            // 'binary' request: the next bytes from the client are BinaryProtocol frames
+            unwatch();
+            delta = false;
+            binary = true;
+            return "BINARY";
+        } else if (command == CommandParser.STATS) {
+            // 'stats' request: the server's metrics
+            return metrics.getReport();
+        } else if (command == CommandParser.JOIN || command == CommandParser.NEW) {
+            // 'join ID' or 'new X Y' request: leave this game for another one
+            if (games == null) return "GAMES NOT SUPPORTED";
+            Game next;
+            if (command == CommandParser.NEW) {
+                int cols = parser.x(), rows = parser.y();
+                if (cols <= 0 || rows <= 0 || (long) cols * rows > GameRegistry.MAX_CELLS) return "INVALID GAME SIZE";
+                next = games.create(cols, rows);
+            } else {
+                try {
+                    next = games.enter(parser.game());
+                } catch (IOException e) { // its snapshot is damaged
+                    e.printStackTrace();
+                    next = null;
+                }
+                if (next == null) return "NO GAME " + parser.game();
+            }
+            unwatch();
+            games.leave(game);
+            enter(next);
+            return "GAME " + next.id + " " + boardCols + " " + boardRows;
+        } else {
+            int xPos = parser.x(); // X cell position
+            int yPos = parser.y(); // y cell position
+            if (command == CommandParser.DIG) {
+                // 'dig x y' request: reveal adjacent cells until neighbors with bombs, or BOOM
+                DigResult result = dig(xPos, yPos);
+                if (result.isBoom()) return "BOOM!!!";
+                if ( ! delta) return boardState(-1);
+                return changes(changedCells(result));
+
+            } else if (command == CommandParser.FLAG || command == CommandParser.DEFLAG) {
+                // 'flag x y' or 'deflag x y' request
+                int[] changed = flag(xPos, yPos, command == CommandParser.FLAG);
+                return delta ? changes(changed) : boardState(-1);
+            }
+        }
+        // Should never get here--make sure to return in each of the valid cases above.
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return true if the client switched to BinaryProtocol: its next requests must be passed to
+     *         handleBinaryRequest() instead of handleRequest()
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Handle requests the client sent in BinaryProtocol without waiting for their answers, as
+     * handleBatch() does with text requests.
+     *
+     * @param bodies request bodies from client, in the order received
+     * @return response frames to client, one per request up to the first null or BOOM response closing
+     *         the connection, which is the last one; the other requests are not handled
+     * @throws IOError if the moves cannot be journaled; they are made but must not be answered
+     */
+    public List<byte[]> handleBinaryBatch(final List<byte[]> bodies) {
+        final List<byte[]> responses = new ArrayList<byte[]>(bodies.size());
+        for (int start = 0; start < bodies.size(); start += MAX_BATCH) {
+            final int from = start, to = Math.min(bodies.size(), start + MAX_BATCH);
+            runBatch(new Runnable() {
+                public void run() {
+                    for (int i = from; i < to; i++) {
+                        byte[] response = handleBinaryRequest(bodies.get(i));
+                        responses.add(response);
+                        if (response == null || closesAfter(response)) return;
+                    }
+                }
+            });
+            if (responses.size() < to) break; // closed
+        }
+        awaitJournal();
+        return responses;
+    }
+
+    /**
+     * @param response response returned by handleBinaryRequest()
+     * @return true if the connection must be closed once response is sent: after a BOOM in production mode
+     */
+    public boolean closesAfter(byte[] response) {
+        return BinaryProtocol.typeOf(response) == BinaryProtocol.BOOM && !MinesweeperServer.isDebugging();
+    }
+
+    /**
+     * Handler for client requests in BinaryProtocol, performing requested operations as handleRequest()
+     * does with text requests.
+     *
+     * @param body request body from client, without its length
+     * @return response frame to client, or null if the connection must be closed without a response
+     */
+    public byte[] handleBinaryRequest(byte[] body) {
+        long start = metrics.start();
+        byte[] response = answerBinary(body);
+        int command = response == null ? CommandParser.BYE
+                    : BinaryProtocol.typeOf(response) == BinaryProtocol.ERROR ? CommandParser.INVALID
+                    : body[0]; // LOOK to DEFLAG have the same codes in both protocols
+        metrics.recordRequest(command, start, response == null ? 0 : response.length);
+        return response;
+    }
+
+    /**
+     * @param body request body from client, without its length
+     * @return response frame to client, or null if the connection must be closed without a response
+     */
+    private byte[] answerBinary(byte[] body) {
+        BinaryProtocol.Reader request = new BinaryProtocol.Reader(body);
+        int opcode = request.readByte();
+        boolean cellRequest = opcode == BinaryProtocol.DIG || opcode == BinaryProtocol.FLAG
+                || opcode == BinaryProtocol.DEFLAG;
+        long since = opcode == BinaryProtocol.LOOK_SINCE ? request.readVarint() : 0;
+        int xPos = cellRequest ? request.readCoordinate() : 0; // X cell position
+        int yPos = cellRequest ? request.readCoordinate() : 0; // y cell position
+        if ( ! request.isComplete() || opcode < BinaryProtocol.LOOK || opcode > BinaryProtocol.BYE) {
+            return BinaryProtocol.error("WRONG COMMAND");
+        }
+
+        if (opcode == BinaryProtocol.LOOK || opcode == BinaryProtocol.LOOK_SINCE) {
+            long version = board.getVersion(); // read first, the state may only be newer
+            String state = boardState(opcode == BinaryProtocol.LOOK ? -1 : since);
+            if (state == null) return BinaryProtocol.response(BinaryProtocol.UNCHANGED, since);
+            if (state != lookedState) { // the boards return the same String until they change
+                lookedFrame = BinaryProtocol.board(boardCols, boardRows, version, state);
+                lookedState = state;
+            }
+            return lookedFrame;
+        } else if (opcode == BinaryProtocol.BYE) {
+            return null;
+        } else if (opcode == BinaryProtocol.DIG) {
+            DigResult result = dig(xPos, yPos);
+            if (result.isBoom()) return BinaryProtocol.response(BinaryProtocol.BOOM, -1);
+            return binaryChanges(changedCells(result));
+        } else {
+            return binaryChanges(flag(xPos, yPos, opcode == BinaryProtocol.FLAG));
+        }
+    }
+
+    /**
+     * Run operations as one Board.runBatch() on the shard of the game, holding the journal's lock first
+     * if moves are journaled.
+     */
+    private void runBatch(final Runnable operations) {
+        final Game current = game;
+        final long start = metrics.start();
+        final Runnable recorded = new Runnable() {
+            public void run() {
+                metrics.recordLockWait(start); // the shard ran the batch, and the board's lock is held if it has one
+                operations.run();
+            }
+        };
+        current.run(new Runnable() {
+            public void run() {
+                if (current.journal == null) {
+                    current.board.runBatch(recorded);
+                    return;
+                }
+                current.journal.lock();
+                try {
+                    current.board.runBatch(recorded);
+                } finally {
+                    current.journal.unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * @param since version of a state the client has, or -1 for the whole board state
+     * @return board.getBoardState(since), or board.getBoardState() if since is -1
+     */
+    private String boardState(long since) {
+        long start = metrics.start();
+        String state = since == -1 ? board.getBoardState() : board.getBoardState(since);
+        metrics.recordBoardState(start);
+        return state;
+    }
+
+    /**
+     * Wait until the moves this session journaled are on the disk, see MoveJournal.awaitDurable().
+     */
+    private void awaitJournal() {
+        if (journaled == 0) return;
+        try {
+            journaledTo.awaitDurable(journaled);
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    /**
+     * Dig a cell, as one atomic Board operation, journal the dig if it changed the board, and publish the
+     * changed cells to the watchers.
+     * @return what digging cell posX,posY did; nothing if it is off the board
+     */
+    private DigResult dig(int posX, int posY) {
+        boolean onBoard = (posX >= 0 && posY >= 0) && (posX < boardCols && posY < boardRows);
+        if (!onBoard) return new DigResult(false, new int[0]);
+        DigResult result;
+        long start = metrics.start();
+        if (journal == null) {
+            result = board.digAt(posX, posY);
+            metrics.recordDig(start, result.getNumChangedCells());
+        } else {
+            journal.lock();
+            try {
+                result = board.digAt(posX, posY);
+                metrics.recordDig(start, result.getNumChangedCells());
+                if (result.isBoom() || result.getNumChangedCells() > 0) {
+                    journaled = journal.append(player, BinaryProtocol.DIG, posX, posY, board.getVersion());
+                    journaledTo = journal;
+                }
+            } finally {
+                journal.unlock();
+            }
+        }
+        feed.publish(changedCells(result));
+        return result;
+    }
+
+    /**
+     * Flag an untouched cell or deflag a flagged cell, as one atomic Board operation, journal the change
+     * and publish it to the watchers.
+     * @return changed cells: posY * Board X size + posX, or none
+     */
+    private int[] flag(int posX, int posY, boolean flag) {
+        boolean onBoard = (posX >= 0 && posY >= 0) && (posX < boardCols && posY < boardRows);
+        if (!onBoard) return new int[0];
+        boolean changed;
+        if (journal == null) {
+            changed = flag ? board.flagIfUntouched(posX, posY) : board.deflagIfFlagged(posX, posY);
+        } else {
+            journal.lock();
+            try {
+                changed = flag ? board.flagIfUntouched(posX, posY) : board.deflagIfFlagged(posX, posY);
+                if (changed) {
+                    journaled = journal.append(player, flag ? BinaryProtocol.FLAG : BinaryProtocol.DEFLAG, posX, posY,
+                            board.getVersion());
+                    journaledTo = journal;
+                }
+            } finally {
+                journal.unlock();
+            }
+        }
+        int[] cells = changed ? new int[] { posY * boardCols + posX } : new int[0];
+        feed.publish(cells);
+        return cells;
+    }
+
+    private static int[] changedCells(DigResult result) {
+        int[] cells = new int[result.getNumChangedCells()];
+        for (int i = 0; i < cells.length; i++) cells[i] = result.getChangedCell(i);
+        return cells;
+    }
+
+    /**
+     * @param cells changed cells as posY * Board X size + posX
+     * @return DELTA response frame with the current state of cells
+     */
+    private byte[] binaryChanges(int[] cells) {
+        long version = board.getVersion(); // before reading the cells, so they are at least as new
+        int[] states = new int[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            states[i] = BinaryProtocol.cellCode(board.getCellState(cells[i] % boardCols, cells[i] / boardCols));
+        }
+        return BinaryProtocol.delta(version, cells, states);
+    }
+
+    /**
+     * @param cells changed cells as posY * Board X size + posX
+     * @return DELTA message listing the current state of cells
+     */
+    private String changes(int[] cells) {
+        long version = board.getVersion(); // before reading the cells, so they are at least as new
+        StringBuilder message = new StringBuilder(32 + 12 * cells.length);
+        message.append("VERSION ").append(version).append(" CHANGED ").append(cells.length).append("\r\n");
+        for (int cell : cells) {
+            int x = cell % boardCols, y = cell / boardCols;
+            char state = board.getCellState(x, y);
+            message.append(x).append(' ').append(y).append(' ').append(state == 'B' ? '_' : state).append("\r\n");
+        }
+        return message.toString();
+    }
+}
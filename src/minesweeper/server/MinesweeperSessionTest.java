@@ -0,0 +1,143 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * MinesweeperSession must answer the protocol commands, with the whole board or, in delta mode, with
+ * the changed cells.
+ */
+public class MinesweeperSessionTest {
+
+    @Test
+    public void testFullModeByDefault() {
+        MinesweeperSession session = new MinesweeperSession(new PackedBoard(2, 3, 0));
+        assertEquals("F _ _\r\n_ _ _\r\n", session.handleRequest("flag 0 0"));
+        assertNull(session.handleRequest("bye"));
+    }
+
+    @Test
+    public void testDeltaMode_FlagDeflag() {
+        Board board = new PackedBoard(2, 3, 0);
+        MinesweeperSession session = new MinesweeperSession(board);
+        assertEquals("DELTA ON", session.handleRequest("delta on"));
+        assertEquals("VERSION 1 CHANGED 1\r\n2 1 F\r\n", session.handleRequest("flag 2 1"));
+        assertEquals("VERSION 1 CHANGED 0\r\n", session.handleRequest("flag 2 1")); // already flagged
+        assertEquals("VERSION 1 CHANGED 0\r\n", session.handleRequest("flag 5 5")); // off the board
+        assertEquals("VERSION 2 CHANGED 1\r\n2 1 _\r\n", session.handleRequest("deflag 2 1"));
+        assertEquals("_ _ _\r\n_ _ _\r\n", session.handleRequest("look")); // look is a full snapshot
+        assertEquals("DELTA OFF", session.handleRequest("delta off"));
+        assertEquals("_ _ F\r\n_ _ _\r\n", session.handleRequest("flag 2 0"));
+    }
+
+    @Test
+    public void testDeltaMode_DigListsRevealedCells() {
+        Board board = new PackedBoard(2, 3, 1);
+        board.changeCellState(2, 0, 'B');
+        MinesweeperSession session = new MinesweeperSession(board);
+        session.handleRequest("delta on");
+        String[] lines = session.handleRequest("dig 0 1").split("\r\n");
+        assertEquals("VERSION 2 CHANGED 4", lines[0]); // the bomb was version 1
+        String[] cells = Arrays.copyOfRange(lines, 1, lines.length);
+        Arrays.sort(cells);
+        assertArrayEquals(new String[] { "0 0  ", "0 1  ", "1 0 1", "1 1 1" }, cells);
+        assertEquals("BOOM!!!", session.handleRequest("dig 2 0"));
+    }
+
+    @Test
+    public void testHandleBatch_InOrderUntilBye() {
+        MinesweeperSession session = new MinesweeperSession(new PackedBoard(1, 2, 0));
+        List<String> requests = new ArrayList<String>();
+        for (int i = 0; i < MinesweeperSession.MAX_BATCH; i++) requests.add(i % 2 == 0 ? "flag 0 0" : "deflag 0 0");
+        requests.add("flag 1 0"); // beyond MAX_BATCH, in a second acquisition of the board
+        requests.add("bye");
+        requests.add("look");
+        List<String> replies = session.handleBatch(requests);
+        assertEquals(MinesweeperSession.MAX_BATCH + 2, replies.size());
+        assertEquals("F _\r\n", replies.get(0));
+        assertEquals("_ _\r\n", replies.get(MinesweeperSession.MAX_BATCH - 1));
+        assertEquals("_ F\r\n", replies.get(MinesweeperSession.MAX_BATCH));
+        assertNull(replies.get(MinesweeperSession.MAX_BATCH + 1));
+    }
+
+    @Test
+    public void testBinaryProtocol() {
+        Board board = new PackedBoard(2, 3, 1);
+        board.changeCellState(2, 1, 'B'); // version 1
+        MinesweeperSession session = new MinesweeperSession(board);
+        assertEquals("DELTA ON", session.handleRequest("delta on"));
+        assertEquals("BINARY", session.handleRequest("binary"));
+        assertTrue(session.isBinary());
+        // BOARD 3 columns 2 rows version 1, six UNTOUCHED cells in three bytes
+        assertArrayEquals(bytes(7, 1, 3, 2, 1, 0x99, 0x99, 0x99), binary(session, BinaryProtocol.LOOK));
+        // DELTA version 2, one cell: 1 FLAGGED
+        assertArrayEquals(bytes(5, 2, 2, 1, 1, 10), binary(session, BinaryProtocol.FLAG, 1, 0));
+        assertArrayEquals(bytes(2, 4, 2), binary(session, BinaryProtocol.LOOK_SINCE, 2)); // UNCHANGED
+        assertArrayEquals(bytes(3, 2, 2, 0), binary(session, BinaryProtocol.FLAG, 1, 0)); // already flagged
+        assertArrayEquals(bytes(1, 3), binary(session, BinaryProtocol.DIG, 2, 1)); // BOOM
+        assertNull(binary(session, BinaryProtocol.BYE));
+    }
+
+    @Test
+    public void testBinaryProtocol_WrongRequests() {
+        MinesweeperSession session = new MinesweeperSession(new PackedBoard(2, 3, 0));
+        session.handleRequest("binary");
+        byte[][] wrong = { { 99 }, { BinaryProtocol.DIG, 1 }, { BinaryProtocol.LOOK, 0 }, { BinaryProtocol.FLAG, 1, (byte) 0x80 } };
+        for (byte[] body : wrong) {
+            assertEquals(BinaryProtocol.ERROR, BinaryProtocol.typeOf(session.handleBinaryRequest(body)));
+        }
+        // coordinates beyond the int range are off the board
+        assertArrayEquals(bytes(3, 2, 0, 0), binary(session, BinaryProtocol.FLAG, Long.MAX_VALUE, 0));
+    }
+
+    private static byte[] binary(MinesweeperSession session, int opcode, long... args) {
+        byte[] frame = BinaryProtocol.request(opcode, args);
+        return session.handleBinaryRequest(Arrays.copyOfRange(frame, 1, frame.length)); // LENGTH is one byte
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) bytes[i] = (byte) values[i];
+        return bytes;
+    }
+
+    @Test
+    public void testLookSinceVersion() {
+        MinesweeperSession session = new MinesweeperSession(new SnapshotBoard(2, 3, 0));
+        assertEquals("UNCHANGED SINCE 0", session.handleRequest("look 0"));
+        session.handleRequest("flag 1 0");
+        assertEquals("VERSION 1\r\n_ F _\r\n_ _ _\r\n", session.handleRequest("look 0"));
+        assertEquals("UNCHANGED SINCE 1", session.handleRequest("look 1"));
+    }
+
+    @Test
+    public void testWatchPushesOtherPlayersChanges() {
+        Board board = new PackedBoard(2, 3, 0);
+        ChangeFeed feed = new ChangeFeed();
+        MinesweeperSession player = new MinesweeperSession(board, feed);
+        MinesweeperSession watcher = new MinesweeperSession(board, feed);
+        assertEquals("WATCH NOT SUPPORTED", watcher.handleRequest("watch"));
+        final int[] signals = new int[1];
+        watcher.setPushListener(new Runnable() {
+            public void run() {
+                signals[0]++;
+            }
+        });
+        assertEquals("WATCHING", watcher.handleRequest("watch"));
+        player.handleRequest("flag 1 0");
+        player.handleRequest("flag 2 1");
+        player.handleRequest("deflag 1 0");
+        assertEquals(1, signals[0]);
+        assertTrue(watcher.hasPush());
+        assertEquals("WATCH VERSION 3 CHANGED 2\r\n1 0 _\r\n2 1 F\r\n", watcher.takePush());
+        assertNull(watcher.takePush());
+        assertEquals("NOT WATCHING", watcher.handleRequest("unwatch"));
+        player.handleRequest("flag 0 0");
+        assertFalse(watcher.hasPush());
+    }
+}
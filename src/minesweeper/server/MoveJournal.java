@@ -0,0 +1,324 @@
+package minesweeper.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * MoveJournal is an append-only file of the moves that changed a board, each made durable before the
+ * move is answered, so a server that crashed can be restarted with the board it had: the board it
+ * started from (a board file or a snapshot) with the journaled moves replayed over it.
+ *
+ *   FILE :== HEADER RECORD*
+ *   HEADER :== MAGIC "MSWJ" (4 bytes), FORMAT 1 (4), X (4), Y (4)
+ *   RECORD :== SEQUENCE (8), VERSION (8), PLAYER (4), MOVE (1), 0 (3), X (4), Y (4), CRC (4)
+ *
+ * Integers are big-endian. MOVE is the BinaryProtocol opcode DIG, FLAG or DEFLAG of the move of player
+ * PLAYER on cell X,Y; SEQUENCE counts records from 1; VERSION is Board.getVersion() right after the move;
+ * CRC is the CRC-32 of the 32 bytes of the record before it. Only moves which changed cells are
+ * journaled, and every kind of Board counts one version per such move, so VERSION grows by exactly one
+ * from record to record, and a board restored at version V, of any kind, is brought up to date by
+ * replaying the records after V. A snapshot saved while the journal is written must be saved holding
+ * lock(), so the version it records is the version of its cells.
+ *
+ * Moves are journaled in the order they are made on the board: every session making a move holds the
+ * journal's lock() from before the move until its record is queued, and takes it before the board's own
+ * locks. The moves of all sessions of a journaled board are therefore made one at a time.
+ *
+ * Records are made durable by group commit: append() only queues a record in memory, and a session calls
+ * awaitDurable() before answering its moves. The first thread to wait writes every record queued so far,
+ * of all sessions, with one write and one fsync; the threads arriving meanwhile wait for it, then one of
+ * them commits in the same way all the records queued in the meantime.
+ *
+ * A crash may leave part of a record at the end of the file; it is cut off when the journal is opened.
+ */
+public final class MoveJournal implements Closeable {
+    private static final int MAGIC = 0x4D53574A; // "MSWJ"
+    private static final int FORMAT = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 36;
+    private static final int INITIAL_QUEUE = 256 * RECORD_SIZE;
+
+    private final FileChannel channel;
+    private final ReentrantLock order = new ReentrantLock();
+    private final int replayed;
+    private long nextSequence;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer queued = ByteBuffer.allocate(INITIAL_QUEUE);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_QUEUE); // null while its records are being committed
+    private long lastQueued; // sequence of the last record queued
+    private long durable; // sequence of the last record forced to the disk
+    private boolean committing;
+    private long commits;
+    private IOException failure; // the journal is unusable after a failed commit
+
+    // Thread safety argument:
+    //    - 'channel' is final and only written by the one committing thread at a time, see 'committing'
+    //    - 'nextSequence' is guarded by 'order'
+    //    - 'crc', 'queued', 'spare', 'lastQueued', 'durable', 'committing', 'commits' and 'failure' are
+    //      guarded by this object's monitor, which is never held while writing to the disk
+
+    private MoveJournal(FileChannel channel, long lastSequence, int replayed) {
+        this.channel = channel;
+        this.replayed = replayed;
+        nextSequence = lastSequence + 1;
+        lastQueued = durable = lastSequence;
+    }
+
+    /**
+     * Open a journal to record the moves made on board, creating it if it does not exist. The moves it
+     * recorded after the version of board are replayed on board first, and a record torn by a crash is
+     * cut off.
+     *
+     * @param file journal file
+     * @param board board the journal was recorded on, as it was at some version: a board file, or a
+     *              snapshot saved while the journal was written
+     * @throws IOException if the journal cannot be read or written, belongs to a board of another size,
+     *                     or its moves do not replay on board
+     */
+    public static MoveJournal open(File file, Board board) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            int cols = board.getBoardSize()[0], rows = board.getBoardSize()[1];
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.size() < HEADER_SIZE) { // new, or the crash was while creating it
+                header.putInt(MAGIC).putInt(FORMAT).putInt(cols).putInt(rows).flip();
+                channel.truncate(0);
+                while (header.hasRemaining()) channel.write(header, header.position());
+                channel.force(true);
+            } else {
+                while (header.hasRemaining() && channel.read(header, header.position()) > 0) continue;
+                if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT) throw new IOException(file + ": not a journal of format " + FORMAT);
+                if (header.getInt(8) != cols || header.getInt(12) != rows) {
+                    throw new IOException(file + ": journal of a " + header.getInt(8) + "x" + header.getInt(12) + " board");
+                }
+            }
+
+            Reader reader = new Reader(channel, file);
+            long lastSequence = 0;
+            int replayed = 0;
+            while (reader.next()) {
+                if (reader.sequence != lastSequence + 1) throw new IOException(file + ": record " + reader.sequence + " out of sequence");
+                lastSequence = reader.sequence;
+                if (reader.version <= board.getVersion()) continue; // the board has this move already
+                if (!replay(board, reader.move, reader.x, reader.y) || board.getVersion() != reader.version) {
+                    throw new IOException(file + ": record " + reader.sequence + " does not replay on the board at version "
+                            + board.getVersion());
+                }
+                replayed++;
+            }
+            channel.truncate(reader.end()); // a torn record
+            channel.position(reader.end());
+            return new MoveJournal(channel, lastSequence, replayed);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Make a journaled move on board again.
+     * @return true if the move changed cells, as it did when it was journaled
+     */
+    static boolean replay(Board board, int move, int x, int y) {
+        int[] size = board.getBoardSize();
+        if (x < 0 || y < 0 || x >= size[0] || y >= size[1]) return false;
+        if (move == BinaryProtocol.DIG) {
+            DigResult result = board.digAt(x, y);
+            return result.isBoom() || result.getNumChangedCells() > 0;
+        }
+        if (move == BinaryProtocol.FLAG) return board.flagIfUntouched(x, y);
+        if (move == BinaryProtocol.DEFLAG) return board.deflagIfFlagged(x, y);
+        return false;
+    }
+
+    /**
+     * @return number of moves replayed when the journal was opened
+     */
+    public int getReplayed() {
+        return replayed;
+    }
+
+    /**
+     * Acquire the lock which orders the moves of the board; reentrant, see ReentrantLock.lock().
+     */
+    void lock() {
+        order.lock();
+    }
+
+    void unlock() {
+        order.unlock();
+    }
+
+    /**
+     * Queue the record of a move that changed the board. The caller holds lock() since before the move.
+     *
+     * @param player id of the player who made the move
+     * @param move BinaryProtocol.DIG, FLAG or DEFLAG
+     * @param version Board.getVersion() after the move
+     * @return sequence number of the record, for awaitDurable()
+     */
+    long append(int player, int move, int x, int y, long version) {
+        if (!order.isHeldByCurrentThread()) throw new IllegalStateException("moves must be made holding lock()");
+        long sequence = nextSequence++;
+        synchronized (this) {
+            if (queued.remaining() < RECORD_SIZE) {
+                queued.flip();
+                queued = ByteBuffer.allocate(2 * queued.capacity()).put(queued);
+            }
+            int start = queued.position();
+            queued.putLong(sequence).putLong(version).putInt(player).putInt(move << 24).putInt(x).putInt(y);
+            crc.reset();
+            crc.update(queued.array(), start, RECORD_SIZE - 4);
+            queued.putInt((int) crc.getValue());
+            lastQueued = sequence;
+        }
+        return sequence;
+    }
+
+    /**
+     * Wait until the record of sequence number sequence, and every record before it, is on the disk;
+     * commits them and the records of other sessions queued meanwhile unless another thread is already
+     * doing so.
+     *
+     * @throws IOException if the records cannot be written; the journal is unusable afterwards
+     */
+    void awaitDurable(long sequence) throws IOException {
+        ByteBuffer batch;
+        long upTo;
+        synchronized (this) {
+            while (true) {
+                if (failure != null) throw new IOException("journal failed", failure);
+                if (durable >= sequence) return;
+                if (!committing) break;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for the journal");
+                }
+            }
+            committing = true;
+            batch = queued;
+            queued = spare;
+            spare = null;
+            upTo = lastQueued;
+        }
+
+        IOException failed = null;
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) channel.write(batch);
+            channel.force(false);
+        } catch (IOException e) {
+            failed = e;
+        }
+
+        synchronized (this) {
+            committing = false;
+            commits++;
+            batch.clear();
+            spare = batch;
+            if (failed == null) durable = upTo;
+            else failure = failed;
+            notifyAll();
+        }
+        if (failed != null) throw failed;
+    }
+
+    /**
+     * @return number of writes with fsync so far, each committing one or more records
+     */
+    synchronized long getCommits() {
+        return commits;
+    }
+
+    /**
+     * Commit the records queued, and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        long last;
+        synchronized (this) {
+            last = lastQueued;
+        }
+        try {
+            awaitDurable(last);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads the records of a journal, from the first, for replay; see open().
+     */
+    static final class Reader {
+        private final FileChannel channel;
+        private final File file;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1024 * RECORD_SIZE);
+        private final CRC32 crc = new CRC32();
+        private long readPosition = HEADER_SIZE; // position in the file of the first byte not in 'buffer' yet
+        private long end = HEADER_SIZE; // position in the file after the last record read
+
+        /**
+         * Fields of the last record read by next().
+         */
+        long sequence, version;
+        int player, move, x, y;
+
+        /**
+         * @param channel journal file, its header already checked
+         * @param file name of the journal, for error messages
+         */
+        Reader(FileChannel channel, File file) {
+            this.channel = channel;
+            this.file = file;
+            buffer.limit(0);
+        }
+
+        /**
+         * Read the next record into the fields.
+         * @return false at the end of the journal, or at a record torn by a crash which ends it
+         * @throws IOException if the journal cannot be read, or a record before its end is damaged
+         */
+        boolean next() throws IOException {
+            if (buffer.remaining() < RECORD_SIZE) {
+                buffer.compact();
+                int n;
+                while (buffer.hasRemaining() && (n = channel.read(buffer, readPosition)) > 0) readPosition += n;
+                buffer.flip();
+                if (buffer.remaining() < RECORD_SIZE) return false;
+            }
+            int start = buffer.position();
+            crc.reset();
+            crc.update(buffer.array(), start, RECORD_SIZE - 4);
+            if ((int) crc.getValue() != buffer.getInt(start + RECORD_SIZE - 4)) {
+                if (end + RECORD_SIZE < channel.size()) throw new IOException(file + ": damaged record at byte " + end);
+                return false; // the last record, torn
+            }
+            sequence = buffer.getLong();
+            version = buffer.getLong();
+            player = buffer.getInt();
+            move = buffer.getInt() >>> 24;
+            x = buffer.getInt();
+            y = buffer.getInt();
+            buffer.getInt(); // CRC
+            end += RECORD_SIZE;
+            return true;
+        }
+
+        /**
+         * @return position in the file after the last record read
+         */
+        long end() {
+            return end;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * MoveJournal must record the moves of all sessions in the order they changed the board, replay them
+ * onto the board it started from, and survive a crash in the middle of a write.
+ */
+public class MoveJournalTest {
+
+    private static Board board() {
+        Board board = new PackedBoard(5, 6, 2);
+        board.changeCellState(3, 2, 'B');
+        board.changeCellState(0, 4, 'B');
+        return board;
+    }
+
+    private static File journalFile() throws IOException {
+        File file = File.createTempFile("moves", ".log");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static int records(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MoveJournal.Reader reader = new MoveJournal.Reader(channel, file);
+            int records = 0;
+            while (reader.next()) {
+                assertEquals(records + 1, reader.sequence);
+                records++;
+            }
+            return records;
+        }
+    }
+
+    @Test
+    public void testReplayRestoresBoard() throws IOException {
+        File file = journalFile();
+        Board played = board();
+        MoveJournal journal = MoveJournal.open(file, played);
+        assertEquals(0, journal.getReplayed());
+        MinesweeperSession session = new MinesweeperSession(played, new ChangeFeed(), journal);
+        session.handleBatch(Arrays.asList("flag 4 4", "dig 0 0", "deflag 4 4", "flag 4 4", "flag 9 9", "look"));
+        session.handleBatch(Arrays.asList("dig 0 0", "flag 1 1", "dig 3 2")); // no change, no change, BOOM
+        journal.close();
+        assertEquals("moves which changed the board", 5, records(file));
+
+        Board replayed = board();
+        journal = MoveJournal.open(file, replayed);
+        journal.close();
+        assertEquals(5, journal.getReplayed());
+        assertEquals(played.getBoardState(), replayed.getBoardState());
+        assertEquals(played.getVersion(), replayed.getVersion());
+    }
+
+    @Test
+    public void testReplayOverSnapshot() throws IOException {
+        File file = journalFile(), snapshot = journalFile();
+        Board played = board();
+        MoveJournal journal = MoveJournal.open(file, played);
+        MinesweeperSession session = new MinesweeperSession(played, new ChangeFeed(), journal);
+        session.handleBatch(Arrays.asList("flag 4 4", "dig 0 0"));
+        SnapshotFile.save(played, snapshot);
+        session.handleBatch(Arrays.asList("deflag 4 4", "flag 4 4"));
+        journal.close();
+
+        SnapshotFile saved = SnapshotFile.read(snapshot);
+        Board restored = new AtomicBoard(saved.rows, saved.cols, saved.cells, saved.version);
+        journal = MoveJournal.open(file, restored);
+        journal.close();
+        assertEquals("moves after the snapshot", 2, journal.getReplayed());
+        assertEquals(played.getBoardState(), restored.getBoardState());
+        assertEquals(played.getVersion(), restored.getVersion());
+    }
+
+    @Test
+    public void testReplayOnAnotherBoardKind() throws IOException {
+        File file = journalFile();
+        Board played = new AtomicBoard(5, 6, 2);
+        played.changeCellState(3, 2, 'B');
+        played.changeCellState(0, 4, 'B');
+        MoveJournal journal = MoveJournal.open(file, played);
+        MinesweeperSession session = new MinesweeperSession(played, new ChangeFeed(), journal);
+        session.handleBatch(Arrays.asList("flag 4 4", "dig 0 0", "deflag 4 4", "dig 3 2")); // a reveal, a BOOM
+        journal.close();
+
+        Board replayed = board(); // a PackedBoard
+        journal = MoveJournal.open(file, replayed);
+        journal.close();
+        assertEquals(4, journal.getReplayed());
+        assertEquals(played.getBoardState(), replayed.getBoardState());
+        assertEquals(played.getVersion(), replayed.getVersion());
+    }
+
+    @Test
+    public void testTornRecordIsCutOff() throws IOException {
+        File file = journalFile();
+        Board played = board();
+        MoveJournal journal = MoveJournal.open(file, played);
+        new MinesweeperSession(played, new ChangeFeed(), journal).handleBatch(Arrays.asList("flag 4 4", "flag 5 0"));
+        journal.close();
+        long length = file.length();
+        try (RandomAccessFile torn = new RandomAccessFile(file, "rw")) {
+            torn.setLength(length + MoveJournal.RECORD_SIZE - 5); // a crash while writing the next record
+            torn.seek(length);
+            torn.write(new byte[] { 0, 0, 0, 0, 0, 0, 0, 3 });
+        }
+
+        Board replayed = board();
+        journal = MoveJournal.open(file, replayed);
+        assertEquals(2, journal.getReplayed());
+        assertEquals(length, file.length());
+        new MinesweeperSession(replayed, new ChangeFeed(), journal).handleBatch(Arrays.asList("deflag 4 4"));
+        journal.close();
+        assertEquals("appended after the cut", 3, records(file));
+        Board again = board();
+        MoveJournal.open(file, again).close();
+        assertEquals(replayed.getBoardState(), again.getBoardState());
+    }
+
+    @Test
+    public void testRejectsDamagedOrForeignJournal() throws IOException {
+        File file = journalFile();
+        Board played = board();
+        MoveJournal journal = MoveJournal.open(file, played);
+        new MinesweeperSession(played, new ChangeFeed(), journal).handleBatch(Arrays.asList("flag 4 4", "flag 5 0"));
+        journal.close();
+
+        try {
+            MoveJournal.open(file, new PackedBoard(6, 5, 0));
+            fail("opened the journal of another board");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("6x5"));
+        }
+
+        try (RandomAccessFile damaged = new RandomAccessFile(file, "rw")) {
+            damaged.seek(MoveJournal.HEADER_SIZE + 20);
+            damaged.write(damaged.read() ^ 1); // the X of the first record, followed by a whole record
+        }
+        try {
+            MoveJournal.open(file, board());
+            fail("replayed a damaged record");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("damaged"));
+        }
+    }
+
+    @Test
+    public void testConcurrentSessionsShareCommits() throws Exception {
+        final File file = journalFile();
+        final Board played = new PackedBoard(8, 8, 0);
+        final MoveJournal journal = MoveJournal.open(file, played);
+        final int players = 8, moves = 50;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < players; p++) {
+            final int row = p;
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    MinesweeperSession session = new MinesweeperSession(played, new ChangeFeed(), journal);
+                    for (int i = 0; i < moves; i++) {
+                        session.handleBatch(Arrays.asList((i % 2 == 0 ? "flag " : "deflag ") + (i / 2 % 8) + " " + row));
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        journal.close();
+
+        assertEquals(players * moves, records(file));
+        assertTrue("at most one commit per move", journal.getCommits() <= players * moves);
+        Board replayed = new PackedBoard(8, 8, 0);
+        MoveJournal.open(file, replayed).close();
+        assertEquals(played.getBoardState(), replayed.getBoardState());
+        assertEquals(played.getVersion(), replayed.getVersion());
+    }
+}
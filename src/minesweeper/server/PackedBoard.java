@@ -0,0 +1,405 @@
+package minesweeper.server;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PackedBoard represents a thread safe mutable grid of cells in multiplayer game Minesweeper,
+ * stored as one byte per cell in a single flat array.
+ * Cell states seen through Board are the same character set as SimpleBoard {_, ,F,B,1-8}.
+ */
+public class PackedBoard implements Board {
+    // Cell byte layout:
+    //   bits 0-3  number of bombs in the 8 adjacent cells (0-8)
+    //   bit  4    bomb
+    //   bits 5-6  UNTOUCHED, DUG or FLAGGED
+    static final int COUNT_MASK = 0x0F;
+    static final int BOMB = 0x10;
+    static final int STATE_MASK = 0x60;
+    static final int UNTOUCHED = 0x00;
+    static final int DUG = 0x20;
+    static final int FLAGGED = 0x40;
+
+    private final int numRows, numCols, numBombs;
+    private final byte[] cells;
+    private int bombCount;
+    private final RenderCache renderCache;
+    private final RevealEngine.Grid revealGrid;
+    private RevealEngine revealEngine;
+    private volatile long version; // number of operations which changed cells
+    private final ReentrantLock lock = new ReentrantLock(); // not a monitor, so a virtual thread waiting for it unmounts
+
+    // Rep invariant
+    // numRows > 0, numCols > 0, numBombs >= 0
+    // cells.length == numRows * numCols, cell (x,y) is stored at cells[y * numCols + x]
+    // each cell state bits are one of UNTOUCHED, DUG, FLAGGED
+    // each cell count bits equal the number of adjacent cells with the BOMB bit set
+    // only UNTOUCHED cells carry the BOMB bit, as in SimpleBoard where 'B' is an untouched bomb
+    // bombCount == number of cells with the BOMB bit set, bombCount <= numBombs
+
+    // Abstraction function
+    // represents a numCols x numRows grid of characters from set {_, ,F,B,1-8} where cell (x,y) is
+    //   'B' if untouched with bomb, '_' if untouched, 'F' if flagged,
+    //   ' ' if dug with count 0, otherwise the digit of its count
+
+    // Thread safety argument:
+    //    - numRows, numCols, numBombs, cells are final
+    //    - 'cells' points to a mutable byte array, encapsulated in this object and never exposed
+    //    - 'version' is volatile, written only while holding 'lock' and read without it
+    //    - all accesses to 'cells', 'bombCount', 'renderCache' and 'revealEngine' happen within PackedBoard methods
+    //      guarded by PackedBoard's 'lock'; reveal tasks of a ParallelRevealEngine run while revealCell() holds
+    //      the lock and waits for them, and dig distinct cells
+
+    /**
+     * Construct initial Board state.
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param bombs number of Bombs; Integer.MAX_VALUE inserts a bomb in each cell with probability .25
+     */
+    public PackedBoard(int rows, int cols, int bombs) {
+        Validation.check(rows > 0, "ASSERTION ERROR ON INPUT PARAMS! invalid rows");
+        Validation.check(cols > 0, "ASSERTION ERROR ON INPUT PARAMS! invalid cols");
+        Validation.check(bombs >= 0, "ASSERTION ERROR ON INPUT PARAMS! invalid bombs");
+
+        numRows = rows;
+        numCols = cols;
+        numBombs = bombs;
+        cells = new byte[rows * cols];
+        renderCache = new RenderCache(rows, cols) {
+            @Override
+            char cellAt(int x, int y) {
+                char ch = toChar(cells[y * numCols + x]);
+                return ch == 'B' ? '_' : ch; // mask Bombs location for output
+            }
+        };
+        revealGrid = new RevealEngine.Grid() {
+            @Override
+            public char cellAt(int x, int y) {
+                return toChar(cells[y * numCols + x]);
+            }
+
+            @Override
+            public int neighbourBombs(int x, int y) {
+                return cells[y * numCols + x] & COUNT_MASK;
+            }
+
+            @Override
+            public boolean dig(int x, int y, int neighbourBombs) {
+                int i = y * numCols + x;
+                cells[i] = (byte) ((cells[i] & ~STATE_MASK) | DUG);
+                renderCache.markDirty(y);
+                return true;
+            }
+        };
+        revealEngine = new RevealEngine(rows, cols, revealGrid);
+
+        if (numBombs == Integer.MAX_VALUE) { // same sentinel as SimpleBoard
+            for (int y = 0; y < numRows; y++) {
+                for (int x = 0; x < numCols; x++) {
+                    if (Math.random() <= 0.25) setBomb(x, y, true);
+                }
+            }
+        }
+        checkRep();
+    }
+
+    /**
+     * Construct initial Board state with bombs in the given cells, e.g. of a board file.
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param bombs cells with a bomb, cell x,y at index y * cols + x
+     */
+    public PackedBoard(int rows, int cols, BitSet bombs) {
+        this(rows, cols, bombs.cardinality());
+        Validation.check(bombs.length() <= rows * cols, "ASSERTION ERROR ON INPUT PARAMS! invalid bombs");
+        for (int i = bombs.nextSetBit(0); i >= 0; i = bombs.nextSetBit(i + 1)) setBomb(i % cols, i / cols, true);
+        checkRep();
+    }
+
+    /**
+     * Construct a Board with the cells and version of a saved Board, see Board.copyCells().
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param saved bomb and state bits of each cell, cell x,y at index y * cols + x
+     * @param version version of the saved Board
+     */
+    public PackedBoard(int rows, int cols, byte[] saved, long version) {
+        this(rows, cols, countBombs(saved));
+        Validation.check(saved.length == rows * cols, "ASSERTION ERROR ON INPUT PARAMS! invalid cells");
+        for (int y = 0, i = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++, i++) {
+                if ((saved[i] & BOMB) != 0) setBomb(x, y, true);
+                cells[i] = (byte) ((cells[i] & ~STATE_MASK) | (saved[i] & STATE_MASK));
+            }
+        }
+        this.version = version;
+        checkRep();
+    }
+
+    /**
+     * @return number of cells of a Board.copyCells() copy with the BOMB bit set
+     */
+    static int countBombs(byte[] cells) {
+        int bombs = 0;
+        for (byte cell : cells) bombs += (cell & BOMB) >> 4;
+        return bombs;
+    }
+
+    /**
+     * Check that the rep invariant is true. Scans the whole board, so only run by creators, if
+     * Validation.checksBoard().
+     */
+    private void checkRep() {
+        if (!Validation.checksBoard()) return;
+        int countBombs = 0;
+        Validation.check(cells.length == numRows * numCols, "ASSERTION ERROR ON BOARD SIZE!");
+        for (int y = 0; y < numRows; y++) {
+            for (int x = 0; x < numCols; x++) {
+                checkCell(x, y);
+                if ((cells[y * numCols + x] & BOMB) != 0) countBombs++;
+            }
+        }
+        Validation.check(countBombs == bombCount, "ASSERTION ERROR ON COUNTBOMBS!");
+    }
+
+    /**
+     * Check the rep invariant of one cell; cheap enough to run after every mutation
+     * touching it, if Validation.checksCell().
+     */
+    private void checkCell(int x, int y) {
+        int cell = cells[y * numCols + x];
+        int state = cell & STATE_MASK;
+        Validation.check(state == UNTOUCHED || state == DUG || state == FLAGGED, "ASSERTION ERROR ON CELL STATE!");
+        Validation.check((cell & BOMB) == 0 || state == UNTOUCHED, "ASSERTION ERROR ON CELL BOMB!");
+        Validation.check((cell & COUNT_MASK) <= 8, "ASSERTION ERROR ON CELL COUNT!");
+        Validation.check(bombCount >= 0 && bombCount <= numBombs, "ASSERTION ERROR ON COUNTBOMBS!");
+    }
+
+    /**
+     * Set or clear the bomb bit of cell x,y, keeping the counts of its neighbours up to date.
+     */
+    private void setBomb(int x, int y, boolean bomb) {
+        int i = y * numCols + x;
+        if (((cells[i] & BOMB) != 0) == bomb) return;
+        cells[i] = (byte) (bomb ? cells[i] | BOMB : cells[i] & ~BOMB);
+        int delta = bomb ? 1 : -1;
+        bombCount += delta;
+        for (int ny = Math.max(0, y - 1); ny <= Math.min(numRows - 1, y + 1); ny++) {
+            renderCache.markDirty(ny); // dug neighbours show the new count
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(numCols - 1, x + 1); nx++) {
+                if (nx == x && ny == y) continue;
+                int n = ny * numCols + nx;
+                cells[n] = (byte) ((cells[n] & ~COUNT_MASK) | ((cells[n] & COUNT_MASK) + delta));
+            }
+        }
+    }
+
+    /**
+     * @return character of a packed cell according to the abstraction function.
+     */
+    static char toChar(int cell) {
+        switch (cell & STATE_MASK) {
+        case UNTOUCHED: return (cell & BOMB) != 0 ? 'B' : '_';
+        case FLAGGED:   return 'F';
+        case DUG:       return (cell & COUNT_MASK) == 0 ? ' ' : (char) ('0' + (cell & COUNT_MASK));
+        default:        throw new AssertionError(); // state bits are guarded by checkCell()
+        }
+    }
+
+    @Override
+    public String getBoardState() {
+        lock.lock();
+        try {
+            return renderCache.render();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getBoardState(long version) {
+        return version == getVersion() ? null : getBoardState(); // the version is read without locking
+    }
+
+    @Override
+    public void runBatch(Runnable operations) {
+        lock.lock();
+        try {
+            operations.run(); // its operations take the lock again, it is reentrant
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * A dug state ' ' or '1'-'8' must agree with the number of bombs adjacent to the cell,
+     * otherwise the change fails.
+     */
+    @Override
+    public boolean changeCellState(int posX, int posY, char state) {
+        lock.lock();
+        try {
+            Validation.check(posX >= 0 && posX < numCols, "ASSERTION ERROR ON INPUT PARAMS!");
+            Validation.check(posY >= 0 && posY < numRows, "ASSERTION ERROR ON INPUT PARAMS!");
+
+            int i = posY * numCols + posX;
+            if (toChar(cells[i]) == state) return false;
+
+            int newState;
+            switch (state) {
+            case '_': case 'B': newState = UNTOUCHED; break;
+            case 'F':           newState = FLAGGED; break;
+            case ' ':           newState = DUG; break;
+            default:
+                if (state < '1' || state > '8') return false; // Any invalid state will fail change
+                newState = DUG;
+            }
+            if (newState == DUG && (cells[i] & COUNT_MASK) != (state == ' ' ? 0 : state - '0')) return false;
+
+            setBomb(posX, posY, state == 'B');
+            cells[i] = (byte) ((cells[i] & ~STATE_MASK) | newState);
+            renderCache.markDirty(posY);
+            if (Validation.checksCell()) checkCell(posX, posY);
+            version++;
+
+            if (Validation.checksCell()) Validation.check(toChar(cells[i]) == state, "ASSERTION ERROR ON POST-CONDITION!"); // Asserting post-condition
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public char getCellState(int posX, int posY) {
+        lock.lock();
+        try {
+            Validation.check(posX >= 0 && posX < numCols, "ASSERTION ERROR ON INPUT PARAMS!");
+            Validation.check(posY >= 0 && posY < numRows, "ASSERTION ERROR ON INPUT PARAMS!");
+            return toChar(cells[posY * numCols + posX]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getNeighbourBombs(int posX, int posY) {
+        lock.lock();
+        try {
+            Validation.check(posX >= 0 && posX < numCols, "ASSERTION ERROR ON INPUT PARAMS!");
+            Validation.check(posY >= 0 && posY < numRows, "ASSERTION ERROR ON INPUT PARAMS!");
+            return cells[posY * numCols + posX] & COUNT_MASK;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public DigResult digAt(int posX, int posY) {
+        lock.lock();
+        try {
+            Validation.check(posX >= 0 && posX < numCols, "ASSERTION ERROR ON INPUT PARAMS!");
+            Validation.check(posY >= 0 && posY < numRows, "ASSERTION ERROR ON INPUT PARAMS!");
+
+            int i = posY * numCols + posX;
+            if ((cells[i] & (BOMB | STATE_MASK)) != (BOMB | UNTOUCHED)) {
+                return new DigResult(false, reveal(posX, posY));
+            }
+
+            // BOOM: remove the bomb, dug neighbours show their new count, then reveal the cell as untouched
+            setBomb(posX, posY, false);
+            int[] changed = new int[8];
+            int numChanged = 0;
+            for (int ny = Math.max(0, posY - 1); ny <= Math.min(numRows - 1, posY + 1); ny++) {
+                for (int nx = Math.max(0, posX - 1); nx <= Math.min(numCols - 1, posX + 1); nx++) {
+                    if ((cells[ny * numCols + nx] & STATE_MASK) == DUG) changed[numChanged++] = ny * numCols + nx;
+                }
+            }
+            int[] revealed = revealEngine.reveal(posX, posY);
+            changed = Arrays.copyOf(changed, numChanged + revealed.length);
+            System.arraycopy(revealed, 0, changed, numChanged, revealed.length);
+            version++;
+            return new DigResult(true, changed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean flagIfUntouched(int posX, int posY) {
+        lock.lock();
+        try {
+            return getCellState(posX, posY) == '_' && changeCellState(posX, posY, 'F');
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean deflagIfFlagged(int posX, int posY) {
+        lock.lock();
+        try {
+            return getCellState(posX, posY) == 'F' && changeCellState(posX, posY, '_');
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int[] revealCell(int posX, int posY) {
+        lock.lock();
+        try {
+            Validation.check(posX >= 0 && posX < numCols, "ASSERTION ERROR ON INPUT PARAMS!");
+            Validation.check(posY >= 0 && posY < numRows, "ASSERTION ERROR ON INPUT PARAMS!");
+            return reveal(posX, posY);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reveal from cell posX,posY, counting a new version if cells changed. The caller holds 'lock'.
+     */
+    private int[] reveal(int posX, int posY) {
+        int[] changed = revealEngine.reveal(posX, posY);
+        if (changed.length > 0) version++;
+        return changed;
+    }
+
+    /**
+     * Choose how revealCell() reveals regions: in parallel on the tasks of a pool, or in the calling thread.
+     * @param pool pool running the reveal tasks, or null to reveal in the calling thread
+     */
+    public void setRevealPool(ForkJoinPool pool) {
+        lock.lock();
+        try {
+            revealEngine = pool == null ? new RevealEngine(numRows, numCols, revealGrid)
+                                        : new ParallelRevealEngine(numRows, numCols, revealGrid, pool);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public long copyCells(byte[] copy) {
+        lock.lock();
+        try {
+            for (int i = 0; i < cells.length; i++) copy[i] = (byte) (cells[i] & (BOMB | STATE_MASK));
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int[] getBoardSize() {
+        return new int[] { numCols, numRows };
+    }
+}
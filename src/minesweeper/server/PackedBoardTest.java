@@ -0,0 +1,151 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * PackedBoard must behave as SimpleBoard does through the Board interface, see SimpleBoardTest.
+ */
+public class PackedBoardTest {
+
+    // getBoardState()
+    @Test
+    public void testGetBoardState_ValidStateCharSet() {
+        Board b = new PackedBoard(3, 3, 0);
+        b.changeCellState(0, 0, ' '); // add DUG cell state
+        b.changeCellState(0, 1, 'F'); // add FLAGGED cell state
+        b.changeCellState(2, 1, 'F'); // add FLAGGED cell state
+
+        String checkString =   "  _ _\r\n"
+                             + "F _ F\r\n"
+                             + "_ _ _\r\n";
+        assertEquals("String Not equals!", checkString, b.getBoardState());
+    }
+
+    @Test
+    public void testGetBoardState_BombsMasked() {
+        Board b = new PackedBoard(2, 3, 1);
+        assertTrue(b.changeCellState(1, 0, 'B'));
+        assertEquals("_ _ _\r\n_ _ _\r\n", b.getBoardState());
+    }
+
+    // changeCellState()
+    @Test
+    public void testChangeCellState_Empty() {
+        Board b = new PackedBoard(10, 10, 4);
+        assertFalse(b.changeCellState(0, 0, '\0'));   // as 'empty' or any invalid state
+        assertFalse(b.changeCellState(0, 0, 'K'));   // as invalid state
+    }
+
+    @Test
+    public void testChangeCellState_ValidStateCharSet() {
+        Board b = new PackedBoard(10, 10, 4);
+        assertFalse(b.changeCellState(0, 0, '_')); // change cell state to new same state not permitted.
+        assertTrue(b.changeCellState(0, 0, ' '));
+        assertTrue(b.changeCellState(0, 0, 'F'));
+    }
+
+    @Test
+    public void testChangeCellState_InvalidStateCharSet() {
+        char [] invalidCellState = {'a','b','c', '@', ';', '0', '9'};
+        Board b = new PackedBoard(10, 10, 4);
+        for (int i = 0; i < invalidCellState.length; i++) {
+            assertFalse(b.changeCellState(0, 0, invalidCellState[i]));
+        }
+    }
+
+    @Test
+    public void testChangeCellState_ValidCellPosition() {
+        Board b = new PackedBoard(10, 10, 4);
+        assertTrue(b.changeCellState(1, 1, 'F'));
+    }
+
+    @Test
+    public void testChangeCellState_DugMatchesNeighbourCount() {
+        Board b = new PackedBoard(3, 3, 2);
+        assertTrue(b.changeCellState(0, 0, 'B'));
+        assertTrue(b.changeCellState(2, 0, 'B'));
+        assertFalse(b.changeCellState(1, 1, ' '));  // two adjacent bombs
+        assertFalse(b.changeCellState(1, 1, '1'));
+        assertTrue(b.changeCellState(1, 1, '2'));
+        assertEquals('2', b.getCellState(1, 1));
+
+        assertTrue(b.changeCellState(0, 0, ' '));  // bomb removed, counts follow
+        assertEquals('1', b.getCellState(1, 1));
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testChangeCellState_TooManyBombs() {
+        Board b = new PackedBoard(3, 3, 1);
+        b.changeCellState(0, 0, 'B');
+        b.changeCellState(1, 0, 'B');
+    }
+
+    // getCellState()
+    @Test
+    public void testGetCellState_ValidState_ValidPosition() {
+        Board b = new PackedBoard(10, 10, 4);
+        b.changeCellState(0, 0, 'F');
+        assertEquals('F', b.getCellState(0, 0));
+        assertEquals('_', b.getCellState(9, 9));
+    }
+
+    // revealCell()
+    @Test
+    public void testRevealCell_LargeEmptyBoard() {
+        Board b = new PackedBoard(5000, 5000, 0);
+        int[] changed = b.revealCell(2500, 2500); // deep enough to overflow a recursive reveal
+        assertEquals(5000 * 5000, changed.length);
+        assertEquals(' ', b.getCellState(0, 0));
+        assertEquals(' ', b.getCellState(4999, 4999));
+    }
+
+    @Test
+    public void testRevealCell_NotUntouched() {
+        Board b = new PackedBoard(3, 3, 1);
+        b.changeCellState(1, 1, 'B');
+        assertEquals(0, b.revealCell(1, 1).length); // bombs are not revealed
+        assertArrayEquals(new int[] {0}, b.revealCell(0, 0));
+        assertEquals('1', b.getCellState(0, 0));
+    }
+
+    @Test
+    public void testRevealCell_ParallelSameAsSequential() {
+        int size = 300, bombs = size * size / 20;
+        PackedBoard sequential = new PackedBoard(size, size, bombs);
+        PackedBoard parallel = new PackedBoard(size, size, bombs);
+        Random random = new Random(7);
+        for (int i = 0; i < bombs; i++) {
+            int x = random.nextInt(size), y = random.nextInt(size);
+            sequential.changeCellState(x, y, 'B');
+            parallel.changeCellState(x, y, 'B');
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        parallel.setRevealPool(pool);
+        try {
+            for (int i = 0; i < 50; i++) {
+                int x = random.nextInt(size), y = random.nextInt(size);
+                int[] expected = sequential.revealCell(x, y);
+                int[] actual = parallel.revealCell(x, y);
+                Arrays.sort(expected);
+                Arrays.sort(actual);
+                assertArrayEquals(expected, actual);
+            }
+            assertEquals(sequential.getBoardState(), parallel.getBoardState());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // getBoardSize()
+    @Test
+    public void testGetBoardSize_NotSquare() {
+        Board b = new PackedBoard(2, 5, 0);
+        assertArrayEquals(new int[] {5, 2}, b.getBoardSize());
+    }
+}
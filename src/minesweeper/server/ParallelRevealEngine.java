@@ -0,0 +1,212 @@
+package minesweeper.server;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ParallelRevealEngine reveals the region around a dug cell with the tasks of a ForkJoinPool.
+ *
+ * The board is split in TILE x TILE tiles. A task floods the cells of one tile from a list of seed cells,
+ * and forks one task per neighbouring tile for the cells the reveal spreads to beyond its border, without
+ * waiting for them. Tasks of the same tile may run at once, so each cell is claimed by a compare-and-set
+ * on a bitmap before it is dug and is dug by one task only.
+ *
+ * The cells dug are the same as with RevealEngine, only their order in the result differs.
+ *
+ * Not thread safe: the owning board must call reveal() while holding its own lock. The caller waits
+ * for all tasks to finish, so they work under that lock too and only dig distinct cells.
+ */
+class ParallelRevealEngine extends RevealEngine {
+    static final int TILE = 64;
+
+    private final ForkJoinPool pool;
+    private final int tileCols;
+    private final AtomicLongArray claimed; // one bit per cell, set while the cell is dug by a reveal
+
+    // Rep invariant
+    // tileCols == number of tiles in a tile row
+    // between reveals every bit of 'claimed' is clear
+
+    /**
+     * @param rows number of board rows
+     * @param cols number of board columns
+     * @param grid cells of the board; cellAt() and neighbourBombs() must be safe to call while other cells
+     *             are dug, dig() must be safe to call for distinct cells at once
+     * @param pool pool running the reveal tasks
+     */
+    ParallelRevealEngine(int rows, int cols, Grid grid, ForkJoinPool pool) {
+        super(rows, cols, grid);
+        this.pool = pool;
+        tileCols = (cols + TILE - 1) / TILE;
+        claimed = new AtomicLongArray((rows * cols + 63) / 64);
+    }
+
+    @Override
+    int[] reveal(int x, int y) {
+        if (grid.cellAt(x, y) != '_') return new int[0];
+
+        Reveal reveal = new Reveal();
+        IntList seeds = new IntList();
+        seeds.add(y * numCols + x);
+        reveal.fork(tileOf(x, y), seeds);
+        reveal.await();
+
+        int total = 0;
+        for (IntList changed : reveal.changed) total += changed.size;
+        int[] result = new int[total];
+        int pos = 0;
+        for (IntList changed : reveal.changed) {
+            System.arraycopy(changed.cells, 0, result, pos, changed.size);
+            pos += changed.size;
+        }
+        for (int cell : result) clear(cell); // only dug cells were claimed
+        return result;
+    }
+
+    private int tileOf(int x, int y) {
+        return (y / TILE) * tileCols + x / TILE;
+    }
+
+    private boolean claim(int cell) {
+        int word = cell >>> 6;
+        long bit = 1L << cell; // shift distance is taken mod 64
+        for (;;) {
+            long bits = claimed.get(word);
+            if ((bits & bit) != 0) return false;
+            if (claimed.compareAndSet(word, bits, bits | bit)) return true;
+        }
+    }
+
+    private void clear(int cell) {
+        int word = cell >>> 6;
+        long bit = 1L << cell;
+        for (;;) {
+            long bits = claimed.get(word);
+            if (claimed.compareAndSet(word, bits, bits & ~bit)) return;
+        }
+    }
+
+    /**
+     * State of one reveal shared by its tasks.
+     */
+    private final class Reveal {
+        final ConcurrentLinkedQueue<IntList> changed = new ConcurrentLinkedQueue<IntList>();
+        final AtomicInteger pending = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Throwable failure;
+
+        void fork(int tile, IntList seeds) {
+            pending.incrementAndGet();
+            TileTask task = new TileTask(this, tile, seeds);
+            if (ForkJoinTask.getPool() == pool) task.fork();
+            else pool.execute(task);
+        }
+
+        void finished() {
+            if (pending.decrementAndGet() == 0) done.countDown();
+        }
+
+        void await() {
+            boolean interrupted = false;
+            for (;;) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true; // the tasks work on the board under our lock, wait for them anyway
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            if (failure instanceof Error) throw (Error) failure;
+        }
+    }
+
+    /**
+     * Floods one tile from its seed cells.
+     */
+    private final class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Reveal reveal;
+        private final int tileX, tileY;
+        private final IntList work;
+
+        TileTask(Reveal reveal, int tile, IntList seeds) {
+            this.reveal = reveal;
+            this.tileX = (tile % tileCols) * TILE;
+            this.tileY = (tile / tileCols) * TILE;
+            this.work = seeds;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                flood();
+            } catch (RuntimeException | Error e) {
+                reveal.failure = e;
+            } finally {
+                reveal.finished();
+            }
+        }
+
+        private void flood() {
+            IntList changed = new IntList();
+            IntList[] outbox = new IntList[9]; // cells of the 8 neighbouring tiles, by (dy + 1) * 3 + dx + 1
+            int maxX = Math.min(numCols, tileX + TILE) - 1, maxY = Math.min(numRows, tileY + TILE) - 1;
+
+            while (work.size > 0) {
+                int cell = work.cells[--work.size];
+                int x = cell % numCols, y = cell / numCols;
+                if (grid.cellAt(x, y) != '_' || !claim(cell)) continue;
+                int count = grid.neighbourBombs(x, y);
+                if (!grid.dig(x, y, count)) { // lost to a concurrent change of the cell
+                    clear(cell);
+                    continue;
+                }
+                changed.add(cell);
+                if (count > 0) continue;
+
+                for (int ny = Math.max(0, y - 1); ny <= Math.min(numRows - 1, y + 1); ny++) {
+                    for (int nx = Math.max(0, x - 1); nx <= Math.min(numCols - 1, x + 1); nx++) {
+                        if (grid.cellAt(nx, ny) != '_') continue;
+                        int dx = nx < tileX ? -1 : nx > maxX ? 1 : 0;
+                        int dy = ny < tileY ? -1 : ny > maxY ? 1 : 0;
+                        if (dx == 0 && dy == 0) {
+                            work.add(ny * numCols + nx);
+                        } else {
+                            int box = (dy + 1) * 3 + dx + 1;
+                            if (outbox[box] == null) outbox[box] = new IntList();
+                            outbox[box].add(ny * numCols + nx);
+                        }
+                    }
+                }
+            }
+
+            reveal.changed.add(changed);
+            for (int box = 0; box < outbox.length; box++) {
+                if (outbox[box] == null) continue;
+                int tile = tileOf(tileX + (box % 3 - 1) * TILE, tileY + (box / 3 - 1) * TILE);
+                reveal.fork(tile, outbox[box]);
+            }
+        }
+    }
+
+    /**
+     * Growable list of cells.
+     */
+    private static final class IntList {
+        int[] cells = new int[16];
+        int size;
+
+        void add(int cell) {
+            if (size == cells.length) cells = Arrays.copyOf(cells, 2 * size);
+            cells[size++] = cell;
+        }
+    }
+}
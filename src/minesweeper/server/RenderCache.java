@@ -0,0 +1,84 @@
+package minesweeper.server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * RenderCache keeps the rendered text of a board, as returned by Board.getBoardState(), and re-renders
+ * only the rows changed since the last snapshot. The last snapshot is kept as a String, so repeated
+ * renders of an unchanged board return the same object.
+ *
+ * Not thread safe: the owning board must call all methods while holding its own lock.
+ */
+abstract class RenderCache {
+    private final int numRows, numCols, rowLength;
+    private final byte[] text;
+    private final boolean[] dirty;
+    private boolean anyDirty;
+    private String snapshot;
+
+    // Rep invariant
+    // rowLength == 2 * numCols + 1, text.length == numRows * rowLength
+    // snapshot == null || (!anyDirty && snapshot has the characters of text)
+    // for clean rows, text holds "c c ... c\r\n" with the current displayed character of every cell
+
+    /**
+     * @param rows number of board rows
+     * @param cols number of board columns
+     */
+    RenderCache(int rows, int cols) {
+        numRows = rows;
+        numCols = cols;
+        rowLength = 2 * cols + 1; // one char and one separator per cell, the last separator is "\r\n"
+        text = new byte[rows * rowLength];
+        dirty = new boolean[rows];
+        markAllDirty();
+    }
+
+    /**
+     * @return character shown to players for cell x,y; must be a single byte ISO-8859-1 character.
+     */
+    abstract char cellAt(int x, int y);
+
+    /**
+     * Mark row y as changed since the last render. Only writes constants, so the tasks of a
+     * ParallelRevealEngine may call it at once while the board lock is held for them.
+     */
+    void markDirty(int y) {
+        dirty[y] = true;
+        anyDirty = true;
+        snapshot = null;
+    }
+
+    /**
+     * Mark every row as changed since the last render.
+     */
+    void markAllDirty() {
+        for (int y = 0; y < numRows; y++) markDirty(y);
+    }
+
+    /**
+     * @return board content as single string, re-rendering only dirty rows.
+     */
+    String render() {
+        if (snapshot != null) return snapshot;
+        if (anyDirty) {
+            for (int y = 0; y < numRows; y++) {
+                if (dirty[y]) renderRow(y);
+            }
+            anyDirty = false;
+        }
+        snapshot = new String(text, StandardCharsets.ISO_8859_1);
+        return snapshot;
+    }
+
+    private void renderRow(int y) {
+        int pos = y * rowLength;
+        for (int x = 0; x < numCols; x++) {
+            text[pos++] = (byte) cellAt(x, y);
+            text[pos++] = ' ';
+        }
+        text[pos - 1] = '\r'; // Eliminate last in the line empty space
+        text[pos] = '\n';
+        dirty[y] = false;
+    }
+}
@@ -0,0 +1,120 @@
+package minesweeper.server;
+
+import java.util.Arrays;
+
+/**
+ * RevealEngine digs a board cell and reveals the region around it without recursion.
+ *
+ * GAME LOGIC
+ * If the dug cell has no neighbour cells with bombs, each of its 'untouched' neighbours is dug too, and
+ * this step repeats for every dug neighbour which has no neighbour cells with bombs either. A dug cell
+ * with neighbour bombs shows their number.
+ *
+ * Cells waiting to spread the reveal are kept as y * columns + x in a growable int ring buffer, which
+ * with the changed cells buffer is reused from one reveal to the next, so a reveal allocates nothing
+ * per cell. A cell is dug when it is first visited, so it is queued at most once.
+ *
+ * Not thread safe: the owning board must call reveal() while holding its own lock, once per dig, or
+ * use a new engine for each reveal with a Grid whose dig() is atomic.
+ */
+class RevealEngine {
+    /**
+     * Access to the cells of the owning board, without locking or rep invariant checks.
+     */
+    interface Grid {
+        /**
+         * @return current state of cell x,y from set {_, ,F,B,1-8}
+         */
+        char cellAt(int x, int y);
+
+        /**
+         * @return number of bombs in the cells adjacent to x,y
+         */
+        int neighbourBombs(int x, int y);
+
+        /**
+         * Change untouched cell x,y to dug, showing ' ' or its neighbour bomb count.
+         * @return true if the cell was dug, false if it was no longer untouched
+         */
+        boolean dig(int x, int y, int neighbourBombs);
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_RETAINED_CAPACITY = 1 << 16; // larger buffers are dropped after a reveal
+
+    final int numRows, numCols;
+    final Grid grid;
+    private int[] queue = new int[INITIAL_CAPACITY];
+    private int head, queued;
+    private int[] changed = new int[INITIAL_CAPACITY];
+    private int changedCount;
+
+    // Rep invariant
+    // queue holds 'queued' cell indices starting at 'head', wrapping around queue.length
+    // changed[0..changedCount) are the cells dug by the current reveal, each at most once
+
+    /**
+     * @param rows number of board rows
+     * @param cols number of board columns
+     * @param grid cells of the board
+     */
+    RevealEngine(int rows, int cols, Grid grid) {
+        numRows = rows;
+        numCols = cols;
+        this.grid = grid;
+    }
+
+    /**
+     * Dig cell x,y if it is untouched and reveal the region around it.
+     * @param x cell position in columns >= 0 and < number of columns
+     * @param y cell position in rows >= 0 and < number of rows
+     * @return changed cells as y * columns + x, empty if cell x,y was not untouched
+     */
+    int[] reveal(int x, int y) {
+        changedCount = 0;
+        head = queued = 0;
+        visit(x, y);
+        while (queued > 0) {
+            int cell = queue[head];
+            head = (head + 1) % queue.length;
+            queued--;
+
+            int cx = cell % numCols, cy = cell / numCols;
+            for (int ny = Math.max(0, cy - 1); ny <= Math.min(numRows - 1, cy + 1); ny++) {
+                for (int nx = Math.max(0, cx - 1); nx <= Math.min(numCols - 1, cx + 1); nx++) {
+                    visit(nx, ny);
+                }
+            }
+        }
+
+        int[] result = Arrays.copyOf(changed, changedCount);
+        if (changed.length > MAX_RETAINED_CAPACITY) changed = new int[INITIAL_CAPACITY];
+        if (queue.length > MAX_RETAINED_CAPACITY) queue = new int[INITIAL_CAPACITY];
+        return result;
+    }
+
+    /**
+     * Dig cell x,y if it is untouched, and queue it to spread the reveal if it has no neighbour bombs.
+     */
+    private void visit(int x, int y) {
+        if (grid.cellAt(x, y) != '_') return;
+        int count = grid.neighbourBombs(x, y);
+        if (!grid.dig(x, y, count)) return;
+
+        int cell = y * numCols + x;
+        if (changedCount == changed.length) changed = Arrays.copyOf(changed, 2 * changedCount);
+        changed[changedCount++] = cell;
+        if (count == 0) enqueue(cell);
+    }
+
+    private void enqueue(int cell) {
+        if (queued == queue.length) { // full: unwrap into a buffer twice as large
+            int[] larger = new int[2 * queue.length];
+            for (int i = 0; i < queued; i++) larger[i] = queue[(head + i) % queue.length];
+            queue = larger;
+            head = 0;
+        }
+        queue[(head + queued) % queue.length] = cell;
+        queued++;
+    }
+}
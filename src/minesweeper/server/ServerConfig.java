@@ -0,0 +1,89 @@
+package minesweeper.server;
+
+import java.io.File;
+
+/**
+ * ServerConfig holds the optional settings of a MinesweeperServer beyond those of
+ * runMinesweeperServer(debug, file, sizeX, sizeY, port), see MinesweeperServer.main() for their flags.
+ * A new ServerConfig has the defaults of a server started without those flags.
+ */
+public class ServerConfig {
+    /**
+     * How much of their rep invariant the boards check: "off", "sampled" or "full", see Validation; null
+     * for "full" in debug mode and "off" otherwise.
+     */
+    public String validation = null;
+    /**
+     * Board implementation: "simple", "packed", "striped", "atomic" or "snapshot".
+     */
+    public String boardKind = "simple";
+    /**
+     * If true, digs reveal regions on a ForkJoinPool with one thread per core; requires a "simple" or
+     * "packed" board.
+     */
+    public boolean parallelReveal = false;
+    /**
+     * Seed the bombs of random boards are placed from, see BoardGenerator, or null for a new seed each run.
+     */
+    public Long seed = null;
+    /**
+     * Exact number of bombs of a random board made with --size, or -1 to place them with 'density'.
+     */
+    public int bombs = -1;
+    /**
+     * Probability of a bomb in each cell of a random board, 0 to 1.
+     */
+    public double density = BoardGenerator.DEFAULT_DENSITY;
+    /**
+     * If false, the requests and hot paths are not recorded in ServerMetrics, except the number of
+     * clients connected.
+     */
+    public boolean metrics = true;
+    /**
+     * How connections are served: "thread", "virtual" or "nio".
+     */
+    public String serverMode = "thread";
+    /**
+     * Maximum number of clients connected at once, 0 for no limit. Clients connecting beyond it are
+     * answered MinesweeperServer.BUSY_MESSAGE and disconnected.
+     */
+    public int maxSessions = 0;
+    /**
+     * Number of threads of a fixed pool serving the connections in "thread" mode, 0 for a new thread per
+     * client. Admitted clients beyond it wait for a thread before they are greeted.
+     */
+    public int workers = 0;
+    /**
+     * Snapshot file the board is restored from, see SnapshotFile, or null to start with a new board.
+     */
+    public File restoreFile = null;
+    /**
+     * Snapshot file the board is saved to when the server shuts down, or null not to save it.
+     */
+    public File saveFile = null;
+    /**
+     * Journal file the moves are appended to and replayed from on start, see MoveJournal, or null not to
+     * journal them.
+     */
+    public File journalFile = null;
+    /**
+     * Number of single-thread shards running the requests of the games, each game on the shard of its
+     * id, see GameRegistry; 0 to run them in the connection threads.
+     */
+    public int shards = Runtime.getRuntime().availableProcessors();
+    /**
+     * Whether the requests of the default game run on a shard too; by default they run in the connection
+     * threads, so its players play in parallel on a board which lets them.
+     */
+    public boolean shardDefaultGame = false;
+    /**
+     * Directory the games made with 'new' are saved to when evicted, or null for a temporary directory
+     * deleted when the server exits.
+     */
+    public File gamesDir = null;
+    /**
+     * Seconds a game made with 'new' stays in memory without players before it is evicted to gamesDir,
+     * 0 never to evict games.
+     */
+    public int gameTtl = 600;
+}
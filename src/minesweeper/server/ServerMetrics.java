@@ -0,0 +1,235 @@
+package minesweeper.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * ServerMetrics records what the server's hot paths do: the number and latency of requests of each
+ * command, the time batches of requests wait for their game's shard and board lock, the time of digs and
+ * the number of cells they reveal, the time of rendering board states, the size of the answers, and the
+ * number of clients connected. Clients read them with the 'stats' command, and JMX clients from the
+ * ServerMetricsMBean registered by register().
+ *
+ * Recording costs two System.nanoTime() calls and a few uncontended atomic operations per request, see
+ * Histogram; while it is disabled, only the number of clients connected is kept.
+ *
+ * All sessions of the process record in global().
+ */
+public final class ServerMetrics implements ServerMetricsMBean {
+    /**
+     * JMX name of the ServerMetricsMBean.
+     */
+    public static final String OBJECT_NAME = "minesweeper.server:type=ServerMetrics";
+    private static final String[] COMMAND_NAMES = { "invalid", "look", "look-since", "dig", "flag", "deflag",
+        "help", "bye", "delta-on", "delta-off", "watch", "unwatch", "binary", "join", "new", "stats" };
+    private static final ServerMetrics GLOBAL = new ServerMetrics();
+
+    private final Histogram[] requests = new Histogram[CommandParser.COMMANDS]; // nanoseconds, by command
+    private final Histogram lockWait = new Histogram(); // nanoseconds
+    private final Histogram dig = new Histogram(); // nanoseconds of the board operation, not the request
+    private final Histogram boardState = new Histogram(); // nanoseconds
+    private final Histogram floodCells = new Histogram(); // cells revealed by a dig
+    private final Histogram replyBytes = new Histogram(); // bytes of an answer
+    private final AtomicInteger sessions = new AtomicInteger();
+    private volatile boolean enabled = true;
+
+    // Rep invariant:
+    //    sessions >= 0; requests.length == COMMAND_NAMES.length == CommandParser.COMMANDS
+    //
+    // Thread safety argument:
+    //    - the histograms and 'sessions' are final and thread safe, 'enabled' is volatile
+    //    - a report read while requests are answered may miss some of them
+
+    ServerMetrics() {
+        for (int i = 0; i < requests.length; i++) requests[i] = new Histogram();
+    }
+
+    /**
+     * @return the metrics of all sessions of this process
+     */
+    public static ServerMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Register this as the ServerMetricsMBean of the platform MBean server, unless one already is.
+     *
+     * @throws JMException if it cannot be registered
+     */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) server.registerMBean(this, name);
+    }
+
+    /**
+     * @return start time of an operation for the record methods, 0 if not recording
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @param command command constant of CommandParser of the request answered
+     * @param start start() before the request was parsed
+     * @param bytes size of the answer in bytes
+     */
+    void recordRequest(int command, long start, int bytes) {
+        if (start == 0) return;
+        requests[command].record(System.nanoTime() - start);
+        replyBytes.record(bytes);
+    }
+
+    /**
+     * @param start start() before a batch of requests was handed to its game
+     */
+    void recordLockWait(long start) {
+        if (start != 0) lockWait.record(System.nanoTime() - start);
+    }
+
+    /**
+     * @param start start() before the dig
+     * @param cells number of cells the dig revealed
+     */
+    void recordDig(long start, int cells) {
+        if (start == 0) return;
+        dig.record(System.nanoTime() - start);
+        floodCells.record(cells);
+    }
+
+    /**
+     * @param start start() before the board state was rendered
+     */
+    void recordBoardState(long start) {
+        if (start != 0) boardState.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Count a new client connected, unless maxSessions already are.
+     *
+     * @param maxSessions maximum number of clients connected, 0 for no limit
+     * @return true if the client was counted and may be served
+     */
+    boolean admitSession(int maxSessions) {
+        for (;;) {
+            int current = sessions.get();
+            if (maxSessions > 0 && current >= maxSessions) return false;
+            if (sessions.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    /**
+     * Count out a client admitted by admitSession(), once its connection ends.
+     */
+    void releaseSession() {
+        int current = sessions.decrementAndGet();
+        Validation.check(current >= 0, "ASSERTION ERROR ON sessions!");
+    }
+
+    @Override
+    public int getActiveSessions() {
+        return sessions.get();
+    }
+
+    private Histogram.Snapshot allRequests() {
+        Histogram.Snapshot all = requests[0].snapshot();
+        for (int i = 1; i < requests.length; i++) all = all.plus(requests[i].snapshot());
+        return all;
+    }
+
+    @Override
+    public long getRequests() {
+        return allRequests().count();
+    }
+
+    @Override
+    public long getRequestP50Nanos() {
+        return allRequests().percentile(50);
+    }
+
+    @Override
+    public long getRequestP99Nanos() {
+        return allRequests().percentile(99);
+    }
+
+    @Override
+    public long getRequestP999Nanos() {
+        return allRequests().percentile(99.9);
+    }
+
+    @Override
+    public long getLockWaitP99Nanos() {
+        return lockWait.snapshot().percentile(99);
+    }
+
+    @Override
+    public long getDigP99Nanos() {
+        return dig.snapshot().percentile(99);
+    }
+
+    @Override
+    public long getBoardStateP99Nanos() {
+        return boardState.snapshot().percentile(99);
+    }
+
+    @Override
+    public long getCellsRevealed() {
+        return floodCells.snapshot().sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return replyBytes.snapshot().sum();
+    }
+
+    /**
+     * @return the number of requests of a command answered
+     */
+    long getCount(int command) {
+        return requests[command].snapshot().count();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * The report has a line "STATS sessions N requests N", then a line per command requested, named
+     * after the command, and per hot path recorded: "lock-wait", "dig-board" (the board operation of a
+     * dig, while "dig" is the whole request), "board-state", "flood-cells" and "reply-bytes",
+     *
+     *   NAME " count " N " mean " N " p50 " N " p99 " N " p999 " N " max " N
+     *
+     * in nanoseconds, except "flood-cells" in cells and "reply-bytes" in bytes. Lines end with "\r\n",
+     * except the last one.
+     */
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("STATS sessions ").append(getActiveSessions()).append(" requests ").append(getRequests());
+        for (int i = 0; i < requests.length; i++) line(report, COMMAND_NAMES[i], requests[i].snapshot());
+        line(report, "lock-wait", lockWait.snapshot());
+        line(report, "dig-board", dig.snapshot());
+        line(report, "board-state", boardState.snapshot());
+        line(report, "flood-cells", floodCells.snapshot());
+        line(report, "reply-bytes", replyBytes.snapshot());
+        return report.toString();
+    }
+
+    private static void line(StringBuilder report, String name, Histogram.Snapshot values) {
+        if (values.count() == 0) return;
+        report.append("\r\n").append(name).append(" count ").append(values.count()).append(" mean ").append(values.mean())
+              .append(" p50 ").append(values.percentile(50)).append(" p99 ").append(values.percentile(99))
+              .append(" p999 ").append(values.percentile(99.9)).append(" max ").append(values.max());
+    }
+}
@@ -0,0 +1,61 @@
+package minesweeper.server;
+
+/**
+ * ServerMetricsMBean is the JMX view of the ServerMetrics of a server, registered as
+ * ServerMetrics.OBJECT_NAME. Latencies are in nanoseconds, and the percentiles are within 1/16 of their
+ * value, see Histogram.
+ */
+public interface ServerMetricsMBean {
+    /**
+     * @return number of clients connected
+     */
+    int getActiveSessions();
+
+    /**
+     * @return number of requests answered, of all commands
+     */
+    long getRequests();
+
+    long getRequestP50Nanos();
+
+    long getRequestP99Nanos();
+
+    long getRequestP999Nanos();
+
+    /**
+     * @return 99th percentile of the time batches of requests waited for their game's shard and board lock
+     */
+    long getLockWaitP99Nanos();
+
+    /**
+     * @return 99th percentile of the time of digs, including the reveal of a region
+     */
+    long getDigP99Nanos();
+
+    /**
+     * @return 99th percentile of the time of rendering the board state, for look and the answers to moves
+     */
+    long getBoardStateP99Nanos();
+
+    /**
+     * @return number of cells revealed by digs
+     */
+    long getCellsRevealed();
+
+    /**
+     * @return number of bytes of the answers, without the line ends of text answers
+     */
+    long getBytesWritten();
+
+    /**
+     * @return the report of the 'stats' command
+     */
+    String getReport();
+
+    boolean isEnabled();
+
+    /**
+     * @param enabled false to stop recording, except the number of clients connected
+     */
+    void setEnabled(boolean enabled);
+}
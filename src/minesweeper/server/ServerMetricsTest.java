@@ -0,0 +1,66 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * ServerMetrics must count the requests of every session by command, record the hot paths they take,
+ * and report them to 'stats'; when disabled it records nothing.
+ */
+public class ServerMetricsTest {
+    private final ServerMetrics metrics = ServerMetrics.global();
+
+    @After
+    public void enable() {
+        metrics.setEnabled(true); // the default
+    }
+
+    @Test
+    public void testRequestsCounted() {
+        long digs = metrics.getCount(CommandParser.DIG), looks = metrics.getCount(CommandParser.LOOK);
+        long invalid = metrics.getCount(CommandParser.INVALID), cells = metrics.getCellsRevealed();
+        long bytes = metrics.getBytesWritten();
+        MinesweeperSession session = new MinesweeperSession(new PackedBoard(3, 3, 0));
+        session.handleBatch(Arrays.asList("dig 0 0", "look", "look", "jump"));
+        byte[] look = { BinaryProtocol.LOOK };
+        session.handleBinaryRequest(look);
+        // other tests may run sessions at the same time, the counts only grow
+        assertTrue(metrics.getCount(CommandParser.DIG) >= digs + 1);
+        assertTrue(metrics.getCount(CommandParser.LOOK) >= looks + 3);
+        assertTrue(metrics.getCount(CommandParser.INVALID) >= invalid + 1);
+        assertTrue("the dig revealed the board", metrics.getCellsRevealed() >= cells + 9);
+        assertTrue(metrics.getBytesWritten() >= bytes + 4 * "     \r\n".length());
+        assertTrue(metrics.getRequestP999Nanos() >= metrics.getRequestP50Nanos());
+    }
+
+    @Test
+    public void testStatsReport() {
+        MinesweeperSession session = new MinesweeperSession(new PackedBoard(3, 3, 0));
+        session.handleRequest("dig 1 1");
+        String report = session.handleRequest("stats");
+        assertTrue(report, report.startsWith("STATS sessions "));
+        assertTrue(report, report.matches("(?s).*\r\ndig count \\d+ mean \\d+ p50 \\d+ p99 \\d+ p999 \\d+ max \\d+\r\n.*"));
+        assertTrue(report, report.contains("\r\ndig-board count "));
+        assertEquals("one line named dig", report.indexOf("\r\ndig count "), report.lastIndexOf("\r\ndig count "));
+        assertTrue(report, report.contains("\r\nlock-wait count "));
+        assertTrue(report, report.contains("\r\nflood-cells count "));
+        assertFalse(report, report.endsWith("\r\n"));
+    }
+
+    @Test
+    public void testDisabledRecordsNothing() {
+        MinesweeperSession session = new MinesweeperSession(new PackedBoard(3, 3, 0));
+        metrics.setEnabled(false);
+        long flags = metrics.getCount(CommandParser.FLAG), cells = metrics.getCellsRevealed();
+        assertEquals(0, metrics.start());
+        session.handleBatch(Arrays.asList("flag 0 0", "dig 2 2"));
+        assertEquals(flags, metrics.getCount(CommandParser.FLAG));
+        assertEquals(cells, metrics.getCellsRevealed());
+        assertTrue(metrics.admitSession(0)); // the gauge is kept
+        metrics.releaseSession();
+    }
+}
@@ -2,8 +2,9 @@ package minesweeper.server;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-
-import org.junit.Assert;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  *  Board represents a thread safe mutable 2D Array of character set {_, ,F,1-8} in multiplayer game Minesweeper.
@@ -12,7 +13,14 @@ import org.junit.Assert;
  */
 public class SimpleBoard implements Board{
     private final int numRows, numCols, numBombs;
+    private int bombCount; // number of 'B' cells
     private final Character [][] board;
+    private final byte [] neighbourBombs; // number of 'B' cells adjacent to cell x,y at index y*numCols+x
+    private final RenderCache renderCache;
+    private final RevealEngine.Grid revealGrid;
+    private RevealEngine revealEngine;
+    private volatile long version; // number of operations which changed cells
+    private final ReentrantLock lock = new ReentrantLock(); // not a monitor, so a virtual thread waiting for it unmounts
     private final Character [] validCellState = {'_',' ','F','B','1','2','3','4','5','6','7','8'};  // check size: cellStates.length, soon will be sorted for rep-invariant checking purposes
                                                                                                     // remove 'B' from set after debugging!
     //private final List<Character> validCellState = new ArrayList<Character>(Arrays.asList(cellStates)); // not used, as list will not resized
@@ -22,6 +30,8 @@ public class SimpleBoard implements Board{
     // board numRows > 0 && numRows == initSize
     // board numCols > 0 && numCols == initSize
     // each Board cell is not empty and contain only chars from Valid State Character Set {_, ,F,B,1-8}
+    // neighbourBombs[y*numCols+x] == number of 'B' cells among the 8 cells adjacent to x,y
+    // bombCount == number of 'B' cells, bombCount <= numBombs
     
     // Abstraction function
     // represents a grid of characters from set of valid characters.
@@ -38,8 +48,11 @@ public class SimpleBoard implements Board{
     //      in this object, not shared with any other object or exposed to a client
     //
     //    Thread safety argument with synchronization:  
-    //    - all accesses to 'board' happen within SimpleBoard methods,
-    //      which are all guarded by SimpleBoard'S lock
+    //    - 'version' is volatile, written only while holding 'lock' and read without it
+    //    - all accesses to 'board', 'neighbourBombs', 'renderCache' and 'revealEngine' happen within SimpleBoard methods,
+    //      which are all guarded by SimpleBoard'S 'lock'
+    //    - reveal tasks of a ParallelRevealEngine run while revealCell() holds the lock and waits for them,
+    //      and dig distinct cells
     
     
     /**
@@ -49,14 +62,15 @@ public class SimpleBoard implements Board{
      * @param bombs number of Bombs to be inserted
      */
     public SimpleBoard(int rows, int cols, int bombs){
-        Assert.assertTrue("ASSERTION ERROR ON INPUT PARAMS! invalid rows", rows > 0); // validate board rows size
-        Assert.assertTrue("ASSERTION ERROR ON INPUT PARAMS! invalid cols", cols > 0); //
-        Assert.assertTrue("ASSERTION ERROR ON INPUT PARAMS! invalid bombs", bombs >= 0);
+        Validation.check(rows > 0, "ASSERTION ERROR ON INPUT PARAMS! invalid rows"); // validate board rows size
+        Validation.check(cols > 0, "ASSERTION ERROR ON INPUT PARAMS! invalid cols"); //
+        Validation.check(bombs >= 0, "ASSERTION ERROR ON INPUT PARAMS! invalid bombs");
         
         numBombs = bombs;
         numRows = rows;
         numCols = cols;
         board = new Character[rows][cols];
+        neighbourBombs = new byte[rows * cols];
       
         // Fill-up the Board cells with 'untouched' state; insert 'initSize' bombs in random cell locations.
         int insertBombs = 0; // was needed for manual insertion.
@@ -64,6 +78,8 @@ public class SimpleBoard implements Board{
             for (int j = 0; j < board[0].length; j++) {                                 
                 if(randomBombInsert() && (numBombs == Integer.MAX_VALUE)) { // sentinel: random bomb insertion with no manual limit, you should assign each square to contain a bomb with probability .25 and otherwise no bomb.
                     board[i][j] = validCellState[3];                    
+                    updateNeighbourBombs(j, i, 1);
+                    bombCount++;
                 }
                 else board[i][j] = validCellState[0];               
             }
@@ -72,9 +88,91 @@ public class SimpleBoard implements Board{
         //Arrays class contains various methods for manipulating arrays (such as sorting and searching).
         Arrays.sort(validCellState); // sort validCellState array into ascending order for checkRep() checks
 
+        renderCache = new RenderCache(rows, cols) {
+            @Override
+            char cellAt(int x, int y) {
+                return board[y][x] == 'B' ? '_' : board[y][x]; // mask Bombs location for output
+            }
+        };
+        revealGrid = new RevealEngine.Grid() {
+            @Override
+            public char cellAt(int x, int y) {
+                return board[y][x];
+            }
+            
+            @Override
+            public int neighbourBombs(int x, int y) {
+                return neighbourBombs[y * numCols + x];
+            }
+            
+            @Override
+            public boolean dig(int x, int y, int neighbourBombs) {
+                board[y][x] = neighbourBombs == 0 ? ' ' : Character.forDigit(neighbourBombs, 10);
+                renderCache.markDirty(y);
+                return true;
+            }
+        };
+        revealEngine = new RevealEngine(rows, cols, revealGrid);
+
+        checkRep(); // validate Board ADT
+    }
+
+    /**
+     * Construct initial Board state with bombs in the given cells, e.g. of a board file.
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param bombs cells with a bomb, cell x,y at index y * cols + x
+     */
+    public SimpleBoard(int rows, int cols, BitSet bombs){
+        this(rows, cols, bombs.cardinality());
+        Validation.check(bombs.length() <= rows * cols, "ASSERTION ERROR ON INPUT PARAMS! invalid bombs");
+        for (int i = bombs.nextSetBit(0); i >= 0; i = bombs.nextSetBit(i + 1)) { // changeCellState() would checkRep() each bomb
+            board[i / cols][i % cols] = 'B';
+            updateNeighbourBombs(i % cols, i / cols, 1);
+            bombCount++;
+        }
+        checkRep(); // validate Board ADT
+    }
+
+    /**
+     * Construct a Board with the cells and version of a saved Board, see Board.copyCells().
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param saved bomb and state bits of each cell, cell x,y at index y * cols + x
+     * @param version version of the saved Board
+     */
+    public SimpleBoard(int rows, int cols, byte[] saved, long version){
+        this(rows, cols, PackedBoard.countBombs(saved));
+        Validation.check(saved.length == rows * cols, "ASSERTION ERROR ON INPUT PARAMS! invalid cells");
+        for (int i = 0; i < saved.length; i++) { // bombs first, the digits of dug cells count them
+            if ((saved[i] & PackedBoard.BOMB) == 0) continue;
+            board[i / cols][i % cols] = 'B';
+            updateNeighbourBombs(i % cols, i / cols, 1);
+            bombCount++;
+        }
+        for (int i = 0; i < saved.length; i++) {
+            int state = saved[i] & PackedBoard.STATE_MASK;
+            if (state == PackedBoard.FLAGGED) board[i / cols][i % cols] = 'F';
+            else if (state == PackedBoard.DUG) board[i / cols][i % cols] = neighbourBombs[i] == 0 ? ' ' : Character.forDigit(neighbourBombs[i], 10);
+        }
+        this.version = version;
         checkRep(); // validate Board ADT
     }
 
+    /**
+     * Add delta to the neighbour bomb count of each cell adjacent to x,y, after a bomb is inserted or removed at x,y.
+     * @param x cell position in columns
+     * @param y cell position in rows
+     * @param delta 1 for an inserted bomb, -1 for a removed bomb
+     */
+    private void updateNeighbourBombs(int x, int y, int delta){
+        for (int ny = Math.max(0, y - 1); ny <= Math.min(numRows - 1, y + 1); ny++) {
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(numCols - 1, x + 1); nx++) {
+                if (nx != x || ny != y) neighbourBombs[ny * numCols + nx] += delta;
+            }
+        }
+    }
+
     /**
      * Using randomness to insert bomb. 
      * @return a true if value less than or equal to 0.25
@@ -89,12 +187,14 @@ public class SimpleBoard implements Board{
      *  creates or mutates the rep  in other words, creators, producers, and mutators."
      *  What to Assert: Pre-post conditions, rep invariants, loop invariants, covering all cases: 'switch' assertion in default case
      *  Lec-5
-     *  Check that the rep invariant is true.
+     *  Check that the rep invariant is true. Scans the whole board, so only run by creators, if
+     *  Validation.checksBoard(); mutators check the cells they touch with checkCell() instead.
      */
     private void checkRep(){
+        if (!Validation.checksBoard()) return;
         int countBombs = 0;
-        Assert.assertTrue("ASSERTION ERROR ON INPUT PARAMS!", board.length > 0 && board.length == numRows); // validate board rows size
-        Assert.assertTrue("ASSERTION ERROR ON INPUT PARAMS!", board[0].length > 0 && board[0].length == numCols); // validate board cols size
+        Validation.check(board.length > 0 && board.length == numRows, "ASSERTION ERROR ON INPUT PARAMS!"); // validate board rows size
+        Validation.check(board[0].length > 0 && board[0].length == numCols, "ASSERTION ERROR ON INPUT PARAMS!"); // validate board cols size
              
         // traverse thru all board and check if each cell contain only validCellState
         for (int i = 0; i < board.length; i++) {
@@ -104,63 +204,226 @@ public class SimpleBoard implements Board{
             }
         }
 
-        Assert.assertTrue("ASSERTION ERROR ON COUNTBOMBS!", (countBombs >= 0) && (countBombs <= numBombs)); // validate board bombs size        
+        Validation.check((countBombs >= 0) && (countBombs <= numBombs), "ASSERTION ERROR ON COUNTBOMBS!"); // validate board bombs size        
+        Validation.check(countBombs == bombCount, "ASSERTION ERROR ON COUNTBOMBS!");
+    }
+
+    /**
+     * Check the rep invariant of one cell and the bomb count; cheap enough to run after every mutation
+     * touching it, if Validation.checksCell().
+     */
+    private void checkCell(int x, int y){
+        Validation.check(Arrays.binarySearch(validCellState, board[y][x]) >= 0, "ASSERTION ERROR ON CELL STATE!"); // WORNING: validCellState is sorted!!!
+        Validation.check(bombCount >= 0 && bombCount <= numBombs, "ASSERTION ERROR ON COUNTBOMBS!");
+    }
+
+    /**
+     * Check the cells changed by a mutation, as posY * numCols + posX, see checkCell().
+     */
+    private void checkCells(int[] cells){
+        for (int cell : cells) {
+            if (Validation.checksCell()) checkCell(cell % numCols, cell / numCols);
+        }
     }
     
     @Override
-    public synchronized  String getBoardState() {
-        // Best way is print cell state to std_out stream... will do later
-        String boardContent = "";
-        Assert.assertTrue("ASSERTION ERROR ON 'BOARD' REP INVARIANT!", board.length > 0);
-        
-        for (int i = 0; i < board.length; i++) {
-            for (int j = 0; j < board[0].length; j++) {
-                if(board[i][j] == 'B') boardContent = boardContent.concat("_") + " "; // mask Bombs location for output
-                else boardContent = boardContent.concat(board[i][j].toString()) + " ";
-            }
-            boardContent = boardContent.substring(0, boardContent.length()-1);  // Eliminate last in the line empty space
-            boardContent = boardContent + "\r\n";
+    public String getBoardState() {
+        lock.lock();
+        try {
+            Validation.check(board.length > 0, "ASSERTION ERROR ON 'BOARD' REP INVARIANT!");
+            return renderCache.render(); // re-renders only rows changed since the last call
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getBoardState(long version) {
+        return version == getVersion() ? null : getBoardState(); // the version is read without locking
+    }
+
+    @Override
+    public void runBatch(Runnable operations) {
+        lock.lock();
+        try {
+            operations.run(); // its operations take the lock again, it is reentrant
+        } finally {
+            lock.unlock();
         }
-        return boardContent;
     }
 
     @Override
-    public  synchronized boolean changeCellState(int posX, int posY, char state) {
-        // Any invalid position will fail change
-        Assert.assertTrue("ASSERTION ERROR ON INPUT PARAMS!", posX >= 0 || posX <= numCols-1); // validate cell x pos
-        Assert.assertTrue("ASSERTION ERROR ON INPUT PARAMS!", posY >= 0 || posY <= numRows-1);
+    public boolean changeCellState(int posX, int posY, char state) {
+        lock.lock();
+        try {
+            // Any invalid position will fail change
+            Validation.check(posX >= 0 || posX <= numCols-1, "ASSERTION ERROR ON INPUT PARAMS!"); // validate cell x pos
+            Validation.check(posY >= 0 || posY <= numRows-1, "ASSERTION ERROR ON INPUT PARAMS!");
                 
-        char oldState = board[posY][posX];
-        char newState = state;
+            char oldState = board[posY][posX];
+            char newState = state;
         
-        // Any invalid state will fail change
-        if((Arrays.binarySearch(validCellState, newState) < 0) || (oldState == newState)) return false;                                 
-        else board[posY][posX] = newState;
+            // Any invalid state will fail change
+            if((Arrays.binarySearch(validCellState, newState) < 0) || (oldState == newState)) return false;                                 
+            else board[posY][posX] = newState;
+            renderCache.markDirty(posY);
+            if(oldState == 'B') { updateNeighbourBombs(posX, posY, -1); bombCount--; }      // bomb removed
+            else if(newState == 'B') { updateNeighbourBombs(posX, posY, 1); bombCount++; }  // bomb inserted
                     
-        checkRep();
+            if (Validation.checksCell()) checkCell(posX, posY);
+            version++;
        
-        Assert.assertEquals(Character.toString(newState), board[posY][posX].toString());// Asserting post-condition        
-        return  board[posY][posX] == newState;
+            if (Validation.checksCell()) Validation.check(board[posY][posX] == newState, "ASSERTION ERROR ON POST-CONDITION!");// Asserting post-condition
+            return  board[posY][posX] == newState;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public  synchronized char getCellState(int posX, int posY) {
-        Assert.assertTrue("ASSERTION ERROR ON INPUT PARAMS!", posX >= 0 || posX <= numCols-1); // validate cell x pos
-        Assert.assertTrue("ASSERTION ERROR ON INPUT PARAMS!", posY >= 0 || posY <= numRows-1);
+    public char getCellState(int posX, int posY) {
+        lock.lock();
+        try {
+            Validation.check(posX >= 0 || posX <= numCols-1, "ASSERTION ERROR ON INPUT PARAMS!"); // validate cell x pos
+            Validation.check(posY >= 0 || posY <= numRows-1, "ASSERTION ERROR ON INPUT PARAMS!");
         
-        Assert.assertTrue(Arrays.binarySearch(validCellState, board[posY][posX]) >= 0); // Asserting post-condition
-        return board[posY][posX];
+            if (Validation.checksCell()) checkCell(posX, posY); // Asserting post-condition
+            return board[posY][posX];
+        } finally {
+            lock.unlock();
+        }
     }
 
+    @Override
+    public int getNeighbourBombs(int posX, int posY) {
+        lock.lock();
+        try {
+            Validation.check(posX >= 0 && posX <= numCols-1, "ASSERTION ERROR ON INPUT PARAMS!"); // validate cell x pos
+            Validation.check(posY >= 0 && posY <= numRows-1, "ASSERTION ERROR ON INPUT PARAMS!");
+        
+            return neighbourBombs[posY * numCols + posX];
+        } finally {
+            lock.unlock();
+        }
+    }
     
+    @Override
+    public DigResult digAt(int posX, int posY) {
+        lock.lock();
+        try {
+            Validation.check(posX >= 0 && posX <= numCols-1, "ASSERTION ERROR ON INPUT PARAMS!"); // validate cell x pos
+            Validation.check(posY >= 0 && posY <= numRows-1, "ASSERTION ERROR ON INPUT PARAMS!");
+        
+            if(board[posY][posX] != 'B') return new DigResult(false, revealCell(posX, posY));
+        
+            // BOOM: remove the bomb, dug neighbours show their new count, then reveal the cell as untouched
+            board[posY][posX] = '_';
+            updateNeighbourBombs(posX, posY, -1);
+            bombCount--;
+            int[] changed = new int[8];
+            int numChanged = 0;
+            for (int ny = Math.max(0, posY - 1); ny <= Math.min(numRows - 1, posY + 1); ny++) {
+                for (int nx = Math.max(0, posX - 1); nx <= Math.min(numCols - 1, posX + 1); nx++) {
+                    if(Character.isDigit(board[ny][nx])){
+                        int count = neighbourBombs[ny * numCols + nx];
+                        board[ny][nx] = count == 0 ? ' ' : Character.forDigit(count, 10);
+                        renderCache.markDirty(ny);
+                        changed[numChanged++] = ny * numCols + nx;
+                    }
+                }
+            }
+            int[] revealed = revealEngine.reveal(posX, posY);
+            changed = Arrays.copyOf(changed, numChanged + revealed.length);
+            System.arraycopy(revealed, 0, changed, numChanged, revealed.length);
+            if (Validation.checksCell()) checkCell(posX, posY);
+            checkCells(changed);
+            version++;
+            return new DigResult(true, changed);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public boolean flagIfUntouched(int posX, int posY) {
+        lock.lock();
+        try {
+            return board[posY][posX] == '_' && changeCellState(posX, posY, 'F');
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public boolean deflagIfFlagged(int posX, int posY) {
+        lock.lock();
+        try {
+            return board[posY][posX] == 'F' && changeCellState(posX, posY, '_');
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public int[] revealCell(int posX, int posY) {
+        lock.lock();
+        try {
+            Validation.check(posX >= 0 && posX <= numCols-1, "ASSERTION ERROR ON INPUT PARAMS!"); // validate cell x pos
+            Validation.check(posY >= 0 && posY <= numRows-1, "ASSERTION ERROR ON INPUT PARAMS!");
+        
+            int[] changed = revealEngine.reveal(posX, posY);
+            checkCells(changed); // the dug cells only, not the whole board
+            if (changed.length > 0) version++;
+            return changed;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Choose how revealCell() reveals regions: in parallel on the tasks of a pool, or in the calling thread.
+     * @param pool pool running the reveal tasks, or null to reveal in the calling thread
+     */
+    public void setRevealPool(ForkJoinPool pool) {
+        lock.lock();
+        try {
+            revealEngine = pool == null ? new RevealEngine(numRows, numCols, revealGrid)
+                                        : new ParallelRevealEngine(numRows, numCols, revealGrid, pool);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public long getVersion() {
+        return version;
+    }
+    
+    @Override
+    public long copyCells(byte[] cells) {
+        lock.lock();
+        try {
+            for (int y = 0; y < numRows; y++) {
+                for (int x = 0; x < numCols; x++) {
+                    char state = board[y][x];
+                    cells[y * numCols + x] = (byte) (state == 'B' ? PackedBoard.BOMB | PackedBoard.UNTOUCHED
+                            : state == '_' ? PackedBoard.UNTOUCHED : state == 'F' ? PackedBoard.FLAGGED : PackedBoard.DUG);
+                }
+            }
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public int[] getBoardSize() {
         int [] boardDim = new int[2];
         boardDim[0] = numCols;
         boardDim[1] = numRows;
         
-        Assert.assertTrue("ASSERTION ERROR ON X BOARD SIZE!", boardDim[0] == numCols); // Asserting post-condition
-        Assert.assertTrue("ASSERTION ERROR ON X BOARD SIZE!", boardDim[0] == numRows);
+        Validation.check(boardDim[0] == numCols, "ASSERTION ERROR ON X BOARD SIZE!"); // Asserting post-condition
+        Validation.check(boardDim[1] == numRows, "ASSERTION ERROR ON Y BOARD SIZE!");
         return boardDim;
     }
 }
@@ -47,6 +47,21 @@ public class SimpleBoardTest {
         assertEquals("String Not equals!", checkString, b.getBoardState());
     }
     
+    @Test
+    /**
+     * Testing if Board state rendered again after change shows only the latest cell states
+     */
+    public void testGetBoardState_AfterChange() {
+        Board b = new SimpleBoard(2, 2, 0);
+        String before = b.getBoardState();
+        assertSame("Unchanged board rendered again!", before, b.getBoardState());
+        
+        b.changeCellState(1, 1, 'F');
+        assertEquals("_ _\r\n_ F\r\n", b.getBoardState());
+        b.changeCellState(1, 1, '_');
+        assertEquals(before, b.getBoardState());
+    }
+    
     @Test
     public void testGetBoardState_InvalidStateCharSet() {
         // Impossible by Board design implementation to have invalid cell states
@@ -115,6 +130,66 @@ public class SimpleBoardTest {
         assertEquals("F", ch.toString());
     }
     
+    // getNeighbourBombs()
+    @Test
+    public void testGetNeighbourBombs_InsertAndRemoveBomb() {
+        Board b = new SimpleBoard(3, 3, 2);
+        b.changeCellState(0, 0, 'B');
+        b.changeCellState(1, 0, 'B');
+        assertEquals(2, b.getNeighbourBombs(1, 1));
+        assertEquals(1, b.getNeighbourBombs(0, 0)); // a bomb cell counts only its neighbours
+        assertEquals(0, b.getNeighbourBombs(2, 2));
+        
+        b.changeCellState(0, 0, ' '); // bomb removed after BOOM
+        assertEquals(1, b.getNeighbourBombs(1, 1));
+        assertEquals(1, b.getNeighbourBombs(0, 1));
+    }
+    
+    // revealCell()
+    @Test
+    public void testRevealCell_StopsAtNeighbourBombs() {
+        Board b = new SimpleBoard(3, 4, 1);
+        b.changeCellState(3, 0, 'B');
+        b.changeCellState(0, 2, 'F');
+        
+        int[] changed = b.revealCell(0, 0);
+        String checkString =   "    1 _\r\n"
+                             + "    1 1\r\n"
+                             + "F      \r\n";
+        assertEquals(checkString, b.getBoardState());
+        assertEquals(10, changed.length); // all but the bomb and the flagged cell
+        assertEquals(0, b.revealCell(0, 0).length); // already dug
+    }
+    
+    // digAt(), flagIfUntouched(), deflagIfFlagged()
+    @Test
+    public void testDigAt_Boom() {
+        Board b = new SimpleBoard(3, 3, 2);
+        b.changeCellState(0, 0, 'B');
+        b.changeCellState(2, 2, 'B');
+        assertFalse(b.digAt(1, 0).isBoom());
+        assertEquals('1', b.getCellState(1, 0));
+        
+        DigResult boom = b.digAt(0, 0);
+        assertTrue(boom.isBoom());
+        assertEquals(' ', b.getCellState(1, 0)); // dug neighbour shows the new count
+        assertEquals(' ', b.getCellState(0, 0)); // no neighbour bombs left, so the region is revealed
+        assertEquals('1', b.getCellState(1, 1));
+        assertEquals(6, boom.getNumChangedCells());
+        assertFalse(b.digAt(0, 0).isBoom());
+    }
+    
+    @Test
+    public void testFlagIfUntouched_DeflagIfFlagged() {
+        Board b = new SimpleBoard(2, 2, 0);
+        assertFalse(b.deflagIfFlagged(0, 0));
+        assertTrue(b.flagIfUntouched(0, 0));
+        assertFalse(b.flagIfUntouched(0, 0));
+        assertEquals(0, b.digAt(0, 0).getNumChangedCells()); // flagged cells are not dug
+        assertTrue(b.deflagIfFlagged(0, 0));
+        assertEquals('_', b.getCellState(0, 0));
+    }
+    
     @Test
     public void testGetCellState_InvalidState() {
         Character [] invalidCellState = {'a','b','c', '@', ';'}; // Impossible by Board design implementation to have invalid cell states                    
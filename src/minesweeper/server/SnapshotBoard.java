@@ -0,0 +1,444 @@
+package minesweeper.server;
+
+import static minesweeper.server.PackedBoard.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SnapshotBoard represents a thread safe mutable grid of cells in multiplayer game Minesweeper, which
+ * publishes every state as an immutable, versioned Snapshot. Readers take the latest Snapshot and read or
+ * render it without any lock, while writers, one at a time, build the next one.
+ * Cell states seen through Board are the same character set as SimpleBoard {_, ,F,B,1-8}.
+ *
+ * A Snapshot is an array of rows of PackedBoard cells. An operation copies only the rows it changes and
+ * shares the others with the previous Snapshot, so its cost is one row per changed row plus an array of
+ * row references. Each row keeps its rendered text up to date, so rendering a Snapshot only copies the texts.
+ */
+public class SnapshotBoard implements Board {
+    private final int numRows, numCols, numBombs;
+    private volatile Snapshot current;
+    private final ReentrantLock writeLock = new ReentrantLock(); // not a monitor, so a virtual thread waiting for it unmounts
+    private Row[] next; // rows of the Snapshot being built, null between operations
+    private long operation; // number of Snapshots started being built
+    private final long[] copiedFor; // copiedFor[y] == operation if next[y] is a private copy
+    private int bombCount; // bombs of the Snapshot being built
+    private final RevealEngine revealEngine;
+
+    // Rep invariant
+    // numRows > 0, numCols > 0, numBombs >= 0
+    // current.rows.length == numRows, each row has numCols cells, cell (x,y) is current.rows[y].cells[x]
+    // the rep invariant of PackedBoard for the cells of current, and of next when it is not null
+    // current.bombCount == number of cells of current with the BOMB bit set, current.bombCount <= numBombs
+    // the same holds for bombCount and next when next is not null
+    // the rows of a published Snapshot never change
+
+    // Abstraction function
+    // as PackedBoard for the cells of current
+
+    // Thread safety argument:
+    //    - numRows, numCols, numBombs, copiedFor and revealEngine are final
+    //    - 'current' is volatile and points to an immutable Snapshot; every Row reachable from it is only
+    //      written before the Snapshot holding it is published
+    //    - 'next', 'operation', 'copiedFor', 'bombCount' and 'revealEngine' are only accessed by writers,
+    //      holding 'writeLock'
+    //    - a Row is only changed by the writer which copied it, before publishing it in a Snapshot
+    //    - the cached text of a Snapshot is a benign race: any thread may render it, all renderings are
+    //      equal immutable Strings
+
+    /**
+     * One immutable board state and its version.
+     */
+    private static final class Snapshot {
+        final long version;
+        final Row[] rows;
+        final int bombCount;
+        private String text; // rendering, cached by the first getBoardState()
+
+        Snapshot(long version, Row[] rows, int bombCount) {
+            this.version = version;
+            this.rows = rows;
+            this.bombCount = bombCount;
+        }
+
+        String render() {
+            String rendered = text;
+            if (rendered == null) {
+                int rowLength = rows[0].text.length;
+                byte[] bytes = new byte[rows.length * rowLength];
+                for (int y = 0; y < rows.length; y++) System.arraycopy(rows[y].text, 0, bytes, y * rowLength, rowLength);
+                text = rendered = new String(bytes, StandardCharsets.ISO_8859_1);
+            }
+            return rendered;
+        }
+    }
+
+    /**
+     * The cells of one board row and their rendering, shared by the Snapshots it did not change between.
+     */
+    private static final class Row {
+        final byte[] cells;
+        final byte[] text; // ISO-8859-1 rendering of cells, updated with them
+
+        Row(byte[] cells, byte[] text) {
+            this.cells = cells;
+            this.text = text;
+        }
+
+        /**
+         * @return row rendered as in getBoardState(), "c c ... c\r\n"
+         */
+        static byte[] render(byte[] cells) {
+            byte[] text = new byte[2 * cells.length + 1]; // one char and one separator per cell, and "\r\n"
+            for (int x = 0; x < cells.length; x++) {
+                char ch = toChar(cells[x]);
+                text[2 * x] = (byte) (ch == 'B' ? '_' : ch); // mask Bombs location for output
+                text[2 * x + 1] = ' ';
+            }
+            text[text.length - 2] = '\r'; // Eliminate last in the line empty space
+            text[text.length - 1] = '\n';
+            return text;
+        }
+    }
+
+    /**
+     * Construct initial Board state.
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param bombs number of Bombs; Integer.MAX_VALUE inserts a bomb in each cell with probability .25
+     */
+    public SnapshotBoard(int rows, int cols, int bombs) {
+        Validation.check(rows > 0, "ASSERTION ERROR ON INPUT PARAMS! invalid rows");
+        Validation.check(cols > 0, "ASSERTION ERROR ON INPUT PARAMS! invalid cols");
+        Validation.check(bombs >= 0, "ASSERTION ERROR ON INPUT PARAMS! invalid bombs");
+
+        numRows = rows;
+        numCols = cols;
+        numBombs = bombs;
+        copiedFor = new long[rows];
+        byte[] untouched = new byte[cols];
+        Row[] initial = new Row[rows];
+        Arrays.fill(initial, new Row(untouched, Row.render(untouched))); // never changes, so rows share it
+        current = new Snapshot(0, initial, 0);
+        revealEngine = new RevealEngine(rows, cols, new RevealEngine.Grid() {
+            @Override
+            public char cellAt(int x, int y) {
+                return toChar(next[y].cells[x]);
+            }
+
+            @Override
+            public int neighbourBombs(int x, int y) {
+                return next[y].cells[x] & COUNT_MASK;
+            }
+
+            @Override
+            public boolean dig(int x, int y, int neighbourBombs) {
+                set(x, y, (next[y].cells[x] & ~STATE_MASK) | DUG);
+                return true;
+            }
+        });
+
+        if (numBombs == Integer.MAX_VALUE) { // same sentinel as SimpleBoard
+            begin();
+            for (int y = 0; y < numRows; y++) {
+                for (int x = 0; x < numCols; x++) {
+                    if (Math.random() <= 0.25) setBomb(x, y, true);
+                }
+            }
+            current = new Snapshot(0, next, bombCount); // the initial state, as other boards it is version 0
+            next = null;
+        }
+        checkRep();
+    }
+
+    /**
+     * Construct initial Board state with bombs in the given cells, e.g. of a board file.
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param bombs cells with a bomb, cell x,y at index y * cols + x
+     */
+    public SnapshotBoard(int rows, int cols, BitSet bombs) {
+        this(rows, cols, bombs.cardinality());
+        Validation.check(bombs.length() <= rows * cols, "ASSERTION ERROR ON INPUT PARAMS! invalid bombs");
+        begin();
+        for (int i = bombs.nextSetBit(0); i >= 0; i = bombs.nextSetBit(i + 1)) setBomb(i % cols, i / cols, true);
+        current = new Snapshot(0, next, bombCount); // the initial state, as other boards it is version 0
+        next = null;
+        checkRep();
+    }
+
+    /**
+     * Construct a Board with the cells and version of a saved Board, see Board.copyCells().
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param saved bomb and state bits of each cell, cell x,y at index y * cols + x
+     * @param version version of the saved Board
+     */
+    public SnapshotBoard(int rows, int cols, byte[] saved, long version) {
+        this(rows, cols, countBombs(saved));
+        Validation.check(saved.length == rows * cols, "ASSERTION ERROR ON INPUT PARAMS! invalid cells");
+        begin();
+        for (int y = 0, i = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++, i++) {
+                if ((saved[i] & BOMB) != 0) setBomb(x, y, true);
+                if ((saved[i] & STATE_MASK) != UNTOUCHED) set(x, y, (next[y].cells[x] & ~STATE_MASK) | (saved[i] & STATE_MASK));
+            }
+        }
+        current = new Snapshot(version, next, bombCount);
+        next = null;
+        checkRep();
+    }
+
+    /**
+     * Check that the rep invariant is true. Scans the whole board, so only run by creators, if
+     * Validation.checksBoard().
+     */
+    private void checkRep() {
+        if (!Validation.checksBoard()) return;
+        int countBombs = 0;
+        Validation.check(current.rows.length == numRows, "ASSERTION ERROR ON BOARD SIZE!");
+        for (int y = 0; y < numRows; y++) {
+            Validation.check(current.rows[y].cells.length == numCols, "ASSERTION ERROR ON BOARD SIZE!");
+            for (int x = 0; x < numCols; x++) {
+                checkCell(current.rows[y].cells[x]);
+                if ((current.rows[y].cells[x] & BOMB) != 0) countBombs++;
+            }
+        }
+        Validation.check(countBombs == current.bombCount, "ASSERTION ERROR ON COUNTBOMBS!");
+    }
+
+    /**
+     * Check the rep invariant of one cell; cheap enough to run after every mutation
+     * touching it, if Validation.checksCell().
+     */
+    private void checkCell(int cell) {
+        int state = cell & STATE_MASK;
+        Validation.check(state == UNTOUCHED || state == DUG || state == FLAGGED, "ASSERTION ERROR ON CELL STATE!");
+        Validation.check((cell & BOMB) == 0 || state == UNTOUCHED, "ASSERTION ERROR ON CELL BOMB!");
+        Validation.check((cell & COUNT_MASK) <= 8, "ASSERTION ERROR ON CELL COUNT!");
+        Validation.check(bombCount >= 0 && bombCount <= numBombs, "ASSERTION ERROR ON COUNTBOMBS!");
+    }
+
+    /**
+     * Start building the next Snapshot from the current one. The caller holds 'writeLock'.
+     */
+    private void begin() {
+        next = current.rows.clone();
+        bombCount = current.bombCount;
+        operation++;
+    }
+
+    /**
+     * Publish the Snapshot being built as the next version. The caller holds 'writeLock'.
+     */
+    private void publish() {
+        current = new Snapshot(current.version + 1, next, bombCount);
+        next = null;
+    }
+
+    /**
+     * Change cell x,y of the Snapshot being built and its rendering, copying its row from the current
+     * Snapshot at the first change of the row in this operation. The caller holds 'writeLock'.
+     */
+    private void set(int x, int y, int cell) {
+        if (copiedFor[y] != operation) {
+            next[y] = new Row(next[y].cells.clone(), next[y].text.clone());
+            copiedFor[y] = operation;
+        }
+        next[y].cells[x] = (byte) cell;
+        char ch = toChar(cell);
+        next[y].text[2 * x] = (byte) (ch == 'B' ? '_' : ch); // mask Bombs location for output
+    }
+
+    /**
+     * Set or clear the bomb bit of cell x,y of the Snapshot being built, keeping the counts of its
+     * neighbours up to date. The caller holds 'writeLock'.
+     */
+    private void setBomb(int x, int y, boolean bomb) {
+        int cell = next[y].cells[x];
+        if (((cell & BOMB) != 0) == bomb) return;
+        set(x, y, bomb ? cell | BOMB : cell & ~BOMB);
+        int delta = bomb ? 1 : -1;
+        bombCount += delta;
+        for (int ny = Math.max(0, y - 1); ny <= Math.min(numRows - 1, y + 1); ny++) {
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(numCols - 1, x + 1); nx++) {
+                if (nx == x && ny == y) continue;
+                int neighbour = next[ny].cells[nx];
+                set(nx, ny, (neighbour & ~COUNT_MASK) | ((neighbour & COUNT_MASK) + delta));
+            }
+        }
+    }
+
+    @Override
+    public String getBoardState() {
+        return current.render();
+    }
+
+    @Override
+    public String getBoardState(long version) {
+        Snapshot last = current;
+        return last.version == version ? null : last.render();
+    }
+
+    /**
+     * {@inheritDoc}
+     * SnapshotBoard does not take 'writeLock' for a batch, so reads never wait for it: each change takes
+     * it on its own, and others may interleave between them.
+     */
+    @Override
+    public void runBatch(Runnable operations) {
+        operations.run();
+    }
+
+    /**
+     * {@inheritDoc}
+     * A dug state ' ' or '1'-'8' must agree with the number of bombs adjacent to the cell,
+     * otherwise the change fails.
+     */
+    @Override
+    public boolean changeCellState(int posX, int posY, char state) {
+        writeLock.lock();
+        try {
+            Validation.check(posX >= 0 && posX < numCols, "ASSERTION ERROR ON INPUT PARAMS!");
+            Validation.check(posY >= 0 && posY < numRows, "ASSERTION ERROR ON INPUT PARAMS!");
+
+            int cell = current.rows[posY].cells[posX];
+            if (toChar(cell) == state) return false;
+
+            int newState;
+            switch (state) {
+            case '_': case 'B': newState = UNTOUCHED; break;
+            case 'F':           newState = FLAGGED; break;
+            case ' ':           newState = DUG; break;
+            default:
+                if (state < '1' || state > '8') return false; // Any invalid state will fail change
+                newState = DUG;
+            }
+            if (newState == DUG && (cell & COUNT_MASK) != (state == ' ' ? 0 : state - '0')) return false;
+
+            begin();
+            setBomb(posX, posY, state == 'B');
+            set(posX, posY, (next[posY].cells[posX] & ~STATE_MASK) | newState);
+            if (Validation.checksCell()) checkCell(next[posY].cells[posX]);
+            publish();
+
+            if (Validation.checksCell()) Validation.check(toChar(current.rows[posY].cells[posX]) == state, "ASSERTION ERROR ON POST-CONDITION!"); // Asserting post-condition
+            return true;
+        } finally {
+            next = null; // an operation failing midway publishes nothing
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public char getCellState(int posX, int posY) {
+        Validation.check(posX >= 0 && posX < numCols, "ASSERTION ERROR ON INPUT PARAMS!");
+        Validation.check(posY >= 0 && posY < numRows, "ASSERTION ERROR ON INPUT PARAMS!");
+        return toChar(current.rows[posY].cells[posX]);
+    }
+
+    @Override
+    public int getNeighbourBombs(int posX, int posY) {
+        Validation.check(posX >= 0 && posX < numCols, "ASSERTION ERROR ON INPUT PARAMS!");
+        Validation.check(posY >= 0 && posY < numRows, "ASSERTION ERROR ON INPUT PARAMS!");
+        return current.rows[posY].cells[posX] & COUNT_MASK;
+    }
+
+    @Override
+    public DigResult digAt(int posX, int posY) {
+        writeLock.lock();
+        try {
+            Validation.check(posX >= 0 && posX < numCols, "ASSERTION ERROR ON INPUT PARAMS!");
+            Validation.check(posY >= 0 && posY < numRows, "ASSERTION ERROR ON INPUT PARAMS!");
+
+            if ((current.rows[posY].cells[posX] & (BOMB | STATE_MASK)) != (BOMB | UNTOUCHED)) {
+                return new DigResult(false, reveal(posX, posY));
+            }
+
+            // BOOM: remove the bomb, dug neighbours show their new count, then reveal the cell as untouched
+            begin();
+            setBomb(posX, posY, false);
+            int[] changed = new int[8];
+            int numChanged = 0;
+            for (int ny = Math.max(0, posY - 1); ny <= Math.min(numRows - 1, posY + 1); ny++) {
+                for (int nx = Math.max(0, posX - 1); nx <= Math.min(numCols - 1, posX + 1); nx++) {
+                    if ((next[ny].cells[nx] & STATE_MASK) == DUG) changed[numChanged++] = ny * numCols + nx;
+                }
+            }
+            int[] revealed = revealEngine.reveal(posX, posY);
+            changed = Arrays.copyOf(changed, numChanged + revealed.length);
+            System.arraycopy(revealed, 0, changed, numChanged, revealed.length);
+            publish();
+            return new DigResult(true, changed);
+        } finally {
+            next = null; // an operation failing midway publishes nothing
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean flagIfUntouched(int posX, int posY) {
+        writeLock.lock();
+        try {
+            return getCellState(posX, posY) == '_' && changeCellState(posX, posY, 'F');
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean deflagIfFlagged(int posX, int posY) {
+        writeLock.lock();
+        try {
+            return getCellState(posX, posY) == 'F' && changeCellState(posX, posY, '_');
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int[] revealCell(int posX, int posY) {
+        writeLock.lock();
+        try {
+            Validation.check(posX >= 0 && posX < numCols, "ASSERTION ERROR ON INPUT PARAMS!");
+            Validation.check(posY >= 0 && posY < numRows, "ASSERTION ERROR ON INPUT PARAMS!");
+            return reveal(posX, posY);
+        } finally {
+            next = null; // an operation failing midway publishes nothing
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reveal from cell posX,posY, publishing a new version if cells changed. The caller holds 'writeLock'.
+     */
+    private int[] reveal(int posX, int posY) {
+        if ((current.rows[posY].cells[posX] & STATE_MASK) != UNTOUCHED) return new int[0]; // nothing to copy
+        begin();
+        int[] changed = revealEngine.reveal(posX, posY);
+        if (changed.length > 0) publish();
+        return changed;
+    }
+
+    @Override
+    public long getVersion() {
+        return current.version;
+    }
+
+    @Override
+    public long copyCells(byte[] copy) {
+        Snapshot snapshot = current; // lock-free, as getBoardState()
+        for (int y = 0; y < numRows; y++) {
+            byte[] row = snapshot.rows[y].cells;
+            for (int x = 0; x < numCols; x++) copy[y * numCols + x] = (byte) (row[x] & (BOMB | STATE_MASK));
+        }
+        return snapshot.version;
+    }
+
+    @Override
+    public int[] getBoardSize() {
+        return new int[] { numCols, numRows };
+    }
+}
@@ -0,0 +1,141 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * SnapshotBoard must behave as PackedBoard does through the Board interface, see PackedBoardTest, and
+ * keep the states it published unchanged.
+ */
+public class SnapshotBoardTest {
+
+    // getBoardState()
+    @Test
+    public void testGetBoardState_ValidStateCharSet_BombsMasked() {
+        Board b = new SnapshotBoard(3, 3, 1);
+        b.changeCellState(0, 0, ' '); // add DUG cell state
+        b.changeCellState(0, 1, 'F'); // add FLAGGED cell state
+        b.changeCellState(2, 2, 'B');
+
+        String checkString =   "  _ _\r\n"
+                             + "F _ _\r\n"
+                             + "_ _ _\r\n";
+        assertEquals("String Not equals!", checkString, b.getBoardState());
+    }
+
+    @Test
+    public void testGetBoardState_UnchangedSinceVersion() {
+        Board b = new SnapshotBoard(2, 3, 0);
+        long version = b.getVersion();
+        String before = b.getBoardState();
+        assertNull(b.getBoardState(version));
+        assertFalse(b.deflagIfFlagged(0, 0)); // no change, no new version
+        assertNull(b.getBoardState(version));
+        assertTrue(b.flagIfUntouched(1, 1));
+        assertEquals(version + 1, b.getVersion());
+        assertEquals("_ _ _\r\n_ F _\r\n", b.getBoardState(version));
+        assertEquals("_ _ _\r\n_ _ _\r\n", before); // a published state never changes
+        assertNull(b.getBoardState(version + 1));
+    }
+
+    // changeCellState()
+    @Test
+    public void testChangeCellState_DugMatchesNeighbourCount() {
+        Board b = new SnapshotBoard(3, 3, 2);
+        assertTrue(b.changeCellState(0, 0, 'B'));
+        assertTrue(b.changeCellState(2, 0, 'B'));
+        assertFalse(b.changeCellState(1, 1, ' '));  // two adjacent bombs
+        assertTrue(b.changeCellState(1, 1, '2'));
+        assertTrue(b.changeCellState(0, 0, ' '));  // bomb removed, counts follow
+        assertEquals('1', b.getCellState(1, 1));
+        assertEquals(4, b.getVersion());
+    }
+
+    @Test
+    public void testChangeCellState_FailedChangePublishesNothing() {
+        Board b = new SnapshotBoard(3, 3, 1);
+        b.changeCellState(0, 0, 'B');
+        String state = b.getBoardState();
+        try {
+            b.changeCellState(1, 0, 'B'); // too many bombs
+            fail("expected AssertionError");
+        } catch (AssertionError expected) {
+        }
+        assertEquals(1, b.getVersion());
+        assertTrue(b.changeCellState(2, 2, 'F')); // the rows copied by the failed change are not reused
+        assertEquals('_', b.getCellState(1, 0));
+        assertEquals(0, b.getNeighbourBombs(2, 0));
+        assertEquals("_ _ _\r\n_ _ _\r\n_ _ _\r\n", state);
+    }
+
+    // digAt(), revealCell()
+    @Test
+    public void testDigAt_SameAsPackedBoard() {
+        int size = 200, bombs = size * size / 20;
+        PackedBoard packed = new PackedBoard(size, size, bombs);
+        SnapshotBoard snapshot = new SnapshotBoard(size, size, bombs);
+        Random random = new Random(11);
+        for (int i = 0; i < bombs; i++) {
+            int x = random.nextInt(size), y = random.nextInt(size);
+            packed.changeCellState(x, y, 'B');
+            snapshot.changeCellState(x, y, 'B');
+        }
+        for (int i = 0; i < 100; i++) {
+            int x = random.nextInt(size), y = random.nextInt(size);
+            DigResult expected = packed.digAt(x, y);
+            DigResult actual = snapshot.digAt(x, y);
+            assertEquals(expected.isBoom(), actual.isBoom());
+            assertArrayEquals(sorted(expected), sorted(actual));
+            assertEquals(packed.getVersion(), snapshot.getVersion());
+        }
+        assertEquals(packed.getBoardState(), snapshot.getBoardState());
+    }
+
+    @Test
+    public void testRevealCell_LargeEmptyBoard() {
+        Board b = new SnapshotBoard(2000, 2000, 0);
+        String before = b.getBoardState();
+        assertEquals(2000 * 2000, b.revealCell(1000, 1000).length);
+        assertEquals(' ', b.getCellState(1999, 1999));
+        assertEquals(0, b.revealCell(0, 0).length);
+        assertEquals(1, b.getVersion());
+        assertEquals('_', before.charAt(0));
+    }
+
+    @Test(timeout = 10000)
+    public void testRunBatch_LookDoesNotWaitForBatch() {
+        final Board b = new SnapshotBoard(2, 3, 0);
+        final MinesweeperSession writer = new MinesweeperSession(b), reader = new MinesweeperSession(b);
+        final String[] looked = new String[1];
+        b.runBatch(new Runnable() { // a batch of changes, still running while the other session looks
+            public void run() {
+                writer.handleRequest("flag 0 0");
+                Thread other = new Thread(new Runnable() {
+                    public void run() {
+                        looked[0] = reader.handleBatch(Arrays.asList("look")).get(0);
+                    }
+                });
+                other.setDaemon(true);
+                other.start();
+                try {
+                    other.join(5000);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                assertFalse("the look waited for the batch", other.isAlive());
+            }
+        });
+        assertEquals("F _ _\r\n_ _ _\r\n", looked[0]); // the snapshot published by the flag
+    }
+
+    private static int[] sorted(DigResult result) {
+        int[] cells = new int[result.getNumChangedCells()];
+        for (int i = 0; i < cells.length; i++) cells[i] = result.getChangedCell(i);
+        Arrays.sort(cells);
+        return cells;
+    }
+}
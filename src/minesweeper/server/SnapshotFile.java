@@ -0,0 +1,164 @@
+package minesweeper.server;
+
+import static minesweeper.server.PackedBoard.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * SnapshotFile is a Board saved in the binary format of the "--save" and "--restore" options, see
+ * MinesweeperServer.main(): a header and two bit-packed planes of the cells, so saving and restoring
+ * a large board costs little more than moving its bytes.
+ *
+ *   offset  size
+ *        0     4  MAGIC "MSWS"
+ *        4     4  FORMAT 1
+ *        8     4  X, number of columns
+ *       12     4  Y, number of rows
+ *       16     8  VERSION of the saved board, see Board.getVersion()
+ *       24     4  number of bombs
+ *       28     4  CRC-32 of the planes
+ *       32        BOMB plane: one bit per cell, 1 for a bomb
+ *                 STATE plane: two bits per cell, 0 untouched, 1 dug, 2 flagged
+ *
+ * Integers are big-endian. Cell x,y is cell i = y * X + x of the planes, bit i % 8 of byte i / 8 of the
+ * BOMB plane and bits 2 * (i % 4) of byte i / 4 of the STATE plane. Only untouched cells have bombs.
+ */
+final class SnapshotFile {
+    private static final int MAGIC = 0x4D535753; // "MSWS"
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int CHECKSUM_CHUNK = 1 << 16;
+    private static final int[] STATES = { UNTOUCHED, DUG, FLAGGED }; // cell state bits of each STATE code
+
+    /**
+     * Size of the board: X columns by Y rows.
+     */
+    final int cols, rows;
+    /**
+     * Version of the saved board.
+     */
+    final long version;
+    /**
+     * Bomb and state bits of each cell, as copied by Board.copyCells(), cell x,y at index y * cols + x.
+     */
+    final byte[] cells;
+
+    private SnapshotFile(int cols, int rows, long version, byte[] cells) {
+        this.cols = cols;
+        this.rows = rows;
+        this.version = version;
+        this.cells = cells;
+    }
+
+    /**
+     * Save board to file atomically: the snapshot is written to a temporary file next to it, forced to
+     * the disk and then renamed over file, so file holds either its old content or the whole snapshot.
+     *
+     * @param board board to save, as one atomic Board.copyCells()
+     * @param file file to save to
+     * @return version of the saved board
+     * @throws IOException if the snapshot cannot be written; file is left unchanged
+     */
+    static long save(Board board, File file) throws IOException {
+        int cols = board.getBoardSize()[0], rows = board.getBoardSize()[1];
+        byte[] cells = new byte[cols * rows];
+        long version = board.copyCells(cells);
+
+        ByteBuffer bombPlane = ByteBuffer.allocate((cells.length + 7) / 8);
+        ByteBuffer statePlane = ByteBuffer.allocate((cells.length + 3) / 4);
+        byte[] bombBits = bombPlane.array(), stateBits = statePlane.array();
+        int bombs = 0;
+        for (int i = 0; i < cells.length; i++) {
+            if ((cells[i] & BOMB) != 0) {
+                bombBits[i >> 3] |= 1 << (i & 7);
+                bombs++;
+            }
+            stateBits[i >> 2] |= stateCode(cells[i] & STATE_MASK) << 2 * (i & 3);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bombBits);
+        crc.update(stateBits);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT).putInt(cols).putInt(rows).putLong(version).putInt(bombs)
+                .putInt((int) crc.getValue()).flip();
+
+        Path target = file.toPath().toAbsolutePath();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer[] buffers = { header, bombPlane, statePlane };
+            while (statePlane.hasRemaining()) channel.write(buffers); // one gathering write, unless it is partial
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return version;
+    }
+
+    /**
+     * @param file snapshot file, as written by save()
+     * @return the board saved in file
+     * @throws IOException if file cannot be read, or is not a valid snapshot
+     */
+    static SnapshotFile read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) throw corrupt(file, "shorter than its header");
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+            if (bytes.getInt(0) != MAGIC || bytes.getInt(4) != FORMAT) throw corrupt(file, "not a snapshot of format " + FORMAT);
+            int cols = bytes.getInt(8), rows = bytes.getInt(12);
+            long version = bytes.getLong(16);
+            int bombs = bytes.getInt(24), checksum = bytes.getInt(28);
+            if (cols <= 0 || rows <= 0 || (long) cols * rows > Integer.MAX_VALUE || version < 0) {
+                throw corrupt(file, "invalid header");
+            }
+            int cells = cols * rows;
+            int bombPlane = HEADER_SIZE, statePlane = bombPlane + (cells + 7) / 8;
+            if (channel.size() != statePlane + (cells + 3) / 4L) throw corrupt(file, "wrong length for " + cols + "x" + rows);
+
+            // the planes are read in place from the mapping, only the checksum needs them in chunks
+            CRC32 crc = new CRC32();
+            byte[] chunk = new byte[CHECKSUM_CHUNK];
+            bytes.position(bombPlane);
+            while (bytes.hasRemaining()) {
+                int n = Math.min(chunk.length, bytes.remaining());
+                bytes.get(chunk, 0, n);
+                crc.update(chunk, 0, n);
+            }
+            if ((int) crc.getValue() != checksum) throw corrupt(file, "wrong checksum");
+
+            byte[] saved = new byte[cells];
+            int bombCount = 0;
+            int bombBits = 0, stateBits = 0;
+            for (int i = 0; i < cells; i++, bombBits >>= 1, stateBits >>= 2) {
+                if ((i & 7) == 0) bombBits = bytes.get(bombPlane + (i >> 3));
+                if ((i & 3) == 0) stateBits = bytes.get(statePlane + (i >> 2));
+                int state = stateBits & 3;
+                int bomb = bombBits & 1;
+                if (state == 3 || (bomb != 0 && state != 0)) throw corrupt(file, "invalid cell " + i % cols + "," + i / cols);
+                saved[i] = (byte) (STATES[state] | (bomb != 0 ? BOMB : 0));
+                bombCount += bomb;
+            }
+            if (bombCount != bombs) throw corrupt(file, "wrong number of bombs");
+            return new SnapshotFile(cols, rows, version, saved);
+        }
+    }
+
+    private static int stateCode(int state) {
+        return state == DUG ? 1 : state == FLAGGED ? 2 : 0;
+    }
+
+    private static IOException corrupt(File file, String message) {
+        return new IOException(file + ": " + message);
+    }
+}
@@ -0,0 +1,76 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+/**
+ * SnapshotFile must restore a saved game, with its dug and flagged cells and its version, into any
+ * Board implementation, and reject files it did not write whole.
+ */
+public class SnapshotFileTest {
+
+    private static Board played(Board board) {
+        board.changeCellState(3, 2, 'B');
+        board.changeCellState(0, 4, 'B');
+        board.flagIfUntouched(4, 4); // before the dig reveals it
+        board.digAt(0, 0);
+        return board;
+    }
+
+    @Test
+    public void testSaveRestoreEveryKind() throws IOException {
+        Board[] boards = { played(new SimpleBoard(5, 6, 2)), played(new PackedBoard(5, 6, 2)),
+                played(new StripedBoard(5, 6, 2, 2)), played(new AtomicBoard(5, 6, 2)), played(new SnapshotBoard(5, 6, 2)) };
+        for (Board board : boards) {
+            File file = File.createTempFile("board", ".bin");
+            file.deleteOnExit();
+            assertEquals(board.getVersion(), SnapshotFile.save(board, file));
+            SnapshotFile saved = SnapshotFile.read(file);
+            assertEquals(6, saved.cols);
+            assertEquals(5, saved.rows);
+            Board[] restored = { new SimpleBoard(5, 6, saved.cells, saved.version), new PackedBoard(5, 6, saved.cells, saved.version),
+                    new StripedBoard(5, 6, saved.cells, saved.version), new AtomicBoard(5, 6, saved.cells, saved.version),
+                    new SnapshotBoard(5, 6, saved.cells, saved.version) };
+            for (Board copy : restored) {
+                String name = board.getClass().getSimpleName() + " -> " + copy.getClass().getSimpleName();
+                assertEquals(name, board.getBoardState(), copy.getBoardState());
+                assertEquals(name, board.getVersion(), copy.getVersion());
+                assertEquals(name, 'B', copy.getCellState(3, 2));
+                assertEquals(name, 'F', copy.getCellState(4, 4));
+                assertEquals(name, '1', copy.getCellState(2, 1));
+            }
+        }
+    }
+
+    @Test
+    public void testRejectsDamagedFiles() throws IOException {
+        File file = File.createTempFile("board", ".bin");
+        file.deleteOnExit();
+        SnapshotFile.save(played(new PackedBoard(5, 6, 2)), file);
+        try (RandomAccessFile damaged = new RandomAccessFile(file, "rw")) {
+            damaged.seek(33);
+            damaged.write(damaged.read() ^ 1); // a bit of the BOMB plane
+        }
+        assertRejected(file, "checksum");
+
+        SnapshotFile.save(played(new PackedBoard(5, 6, 2)), file);
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(file.length() - 1);
+        }
+        assertRejected(file, "length");
+    }
+
+    private static void assertRejected(File file, String reason) {
+        try {
+            SnapshotFile.read(file);
+            fail("read a damaged file");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(reason));
+        }
+    }
+}
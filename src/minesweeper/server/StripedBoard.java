@@ -0,0 +1,489 @@
+package minesweeper.server;
+
+import static minesweeper.server.PackedBoard.*;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * StripedBoard represents a thread safe mutable grid of cells in multiplayer game Minesweeper, stored as
+ * PackedBoard stores them, where each band of rows is guarded by its own lock, so operations on distant
+ * cells of the board run in parallel.
+ * Cell states seen through Board are the same character set as SimpleBoard {_, ,F,B,1-8}.
+ */
+public class StripedBoard implements Board {
+    /**
+     * Default number of rows guarded by one lock.
+     */
+    public static final int STRIPE_ROWS = 16;
+
+    private final int numRows, numCols, numBombs, stripeRows;
+    private final byte[] cells;
+    private final ReentrantLock[] stripes;
+    private final RenderCache renderCache;
+    private final AtomicInteger bombCount = new AtomicInteger();
+    private final AtomicLong version = new AtomicLong(); // number of operations which changed cells
+
+    // Rep invariant
+    // the rep invariant of PackedBoard for numRows, numCols, numBombs, cells, bombCount
+    // stripeRows > 0, stripes.length == ceiling of numRows / stripeRows
+
+    // Abstraction function
+    // as PackedBoard
+
+    // Thread safety argument:
+    //    - numRows, numCols, numBombs, stripeRows, cells, stripes, renderCache are final
+    //    - 'cells' and 'stripes' point to mutable arrays, encapsulated in this object and never exposed
+    //    - cells of rows [s * stripeRows, (s + 1) * stripeRows) are read and written only while holding
+    //      stripes[s]; an operation which reads or writes cells of several rows holds the locks of all
+    //      their stripes until it returns, so every operation is atomic
+    //    - stripes are locked in ascending order, except by tryLock(), which never waits; so no deadlock
+    //    - 'bombCount' and 'version' are shared by all stripes, so they are atomic
+    //    - 'renderCache' is marked dirty while holding the stripe of the marked row, which only writes
+    //      constants, and rendered while holding all stripes
+
+    /**
+     * Construct initial Board state with STRIPE_ROWS rows per lock.
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param bombs number of Bombs; Integer.MAX_VALUE inserts a bomb in each cell with probability .25
+     */
+    public StripedBoard(int rows, int cols, int bombs) {
+        this(rows, cols, bombs, STRIPE_ROWS);
+    }
+
+    /**
+     * Construct initial Board state.
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param bombs number of Bombs; Integer.MAX_VALUE inserts a bomb in each cell with probability .25
+     * @param stripeRows number of rows guarded by one lock, > 0
+     */
+    public StripedBoard(int rows, int cols, int bombs, int stripeRows) {
+        Validation.check(rows > 0, "ASSERTION ERROR ON INPUT PARAMS! invalid rows");
+        Validation.check(cols > 0, "ASSERTION ERROR ON INPUT PARAMS! invalid cols");
+        Validation.check(bombs >= 0, "ASSERTION ERROR ON INPUT PARAMS! invalid bombs");
+        Validation.check(stripeRows > 0, "ASSERTION ERROR ON INPUT PARAMS! invalid stripeRows");
+
+        numRows = rows;
+        numCols = cols;
+        numBombs = bombs;
+        this.stripeRows = stripeRows;
+        cells = new byte[rows * cols];
+        stripes = new ReentrantLock[(rows + stripeRows - 1) / stripeRows];
+        for (int s = 0; s < stripes.length; s++) stripes[s] = new ReentrantLock();
+        renderCache = new RenderCache(rows, cols) {
+            @Override
+            char cellAt(int x, int y) {
+                char ch = toChar(cells[y * numCols + x]);
+                return ch == 'B' ? '_' : ch; // mask Bombs location for output
+            }
+        };
+
+        if (numBombs == Integer.MAX_VALUE) { // same sentinel as SimpleBoard
+            for (int y = 0; y < numRows; y++) {
+                for (int x = 0; x < numCols; x++) {
+                    if (Math.random() <= 0.25) setBomb(x, y, true, null);
+                }
+            }
+        }
+        checkRep();
+    }
+
+    /**
+     * Construct initial Board state with STRIPE_ROWS rows per lock and bombs in the given cells, e.g. of a
+     * board file.
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param bombs cells with a bomb, cell x,y at index y * cols + x
+     */
+    public StripedBoard(int rows, int cols, BitSet bombs) {
+        this(rows, cols, bombs.cardinality());
+        Validation.check(bombs.length() <= rows * cols, "ASSERTION ERROR ON INPUT PARAMS! invalid bombs");
+        for (int i = bombs.nextSetBit(0); i >= 0; i = bombs.nextSetBit(i + 1)) setBomb(i % cols, i / cols, true, null);
+        checkRep();
+    }
+
+    /**
+     * Construct a Board with STRIPE_ROWS rows per lock and the cells and version of a saved Board, see
+     * Board.copyCells().
+     * @param rows number of Board rows
+     * @param cols number of Board columns
+     * @param saved bomb and state bits of each cell, cell x,y at index y * cols + x
+     * @param version version of the saved Board
+     */
+    public StripedBoard(int rows, int cols, byte[] saved, long version) {
+        this(rows, cols, countBombs(saved));
+        Validation.check(saved.length == rows * cols, "ASSERTION ERROR ON INPUT PARAMS! invalid cells");
+        for (int y = 0, i = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++, i++) {
+                if ((saved[i] & BOMB) != 0) setBomb(x, y, true, null);
+                cells[i] = (byte) ((cells[i] & ~STATE_MASK) | (saved[i] & STATE_MASK));
+            }
+        }
+        this.version.set(version);
+        checkRep();
+    }
+
+    /**
+     * Check that the rep invariant is true. Scans the whole board, so only run by creators, if
+     * Validation.checksBoard().
+     */
+    private void checkRep() {
+        if (!Validation.checksBoard()) return;
+        int countBombs = 0;
+        Validation.check(cells.length == numRows * numCols, "ASSERTION ERROR ON BOARD SIZE!");
+        for (int i = 0; i < cells.length; i++) {
+            checkCell(i);
+            if ((cells[i] & BOMB) != 0) countBombs++;
+        }
+        Validation.check(countBombs == bombCount.get(), "ASSERTION ERROR ON COUNTBOMBS!");
+    }
+
+    /**
+     * Check the rep invariant of one cell; cheap enough to run after every mutation
+     * touching it, if Validation.checksCell().
+     */
+    private void checkCell(int i) {
+        int cell = cells[i];
+        int state = cell & STATE_MASK;
+        Validation.check(state == UNTOUCHED || state == DUG || state == FLAGGED, "ASSERTION ERROR ON CELL STATE!");
+        Validation.check((cell & BOMB) == 0 || state == UNTOUCHED, "ASSERTION ERROR ON CELL BOMB!");
+        Validation.check((cell & COUNT_MASK) <= 8, "ASSERTION ERROR ON CELL COUNT!");
+        int bombs = bombCount.get();
+        Validation.check(bombs >= 0 && bombs <= numBombs, "ASSERTION ERROR ON COUNTBOMBS!");
+    }
+
+    private void checkPosition(int posX, int posY) {
+        Validation.check(posX >= 0 && posX < numCols, "ASSERTION ERROR ON INPUT PARAMS!");
+        Validation.check(posY >= 0 && posY < numRows, "ASSERTION ERROR ON INPUT PARAMS!");
+    }
+
+    private int stripeOf(int y) {
+        return y / stripeRows;
+    }
+
+    /**
+     * Lock stripes from..to, in ascending order.
+     */
+    private void lock(int from, int to) {
+        for (int s = from; s <= to; s++) stripes[s].lock();
+    }
+
+    private void unlock(int from, int to) {
+        for (int s = from; s <= to; s++) stripes[s].unlock();
+    }
+
+    /**
+     * Set or clear the bomb bit of cell x,y, keeping the counts of its neighbours up to date.
+     * The caller holds the stripes of rows y-1..y+1.
+     * @param undo if not null, records the old value of each written cell
+     */
+    private void setBomb(int x, int y, boolean bomb, Attempt undo) {
+        int i = y * numCols + x;
+        if (((cells[i] & BOMB) != 0) == bomb) return;
+        write(i, bomb ? cells[i] | BOMB : cells[i] & ~BOMB, undo);
+        int delta = bomb ? 1 : -1;
+        bombCount.addAndGet(delta);
+        for (int ny = Math.max(0, y - 1); ny <= Math.min(numRows - 1, y + 1); ny++) {
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(numCols - 1, x + 1); nx++) {
+                if (nx == x && ny == y) continue;
+                int n = ny * numCols + nx;
+                write(n, (cells[n] & ~COUNT_MASK) | ((cells[n] & COUNT_MASK) + delta), undo);
+            }
+        }
+    }
+
+    /**
+     * Write cell i, marking its row dirty. The caller holds the stripe of the row of cell i.
+     */
+    private void write(int i, int cell, Attempt undo) {
+        if (undo != null) undo.record(i, cells[i]);
+        cells[i] = (byte) cell;
+        renderCache.markDirty(i / numCols);
+    }
+
+    @Override
+    public String getBoardState() {
+        lock(0, stripes.length - 1);
+        try {
+            return renderCache.render();
+        } finally {
+            unlock(0, stripes.length - 1);
+        }
+    }
+
+    @Override
+    public String getBoardState(long version) {
+        return version == getVersion() ? null : getBoardState(); // the version is read without locking
+    }
+
+    /**
+     * {@inheritDoc}
+     * StripedBoard does not lock its stripes for a batch, which would put every player behind one lock:
+     * each operation locks the stripes it needs, and others may interleave between them.
+     */
+    @Override
+    public void runBatch(Runnable operations) {
+        operations.run();
+    }
+
+    /**
+     * {@inheritDoc}
+     * A dug state ' ' or '1'-'8' must agree with the number of bombs adjacent to the cell,
+     * otherwise the change fails.
+     */
+    @Override
+    public boolean changeCellState(int posX, int posY, char state) {
+        checkPosition(posX, posY);
+        int from = stripeOf(Math.max(0, posY - 1)), to = stripeOf(Math.min(numRows - 1, posY + 1));
+        lock(from, to);
+        try {
+            int i = posY * numCols + posX;
+            if (toChar(cells[i]) == state) return false;
+
+            int newState;
+            switch (state) {
+            case '_': case 'B': newState = UNTOUCHED; break;
+            case 'F':           newState = FLAGGED; break;
+            case ' ':           newState = DUG; break;
+            default:
+                if (state < '1' || state > '8') return false; // Any invalid state will fail change
+                newState = DUG;
+            }
+            if (newState == DUG && (cells[i] & COUNT_MASK) != (state == ' ' ? 0 : state - '0')) return false;
+
+            setBomb(posX, posY, state == 'B', null);
+            write(i, (cells[i] & ~STATE_MASK) | newState, null);
+            if (Validation.checksCell()) checkCell(i);
+            version.incrementAndGet();
+
+            if (Validation.checksCell()) { // Asserting post-condition
+                Validation.check(toChar(cells[i]) == state, "ASSERTION ERROR ON POST-CONDITION!");
+            }
+            return true;
+        } finally {
+            unlock(from, to);
+        }
+    }
+
+    @Override
+    public char getCellState(int posX, int posY) {
+        checkPosition(posX, posY);
+        ReentrantLock stripe = stripes[stripeOf(posY)];
+        stripe.lock();
+        try {
+            return toChar(cells[posY * numCols + posX]);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public int getNeighbourBombs(int posX, int posY) {
+        checkPosition(posX, posY);
+        ReentrantLock stripe = stripes[stripeOf(posY)];
+        stripe.lock();
+        try {
+            return cells[posY * numCols + posX] & COUNT_MASK;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public int[] revealCell(int posX, int posY) {
+        checkPosition(posX, posY);
+        return dig(posX, posY, false).changed;
+    }
+
+    @Override
+    public DigResult digAt(int posX, int posY) {
+        checkPosition(posX, posY);
+        Attempt done = dig(posX, posY, true);
+        return new DigResult(done.boom, done.changed);
+    }
+
+    @Override
+    public boolean flagIfUntouched(int posX, int posY) {
+        return swapState(posX, posY, UNTOUCHED, FLAGGED);
+    }
+
+    @Override
+    public boolean deflagIfFlagged(int posX, int posY) {
+        return swapState(posX, posY, FLAGGED, UNTOUCHED);
+    }
+
+    /**
+     * Change the state of cell posX,posY from 'from' to 'to' if it has no bomb.
+     */
+    private boolean swapState(int posX, int posY, int from, int to) {
+        checkPosition(posX, posY);
+        ReentrantLock stripe = stripes[stripeOf(posY)];
+        stripe.lock();
+        try {
+            int i = posY * numCols + posX;
+            if ((cells[i] & (BOMB | STATE_MASK)) != from) return false;
+            write(i, (cells[i] & ~STATE_MASK) | to, null);
+            if (Validation.checksCell()) checkCell(i);
+            version.incrementAndGet();
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Dig cell posX,posY, holding the stripes of every row it reads or writes.
+     *
+     * The dig starts with the stripes of rows posY-1..posY+1. When the reveal reaches a row below the
+     * locked stripes, their stripe is locked too, which keeps the ascending order. A row above needs
+     * tryLock(): if that fails, the dig is undone, its stripes are unlocked and it starts again with the
+     * stripes from the missing one locked in order.
+     * @param boom true if a bomb at posX,posY should be removed, false if only an untouched cell is dug
+     */
+    private Attempt dig(int posX, int posY, boolean boom) {
+        int from = stripeOf(Math.max(0, posY - 1)), to = stripeOf(Math.min(numRows - 1, posY + 1));
+        for (;;) {
+            lock(from, to);
+            Attempt attempt = new Attempt(from, to);
+            try {
+                attempt.run(posX, posY, boom);
+                if (attempt.boom || attempt.changed.length > 0) version.incrementAndGet();
+                return attempt;
+            } catch (Escalate e) {
+                attempt.rollback();
+                from = e.stripe;
+                to = attempt.to;
+            } finally {
+                unlock(attempt.from, attempt.to);
+            }
+        }
+    }
+
+    /**
+     * Thrown when a dig needs a stripe above its locked ones which another thread holds.
+     */
+    private static final class Escalate extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int stripe;
+
+        Escalate(int stripe) {
+            super(null, null, false, false); // control flow only, no stack trace
+            this.stripe = stripe;
+        }
+    }
+
+    /**
+     * One attempt of a dig holding stripes from..to, with the old values of the cells it wrote.
+     */
+    private final class Attempt implements RevealEngine.Grid {
+        int from, to;
+        boolean boom;
+        int[] changed;
+        private int[] undo = new int[16]; // pairs of cell index, old cell value
+        private int undoSize;
+
+        Attempt(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        void run(int posX, int posY, boolean removeBomb) {
+            int i = posY * numCols + posX;
+            int[] boomChanged = new int[0];
+            if (removeBomb && (cells[i] & (BOMB | STATE_MASK)) == (BOMB | UNTOUCHED)) {
+                // BOOM: remove the bomb, dug neighbours show their new count, then reveal the cell as untouched
+                boom = true;
+                setBomb(posX, posY, false, this);
+                boomChanged = new int[8];
+                int numChanged = 0;
+                for (int ny = Math.max(0, posY - 1); ny <= Math.min(numRows - 1, posY + 1); ny++) {
+                    for (int nx = Math.max(0, posX - 1); nx <= Math.min(numCols - 1, posX + 1); nx++) {
+                        int n = ny * numCols + nx;
+                        if ((cells[n] & STATE_MASK) == DUG) boomChanged[numChanged++] = n;
+                    }
+                }
+                boomChanged = Arrays.copyOf(boomChanged, numChanged);
+            }
+            int[] revealed = new RevealEngine(numRows, numCols, this).reveal(posX, posY);
+            int[] all = Arrays.copyOf(boomChanged, boomChanged.length + revealed.length);
+            System.arraycopy(revealed, 0, all, boomChanged.length, revealed.length);
+            changed = all;
+        }
+
+        void record(int i, byte old) {
+            if (undoSize == undo.length) undo = Arrays.copyOf(undo, 2 * undoSize);
+            undo[undoSize++] = i;
+            undo[undoSize++] = old;
+        }
+
+        void rollback() {
+            while (undoSize > 0) {
+                byte old = (byte) undo[--undoSize];
+                int i = undo[--undoSize];
+                cells[i] = old;
+                renderCache.markDirty(i / numCols);
+            }
+            if (boom) bombCount.incrementAndGet();
+        }
+
+        /**
+         * Make sure the stripe of row y is locked.
+         */
+        private void enter(int y) {
+            int s = stripeOf(y);
+            if (s > to) {
+                lock(to + 1, s);
+                to = s;
+            } else if (s < from) {
+                for (int t = from - 1; t >= s; t--) {
+                    if (!stripes[t].tryLock()) throw new Escalate(s);
+                    from = t;
+                }
+            }
+        }
+
+        @Override
+        public char cellAt(int x, int y) {
+            enter(y);
+            return toChar(cells[y * numCols + x]);
+        }
+
+        @Override
+        public int neighbourBombs(int x, int y) {
+            return cells[y * numCols + x] & COUNT_MASK; // only asked after cellAt(x, y)
+        }
+
+        @Override
+        public boolean dig(int x, int y, int neighbourBombs) {
+            int i = y * numCols + x;
+            write(i, (cells[i] & ~STATE_MASK) | DUG, this);
+            return true;
+        }
+    }
+
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
+    @Override
+    public long copyCells(byte[] copy) {
+        lock(0, stripes.length - 1);
+        try {
+            for (int i = 0; i < cells.length; i++) copy[i] = (byte) (cells[i] & (BOMB | STATE_MASK));
+            return version.get();
+        } finally {
+            unlock(0, stripes.length - 1);
+        }
+    }
+
+    @Override
+    public int[] getBoardSize() {
+        return new int[] { numCols, numRows };
+    }
+}
@@ -0,0 +1,157 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * StripedBoard must behave as PackedBoard does through the Board interface, and keep each operation atomic
+ * when players work at once, see PackedBoardTest.
+ */
+public class StripedBoardTest {
+
+    // getBoardState()
+    @Test
+    public void testGetBoardState_ValidStateCharSet() {
+        Board b = new StripedBoard(3, 3, 0, 1);
+        b.changeCellState(0, 0, ' '); // add DUG cell state
+        b.changeCellState(0, 1, 'F'); // add FLAGGED cell state
+        b.changeCellState(2, 1, 'F'); // add FLAGGED cell state
+
+        String checkString =   "  _ _\r\n"
+                             + "F _ F\r\n"
+                             + "_ _ _\r\n";
+        assertEquals("String Not equals!", checkString, b.getBoardState());
+    }
+
+    // changeCellState()
+    @Test
+    public void testChangeCellState_InvalidStateCharSet() {
+        char [] invalidCellState = {'\0', 'a', 'K', '0', '9'};
+        Board b = new StripedBoard(10, 10, 4);
+        for (int i = 0; i < invalidCellState.length; i++) {
+            assertFalse(b.changeCellState(0, 0, invalidCellState[i]));
+        }
+    }
+
+    @Test
+    public void testChangeCellState_DugMatchesNeighbourCount() {
+        Board b = new StripedBoard(3, 3, 2, 1);
+        assertTrue(b.changeCellState(0, 0, 'B'));
+        assertTrue(b.changeCellState(2, 0, 'B'));
+        assertFalse(b.changeCellState(1, 1, '1'));
+        assertTrue(b.changeCellState(1, 1, '2'));
+        assertEquals(2, b.getNeighbourBombs(1, 1));
+    }
+
+    // digAt(), flagIfUntouched(), deflagIfFlagged()
+    @Test
+    public void testDigAt_RevealAcrossStripes() {
+        Board b = new StripedBoard(10, 4, 1, 2);
+        b.changeCellState(3, 0, 'B');
+        DigResult result = b.digAt(0, 9); // reveal spreads to stripes above the locked ones
+        assertFalse(result.isBoom());
+        assertEquals(39, result.getNumChangedCells());
+        assertEquals('1', b.getCellState(2, 0));
+        assertEquals('B', b.getCellState(3, 0)); // the bomb is not dug
+    }
+
+    @Test
+    public void testDigAt_Boom() {
+        Board b = new StripedBoard(3, 3, 1, 1);
+        b.changeCellState(1, 1, 'B');
+        b.digAt(0, 0);
+        DigResult result = b.digAt(1, 1);
+        assertTrue(result.isBoom());
+        assertEquals(' ', b.getCellState(0, 0));
+        assertEquals("     \r\n     \r\n     \r\n", b.getBoardState());
+        assertEquals(9, result.getNumChangedCells()); // (0,0) shows its new count, the others are dug
+    }
+
+    @Test
+    public void testFlagIfUntouched_DeflagIfFlagged() {
+        Board b = new StripedBoard(2, 2, 1);
+        b.changeCellState(1, 1, 'B');
+        assertFalse(b.flagIfUntouched(1, 1)); // as SimpleBoard, only '_' cells are flagged
+        assertTrue(b.flagIfUntouched(0, 0));
+        assertFalse(b.flagIfUntouched(0, 0));
+        assertTrue(b.deflagIfFlagged(0, 0));
+        assertFalse(b.deflagIfFlagged(0, 0));
+    }
+
+    // concurrency
+    @Test
+    public void testDigAt_ConcurrentDigsRevealEachCellOnce() throws InterruptedException {
+        final int size = 400;
+        final Board b = new StripedBoard(size, size, 0, 4);
+        final AtomicInteger dug = new AtomicInteger();
+        Thread[] players = new Thread[8];
+        for (int p = 0; p < players.length; p++) {
+            final int row = p * size / players.length;
+            players[p] = new Thread(new Runnable() {
+                public void run() {
+                    dug.addAndGet(b.digAt(row, row).getNumChangedCells());
+                }
+            });
+        }
+        for (Thread player : players) player.start();
+        for (Thread player : players) player.join();
+        assertEquals(size * size, dug.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testRunBatch_DistantDigsOfTwoSessionsInParallel() throws InterruptedException {
+        final Board b = new StripedBoard(40, 4, 2, 4);
+        b.changeCellState(0, 1, 'B');
+        b.changeCellState(0, 38, 'B');
+        final MinesweeperSession first = new MinesweeperSession(b), second = new MinesweeperSession(b);
+        b.runBatch(new Runnable() { // the batch of the first session, still running while the second one digs
+            public void run() {
+                first.handleRequest("dig 1 0");
+                Thread other = new Thread(new Runnable() {
+                    public void run() {
+                        second.handleBatch(Arrays.asList("dig 1 39"));
+                    }
+                });
+                other.setDaemon(true);
+                other.start();
+                try {
+                    other.join(5000);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                assertFalse("the dig on a distant stripe waited for the batch", other.isAlive());
+            }
+        });
+        assertEquals('1', b.getCellState(1, 0));
+        assertEquals('1', b.getCellState(1, 39));
+    }
+
+    @Test
+    public void testFlagIfUntouched_ConcurrentFlagsNotLost() throws InterruptedException {
+        final int size = 64;
+        final Board b = new StripedBoard(size, size, 0, 4);
+        final AtomicInteger flagged = new AtomicInteger();
+        Thread[] players = new Thread[8];
+        for (int p = 0; p < players.length; p++) {
+            players[p] = new Thread(new Runnable() {
+                public void run() {
+                    for (int y = 0; y < size; y++) {
+                        for (int x = 0; x < size; x++) {
+                            if (b.flagIfUntouched(x, y)) flagged.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread player : players) player.start();
+        for (Thread player : players) player.join();
+        assertEquals(size * size, flagged.get()); // each cell flagged by exactly one player
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) assertEquals('F', b.getCellState(x, y));
+        }
+    }
+}
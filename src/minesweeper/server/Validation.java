@@ -0,0 +1,84 @@
+package minesweeper.server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Validation sets how much of their rep invariant the Board implementations check, and is how they
+ * check it, instead of org.junit.Assert, which production code must not depend on.
+ *
+ * Each board checks its whole rep invariant with checkRep() when it is created, and after a mutation
+ * only the cells the mutation touched and its count of bombs with checkCell(), so checking costs
+ * no more than the mutation itself. The level chooses which of those checks run:
+ *
+ *   OFF      none, for a server in production mode
+ *   SAMPLED  checkRep() when a board is created, and checkCell() for one touched cell in SAMPLE_PERIOD,
+ *            chosen at random, so a long running server still catches a broken invariant sooner or later
+ *   FULL     checkRep() when a board is created, and checkCell() for every touched cell (the default)
+ *
+ * Checks of the arguments of an operation, with check(), run at every level.
+ */
+final class Validation {
+    static final int OFF = 0, SAMPLED = 1, FULL = 2;
+    static final int SAMPLE_PERIOD = 64;
+    private static final String[] NAMES = { "off", "sampled", "full" };
+
+    private static volatile int level = FULL;
+
+    // Thread safety argument:
+    //    - 'level' is volatile, set once before the server starts and read by every board operation
+
+    private Validation() {
+    }
+
+    /**
+     * @return the validation level, OFF, SAMPLED or FULL
+     */
+    static int getLevel() {
+        return level;
+    }
+
+    /**
+     * Set the validation level of all boards, before they are created.
+     * @param newLevel OFF, SAMPLED or FULL
+     */
+    static void setLevel(int newLevel) {
+        check(newLevel >= OFF && newLevel <= FULL, "ASSERTION ERROR ON INPUT PARAMS! invalid level");
+        level = newLevel;
+    }
+
+    /**
+     * @param name "off", "sampled" or "full"
+     * @return the level of that name
+     * @throws IllegalArgumentException if name is none of them
+     */
+    static int parse(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) return i;
+        }
+        throw new IllegalArgumentException("unknown validation level: \"" + name + "\"");
+    }
+
+    /**
+     * @return true if checkRep() should scan the whole board, once per board created
+     */
+    static boolean checksBoard() {
+        return level != OFF;
+    }
+
+    /**
+     * @return true if checkCell() should check the cell a mutation touched
+     */
+    static boolean checksCell() {
+        int current = level;
+        return current == FULL || (current == SAMPLED && ThreadLocalRandom.current().nextInt(SAMPLE_PERIOD) == 0);
+    }
+
+    /**
+     * @param condition condition that must hold
+     * @param message message of the error if it does not
+     * @throws AssertionError if condition is false
+     */
+    static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
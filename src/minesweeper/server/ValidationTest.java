@@ -0,0 +1,75 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Validation levels must choose which rep invariant checks the boards run: at FULL a broken invariant
+ * is caught at the mutation that broke it, at OFF nothing is checked, and argument checks run at every
+ * level.
+ */
+public class ValidationTest {
+
+    @After
+    public void restoreLevel() {
+        Validation.setLevel(Validation.FULL); // the default, the other tests rely on it
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(Validation.OFF, Validation.parse("off"));
+        assertEquals(Validation.SAMPLED, Validation.parse("sampled"));
+        assertEquals(Validation.FULL, Validation.parse("full"));
+        try {
+            Validation.parse("some");
+            fail("parsed an unknown level");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testFullCatchesTooManyBombs() {
+        Board[] boards = { new SimpleBoard(3, 3, 1), new PackedBoard(3, 3, 1), new StripedBoard(3, 3, 1),
+                new AtomicBoard(3, 3, 1), new SnapshotBoard(3, 3, 1) };
+        for (Board board : boards) {
+            board.changeCellState(0, 0, 'B');
+            try {
+                board.changeCellState(1, 0, 'B');
+                fail(board.getClass().getSimpleName() + " took more bombs than its limit");
+            } catch (AssertionError expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testOffSkipsInvariantChecks() {
+        Validation.setLevel(Validation.OFF);
+        Board[] boards = { new SimpleBoard(3, 3, 1), new PackedBoard(3, 3, 1), new StripedBoard(3, 3, 1),
+                new AtomicBoard(3, 3, 1), new SnapshotBoard(3, 3, 1) };
+        for (Board board : boards) {
+            assertTrue(board.changeCellState(0, 0, 'B'));
+            assertTrue(board.changeCellState(1, 0, 'B')); // unchecked, as in production mode
+            assertFalse(board.digAt(0, 1).isBoom());
+            assertEquals('2', board.getCellState(0, 1));
+        }
+    }
+
+    @Test
+    public void testSampledChecksSomeMutations() {
+        Validation.setLevel(Validation.SAMPLED);
+        int checked = 0;
+        for (int i = 0; i < 100 * Validation.SAMPLE_PERIOD; i++) {
+            if (Validation.checksCell()) checked++;
+        }
+        assertTrue("checked " + checked, checked > 0 && checked < 100 * Validation.SAMPLE_PERIOD);
+        assertTrue(Validation.checksBoard());
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testArgumentsCheckedWhenOff() {
+        Validation.setLevel(Validation.OFF);
+        new PackedBoard(0, 3, 1);
+    }
+}